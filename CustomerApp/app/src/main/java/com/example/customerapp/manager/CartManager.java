@@ -3,10 +3,13 @@ package com.example.customerapp.manager;
 import com.example.customerapp.model.CartItem;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class CartManager {
     private static CartManager instance;
     private final List<CartItem> cartItems = new ArrayList<>();
+    // Names the cart's stock reservations, which its checkout takes over; a new cart gets a new one
+    private String cartId = UUID.randomUUID().toString();
 
     private CartManager() {}
 
@@ -30,7 +33,31 @@ public class CartManager {
         return new ArrayList<>(cartItems);
     }
 
+    /**
+     * The cart's lines from one store, with item added to them.
+     */
+    public List<CartItem> getStoreItemsWith(CartItem item) {
+        List<CartItem> items = new ArrayList<>();
+        boolean merged = false;
+        for (CartItem ci : cartItems) {
+            if (!ci.storeName.equals(item.storeName)) continue;
+            if (ci.productName.equals(item.productName)) {
+                items.add(new CartItem(ci.storeName, ci.productName, ci.quantity + item.quantity, ci.priceAtAddTime));
+                merged = true;
+            } else {
+                items.add(ci);
+            }
+        }
+        if (!merged) items.add(item);
+        return items;
+    }
+
+    public String getCartId() {
+        return cartId;
+    }
+
     public void clearCart() {
         cartItems.clear();
+        cartId = UUID.randomUUID().toString();
     }
 }
@@ -3,17 +3,17 @@ package com.example.customerapp.network;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
-import java.util.HashMap;
 import java.util.Map;
 import com.example.customerapp.model.ProductItem;
 import com.example.customerapp.model.StoreItem;
 import com.example.customerapp.model.CartItem;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
 
 /**
  * Singleton that embeds the original console‑based Customer code inside an
@@ -30,13 +30,16 @@ public class CustomerClient {
     private static final String TAG = "CustomerClient";
     private static final String MASTER_HOST = "10.0.2.2"; // Host PC when using Android emulator
     private static final int    MASTER_PORT = 5055;
+    private static final int    LOGO_PORT   = 5056;
     private static final double DEFAULT_RADIUS = 5.0; // km
 
     private static CustomerClient instance;
 
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream  in;
+    private MasterConnection connection;
+    private volatile File cacheDir;
+    // The last checkout that may still need sending again, and the request ID it went with
+    private String unfinishedCheckout;
+    private String unfinishedCheckoutId;
 
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
@@ -49,6 +52,14 @@ public class CustomerClient {
 
     // ---------- public API ----------
 
+    /**
+     * Directory where store logos fetched from the Master are cached. Without one,
+     * logos come from the app's bundled assets.
+     */
+    public void setCacheDir(File dir) {
+        cacheDir = dir;
+    }
+
     public void findStores(double latitude, double longitude,
                            String filterType, String category, int minStars, int maxPrice,
                            Callback<List<StoreItem>> cb) {
@@ -58,10 +69,9 @@ public class CustomerClient {
                 String cmd = String.format("findStores|%f|%f|%f|%s|%s|%d|%d",
                         latitude, longitude, DEFAULT_RADIUS,
                         filterType, category, minStars, maxPrice);
-                out.writeObject(cmd);
-                out.flush();
-                Object resp = in.readObject();
-                List<StoreItem> result = parseStores((String) resp);
+                connection.send(cmd);
+                Object resp = connection.receive();
+                List<StoreItem> result = withServerLogos(parseStores((String) resp));
                 postSuccess(cb, result);
             } catch (Exception e) { postError(cb, e); }
         });
@@ -71,49 +81,101 @@ public class CustomerClient {
         runOnIoThread(() -> {
             try {
                 ensureConnection();
-                out.writeObject("getStoreProducts|" + storeName);
-                out.flush();
-                Object resp = in.readObject();
+                connection.send("getStoreProducts|" + storeName);
+                Object resp = connection.receive();
                 List<ProductItem> products = parseProducts((String) resp);
                 postSuccess(cb, products);
             } catch (Exception e) { postError(cb, e); }
         });
     }
 
-    public void checkout(List<CartItem> cart, Callback<String> cb) {
+    /**
+     * Reserve a cart's lines from one store, so their stock is still there at checkout.
+     * The lines are all of the cart's lines from that store; none gives the stock back.
+     */
+    public void reserve(String cartId, String storeName, List<CartItem> storeItems, Callback<String> cb) {
+        runOnIoThread(() -> {
+            try {
+                ensureConnection();
+                StringBuilder sb = new StringBuilder("reserve|").append(cartId).append("|").append(storeName);
+                for (CartItem ci : storeItems) {
+                    sb.append("|")
+                            .append(ci.productName)
+                            .append(",")
+                            .append(ci.quantity);
+                }
+                connection.send(sb.toString());
+                String resp = String.valueOf(connection.receive());
+                if (resp.startsWith("Reserved") || resp.startsWith("Released")) {
+                    postSuccess(cb, resp);
+                } else {
+                    postError(cb, new IOException(resp));
+                }
+            } catch (Exception e) { postError(cb, e); }
+        });
+    }
+
+    /**
+     * Give back the stock a cart's stores hold for it. Best effort: a reservation not
+     * given back expires after a few minutes anyway.
+     */
+    public void releaseReservations(String cartId, Collection<String> storeNames) {
+        runOnIoThread(() -> {
+            try {
+                ensureConnection();
+                for (String storeName : storeNames) {
+                    connection.send("reserve|" + cartId + "|" + storeName);
+                    connection.receive();
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Could not release the cart's reservations", e);
+            }
+        });
+    }
+
+    public void checkout(String cartId, List<CartItem> cart, Callback<String> cb) {
         runOnIoThread(() -> {
             try {
                 ensureConnection();
 
-                // Group by store
-                Map<String,List<CartItem>> byStore = new HashMap<>();
+                // Group by store, in a fixed order so the same cart makes the same checkout
+                Map<String,List<CartItem>> byStore = new TreeMap<>();
                 for (CartItem ci : cart) {
                     byStore
                             .computeIfAbsent(ci.storeName, k -> new ArrayList<>())
                             .add(ci);
                 }
 
-                // For each store send a buy|... command
-                StringBuilder sb = new StringBuilder();
-                // pick first store only? Or loop if you want multi-store in one string,
-                // but handleBuy only supports one store per command:
+                // One checkout for the whole cart: the Master has every store hold its lines,
+                // taking over the cart's reservations, then buys them all or none
+                StringBuilder sb = new StringBuilder("checkout|").append(cartId).append("|");
                 for (Map.Entry<String,List<CartItem>> e : byStore.entrySet()) {
-                    sb.setLength(0);
-                    sb.append("buy|").append(e.getKey());
+                    if (sb.charAt(sb.length() - 1) != '|') sb.append(";");
+                    sb.append(e.getKey());
                     for (CartItem ci : e.getValue()) {
                         sb.append("|")
                                 .append(ci.productName)
                                 .append(",")
                                 .append(ci.quantity);
                     }
-                    out.writeObject(sb.toString());
-                    out.flush();
-                    Object resp = in.readObject();
-                    // optionally collect or notify on resp
                 }
+                String checkout = sb.toString();
+                // Sending the same checkout again reuses its request ID, so the Master never
+                // applies it twice; anything else is a new attempt with a new ID
+                connection.send("#" + checkoutIdFor(checkout) + " " + checkout);
+                String resp = String.valueOf(connection.receive());
 
-                postSuccess(cb, "All stores purchased");
+                // Only an answer asking for a retry leaves the checkout unfinished
+                if (!resp.contains("retry the checkout")) {
+                    checkoutFinished(checkout);
+                }
+                if (resp.startsWith("Success")) {
+                    postSuccess(cb, resp);
+                } else {
+                    postError(cb, new IOException(resp));
+                }
             } catch (Exception ex) {
+                // No answer: it may have gone through, so a resend keeps the ID
                 postError(cb, ex);
             }
         });
@@ -121,30 +183,35 @@ public class CustomerClient {
 
     // ------- internal helpers -------
 
+    private synchronized String checkoutIdFor(String checkout) {
+        if (!checkout.equals(unfinishedCheckout)) {
+            unfinishedCheckout = checkout;
+            unfinishedCheckoutId = UUID.randomUUID().toString();
+        }
+        return unfinishedCheckoutId;
+    }
+
+    private synchronized void checkoutFinished(String checkout) {
+        if (checkout.equals(unfinishedCheckout)) {
+            unfinishedCheckout = null;
+            unfinishedCheckoutId = null;
+        }
+    }
+
     private synchronized void ensureConnection() throws IOException {
-        if (socket != null) {
+        if (connection != null) {
             try {
-                // close streams first to be safe
-                if (out != null) {
-                    out.close();
-                    out = null;
-                }
-                if (in != null) {
-                    in.close();
-                    in = null;
-                }
-                socket.close();
+                connection.close();
             } catch (IOException e) {
                 Log.w(TAG, "Error closing existing connection", e);
             } finally {
-                socket = null;
+                connection = null;
             }
         }
-        socket = new Socket(MASTER_HOST, MASTER_PORT);
-        out = new ObjectOutputStream(socket.getOutputStream());
-        out.flush();
-        in  = new ObjectInputStream(socket.getInputStream());
-        Log.d(TAG, "Connected to Master at " + MASTER_HOST + ":" + MASTER_PORT);
+        // Binary protocol when the Master supports it, Object streams otherwise
+        connection = MasterConnection.open(MASTER_HOST, MASTER_PORT);
+        Log.d(TAG, "Connected to Master at " + MASTER_HOST + ":" + MASTER_PORT +
+                (connection.isBinary() ? " (binary protocol)" : " (Object streams)"));
     }
 
     private List<StoreItem> parseStores(String payload) {
@@ -166,6 +233,28 @@ public class CustomerClient {
         return list;
     }
 
+    /**
+     * Replace the bundled logo paths with thumbnails from the Master's logo server,
+     * all fetched over one connection. Stores the server has no logo for, or every
+     * store if the server can't be reached, keep the bundled logo.
+     */
+    private List<StoreItem> withServerLogos(List<StoreItem> stores) {
+        File dir = cacheDir;
+        if (dir == null || stores.isEmpty()) return stores;
+        List<StoreItem> list = new ArrayList<>(stores.size());
+        try (LogoClient logos = new LogoClient(MASTER_HOST, LOGO_PORT, dir)) {
+            for (StoreItem s : stores) {
+                File logo = logos.thumbnail(s.getTitle());
+                list.add(logo == null ? s : new StoreItem(s.getTitle(), s.getCategory(),
+                        s.getPriceRange(), s.getStars(), logo.getAbsolutePath()));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Logo server unavailable, using bundled logos", e);
+            for (int i = list.size(); i < stores.size(); i++) list.add(stores.get(i));
+        }
+        return list;
+    }
+
     private List<ProductItem> parseProducts(String payload) {
         List<ProductItem> list = new ArrayList<>();
         if (payload == null || payload.equals("Store not found") || payload.equals("No products available"))
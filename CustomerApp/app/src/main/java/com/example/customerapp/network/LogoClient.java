@@ -0,0 +1,113 @@
+package com.example.customerapp.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Fetches store logo thumbnails from the Master's logo server and keeps them in the
+ * app's cache directory. Each cached logo has its content hash next to it; the hash is
+ * sent with the request so an unchanged logo costs a few bytes instead of the image.
+ *
+ * Wire format mirrors the backend's Master.LogoServer; keep them in sync.
+ */
+class LogoClient implements Closeable {
+    private static final byte VARIANT_THUMBNAIL = 1;
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_NOT_MODIFIED = 1;
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final long MAX_LOGO_BYTES = 4 * 1024 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final File dir;
+
+    LogoClient(String host, int port, File cacheDir) throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        dir = new File(cacheDir, "logos");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+    }
+
+    /**
+     * @return the cached thumbnail for the store, refreshed if the Master has a newer one,
+     *         or null if the Master has no logo for it
+     */
+    File thumbnail(String storeName) throws IOException {
+        String key = fileKey(storeName);
+        File hashFile = new File(dir, key + ".hash");
+        String knownHash = hashFile.exists()
+                ? new String(Files.readAllBytes(hashFile.toPath()), StandardCharsets.UTF_8) : "";
+        // The image is named after its hash, so Glide never shows a stale logo from its cache
+        File cached = new File(dir, key + "-" + knownHash + ".png");
+        if (!cached.exists()) knownHash = "";
+
+        out.writeUTF(storeName);
+        out.writeByte(VARIANT_THUMBNAIL);
+        out.writeUTF(knownHash);
+        out.flush();
+
+        byte status = in.readByte();
+        String hash = in.readUTF();
+        if (status == STATUS_NOT_MODIFIED) {
+            return cached;
+        }
+        if (status != STATUS_OK) {
+            return null;
+        }
+        long length = in.readLong();
+        if (length < 0 || length > MAX_LOGO_BYTES) {
+            throw new IOException("Invalid logo length: " + length);
+        }
+
+        // Write to a temp file first so a failed download never replaces a good logo
+        File temp = new File(dir, key + ".tmp");
+        try (OutputStream file = new FileOutputStream(temp)) {
+            byte[] buffer = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) throw new IOException("Logo download cut short");
+                file.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        File image = new File(dir, key + "-" + hash + ".png");
+        if (!temp.renameTo(image)) {
+            throw new IOException("Cannot store logo " + image);
+        }
+        Files.write(hashFile.toPath(), hash.getBytes(StandardCharsets.UTF_8));
+        if (!cached.equals(image)) cached.delete();
+        return image;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // Store names contain spaces and apostrophes; keep file names to a safe set
+    private static String fileKey(String storeName) {
+        StringBuilder key = new StringBuilder();
+        for (char c : storeName.toCharArray()) {
+            key.append(Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return key.append('-').append(Integer.toHexString(storeName.hashCode())).toString();
+    }
+}
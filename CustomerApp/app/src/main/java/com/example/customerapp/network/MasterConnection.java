@@ -0,0 +1,285 @@
+package com.example.customerapp.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Connection to the Master that speaks the binary protocol when the Master supports it
+ * and falls back to Object streams otherwise.
+ *
+ * Client-side subset of the backend's Protocol package (MessageChannels / WireCodec):
+ * the app only sends command strings and receives string responses, so only those
+ * opcodes are implemented here. Keep the constants in sync with the backend.
+ *
+ * Asks the Master to deflate large responses (search results, store lists); the app
+ * only inflates and never compresses its own small commands.
+ */
+class MasterConnection implements Closeable {
+    private static final byte[] MAGIC = {'D', 'S', 'B'};
+    private static final byte VERSION = 2;
+
+    // Compression ids from the backend's Protocol.Compression
+    static final byte COMPRESSION_NONE = 0;
+    static final byte COMPRESSION_FAST = 1;
+    static final byte COMPRESSION_HIGH_RATIO = 2;
+    private static final int COMPRESSED_FLAG = 0x80000000;
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+    private static final byte NULL = 0x00;
+    private static final byte STRING = 0x01;
+    private static final byte CMD_FIND_STORES = 0x20;
+    private static final byte CMD_BUY = 0x21;
+    private static final byte CMD_GET_STORE_PRODUCTS = 0x22;
+    private static final byte CMD_SEARCH = 0x23;
+
+    // Set once the Master answered a hello with Object streams
+    private static volatile boolean masterIsLegacy;
+    // Codec asked for on new connections; HIGH_RATIO suits slow mobile links best
+    static volatile byte preferredCompression = COMPRESSION_FAST;
+
+    private final Socket socket;
+    private final boolean binary;
+    private DataInputStream dataIn;
+    private DataOutputStream dataOut;
+    private ObjectInputStream objectIn;
+    private ObjectOutputStream objectOut;
+    private Inflater inflater;
+
+    private MasterConnection(Socket socket, boolean binary) {
+        this.socket = socket;
+        this.binary = binary;
+    }
+
+    static MasterConnection open(String host, int port) throws IOException {
+        if (!masterIsLegacy) {
+            Socket socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            try {
+                socket.getOutputStream().write(new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], VERSION, preferredCompression});
+                socket.getOutputStream().flush();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                byte[] answer = new byte[4];
+                in.readFully(answer);
+                if (answer[0] == MAGIC[0] && answer[1] == MAGIC[1] && answer[2] == MAGIC[2] && answer[3] >= 1) {
+                    // Version 2 answers carry the agreed codec; frames say themselves if they are compressed
+                    if (answer[3] >= 2) in.readUnsignedByte();
+                    MasterConnection connection = new MasterConnection(socket, true);
+                    connection.dataIn = in;
+                    connection.dataOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    return connection;
+                }
+            } catch (EOFException e) {
+                // Closed without answering: an older Master
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            socket.close();
+            masterIsLegacy = true;
+        }
+
+        Socket socket = new Socket(host, port);
+        MasterConnection connection = new MasterConnection(socket, false);
+        connection.objectOut = new ObjectOutputStream(socket.getOutputStream());
+        connection.objectOut.flush();
+        connection.objectIn = new ObjectInputStream(socket.getInputStream());
+        return connection;
+    }
+
+    boolean isBinary() {
+        return binary;
+    }
+
+    void send(String command) throws IOException {
+        if (!binary) {
+            objectOut.writeObject(command);
+            objectOut.flush();
+            return;
+        }
+        byte[] frame = encode(command);
+        dataOut.writeInt(frame.length);
+        dataOut.write(frame);
+        dataOut.flush();
+    }
+
+    Object receive() throws IOException, ClassNotFoundException {
+        if (!binary) {
+            return objectIn.readObject();
+        }
+        int header = dataIn.readInt();
+        int length = header & ~COMPRESSED_FLAG;
+        if (length <= 0 || length > MAX_FRAME_BYTES) throw new StreamCorruptedException("Invalid frame length: " + length);
+        byte[] frame = new byte[length];
+        dataIn.readFully(frame);
+        if ((header & COMPRESSED_FLAG) != 0) frame = inflate(frame);
+        byte opcode = frame[0];
+        if (opcode == NULL) return null;
+        if (opcode != STRING) throw new StreamCorruptedException("Unexpected opcode: " + opcode);
+        int[] position = {1};
+        return readString(frame, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (inflater != null) inflater.end();
+        socket.close();
+    }
+
+    // Compressed frame: uncompressed length, then the deflated bytes
+    private byte[] inflate(byte[] frame) throws IOException {
+        if (frame.length < 4) throw new StreamCorruptedException("Truncated compressed frame");
+        int rawLength = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+        if (rawLength <= 0 || rawLength > MAX_FRAME_BYTES) throw new StreamCorruptedException("Invalid frame length: " + rawLength);
+        if (inflater == null) inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(frame, 4, frame.length - 4);
+        byte[] raw = new byte[rawLength];
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (length != rawLength) throw new StreamCorruptedException("Compressed frame is truncated");
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        }
+        return raw;
+    }
+
+    // Same rules as the backend's WireCodec: pack a command only if it decodes back unchanged
+    private static byte[] encode(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        String[] parts = text.split("\\|", -1);
+        boolean packed = false;
+        try {
+            if (text.startsWith("findStores|") && parts.length == 8) {
+                long latitude = parseMicros(parts[1]);
+                long longitude = parseMicros(parts[2]);
+                long radius = parseMicros(parts[3]);
+                int minStars = Integer.parseInt(parts[6]);
+                int maxPrice = Integer.parseInt(parts[7]);
+                if (Integer.toString(minStars).equals(parts[6]) && Integer.toString(maxPrice).equals(parts[7])) {
+                    out.writeByte(CMD_FIND_STORES);
+                    writeVarLong(out, latitude);
+                    writeVarLong(out, longitude);
+                    writeVarLong(out, radius);
+                    writeString(out, parts[4]);
+                    writeString(out, parts[5]);
+                    writeVarInt(out, minStars);
+                    writeVarInt(out, maxPrice);
+                    packed = true;
+                }
+            } else if (text.startsWith("buy|") && parts.length == 4) {
+                int quantity = Integer.parseInt(parts[3]);
+                if (quantity >= 0 && Integer.toString(quantity).equals(parts[3])) {
+                    out.writeByte(CMD_BUY);
+                    writeString(out, parts[1]);
+                    writeString(out, parts[2]);
+                    writeVarInt(out, quantity);
+                    packed = true;
+                }
+            } else if (text.startsWith("getStoreProducts|")) {
+                out.writeByte(CMD_GET_STORE_PRODUCTS);
+                writeString(out, text.substring("getStoreProducts|".length()));
+                packed = true;
+            } else if (text.startsWith("search ")) {
+                out.writeByte(CMD_SEARCH);
+                writeString(out, text.substring("search ".length()));
+                packed = true;
+            }
+        } catch (NumberFormatException e) {
+            packed = false;
+        }
+        if (!packed) {
+            bytes.reset();
+            out.writeByte(STRING);
+            writeString(out, text);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // %f output (exactly six decimals, no leading zeros) as a count of millionths
+    private static long parseMicros(String text) {
+        boolean negative = text.startsWith("-");
+        int start = negative ? 1 : 0;
+        int dot = text.indexOf('.');
+        if (dot <= start || text.length() - dot - 1 != 6 || (text.charAt(start) == '0' && dot - start > 1)) {
+            throw new NumberFormatException(text);
+        }
+        long value = 0;
+        for (int i = start; i < text.length(); i++) {
+            if (i == dot) continue;
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || value > Long.MAX_VALUE / 10 - 9) throw new NumberFormatException(text);
+            value = value * 10 + (c - '0');
+        }
+        if (negative && value == 0) throw new NumberFormatException(text);
+        return negative ? -value : value;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(byte[] frame, int[] position) throws IOException {
+        int length = readVarInt(frame, position) - 1;
+        if (length < 0) return null;
+        String value = new String(frame, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return value;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            out.writeByte((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte(zigzag);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static int readVarInt(byte[] frame, int[] position) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position[0] >= frame.length) throw new StreamCorruptedException("Truncated frame");
+            int b = frame[position[0]++] & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (result >>> 1) ^ -(result & 1);
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+}
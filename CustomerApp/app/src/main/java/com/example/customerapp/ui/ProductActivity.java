@@ -23,7 +23,9 @@ import com.example.customerapp.model.ProductItem;
 import com.example.customerapp.network.CustomerClient;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ProductActivity extends AppCompatActivity {
 
@@ -104,13 +106,28 @@ public class ProductActivity extends AppCompatActivity {
 
         btnClose.setOnClickListener(v -> dlg.dismiss());
         btnAdd.setOnClickListener(v -> {
-            CartManager.getInstance().addItem(
-                    new CartItem(currentStore, p.getProductName(), qty[0], p.getPrice())
+            // The store holds the cart's stock for a while, so it doesn't sell out before checkout
+            CartItem item = new CartItem(currentStore, p.getProductName(), qty[0], p.getPrice());
+            CartManager cart = CartManager.getInstance();
+            btnAdd.setEnabled(false);
+            CustomerClient.getInstance().reserve(
+                    cart.getCartId(), currentStore, cart.getStoreItemsWith(item),
+                    new CustomerClient.Callback<String>() {
+                        @Override public void onSuccess(String resp) {
+                            cart.addItem(item);
+                            Toast.makeText(ProductActivity.this,
+                                    "Added " + item.quantity + "× " + item.productName + " to cart",
+                                    Toast.LENGTH_SHORT).show();
+                            dlg.dismiss();
+                        }
+                        @Override public void onError(Exception e) {
+                            btnAdd.setEnabled(true);
+                            Toast.makeText(ProductActivity.this,
+                                    "Could not add to cart: " + e.getMessage(),
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    }
             );
-            Toast.makeText(this,
-                    "Added " + qty[0] + "× " + p.getProductName() + " to cart",
-                    Toast.LENGTH_SHORT).show();
-            dlg.dismiss();
         });
 
         dlg.show();
@@ -135,6 +152,7 @@ public class ProductActivity extends AppCompatActivity {
         btnClose.setOnClickListener(v -> dlg.dismiss());
         btnCheckout.setOnClickListener(v -> {
             CustomerClient.getInstance().checkout(
+                    CartManager.getInstance().getCartId(),
                     items,
                     new CustomerClient.Callback<String>() {
                         @Override public void onSuccess(String resp) {
@@ -156,6 +174,12 @@ public class ProductActivity extends AppCompatActivity {
         });
 
         btnEmpty.setOnClickListener(v -> {
+            // Give back the stock the cart's stores hold for it
+            Set<String> stores = new HashSet<>();
+            for (CartItem ci : items) {
+                stores.add(ci.storeName);
+            }
+            CustomerClient.getInstance().releaseReservations(CartManager.getInstance().getCartId(), stores);
             CartManager.getInstance().clearCart();
             items.clear();                // clear the local list too
             adapter.notifyDataSetChanged();// refresh the RecyclerView
@@ -49,6 +49,7 @@ public class ResultsActivity extends AppCompatActivity {
         else if (price<3)       filterType = "price";
 
         progress.setVisibility(View.VISIBLE);
+        CustomerClient.getInstance().setCacheDir(getCacheDir());
         CustomerClient.getInstance().findStores(lat, lon, filterType, category, stars, price,
                 new CustomerClient.Callback<List<StoreItem>>() {
                     @Override public void onSuccess(List<StoreItem> data) {
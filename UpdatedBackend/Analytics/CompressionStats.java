@@ -0,0 +1,105 @@
+package Analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Counters for wire compression on one node: how many frames were compressed, their size
+ * before and after, and the CPU time spent compressing and decompressing. Mergeable so
+ * the Reducer can total them per node and cluster-wide.
+ */
+public class CompressionStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long compressedFrames;
+    private long rawBytes;
+    private long compressedBytes;
+    private long compressNanos;
+    private long decompressedFrames;
+    private long decompressNanos;
+
+    public synchronized void recordCompressed(int rawLength, int compressedLength, long nanos) {
+        compressedFrames++;
+        rawBytes += rawLength;
+        compressedBytes += compressedLength;
+        compressNanos += nanos;
+    }
+
+    public synchronized void recordDecompressed(long nanos) {
+        decompressedFrames++;
+        decompressNanos += nanos;
+    }
+
+    public synchronized void merge(CompressionStats other) {
+        CompressionStats snapshot = other.copy();
+        compressedFrames += snapshot.compressedFrames;
+        rawBytes += snapshot.rawBytes;
+        compressedBytes += snapshot.compressedBytes;
+        compressNanos += snapshot.compressNanos;
+        decompressedFrames += snapshot.decompressedFrames;
+        decompressNanos += snapshot.decompressNanos;
+    }
+
+    public synchronized CompressionStats copy() {
+        CompressionStats copy = new CompressionStats();
+        copy.compressedFrames = compressedFrames;
+        copy.rawBytes = rawBytes;
+        copy.compressedBytes = compressedBytes;
+        copy.compressNanos = compressNanos;
+        copy.decompressedFrames = decompressedFrames;
+        copy.decompressNanos = decompressNanos;
+        return copy;
+    }
+
+    /**
+     * Hand over the counts since the last call and start again from zero.
+     */
+    public synchronized CompressionStats drain() {
+        CompressionStats snapshot = copy();
+        compressedFrames = rawBytes = compressedBytes = compressNanos = 0;
+        decompressedFrames = decompressNanos = 0;
+        return snapshot;
+    }
+
+    public synchronized boolean isEmpty() {
+        return compressedFrames == 0 && decompressedFrames == 0;
+    }
+
+    public synchronized long getBytesSaved() {
+        return rawBytes - compressedBytes;
+    }
+
+    /**
+     * One-line summary, e.g. "frames=120 raw=1200.0KB sent=310.0KB saved=74% cpu=8.1ms
+     * ~711ms less transfer at 10 Mbit/s". The transfer estimate assumes the given link speed.
+     */
+    public synchronized String summary(double linkMbps) {
+        double savedPercent = rawBytes == 0 ? 0.0 : 100.0 * (rawBytes - compressedBytes) / rawBytes;
+        double transferSavedMs = (rawBytes - compressedBytes) * 8.0 / (linkMbps * 1_000_000) * 1000;
+        return String.format("frames=%d raw=%.1fKB sent=%.1fKB saved=%.0f%% cpu=%.1fms ~%.0fms less transfer at %.0f Mbit/s",
+                compressedFrames, rawBytes / 1e3, compressedBytes / 1e3, savedPercent,
+                (compressNanos + decompressNanos) / 1e6, transferSavedMs, linkMbps);
+    }
+
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeLong(compressedFrames);
+        out.writeLong(rawBytes);
+        out.writeLong(compressedBytes);
+        out.writeLong(compressNanos);
+        out.writeLong(decompressedFrames);
+        out.writeLong(decompressNanos);
+    }
+
+    public static CompressionStats readFrom(DataInput in) throws IOException {
+        CompressionStats stats = new CompressionStats();
+        stats.compressedFrames = in.readLong();
+        stats.rawBytes = in.readLong();
+        stats.compressedBytes = in.readLong();
+        stats.compressNanos = in.readLong();
+        stats.decompressedFrames = in.readLong();
+        stats.decompressNanos = in.readLong();
+        return stats;
+    }
+}
@@ -0,0 +1,140 @@
+package Analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Count-Min sketch for approximate frequency counts in fixed memory.
+ *
+ * Error bounds: with width w = ceil(e / epsilon) and depth d = ceil(ln(1 / delta)),
+ * every estimate satisfies  true <= estimate <= true + epsilon * N  with probability
+ * at least 1 - delta, where N is the total count added. Estimates never undercount.
+ * The default 2048 x 5 sketch gives epsilon ~ 0.13% of N and delta ~ 0.7%
+ * in 80 KB, no matter how many distinct keys are seen.
+ *
+ * Two sketches with the same width and depth can be merged by adding their cells,
+ * so each worker (or reducer partition) can keep its own and combine them later.
+ */
+public class CountMinSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_WIDTH = 2048;
+    public static final int DEFAULT_DEPTH = 5;
+
+    private final int width;
+    private final int depth;
+    private final long[][] counts;
+    private long totalCount;
+
+    public CountMinSketch() {
+        this(DEFAULT_WIDTH, DEFAULT_DEPTH);
+    }
+
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("Width and depth must be positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counts = new long[depth][width];
+    }
+
+    /**
+     * Builds a sketch sized for the given error (fraction of N) and failure probability.
+     */
+    public static CountMinSketch withErrorBounds(double epsilon, double delta) {
+        int w = (int) Math.ceil(Math.E / epsilon);
+        int d = (int) Math.ceil(Math.log(1.0 / delta));
+        return new CountMinSketch(w, d);
+    }
+
+    public void add(String key, long count) {
+        if (count <= 0) return;
+        long h = Hashing.hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        for (int row = 0; row < depth; row++) {
+            counts[row][index(h1, h2, row)] += count;
+        }
+        totalCount += count;
+    }
+
+    public long estimate(String key) {
+        long h = Hashing.hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts[row][index(h1, h2, row)]);
+        }
+        return min;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge sketches of different dimensions");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                counts[row][col] += other.counts[row][col];
+            }
+        }
+        totalCount += other.totalCount;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Upper bound on the overestimate that holds with probability 1 - getDelta().
+     */
+    public double getErrorBound() {
+        return (Math.E / width) * totalCount;
+    }
+
+    public double getDelta() {
+        return Math.exp(-depth);
+    }
+
+    // Kirsch-Mitzenmacher double hashing: row i uses h1 + i * h2
+    private int index(int h1, int h2, int row) {
+        int combined = h1 + row * h2;
+        return (combined & Integer.MAX_VALUE) % width;
+    }
+
+    /**
+     * Compact binary encoding used by Reducer checkpoints.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(totalCount);
+        for (long[] row : counts) {
+            for (long cell : row) {
+                out.writeLong(cell);
+            }
+        }
+    }
+
+    public static CountMinSketch readFrom(DataInput in) throws IOException {
+        CountMinSketch sketch = new CountMinSketch(in.readInt(), in.readInt());
+        sketch.totalCount = in.readLong();
+        for (long[] row : sketch.counts) {
+            for (int col = 0; col < row.length; col++) {
+                row[col] = in.readLong();
+            }
+        }
+        return sketch;
+    }
+}
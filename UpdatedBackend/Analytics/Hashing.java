@@ -0,0 +1,39 @@
+package Analytics;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Small hashing helpers shared by the sketches.
+ * String.hashCode() is only 32 bits and poorly mixed, which is not good enough
+ * for HyperLogLog or for deriving several Count-Min rows from one key.
+ */
+final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes of the key, finished with a murmur3 mix.
+     */
+    static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * Murmur3 64-bit finaliser.
+     */
+    static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
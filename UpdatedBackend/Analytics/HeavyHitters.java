@@ -0,0 +1,117 @@
+package Analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top-k tracker built on a Count-Min sketch.
+ *
+ * The sketch answers "how many of X" but cannot list keys, so a bounded candidate
+ * table remembers the keys with the highest estimates seen so far. When the table
+ * is full the smallest candidate is evicted. Memory is fixed at the sketch size
+ * plus `capacity` keys. Reported counts carry the Count-Min error bound
+ * (never below the true count, at most epsilon * N above it).
+ */
+public class HeavyHitters implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private final CountMinSketch sketch;
+    private final int capacity;
+    private final Map<String, Long> candidates = new HashMap<>();
+
+    public HeavyHitters() {
+        this(new CountMinSketch(), DEFAULT_CAPACITY);
+    }
+
+    public HeavyHitters(CountMinSketch sketch, int capacity) {
+        this.sketch = sketch;
+        this.capacity = capacity;
+    }
+
+    public void add(String key, long count) {
+        sketch.add(key, count);
+        offer(key, sketch.estimate(key));
+    }
+
+    public long estimate(String key) {
+        return sketch.estimate(key);
+    }
+
+    /**
+     * Returns up to k keys ordered by estimated count, highest first.
+     */
+    public List<Map.Entry<String, Long>> top(int k) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(candidates.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries.size() > k ? new ArrayList<>(entries.subList(0, k)) : entries;
+    }
+
+    public void merge(HeavyHitters other) {
+        sketch.merge(other.sketch);
+        List<String> keys = new ArrayList<>(candidates.keySet());
+        keys.addAll(other.candidates.keySet());
+        candidates.clear();
+        for (String key : keys) {
+            offer(key, sketch.estimate(key));
+        }
+    }
+
+    public CountMinSketch getSketch() {
+        return sketch;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Compact binary encoding used by Reducer checkpoints.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        sketch.writeTo(out);
+        out.writeInt(candidates.size());
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    public static HeavyHitters readFrom(DataInput in) throws IOException {
+        int capacity = in.readInt();
+        HeavyHitters hitters = new HeavyHitters(CountMinSketch.readFrom(in), capacity);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            hitters.candidates.put(in.readUTF(), in.readLong());
+        }
+        return hitters;
+    }
+
+    private void offer(String key, long estimate) {
+        if (candidates.containsKey(key) || candidates.size() < capacity) {
+            candidates.put(key, estimate);
+            return;
+        }
+        // Table is full: replace the smallest candidate if this key beats it
+        String minKey = null;
+        long minValue = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+            if (entry.getValue() < minValue) {
+                minValue = entry.getValue();
+                minKey = entry.getKey();
+            }
+        }
+        if (estimate > minValue) {
+            candidates.remove(minKey);
+            candidates.put(key, estimate);
+        }
+    }
+}
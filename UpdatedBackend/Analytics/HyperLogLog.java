@@ -0,0 +1,111 @@
+package Analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * HyperLogLog distinct counter.
+ *
+ * Error bounds: with m = 2^precision registers the standard error of the estimate
+ * is about 1.04 / sqrt(m). The default precision 14 uses 16 KB and gives ~0.81%
+ * standard error (so ~1.6% at two sigma) for any cardinality. Small cardinalities
+ * fall back to linear counting, which is exact-ish below a few thousand.
+ *
+ * Merging takes the register-wise maximum, so the union of several workers'
+ * counters is exactly the counter that would have seen all of their input.
+ */
+public class HyperLogLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public void add(String value) {
+        long h = Hashing.hash64(value);
+        int index = (int) (h >>> (64 - precision));
+        // Leading zeros of the remaining bits, plus one; the sentinel bit caps the run
+        long rest = (h << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public long cardinality() {
+        int m = registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double estimate = alpha(m) * m * (double) m / sum;
+
+        // Small range correction: linear counting is more accurate here
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge counters of different precision");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Relative standard error of cardinality().
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * Compact binary encoding used by Reducer checkpoints.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.write(registers);
+    }
+
+    public static HyperLogLog readFrom(DataInput in) throws IOException {
+        HyperLogLog counter = new HyperLogLog(in.readByte());
+        in.readFully(counter.registers);
+        return counter;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16: return 0.673;
+            case 32: return 0.697;
+            case 64: return 0.709;
+            default: return 0.7213 / (1.0 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package Analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Log-bucketed latency histogram (nanoseconds).
+ *
+ * Each power of two is split into 32 linear sub-buckets, so any recorded value is
+ * reported within ~3% of its true value, from 1 ns up to Long.MAX_VALUE, in a fixed
+ * 1920-slot array. Histograms merge by adding bucket counts, which lets every worker
+ * and the Master record locally and the Reducer combine them into cluster-wide
+ * percentiles.
+ */
+public class LatencyHistogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1);
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue;
+    private long sum;
+
+    public synchronized void record(long valueNanos) {
+        if (valueNanos < 0) valueNanos = 0;
+        counts[indexFor(valueNanos)]++;
+        totalCount++;
+        sum += valueNanos;
+        minValue = Math.min(minValue, valueNanos);
+        maxValue = Math.max(maxValue, valueNanos);
+    }
+
+    public synchronized void merge(LatencyHistogram other) {
+        long[] otherCounts;
+        long otherTotal, otherMin, otherMax, otherSum;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherTotal = other.totalCount;
+            otherMin = other.minValue;
+            otherMax = other.maxValue;
+            otherSum = other.sum;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += otherCounts[i];
+        }
+        totalCount += otherTotal;
+        sum += otherSum;
+        minValue = Math.min(minValue, otherMin);
+        maxValue = Math.max(maxValue, otherMax);
+    }
+
+    /**
+     * Value at the given percentile (0-100), in nanoseconds.
+     */
+    public synchronized long percentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Math.max(valueFor(i), minValue), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    public synchronized long getCount() {
+        return totalCount;
+    }
+
+    public synchronized long getMax() {
+        return maxValue;
+    }
+
+    public synchronized double getMean() {
+        return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+    }
+
+    public synchronized LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.merge(this);
+        return copy;
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    /**
+     * One-line summary in milliseconds, e.g. "n=120 p50=1.20ms p95=4.10ms p99=9.00ms p999=15.00ms max=15.20ms"
+     */
+    public synchronized String summary() {
+        return String.format("n=%d p50=%.2fms p95=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+                totalCount, percentile(50) / 1e6, percentile(95) / 1e6,
+                percentile(99) / 1e6, percentile(99.9) / 1e6, maxValue / 1e6);
+    }
+
+    /**
+     * Compact binary encoding used by Reducer checkpoints: only non-empty buckets are written.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        int used = 0;
+        for (long count : counts) {
+            if (count != 0) used++;
+        }
+        out.writeLong(minValue);
+        out.writeLong(maxValue);
+        out.writeLong(sum);
+        out.writeInt(used);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] != 0) {
+                out.writeShort(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.minValue = in.readLong();
+        histogram.maxValue = in.readLong();
+        histogram.sum = in.readLong();
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            int index = in.readShort();
+            long count = in.readLong();
+            histogram.counts[index] = count;
+            histogram.totalCount += count;
+        }
+        return histogram;
+    }
+
+    private static int indexFor(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    // Midpoint of the bucket's value range
+    private static long valueFor(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + ((1L << shift) >> 1);
+    }
+}
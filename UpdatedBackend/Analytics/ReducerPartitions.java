@@ -0,0 +1,115 @@
+package Analytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routing table for a partitioned Reducer deployment.
+ *
+ * Every Reducer instance owns one partition of the analytics key space. Workers send
+ * each event to the partition that owns its key (the store name for sales events,
+ * the worker id otherwise), and the Master queries the partitions and merges their
+ * answers with mergeResults().
+ *
+ * The partition ports come from the "reducer.ports" system property, e.g.
+ * -Dreducer.ports=7003,7004,7005 on every Worker, Reducer and the Master.
+ */
+public final class ReducerPartitions {
+    public static final int DEFAULT_REDUCER_PORT = 7003;
+    public static final String HOST = "localhost";
+
+    private static final List<Integer> PORTS = loadPorts();
+
+    private ReducerPartitions() {
+    }
+
+    public static List<Integer> ports() {
+        return PORTS;
+    }
+
+    public static int count() {
+        return PORTS.size();
+    }
+
+    /**
+     * Index of the partition that owns the given key.
+     */
+    public static int partitionFor(String key) {
+        if (key == null || PORTS.size() == 1) return 0;
+        return (int) ((Hashing.hash64(key) & Long.MAX_VALUE) % PORTS.size());
+    }
+
+    public static int portFor(String key) {
+        return PORTS.get(partitionFor(key));
+    }
+
+    /**
+     * Merges one partition's aggregated results into the combined view.
+     * Counters are added, timestamps keep the earliest start and latest update,
+     * nested counter maps are added key by key and sketches, histograms and
+     * compression counts are merged.
+     */
+    @SuppressWarnings("unchecked")
+    public static void mergeResults(Map<String, Object> into, Map<String, Object> from) {
+        for (Map.Entry<String, Object> entry : from.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            Object existing = into.get(key);
+
+            if (existing == null) {
+                into.put(key, copyOf(value));
+            } else if (key.equals("systemStartTime") && value instanceof Long) {
+                into.put(key, Math.min((Long) existing, (Long) value));
+            } else if (value instanceof Long && existing instanceof Long) {
+                into.put(key, Math.max((Long) existing, (Long) value));
+            } else if (value instanceof Integer && existing instanceof Integer) {
+                into.put(key, (Integer) existing + (Integer) value);
+            } else if (value instanceof Map && existing instanceof Map) {
+                Map<String, Integer> target = (Map<String, Integer>) existing;
+                for (Map.Entry<String, Integer> counter : ((Map<String, Integer>) value).entrySet()) {
+                    target.merge(counter.getKey(), counter.getValue(), Integer::sum);
+                }
+            } else if (value instanceof HeavyHitters && existing instanceof HeavyHitters) {
+                ((HeavyHitters) existing).merge((HeavyHitters) value);
+            } else if (value instanceof HyperLogLog && existing instanceof HyperLogLog) {
+                ((HyperLogLog) existing).merge((HyperLogLog) value);
+            } else if (value instanceof TDigest && existing instanceof TDigest) {
+                ((TDigest) existing).merge((TDigest) value);
+            } else if (value instanceof LatencyHistogram && existing instanceof LatencyHistogram) {
+                ((LatencyHistogram) existing).merge((LatencyHistogram) value);
+            } else if (value instanceof CompressionStats && existing instanceof CompressionStats) {
+                ((CompressionStats) existing).merge((CompressionStats) value);
+            }
+            // Anything else (e.g. analyticsMode) is identical across partitions
+        }
+    }
+
+    // Nested maps are copied so merging never mutates a partition's own answer
+    @SuppressWarnings("unchecked")
+    private static Object copyOf(Object value) {
+        if (value instanceof Map) {
+            return new HashMap<>((Map<String, Integer>) value);
+        }
+        if (value instanceof CompressionStats) {
+            return ((CompressionStats) value).copy();
+        }
+        return value;
+    }
+
+    private static List<Integer> loadPorts() {
+        String property = System.getProperty("reducer.ports", String.valueOf(DEFAULT_REDUCER_PORT));
+        List<Integer> ports = new ArrayList<>();
+        for (String port : property.split(",")) {
+            if (!port.trim().isEmpty()) {
+                ports.add(Integer.parseInt(port.trim()));
+            }
+        }
+        if (ports.isEmpty()) {
+            ports.add(DEFAULT_REDUCER_PORT);
+        }
+        return Collections.unmodifiableList(ports);
+    }
+}
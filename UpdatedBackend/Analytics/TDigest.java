@@ -0,0 +1,223 @@
+package Analytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Merging t-digest for quantiles of a stream of doubles (order values, latencies).
+ *
+ * Error bounds: centroids are kept small near the tails using the k1 scale function,
+ * so quantile error is roughly proportional to q * (1 - q) / compression. With the
+ * default compression of 100 the median is typically within ~1% (in rank) and the
+ * 1st / 99th percentiles within ~0.1%. Memory is bounded by ~2 * compression
+ * centroids regardless of how many values are added.
+ *
+ * Two digests merge by re-clustering the union of their centroids.
+ */
+public class TDigest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_COMPRESSION = 100.0;
+
+    private final double compression;
+    private double[] means;
+    private double[] weights;
+    private int centroidCount;
+
+    // Incoming values are buffered and folded in in batches
+    private double[] bufferMeans;
+    private double[] bufferWeights;
+    private int bufferCount;
+
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public TDigest(double compression) {
+        this.compression = compression;
+        int capacity = (int) Math.ceil(2 * compression) + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+        this.bufferMeans = new double[capacity * 5];
+        this.bufferWeights = new double[capacity * 5];
+    }
+
+    public void add(double value) {
+        add(value, 1.0);
+    }
+
+    public synchronized void add(double value, double weight) {
+        if (Double.isNaN(value) || weight <= 0) return;
+        if (bufferCount == bufferMeans.length) {
+            compress();
+        }
+        bufferMeans[bufferCount] = value;
+        bufferWeights[bufferCount] = weight;
+        bufferCount++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public synchronized void merge(TDigest other) {
+        synchronized (other) {
+            other.compress();
+            for (int i = 0; i < other.centroidCount; i++) {
+                if (bufferCount == bufferMeans.length) {
+                    compress();
+                }
+                bufferMeans[bufferCount] = other.means[i];
+                bufferWeights[bufferCount] = other.weights[i];
+                bufferCount++;
+            }
+            totalWeight += other.totalWeight;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    /**
+     * Estimated value at quantile q (0..1), or NaN if the digest is empty.
+     */
+    public synchronized double quantile(double q) {
+        compress();
+        if (centroidCount == 0) return Double.NaN;
+        if (q <= 0) return min;
+        if (q >= 1) return max;
+        if (centroidCount == 1) return means[0];
+
+        double target = q * totalWeight;
+        double cumulative = 0;
+        for (int i = 0; i < centroidCount; i++) {
+            double half = weights[i] / 2.0;
+            if (cumulative + half >= target) {
+                // Interpolate between the previous centroid (or min) and this one
+                double leftMean = i == 0 ? min : means[i - 1];
+                double leftPos = i == 0 ? 0 : cumulative - weights[i - 1] / 2.0;
+                double rightPos = cumulative + half;
+                return interpolate(target, leftPos, leftMean, rightPos, means[i]);
+            }
+            cumulative += weights[i];
+        }
+        double lastPos = totalWeight - weights[centroidCount - 1] / 2.0;
+        return interpolate(target, lastPos, means[centroidCount - 1], totalWeight, max);
+    }
+
+    public synchronized double getTotalWeight() {
+        return totalWeight;
+    }
+
+    public synchronized double getMin() {
+        return min;
+    }
+
+    public synchronized double getMax() {
+        return max;
+    }
+
+    public double getCompression() {
+        return compression;
+    }
+
+    /**
+     * Folds buffered values into the centroid list.
+     */
+    private synchronized void compress() {
+        if (bufferCount == 0) return;
+
+        int n = centroidCount + bufferCount;
+        double[] allMeans = new double[n];
+        double[] allWeights = new double[n];
+        System.arraycopy(means, 0, allMeans, 0, centroidCount);
+        System.arraycopy(weights, 0, allWeights, 0, centroidCount);
+        System.arraycopy(bufferMeans, 0, allMeans, centroidCount, bufferCount);
+        System.arraycopy(bufferWeights, 0, allWeights, centroidCount, bufferCount);
+        bufferCount = 0;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        double total = 0;
+        for (int i = 0; i < n; i++) total += allWeights[i];
+
+        int out = 0;
+        double curMean = allMeans[order[0]];
+        double curWeight = allWeights[order[0]];
+        double soFar = 0;
+        double kLeft = scale(0, compression);
+        for (int i = 1; i < n; i++) {
+            int idx = order[i];
+            double proposed = curWeight + allWeights[idx];
+            double kRight = scale((soFar + proposed) / total, compression);
+            if (kRight - kLeft <= 1.0) {
+                curMean += (allMeans[idx] - curMean) * allWeights[idx] / proposed;
+                curWeight = proposed;
+            } else {
+                out = emit(out, curMean, curWeight);
+                soFar += curWeight;
+                kLeft = scale(soFar / total, compression);
+                curMean = allMeans[idx];
+                curWeight = allWeights[idx];
+            }
+        }
+        centroidCount = emit(out, curMean, curWeight);
+    }
+
+    /**
+     * Compact binary encoding used by Reducer checkpoints.
+     */
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        compress();
+        out.writeDouble(compression);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeInt(centroidCount);
+        for (int i = 0; i < centroidCount; i++) {
+            out.writeDouble(means[i]);
+            out.writeDouble(weights[i]);
+        }
+    }
+
+    public static TDigest readFrom(DataInput in) throws IOException {
+        TDigest digest = new TDigest(in.readDouble());
+        digest.min = in.readDouble();
+        digest.max = in.readDouble();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            double mean = in.readDouble();
+            double weight = in.readDouble();
+            digest.centroidCount = digest.emit(digest.centroidCount, mean, weight);
+            digest.totalWeight += weight;
+        }
+        return digest;
+    }
+
+    private int emit(int position, double mean, double weight) {
+        if (position == means.length) {
+            means = Arrays.copyOf(means, means.length * 2);
+            weights = Arrays.copyOf(weights, weights.length * 2);
+        }
+        means[position] = mean;
+        weights[position] = weight;
+        return position + 1;
+    }
+
+    // k1 scale function: small centroids at the tails, large ones in the middle
+    private static double scale(double q, double compression) {
+        q = Math.min(1.0, Math.max(0.0, q));
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    private static double interpolate(double x, double x0, double y0, double x1, double y1) {
+        if (x1 <= x0) return y1;
+        return y0 + (x - x0) * (y1 - y0) / (x1 - x0);
+    }
+}
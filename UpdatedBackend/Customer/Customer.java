@@ -1,5 +1,8 @@
 package Customer;
 
+import Objects.RequestIds;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
 import java.io.*;
 import java.net.*;
 import java.util.Scanner;
@@ -15,8 +18,7 @@ public class Customer {
     private double customerLongitude;
 
     private Socket masterSocket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private MessageChannel master;
 
     public static void main(String[] args) {
         new Customer().start();
@@ -169,24 +171,27 @@ public class Customer {
                                                 customerLatitude, customerLongitude, DEFAULT_RADIUS,
                                                 filterType, foodCategoryFilter, minStarFilter, maxPriceRatingFilter);
 
-            out.writeObject(searchCommand);
-            out.flush();
+            master.writeObject(searchCommand);
+            master.flush();
 
-            Object response = in.readObject();
+            Object response = master.readObject();
 
             if (response instanceof String) {
                 String results = (String) response;
 
-                if (results.equals("No stores found")) {
+                if (results.startsWith("No stores found")) {
                     System.out.println("No stores found matching your criteria within " +
                                       DEFAULT_RADIUS + "km of your location.");
+                    printPartialWarning(results);
                 } else {
                     System.out.println("\nStores matching your criteria:");
                     String[] stores = results.split("\\|");
 
                     for (int i = 0; i < stores.length; i++) {
                         String[] storeInfo = stores[i].split(",");
-                        if (storeInfo.length >= 6) {
+                        if (stores[i].startsWith("Partial:")) {
+                            printPartialWarning(results);
+                        } else if (storeInfo.length >= 6) {
                             String name = storeInfo[0];
                             String category = storeInfo[1];
                             double distance = Double.parseDouble(storeInfo[2]);
@@ -219,25 +224,37 @@ public class Customer {
         System.out.print("Enter search term (or leave empty to search all products): ");
         String searchTerm = scanner.nextLine().trim();
         try {
-            out.writeObject("search " + searchTerm);
-            out.flush();
-            Object response = in.readObject();
-            System.out.println("Response from Master: " + response);
+            master.writeObject("search " + searchTerm);
+            master.flush();
+            Object response = master.readObject();
+            String results = String.valueOf(response);
+            int partial = results.indexOf("|Partial:");
+            System.out.println("Response from Master: " + (partial >= 0 ? results.substring(0, partial) : results));
+            printPartialWarning(results);
         } catch (Exception e) {
             System.err.println("Error searching products: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    // The Master appends "|Partial:<what is missing>" when some workers couldn't answer
+    private static void printPartialWarning(String results) {
+        int partial = results.indexOf("|Partial:");
+        if (partial >= 0) {
+            System.out.println("Warning: results may be incomplete, missing " +
+                    results.substring(partial + "|Partial:".length()));
+        }
+    }
+
     private void buyProduct(Scanner scanner) {
         System.out.println("\n=== Buy Product ===");
         System.out.print("Enter store name: ");
         String storeName = scanner.nextLine().trim();
         try {
             // Request product list
-            out.writeObject("getStoreProducts|" + storeName);
-            out.flush();
-            Object response = in.readObject();
+            master.writeObject("getStoreProducts|" + storeName);
+            master.flush();
+            Object response = master.readObject();
 
             if (response instanceof String) {
                 String productList = (String) response;
@@ -289,10 +306,11 @@ public class Customer {
                     return;
                 }
 
-                // Send buy command
-                out.writeObject(String.format("buy|%s|%s|%d", storeName, selectedProduct, quantity));
-                out.flush();
-                Object purchaseResponse = in.readObject();
+                // Send buy command, with an ID that makes resending it safe
+                master.writeObject(RequestIds.tag(RequestIds.newId(),
+                        String.format("buy|%s|%s|%d", storeName, selectedProduct, quantity)));
+                master.flush();
+                Object purchaseResponse = master.readObject();
                 System.out.println("Response from Master: " + purchaseResponse);
             } else {
                 System.out.println("Unexpected response from server.");
@@ -305,10 +323,8 @@ public class Customer {
 
     private void connectToMaster() {
         try {
-            masterSocket = new Socket(MASTER_HOST, MASTER_PORT);
-            out = new ObjectOutputStream(masterSocket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(masterSocket.getInputStream());
+            master = MessageChannels.connect(MASTER_HOST, MASTER_PORT);
+            masterSocket = master.getSocket();
             System.out.println("Connected to Master server at " + MASTER_HOST + ":" + MASTER_PORT);
         } catch (IOException e) {
             System.err.println("Failed to connect to Master server: " + e.getMessage());
@@ -319,9 +335,7 @@ public class Customer {
 
     private void disconnectFromMaster() {
         try {
-            if (out != null) out.close();
-            if (in != null) in.close();
-            if (masterSocket != null) masterSocket.close();
+            if (master != null) master.close();
             System.out.println("Disconnected from Master server");
         } catch (IOException e) {
             System.err.println("Error disconnecting from Master server: " + e.getMessage());
@@ -5,20 +5,26 @@ import java.net.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.List;
 import Objects.*;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
 
 
 public class Manager {
     // Use the same MASTER_PORT as defined in Master
     private static final String MASTER_HOST = "localhost";
     private static final int MASTER_PORT = 5055;
+    // Updates per batch request in bulkUpdate
+    private static final int BATCH_SIZE = 1000;
 
     private Socket masterSocket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private MessageChannel master;
 
     public static void main(String[] args) {
         new Manager().start();
@@ -26,10 +32,8 @@ public class Manager {
 
     private void connectToMaster() {
         try {
-            masterSocket = new Socket(MASTER_HOST, MASTER_PORT);
-            out = new ObjectOutputStream(masterSocket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(masterSocket.getInputStream());
+            master = MessageChannels.connect(MASTER_HOST, MASTER_PORT);
+            masterSocket = master.getSocket();
             System.out.println("Connected to Master server at " + MASTER_HOST + ":" + MASTER_PORT);
         } catch (IOException e) {
             System.err.println("Failed to connect to Master server: " + e.getMessage());
@@ -40,9 +44,7 @@ public class Manager {
 
     private void disconnectFromMaster() {
         try {
-            if (out != null) out.close();
-            if (in != null) in.close();
-            if (masterSocket != null) masterSocket.close();
+            if (master != null) master.close();
             System.out.println("Disconnected from Master server");
         } catch (IOException e) {
             System.err.println("Error disconnecting from Master server: " + e.getMessage());
@@ -77,7 +79,10 @@ public class Manager {
                     System.out.println("4. removeProduct - Remove a product from a store");
                     System.out.println("5. showSalesByCategory - Show total sales by food category");
                     System.out.println("6. showSalesByProduct - Show total sales and income by product");
-                    System.out.println("7. exit - Exit the application");
+                    System.out.println("7. showAnalytics - Show cluster analytics from the Reducer partitions");
+                    System.out.println("8. bulkUpdate - Apply product updates from a CSV file");
+                    System.out.println("9. bulkImport - Add every store JSON file in a directory or .zip");
+                    System.out.println("10. exit - Exit the application");
                     System.out.print("Enter command: ");
 
                     String input = scanner.nextLine().trim();
@@ -88,7 +93,10 @@ public class Manager {
                         case "4": removeProduct(scanner); break;
                         case "5": showSalesByFoodCategory(scanner); break;
                         case "6": showSalesByProduct(scanner); break;
-                        case "7": System.out.println("Exiting manager application."); break;
+                        case "7": showAnalytics(scanner); break;
+                        case "8": bulkUpdate(scanner); break;
+                        case "9": bulkImport(scanner); break;
+                        case "10": System.out.println("Exiting manager application."); break;
                         default: System.out.println("Unknown command. Please try again.");
                     }
                 }
@@ -109,24 +117,37 @@ public class Manager {
         int retryCount = 0;
         int maxRetries = 3;
         long retryDelayMs = 5000;
+        // Every attempt at a change carries the same ID, so one that went through isn't applied again
+        String tagged = RequestIds.tag(RequestIds.isChange(command) ? RequestIds.newId() : null, command);
 
         while (retryCount < maxRetries) {
             try {
                 verifyConnection();
 
-                System.out.println("Sending command to Master: " + command);
-                out.writeObject(command);
+                System.out.println("Sending command to Master: " + tagged);
+                master.writeObject(tagged);
                 if (payload != null) {
                     System.out.println("Sending payload object to Master");
-                    out.writeObject(payload);
+                    master.writeObject(payload);
                 }
-                out.flush();
+                master.flush();
 
                 System.out.println("Waiting for response from Master...");
-                Object response = in.readObject();
-                System.out.println("Response received: " + response);
+                Object response = master.readObject();
+                System.out.println("Response received: " +
+                        (response instanceof List ? ((List<?>) response).size() + " results" : response));
+                long retryAfterMs = busyRetryAfterMs(response);
+                if (retryAfterMs >= 0 && ++retryCount < maxRetries) {
+                    // The Master turned the request away before doing anything; it is safe to send again
+                    System.out.println("Master is busy, retrying in " + retryAfterMs + " ms...");
+                    Thread.sleep(retryAfterMs);
+                    continue;
+                }
                 return response;
 
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             } catch (IOException | ClassNotFoundException e) {
                 System.err.println("Error communicating with Master (attempt " + (retryCount + 1) + "): " + e.getMessage());
                 retryCount++;
@@ -146,6 +167,18 @@ public class Manager {
         return "Communication error: Failed after " + maxRetries + " attempts";
     }
 
+    // "Busy: ... retry after N ms" -> N; -1 for any other response
+    private static long busyRetryAfterMs(Object response) {
+        if (!(response instanceof String) || !((String) response).startsWith("Busy:")) return -1;
+        String busy = (String) response;
+        int at = busy.lastIndexOf("retry after ");
+        try {
+            return at < 0 ? -1 : Long.parseLong(busy.substring(at + "retry after ".length(), busy.lastIndexOf(" ms")));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
     private void addStore(Scanner scanner) {
         try {
             System.out.println("\n=== Add Store from JSON File ===");
@@ -213,8 +246,6 @@ public class Manager {
             }
 
             Product selectedProduct = visibleProducts.get(productIndex);
-            // Ensure the product has a reference to its store
-            selectedProduct.setStore(store);
 
             String productName = selectedProduct.getProductName();
             int currentStock = selectedProduct.getAvailableAmount();
@@ -248,10 +279,11 @@ public class Manager {
                 return;
             }
 
-            List<Object> payload = List.of(selectedProduct, operationType, quantity);
+            // Only the store and product names and the stock change travel to the Master
+            ProductUpdate update = ProductUpdate.stockChange(store.getStoreName(), productName, operationType, quantity);
 
             // Send update to master
-            Object response = sendCommand("updateStock", payload);
+            Object response = sendCommand("updateStock", update);
 
             System.out.println("Response: " + response);
 
@@ -297,7 +329,6 @@ public class Manager {
                     if (restore.equals("yes")) {
                         // Restore the product by making it visible again
                         existingProduct.setVisible(true);
-                        existingProduct.setStore(store);
 
                         // Ask if they want to update stock
                         System.out.println("Current stock: " + existingProduct.getAvailableAmount());
@@ -311,7 +342,7 @@ public class Manager {
                         }
 
                         // Send update to master
-                        Object response = sendCommand("addProduct", existingProduct);
+                        Object response = sendCommand("addProduct", ProductUpdate.add(store.getStoreName(), existingProduct));
                         System.out.println("Response: " + response);
                         return;
                     } else {
@@ -344,11 +375,9 @@ public class Manager {
 
             // Create new product
             Product newProduct = new Product(productName, productType, availableAmount, price);
-            newProduct.setStore(store);
-            newProduct.setVisible(true);
 
             // Send to master
-            Object response = sendCommand("addProduct", newProduct);
+            Object response = sendCommand("addProduct", ProductUpdate.add(store.getStoreName(), newProduct));
             System.out.println("Response: " + response);
 
         } catch (Exception e) {
@@ -403,10 +432,6 @@ public class Manager {
             }
 
             Product selectedProduct = visibleProducts.get(productIndex);
-            // Ensure the product has a reference to its store
-            selectedProduct.setStore(store);
-            // Set visibility to false instead of physically removing
-            selectedProduct.setVisible(false);
 
             String productName = selectedProduct.getProductName();
 
@@ -420,7 +445,8 @@ public class Manager {
             }
 
             // Send command to remove product
-            Object response = sendCommand("removeProduct", selectedProduct);
+            // Hidden rather than physically removed
+            Object response = sendCommand("removeProduct", ProductUpdate.hide(store.getStoreName(), productName));
             System.out.println("Response: " + response);
 
         } catch (NumberFormatException e) {
@@ -432,6 +458,113 @@ public class Manager {
     }
 
 
+    /**
+     * Apply many product updates from a CSV file, BATCH_SIZE per request. One line per update:
+     *   stock,StoreName,ProductName,+50        (negative to reduce)
+     *   price,StoreName,ProductName,4.50
+     *   add,StoreName,ProductName,ProductType,AvailableAmount,Price
+     *   remove,StoreName,ProductName
+     * Blank lines and lines starting with # are skipped.
+     */
+    private void bulkUpdate(Scanner scanner) {
+        try {
+            System.out.println("\n=== Bulk Update from CSV File ===");
+            System.out.print("Enter path to CSV file: ");
+            Path path = Paths.get(scanner.nextLine().trim());
+            if (!Files.exists(path)) {
+                System.out.println("File not found: " + path);
+                return;
+            }
+
+            List<ProductUpdate> updates = new ArrayList<>();
+            List<Integer> lineNumbers = new ArrayList<>();
+            List<String> lines = Files.readAllLines(path);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                try {
+                    updates.add(parseUpdate(line.split(",", -1)));
+                    lineNumbers.add(i + 1);
+                } catch (RuntimeException e) {
+                    System.out.println("Line " + (i + 1) + " skipped: " + e.getMessage());
+                }
+            }
+            if (updates.isEmpty()) {
+                System.out.println("No updates to send.");
+                return;
+            }
+
+            long start = System.nanoTime();
+            int failed = 0;
+            for (int from = 0; from < updates.size(); from += BATCH_SIZE) {
+                int to = Math.min(from + BATCH_SIZE, updates.size());
+                Object response = sendCommand("batch", new ArrayList<>(updates.subList(from, to)));
+                if (!(response instanceof List)) {
+                    System.out.println("Lines " + lineNumbers.get(from) + "-" + lineNumbers.get(to - 1) + " failed: " + response);
+                    failed += to - from;
+                    continue;
+                }
+                List<?> results = (List<?>) response;
+                for (int i = 0; i < results.size(); i++) {
+                    if (!"OK".equals(results.get(i))) {
+                        System.out.println("Line " + lineNumbers.get(from + i) + ": " + results.get(i));
+                        failed++;
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Applied %d of %d updates in %.2f s (%.0f updates/s)%n",
+                    updates.size() - failed, updates.size(), seconds, updates.size() / seconds);
+
+        } catch (Exception e) {
+            System.out.println("Error in bulk update: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void bulkImport(Scanner scanner) {
+        try {
+            System.out.println("\n=== Bulk Import Stores ===");
+            System.out.print("Enter path to a directory of JSON files or a .zip: ");
+            Path path = Paths.get(scanner.nextLine().trim());
+            if (!Files.exists(path)) {
+                System.out.println("File not found: " + path);
+                return;
+            }
+
+            // The Master reads the files itself and prints its progress as batches reach the workers
+            System.out.println("Importing stores from: " + path);
+            Object response = sendCommand("importStores", path.toAbsolutePath().toString());
+            System.out.println("Response: " + response);
+
+        } catch (Exception e) {
+            System.out.println("Error in bulk import: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static ProductUpdate parseUpdate(String[] fields) {
+        String operation = fields[0].trim().toLowerCase();
+        if (fields.length < 3) throw new IllegalArgumentException("expected at least operation,store,product");
+        String storeName = fields[1].trim();
+        String productName = fields[2].trim();
+        switch (operation) {
+            case "stock": {
+                int delta = Integer.parseInt(fields[3].trim().replace("+", ""));
+                return ProductUpdate.stockChange(storeName, productName, delta >= 0, Math.abs(delta));
+            }
+            case "price":
+                return ProductUpdate.priceChange(storeName, productName, Double.parseDouble(fields[3].trim()));
+            case "add":
+                return ProductUpdate.add(storeName, new Product(productName, fields[3].trim(),
+                        Integer.parseInt(fields[4].trim()), Double.parseDouble(fields[5].trim())));
+            case "remove":
+                return ProductUpdate.hide(storeName, productName);
+            default:
+                throw new IllegalArgumentException("unknown operation " + operation);
+        }
+    }
+
     private Store getStoreInfo(String storeName) {
         try {
             Object response = sendCommand("getStoreInfo", storeName); // Send storeName as payload
@@ -460,11 +593,13 @@ public class Manager {
                 System.out.println("Food category cannot be empty.");
                 return;
             }
+            String timeRange = readTimeRange(scanner);
+            if (timeRange == null) return;
             
             System.out.println("Fetching sales data for food category: " + foodCategory);
             
             // Send request to get sales data by category
-            String salesData = getSalesByFoodCategory(foodCategory);
+            String salesData = getSalesByFoodCategory(foodCategory + timeRange);
             
             if (salesData == null || salesData.isEmpty() || salesData.equals("No sales data found")) {
                 System.out.println("No sales data found for food category: " + foodCategory);
@@ -480,6 +615,32 @@ public class Manager {
         }
     }
 
+    /**
+     * Ask for the period a sales report covers
+     * @return "" for all time, "|fromMillis|toMillis" for a range, or null if the input is invalid
+     */
+    private String readTimeRange(Scanner scanner) {
+        System.out.print("Time range (leave empty for all time, N for the last N hours, " +
+                "or yyyy-MM-ddTHH:mm..yyyy-MM-ddTHH:mm): ");
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) return "";
+        try {
+            if (!input.contains("..")) {
+                long now = System.currentTimeMillis();
+                return "|" + (now - (long) (Double.parseDouble(input) * 3_600_000)) + "|" + (now + 1);
+            }
+            String[] ends = input.split("\\.\\.");
+            return "|" + toMillis(ends[0]) + "|" + toMillis(ends[1]);
+        } catch (RuntimeException e) {
+            System.out.println("Invalid time range: " + input);
+            return null;
+        }
+    }
+
+    private static long toMillis(String dateTime) {
+        return LocalDateTime.parse(dateTime.trim()).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     /**
      * Send request to Master to get sales data for a specific food category
      */
@@ -505,7 +666,10 @@ public class Manager {
             
             for (int i = 0; i < parts.length; i++) {
                 String part = parts[i];
-                if (part.startsWith("Total:")) {
+                if (part.startsWith("Partial:")) {
+                    // Some workers couldn't answer, so the totals leave out their stores
+                    System.out.println("Warning: incomplete, missing " + part.substring("Partial:".length()));
+                } else if (part.startsWith("Total:")) {
                     // This is the total, handle separately
                     totalSales = Integer.parseInt(part.substring("Total:".length()));
                 } else if (part.contains(":")) {
@@ -526,6 +690,18 @@ public class Manager {
         }
     }
 
+    /**
+     * Display the analytics merged from all Reducer partitions, or from a single one
+     */
+    private void showAnalytics(Scanner scanner) {
+        System.out.println("\n=== Cluster Analytics ===");
+        System.out.print("Reducer partition to query (leave empty for all partitions): ");
+        String partition = scanner.nextLine().trim();
+
+        Object response = sendCommand(partition.isEmpty() ? "getAnalytics" : "getAnalytics " + partition, null);
+        System.out.println(response);
+    }
+
     /**
      * Display total sales and income by product
      */
@@ -534,12 +710,14 @@ public class Manager {
             System.out.println("\n=== Show Sales and Income by Product ===");
             System.out.print("Enter product name (or leave empty to see all products): ");
             String productName = scanner.nextLine().trim();
+            String timeRange = readTimeRange(scanner);
+            if (timeRange == null) return;
             
             System.out.println("Fetching sales data for product: " + 
                                (productName.isEmpty() ? "all products" : productName));
             
             // Send request to get sales data by product
-            String salesData = getSalesByProduct(productName);
+            String salesData = getSalesByProduct(productName + timeRange);
             
             if (salesData == null || salesData.isEmpty() || salesData.equals("No sales data found")) {
                 System.out.println("No sales data found for product: " + 
@@ -582,7 +760,10 @@ public class Manager {
             
             for (int i = 0; i < parts.length; i++) {
                 String part = parts[i];
-                if (part.startsWith("Total:")) {
+                if (part.startsWith("Partial:")) {
+                    // Some workers couldn't answer, so the totals leave out their stores
+                    System.out.println("Warning: incomplete, missing " + part.substring("Partial:".length()));
+                } else if (part.startsWith("Total:")) {
                     // This is the total, handle separately
                     String[] totalData = part.split(":");
                     totalSales = Integer.parseInt(totalData[1]);
@@ -0,0 +1,221 @@
+package Master;
+
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+/**
+ * Admission control, so a spike degrades the Master's throughput instead of collapsing it.
+ *
+ * Requests are admitted per lane: customers (browsing, reserving, buying, ordering and
+ * checking out), managers (store and stock changes, sales reports) and internal traffic
+ * (the Reducer). A lane runs at most -Dlane.NAME.threads requests at once and lets at
+ * most -Dlane.NAME.queue more wait, for at most -Dlane.queue.timeout.ms (default 2000);
+ * any other request is answered at once with "Busy: ..., retry after N ms" instead of
+ * adding to the pile. A burst of customers therefore neither slows the managers down nor
+ * keeps the Reducer's results out.
+ *
+ * Connections are limited too: past -Dmaster.max.connections (default 512) open ones, a
+ * new connection is answered busy on a single rejecting thread and closed, rather than
+ * given a handler thread of its own.
+ */
+final class Admission {
+    private static final long QUEUE_TIMEOUT_MS = Long.getLong("lane.queue.timeout.ms", 2_000);
+    private static final int MAX_CONNECTIONS = Integer.getInteger("master.max.connections", 512);
+    // Connections waiting to be told the Master is busy; past this many they are just closed
+    private static final int REJECT_BACKLOG = 64;
+    // Time a turned-away connection gets to send its first request
+    private static final int REJECT_READ_TIMEOUT_MS = 1_000;
+
+    static final Lane CUSTOMER = new Lane("customer", 32, 64);
+    static final Lane MANAGER = new Lane("manager", 8, 16);
+    static final Lane INTERNAL = new Lane("internal", 4, 16);
+
+    private static int openConnections;
+    private static long rejectedConnections;
+    // At most REJECT_BACKLOG; guarded by itself
+    private static final ArrayDeque<Socket> rejecting = new ArrayDeque<>(REJECT_BACKLOG);
+
+    static {
+        Thread rejecter = new Thread(Admission::rejectConnections, "master-reject");
+        rejecter.setDaemon(true);
+        rejecter.start();
+    }
+
+    private Admission() {
+    }
+
+    static Lane laneFor(String command) {
+        if (command.equals("reducerResults")) {
+            return INTERNAL;
+        }
+        if (command.startsWith("findStores") || command.startsWith("search") || command.startsWith("buy")
+                || command.startsWith("order|") || command.startsWith("reserve|") || command.startsWith("checkout|")
+                || command.startsWith("getStoreProducts")) {
+            return CUSTOMER;
+        }
+        return MANAGER;
+    }
+
+    /**
+     * Count a new connection in.
+     * @return false if the Master is at its connection limit; the connection is then rejected
+     */
+    static synchronized boolean connectionOpened() {
+        if (openConnections >= MAX_CONNECTIONS) {
+            rejectedConnections++;
+            return false;
+        }
+        openConnections++;
+        return true;
+    }
+
+    static synchronized void connectionClosed() {
+        openConnections--;
+    }
+
+    /**
+     * Answer a connection over the limit busy, on the rejecting thread, and close it.
+     */
+    static void rejectConnection(Socket socket) {
+        synchronized (rejecting) {
+            if (rejecting.size() < REJECT_BACKLOG) {
+                rejecting.add(socket);
+                rejecting.notify();
+                return;
+            }
+        }
+        close(socket);
+    }
+
+    private static void rejectConnections() {
+        while (true) {
+            Socket socket;
+            synchronized (rejecting) {
+                while (rejecting.isEmpty()) {
+                    try {
+                        rejecting.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                socket = rejecting.poll();
+            }
+            try {
+                socket.setSoTimeout(REJECT_READ_TIMEOUT_MS);
+                MessageChannel channel = MessageChannels.accept(socket);
+                channel.readObject();
+                channel.writeObject("Busy: too many connections (" + MAX_CONNECTIONS + "), retry after " +
+                        CUSTOMER.retryAfterMs() + " ms");
+                channel.flush();
+            } catch (IOException | ClassNotFoundException e) {
+                // The client gets the closed connection instead
+            }
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it
+        }
+    }
+
+    static String summary() {
+        StringBuilder summary = new StringBuilder();
+        synchronized (Admission.class) {
+            summary.append(String.format("  connections: %d open (limit %d), %d turned away%n",
+                    openConnections, MAX_CONNECTIONS, rejectedConnections));
+        }
+        for (Lane lane : new Lane[]{CUSTOMER, MANAGER, INTERNAL}) {
+            summary.append("  ").append(lane.summary()).append("\n");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * The requests of one client class: how many run and wait, and how long they take.
+     */
+    static final class Lane {
+        private final String name;
+        private final int threads;
+        private final int queueDepth;
+
+        private int running;
+        private int waiting;
+        // Moving average of the time a request holds its slot
+        private double averageMs = 10;
+        private long admitted;
+        private long queued;
+        private long rejected;
+        // When each running request was admitted, by thread, for exit()
+        private final ThreadLocal<Long> admittedAt = new ThreadLocal<>();
+
+        private Lane(String name, int defaultThreads, int defaultQueue) {
+            this.name = name;
+            this.threads = Math.max(1, Integer.getInteger("lane." + name + ".threads", defaultThreads));
+            this.queueDepth = Math.max(0, Integer.getInteger("lane." + name + ".queue", defaultQueue));
+        }
+
+        /**
+         * Take a slot in the lane, waiting in its queue if all are taken.
+         * @return false if the queue is full or the wait timed out; the request is then answered busyMessage()
+         */
+        synchronized boolean enter() throws InterruptedException {
+            if (running >= threads) {
+                if (waiting >= queueDepth) {
+                    rejected++;
+                    return false;
+                }
+                queued++;
+                waiting++;
+                try {
+                    long deadline = System.currentTimeMillis() + QUEUE_TIMEOUT_MS;
+                    while (running >= threads) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            rejected++;
+                            return false;
+                        }
+                        wait(remaining);
+                    }
+                } finally {
+                    waiting--;
+                }
+            }
+            running++;
+            admitted++;
+            admittedAt.set(System.nanoTime());
+            return true;
+        }
+
+        synchronized void exit() {
+            running--;
+            averageMs = 0.9 * averageMs + 0.1 * (System.nanoTime() - admittedAt.get()) / 1e6;
+            notify();
+        }
+
+        /**
+         * Roughly how long until the lane has room again: the queue ahead drained at the
+         * lane's recent pace.
+         */
+        synchronized long retryAfterMs() {
+            return Math.max(10, Math.round(averageMs * (waiting + 1) / threads));
+        }
+
+        String busyMessage() {
+            return "Busy: " + name + " requests at capacity, retry after " + retryAfterMs() + " ms";
+        }
+
+        synchronized String summary() {
+            return String.format("%s lane: %d/%d running, %d/%d waiting, %d admitted (%d after queueing), " +
+                            "%d turned away, %.1f ms average", name, running, threads, waiting, queueDepth,
+                    admitted, queued, rejected, averageMs);
+        }
+    }
+}
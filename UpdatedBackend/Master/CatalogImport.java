@@ -0,0 +1,139 @@
+package Master;
+
+import Objects.Store;
+import Objects.StoreJsonParser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads every store JSON file in a directory (recursively) or a .zip archive and
+ * parses them in parallel on a fork/join pool: the file list is split in halves until
+ * a piece is small enough to parse on one thread.
+ */
+final class CatalogImport implements AutoCloseable {
+    // Files parsed by one task before it stops splitting
+    private static final int FILES_PER_TASK = 32;
+
+    /**
+     * Stores parsed from the source, and a message per file that could not be parsed.
+     */
+    static final class Result {
+        final List<Store> stores = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        void addAll(Result other) {
+            stores.addAll(other.stores);
+            errors.addAll(other.errors);
+        }
+    }
+
+    private interface CatalogFile {
+        String name();
+
+        Reader open() throws IOException;
+    }
+
+    private final List<CatalogFile> files = new ArrayList<>();
+    private ZipFile zip;
+
+    CatalogImport(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> paths = Files.walk(source)) {
+                for (Path file : paths.filter(p -> p.toString().endsWith(".json")).sorted().collect(Collectors.toList())) {
+                    files.add(new CatalogFile() {
+                        public String name() { return file.toString(); }
+
+                        public Reader open() throws IOException {
+                            return new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8);
+                        }
+                    });
+                }
+            }
+        } else if (source.toString().endsWith(".zip")) {
+            // ZipFile can open entries from several threads at once
+            zip = new ZipFile(source.toFile());
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".json")) continue;
+                files.add(new CatalogFile() {
+                    public String name() { return entry.getName(); }
+
+                    public Reader open() throws IOException {
+                        return new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8);
+                    }
+                });
+            }
+        } else {
+            throw new IOException("Not a directory or .zip file: " + source);
+        }
+    }
+
+    int fileCount() {
+        return files.size();
+    }
+
+    Result parseAll() {
+        return ForkJoinPool.commonPool().invoke(new ParseTask(0, files.size()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zip != null) zip.close();
+    }
+
+    private final class ParseTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ParseTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > FILES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                ParseTask left = new ParseTask(from, middle);
+                left.fork();
+                Result result = new ParseTask(middle, to).compute();
+                Result first = left.join();
+                // Keep the stores in file order
+                first.addAll(result);
+                return first;
+            }
+            Result result = new Result();
+            for (int i = from; i < to; i++) {
+                CatalogFile file = files.get(i);
+                try (Reader reader = file.open()) {
+                    Store store = StoreJsonParser.parse(reader);
+                    if (store.getStoreName() == null || store.getStoreName().isEmpty()) {
+                        result.errors.add(file.name() + ": no StoreName");
+                    } else {
+                        result.stores.add(store);
+                    }
+                } catch (IOException e) {
+                    result.errors.add(file.name() + ": " + e.getMessage());
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package Master;
+
+import Analytics.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * When to hedge a read, and how hedging has done.
+ *
+ * A read that a worker hasn't answered within the recent p95 round trip of its command
+ * type is sent again to another worker holding the same stores, and whichever answer
+ * arrives first is used. The p95 comes from the round trips of the last complete
+ * WINDOW_MS window (or of the current one, before the first window is complete), and
+ * only once a command type has MIN_SAMPLES of them, so a cold Master doesn't hedge on
+ * guesses. Hedges are limited to -Dhedge.max.per.second (default 10, 0 turns hedging off)
+ * across the Master, so a slow cluster isn't sent twice the load.
+ */
+final class Hedging {
+    private static final double MAX_PER_SECOND = Double.parseDouble(System.getProperty("hedge.max.per.second", "10"));
+    private static final long WINDOW_MS = 10_000;
+    private static final long MIN_SAMPLES = 20;
+
+    // Round trips per command type in the window being filled, and the p95 of the last complete one
+    private static final Map<String, LatencyHistogram> window = new HashMap<>();
+    private static final Map<String, Long> lastP95 = new HashMap<>();
+    private static long windowStart = System.currentTimeMillis();
+
+    // Hedge budget: a token bucket holding at most one second's worth
+    private static double tokens = MAX_PER_SECOND;
+    private static long lastRefillNanos = System.nanoTime();
+
+    // Since the Master started
+    private static long reads;
+    private static long hedges;
+    private static long hedgeWins;
+    private static long cancelledUnsent;
+    private static long overBudget;
+
+    private Hedging() {
+    }
+
+    /**
+     * Record one round trip of a command type.
+     */
+    static synchronized void record(String commandType, long nanos) {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= WINDOW_MS) {
+            lastP95.clear();
+            for (Map.Entry<String, LatencyHistogram> entry : window.entrySet()) {
+                if (entry.getValue().getCount() >= MIN_SAMPLES) {
+                    lastP95.put(entry.getKey(), entry.getValue().percentile(95));
+                }
+            }
+            window.clear();
+            windowStart = now;
+        }
+        window.computeIfAbsent(commandType, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * How long to wait for a read before hedging it, or -1 to not hedge it at all.
+     */
+    static synchronized long delayNanos(String commandType) {
+        reads++;
+        if (MAX_PER_SECOND <= 0) return -1;
+        Long p95 = lastP95.get(commandType);
+        if (p95 != null) return p95;
+        LatencyHistogram current = window.get(commandType);
+        return current != null && current.getCount() >= MIN_SAMPLES ? current.percentile(95) : -1;
+    }
+
+    /**
+     * Take a hedge from the budget.
+     * @return false if this second's hedges are used up
+     */
+    static synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(MAX_PER_SECOND, tokens + (now - lastRefillNanos) / 1e9 * MAX_PER_SECOND);
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            overBudget++;
+            return false;
+        }
+        tokens--;
+        hedges++;
+        return true;
+    }
+
+    static synchronized String summary() {
+        return String.format("%d reads, %d hedged (%.1f%%), hedge answered first %d times (%.0f%% of hedges), " +
+                        "%d copies cancelled before sending, %d hedges over budget (-Dhedge.max.per.second=%s)",
+                reads, hedges, reads > 0 ? 100.0 * hedges / reads : 0.0, hedgeWins,
+                hedges > 0 ? 100.0 * hedgeWins / hedges : 0.0, cancelledUnsent, overBudget, MAX_PER_SECOND);
+    }
+
+    /**
+     * A read sent to one worker and possibly a hedge to another. The first usable answer
+     * decides it; the other copy is then cancelled: it is not sent if it is still waiting
+     * for its worker's channel, and its answer is read and dropped if it was, since a
+     * channel carries one request at a time.
+     */
+    static final class Race {
+        private Object answer;
+        private boolean decided;
+        private int started;
+        private int finished;
+
+        synchronized void start() {
+            started++;
+        }
+
+        /**
+         * True once another copy has answered; checked by a copy before it is sent.
+         */
+        synchronized boolean cancelled() {
+            if (decided) {
+                synchronized (Hedging.class) {
+                    cancelledUnsent++;
+                }
+            }
+            return decided;
+        }
+
+        synchronized void finish(boolean hedge, Object response, boolean usable) {
+            finished++;
+            if (!decided && (usable || finished == started)) {
+                // An unusable answer is only taken when no other copy can still do better
+                answer = response;
+                decided = true;
+                if (hedge && usable) {
+                    synchronized (Hedging.class) {
+                        hedgeWins++;
+                    }
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * Wait for the answer, at most timeoutNanos when that is positive.
+         * @return whether the race is decided
+         */
+        synchronized boolean await(long timeoutNanos) throws InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (!decided) {
+                if (timeoutNanos <= 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return false;
+                    wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                }
+            }
+            return true;
+        }
+
+        synchronized Object answer() {
+            return answer;
+        }
+    }
+}
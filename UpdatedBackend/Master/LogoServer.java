@@ -0,0 +1,240 @@
+package Master;
+
+import Objects.Store;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves store logos on their own port (-Dlogo.port, default 5056).
+ *
+ * Request:  UTF storeName, byte variant (0 = original, 1 = thumbnail), UTF known hash ("" if none)
+ * Response: byte status (0 = OK, 1 = not modified, 2 = not found), UTF content hash,
+ *           and for OK a long length followed by the image bytes.
+ *
+ * The image is sent with FileChannel.transferTo straight from the file to the socket, so
+ * the bytes never pass through the heap. The content hash is a SHA-256 prefix of the file;
+ * a client that sends the hash it already has gets "not modified" and no body. Thumbnails
+ * (at most THUMB_SIZE pixels on the longer side) are generated on first request and kept
+ * in data/images/thumbs, named after the original's hash.
+ *
+ * A connection may send any number of requests.
+ */
+class LogoServer {
+    static final int DEFAULT_PORT = 5056;
+    private static final int THUMB_SIZE = 96;
+
+    private static final byte VARIANT_ORIGINAL = 0;
+    private static final byte VARIANT_THUMBNAIL = 1;
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_NOT_MODIFIED = 1;
+    private static final byte STATUS_NOT_FOUND = 2;
+
+    private static final Path THUMBS_DIR = Paths.get("data", "images", "thumbs");
+
+    // Store name -> logo file, from addStore or the store's JSON file
+    private static final Map<String, Path> logoPaths = Collections.synchronizedMap(new HashMap<>());
+    // Logo file -> hash, valid while size and modification time are unchanged
+    private static final Map<Path, CachedHash> hashes = Collections.synchronizedMap(new HashMap<>());
+
+    private static class CachedHash {
+        final long size;
+        final long modified;
+        final String hash;
+
+        CachedHash(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Remember the logo of a store the Master has just added.
+     */
+    static void register(Store store) {
+        if (store.getStoreName() != null && store.getStoreLogo() != null && !store.getStoreLogo().isEmpty()) {
+            logoPaths.put(store.getStoreName(), Paths.get(store.getStoreLogo()));
+        }
+    }
+
+    static void start(int port) {
+        // Thumbnails are drawn without a display
+        System.setProperty("java.awt.headless", "true");
+        Thread acceptor = new Thread(() -> {
+            try (ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(new InetSocketAddress(port));
+                System.out.println("Logo server running on port " + port);
+                while (true) {
+                    SocketChannel client = server.accept();
+                    Thread handler = new Thread(() -> serve(client), "logo-client");
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                System.err.println("Logo server stopped: " + e.getMessage());
+            }
+        }, "logo-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void serve(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.socket().setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                String storeName;
+                try {
+                    storeName = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte variant = in.readByte();
+                String knownHash = in.readUTF();
+                handleRequest(channel, storeName, variant, knownHash);
+            }
+        } catch (IOException e) {
+            System.err.println("Logo request failed: " + e.getMessage());
+        }
+    }
+
+    private static void handleRequest(SocketChannel channel, String storeName, byte variant, String knownHash)
+            throws IOException {
+        Path logo = findLogo(storeName);
+        if (logo == null) {
+            writeHeader(channel, STATUS_NOT_FOUND, "", -1);
+            return;
+        }
+        String hash = hashOf(logo);
+        Path file = logo;
+        if (variant == VARIANT_THUMBNAIL) {
+            hash = hash + "-t" + THUMB_SIZE;
+            file = thumbnailOf(logo, hash);
+        }
+        if (hash.equals(knownHash)) {
+            writeHeader(channel, STATUS_NOT_MODIFIED, hash, -1);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (FileChannel image = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = image.size();
+            writeHeader(channel, STATUS_OK, hash, size);
+            // transferTo may send less than asked for; loop until the whole file is out
+            long sent = 0;
+            while (sent < size) {
+                sent += image.transferTo(sent, size - sent, channel);
+            }
+            System.out.printf("Logo for %s (%s, %d bytes) sent in %.2f ms%n", storeName,
+                    variant == VARIANT_ORIGINAL ? "original" : "thumbnail", size, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private static void writeHeader(SocketChannel channel, byte status, String hash, long length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeByte(status);
+        header.writeUTF(hash);
+        if (status == STATUS_OK) header.writeLong(length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static Path findLogo(String storeName) {
+        Path logo = logoPaths.get(storeName);
+        if (logo == null && !storeName.contains("/") && !storeName.contains("\\") && !storeName.contains("..")) {
+            // Not added in this run; the store's JSON file names its logo
+            Path json = Paths.get("data", "stores", storeName + ".json");
+            if (Files.exists(json)) {
+                Store store = new Store();
+                store.insertStore(json.toString());
+                register(store);
+                logo = logoPaths.get(storeName);
+            }
+        }
+        return logo != null && Files.isRegularFile(logo) ? logo : null;
+    }
+
+    private static String hashOf(Path file) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        CachedHash cached = hashes.get(file);
+        if (cached != null && cached.size == size && cached.modified == modified) {
+            return cached.hash;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        byte[] hashBytes = digest.digest();
+        for (int i = 0; i < 16; i++) {
+            hex.append(String.format("%02x", hashBytes[i]));
+        }
+        String hash = hex.toString();
+        hashes.put(file, new CachedHash(size, modified, hash));
+        return hash;
+    }
+
+    // Thumbnails are named after the original's hash, so a changed logo gets a new one
+    private static Path thumbnailOf(Path logo, String thumbHash) throws IOException {
+        Path thumb = THUMBS_DIR.resolve(thumbHash + ".png");
+        if (Files.exists(thumb)) {
+            return thumb;
+        }
+        synchronized (LogoServer.class) {
+            if (Files.exists(thumb)) {
+                return thumb;
+            }
+            BufferedImage original = ImageIO.read(logo.toFile());
+            if (original == null) {
+                // Not a format ImageIO can scale; serve the original instead
+                return logo;
+            }
+            double scale = Math.min(1.0, (double) THUMB_SIZE / Math.max(original.getWidth(), original.getHeight()));
+            int width = Math.max(1, (int) Math.round(original.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(original.getHeight() * scale));
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(original, 0, 0, width, height, null);
+            graphics.dispose();
+
+            Files.createDirectories(THUMBS_DIR);
+            Path temp = THUMBS_DIR.resolve(thumbHash + ".png.tmp");
+            ImageIO.write(scaled, "png", temp.toFile());
+            Files.move(temp, thumb, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Generated " + width + "x" + height + " thumbnail for " + logo);
+            return thumb;
+        }
+    }
+}
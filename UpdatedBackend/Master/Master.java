@@ -1,12 +1,21 @@
 // File: src/Master/Master.java
 package Master;
 
+import Analytics.CompressionStats;
+import Analytics.LatencyHistogram;
+import Analytics.ReducerPartitions;
+import Objects.StoreRouting;
+import Protocol.Compression;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
 import config.configLoader;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -19,8 +28,11 @@ public class Master {
     private static int numNodes;
     private static final String STORES_DIR = "data\\stores";
     private static List<Integer> workerPorts = new ArrayList<>();
-    private static List<Socket> workerSockets = new ArrayList<>();
+    // One connection per worker, in workerPorts order, shared by every MasterHandler
+    private static List<WorkerConnection> workers = new ArrayList<>();
     private static String hostAddress = "localhost";
+    // How often round-trip latency histograms and compression counts are shipped to the Reducer
+    private static final long LATENCY_REPORT_INTERVAL_MS = 10_000;
 
 
 
@@ -49,18 +61,143 @@ public class Master {
     }
 
 
+    /**
+     * Open a connection to every worker. Each connection greets its worker with its place in
+     * the cluster, so the worker knows which stores it is primary for and which workers to
+     * ship their changes to; a worker that can't be reached now is greeted once it can.
+     */
     private static void connectToWorkers(List<Integer> ports) {
-        int i = 1;
-        for (int port : ports) {
+        int backups = StoreRouting.backupsFor(ports.size());
+        for (int i = 0; i < ports.size(); i++) {
+            int port = ports.get(i);
+            HashMap<String, Object> cluster = new HashMap<>();
+            cluster.put("index", i);
+            cluster.put("ports", new ArrayList<>(ports));
+            cluster.put("backups", backups);
+            WorkerConnection connection = new WorkerConnection(hostAddress, port, "joinCluster", cluster);
+            workers.add(connection);
             try {
-                Socket s = new Socket(hostAddress, port);
-                workerSockets.add(s);
-                System.out.println("Connected to worker on port " + port + " (Worker " + i + ")");
+                connection.connect();
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Could not connect to worker on port " + port + " (Worker " + (i + 1) + "): " +
+                        e.getMessage() + "; will retry on its first request");
+            }
+        }
+    }
+
+    /**
+     * Send every worker the stores in STORES_DIR it holds, as primary or as a backup, and
+     * wait until all of them have loaded them. Clients are only accepted afterwards, so no
+     * request reaches a worker that is still missing stores the Master believes exist.
+     */
+    private static void warmWorkers() {
+        long start = System.nanoTime();
+        int backups = StoreRouting.backupsFor(workerPorts.size());
+        List<ArrayList<String>> assignments = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            assignments.add(new ArrayList<>());
+        }
+        Path storesDir = Paths.get(STORES_DIR);
+        if (Files.isDirectory(storesDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(storesDir, "*.json")) {
+                for (Path file : stream) {
+                    String storeName = file.getFileName().toString().replace(".json", "");
+                    int slice = StoreRouting.primaryFor(storeName, workerPorts.size());
+                    for (int copy = 0; copy <= backups; copy++) {
+                        int index = StoreRouting.holderOf(slice, copy, workerPorts.size());
+                        if (index < assignments.size()) {
+                            assignments.get(index).add(file.toAbsolutePath().toString());
+                        }
+                    }
+                }
             } catch (IOException e) {
-                System.err.println("Could not connect to worker on port " + port + " (Worker " + i + ")");
-                e.printStackTrace();
+                System.err.println("Could not list " + storesDir.toAbsolutePath() + ": " + e.getMessage());
             }
         }
+
+        // All workers load at the same time
+        List<Thread> loaders = new ArrayList<>();
+        for (int i = 0; i < workers.size(); i++) {
+            WorkerConnection worker = workers.get(i);
+            ArrayList<String> assignment = assignments.get(i);
+            Thread loader = new Thread(() -> {
+                try {
+                    Object response = worker.request("loadShard", assignment, null, 0);
+                    System.out.println("Worker on port " + worker.getPort() + ": " + response);
+                } catch (IOException | ClassNotFoundException e) {
+                    System.err.println("Worker on port " + worker.getPort() +
+                            " did not load its shard: " + e.getMessage());
+                }
+            }, "shard-loader-" + worker.getPort());
+            loaders.add(loader);
+            loader.start();
+        }
+        for (Thread loader : loaders) {
+            try {
+                loader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.out.printf("All %d workers ready in %.1f ms%n", workers.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Periodically sends the round-trip histograms recorded by the handlers to the Reducer,
+     * which merges them with the workers' service times into cluster-wide percentiles.
+     * The Master's wire compression counts go along as node metrics.
+     */
+    private static void startLatencyReporter() {
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(LATENCY_REPORT_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                reportCompression();
+                Map<String, LatencyHistogram> histograms = MasterHandler.drainRoundTripHistograms();
+                if (histograms.isEmpty()) continue;
+
+                // Each histogram goes to the Reducer partition that owns its key
+                Map<Integer, HashMap<String, LatencyHistogram>> byPartition = new HashMap<>();
+                for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                    byPartition.computeIfAbsent(ReducerPartitions.portFor(entry.getKey()), k -> new HashMap<>())
+                            .put(entry.getKey(), entry.getValue());
+                }
+
+                for (Map.Entry<Integer, HashMap<String, LatencyHistogram>> partition : byPartition.entrySet()) {
+                    try (MessageChannel reducer = MessageChannels.connect(ReducerPartitions.HOST, partition.getKey())) {
+                        reducer.writeObject("masterLatency");
+                        reducer.writeObject(partition.getValue());
+                        reducer.flush();
+                        reducer.readObject();
+                    } catch (IOException | ClassNotFoundException e) {
+                        System.err.println("Could not send latency report to Reducer on port " +
+                                partition.getKey() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }, "master-latency-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private static void reportCompression() {
+        CompressionStats stats = Compression.drainStats();
+        if (stats.isEmpty()) return;
+        HashMap<String, CompressionStats> metrics = new HashMap<>();
+        metrics.put("master", stats);
+        int port = ReducerPartitions.portFor("compression_master");
+        try (MessageChannel reducer = MessageChannels.connect(ReducerPartitions.HOST, port)) {
+            reducer.writeObject("nodeMetrics");
+            reducer.writeObject(metrics);
+            reducer.flush();
+            reducer.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Could not send compression metrics to Reducer on port " + port + ": " + e.getMessage());
+        }
     }
 
     public void startServer() {
@@ -71,23 +208,27 @@ public class Master {
 
             // I need socket to establish connections with workers
             connectToWorkers(workerPorts);
+            warmWorkers();
+            startLatencyReporter();
+            LogoServer.start(Integer.getInteger("logo.port", LogoServer.DEFAULT_PORT));
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("New connection from: " + clientSocket.getInetAddress().getHostAddress() + ":" + clientSocket.getPort());
-                new MasterHandler(clientSocket, workerPorts, workerSockets).start();
+                if (!Admission.connectionOpened()) {
+                    System.out.println("Too many connections, turning away " + clientSocket.getPort());
+                    Admission.rejectConnection(clientSocket);
+                    continue;
+                }
+                new MasterHandler(clientSocket, workerPorts, workers).start();
             }
         } catch (IOException e) {
             System.err.println("Error in Master server: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            // Close all worker sockets
-            for (Socket socket : workerSockets) {
-                if (socket != null && !socket.isClosed()) {
-                    try { socket.close(); } catch (IOException e) {
-                        System.err.println("Error closing worker socket: " + e.getMessage());
-                    }
-                }
+            // Close all worker connections
+            for (WorkerConnection worker : workers) {
+                worker.close();
             }
         }
     }
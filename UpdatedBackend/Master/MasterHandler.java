@@ -1,16 +1,37 @@
 package Master;
 
+import Analytics.CompressionStats;
+import Analytics.HeavyHitters;
+import Analytics.HyperLogLog;
+import Analytics.LatencyHistogram;
+import Analytics.ReducerPartitions;
+import Analytics.TDigest;
 import Objects.Product;
+import Objects.ProductMatch;
+import Objects.ProductUpdate;
+import Objects.RequestIds;
+import Objects.SalesTotal;
 import Objects.Store;
+import Objects.StoreMatch;
+import Objects.StoreRouting;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Handles individual client connections to the Master server.
@@ -19,239 +40,346 @@ import java.util.HashSet;
 public class MasterHandler extends Thread {
     private Socket socket;
     private List<Integer> workerPorts;
-    private List<Socket> workerSockets;
+    private List<WorkerConnection> workers;
     // Update store directory path to match actual location
     private static final String STORES_DIR = "data\\stores";
+    // Stores per addStores request during a bulk import
+    private static final int IMPORT_BATCH_SIZE = Integer.getInteger("import.batch.size", 500);
     private static String hostAddress = "localhost"; // Default host address
-    private final ObjectOutputStream out;
-    private final ObjectInputStream in;
-    private List<ObjectOutputStream> workerOutputs = new ArrayList<>();
-    private List<ObjectInputStream> workerInputs = new ArrayList<>();
+    // Negotiated in run() so a slow client cannot hold up the Master's accept loop
+    private MessageChannel client;
+    // The client's ID for the change being handled, passed on to the worker applying it; null if untagged
+    private String requestId;
+    // Master -> Worker round-trip times per command type and per worker, drained by the latency reporter
+    private static final Map<String, LatencyHistogram> roundTripHistograms = new HashMap<>();
+    // Requests sent to each worker (by port) and not answered yet; reads go to the least busy replica
+    private static final Map<Integer, Integer> inFlight = new HashMap<>();
+    // Which copy a read prefers among equally busy replicas, so idle workers share reads too
+    private static int readRotation;
+    // Load counted for a worker whose breaker is open, so a read goes to any other holder first
+    private static final int UNAVAILABLE_LOAD = 1_000_000;
+    // What requestFromWorker returns for a hedged read's copy that was cancelled before it was sent
+    private static final Object CANCELLED = new Object();
 
-    public MasterHandler(Socket socket, List<Integer> workerPorts, List<Socket> workerSockets) throws IOException {
+    public MasterHandler(Socket socket, List<Integer> workerPorts, List<WorkerConnection> workers) {
         this.socket = socket; // Socket for Manager, Customer, Reducer
         this.workerPorts = workerPorts; // List of worker ports
-        this.workerSockets = workerSockets; // List of worker sockets
-
-        // Initialize input and output streams for the Master server <-> Manager, Customer, Reducer
-        this.out = new ObjectOutputStream(socket.getOutputStream());
-        this.out.flush();
-        this.in = new ObjectInputStream(socket.getInputStream());
-
-        for (Socket workerSocket : workerSockets) {
-            ObjectOutputStream workerOut = new ObjectOutputStream(workerSocket.getOutputStream());
-            ObjectInputStream workerIn = new ObjectInputStream(workerSocket.getInputStream());
-            workerOutputs.add(workerOut);
-            workerInputs.add(workerIn);
-        }
-
+        this.workers = workers; // Connections shared by all handlers, in workerPorts order
     }
 
 
     @Override
     public void run() {
         try {
+            // Binary or Object streams, whichever the client opened with
+            client = MessageChannels.accept(socket);
 
-            String command = (String) in.readObject();
-            System.out.println("Master received command: " + command);
-
-            if (command.startsWith("addStore")) {
-                try {
-                    // Read the JSON file path sent from the Manager
-                    String jsonPath = (String) in.readObject();
-                    System.out.println("Master received addStore command for path: " + jsonPath);
-                    
-                    // Use the modified addStore method with the file path that returns status information
-                    String[] result = addStore(jsonPath);
-                    boolean success = Boolean.parseBoolean(result[0]);
-                    boolean storeExists = Boolean.parseBoolean(result[1]);
-                    
-                    // Send appropriate response back to Manager based on whether store existed
-                    String response;
-                    if (storeExists) {
-                        response = "Store already exists: " + jsonPath + " (Store is already in the system)";
-                    } else if (success) {
-                        response = "Store added successfully from: " + jsonPath;
-                    } else {
-                        response = "Failed to add store from: " + jsonPath;
-                    }
-                    
-                    System.out.println("Sending response to Manager: " + response);
-                    out.writeObject(response);
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("Error processing addStore command: " + e.getMessage());
-                    e.printStackTrace();
-                    out.writeObject("Error adding store: " + e.getMessage());
-                    out.flush();
-                }
-            }
-            else if (command.equals("getStoreInfo")) {
-                try {
-                    // Read store name from the input stream
-                    String storeName = (String) in.readObject();
-                    Store store = getStoreInfo(storeName);
-                    out.writeObject(store != null ? store : "Store not found");
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("Error processing getStoreInfo: " + e.getMessage());
-                    e.printStackTrace();
-                    out.writeObject("Error: " + e.getMessage());
-                    out.flush();
-                }
-            }
-            else if (command.startsWith("getSalesByCategory")) {
-                String foodCategory = command.substring("getSalesByCategory ".length()).trim();
-                String result = getSalesByFoodCategory(foodCategory);
-                out.writeObject(result);
-                out.flush();
-            }
-            else if (command.startsWith("getSalesByProduct")) {
-                String productName = command.substring("getSalesByProduct ".length()).trim();
-                String result = getSalesByProduct(productName);
-                out.writeObject(result);
-                out.flush();
-            }
-            else if (command.startsWith("findStores")) {
-                String result = findNearbyStores(command);
-                out.writeObject(result);
-                out.flush();
-            }
-            else if (command.startsWith("search")) {
-                String searchTerm = command.substring("search ".length()).trim();
-                String result = searchProducts(searchTerm);
-                out.writeObject(result);
-                out.flush();
-            }
-            else if (command.startsWith("buy")) {
-                String result = processPurchase(command);
-                out.writeObject(result);
-                out.flush();
-            }
-            else if (command.equals("updateStock")) {
-                try {
-                    // Read payload as List<Object>
-                    @SuppressWarnings("unchecked")
-                    List<Object> payload = (List<Object>) in.readObject();
-                    System.out.println("Master: Processing updateStock operation");
-
-                    // Forward request to worker using the renamed method
-                    boolean success = forwardUpdateStockToWorker(payload);
-
-                    String response = success ? 
-                            "Successfully updated product stock" : 
-                            "Failed to update product stock";
-
-                    System.out.println("Master: Response for updateStock: " + response);
-                    out.writeObject(response);
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("Master: Error processing updateStock: " + e.getMessage());
-                    e.printStackTrace();
-                    out.writeObject("Error: " + e.getMessage());
-                    out.flush();
-                }
-            }
-            else if (command.startsWith("addProduct")) {
+            // Serve commands until the client disconnects
+            while (true) {
+                String command;
                 try {
-                    // Assume product is sent as a follow-up object
-                    Product product = (Product) in.readObject();
-                    boolean success = addProductToStore(product);
-                    out.writeObject(success ? "Product added successfully" : "Failed to add product");
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("Error processing addProduct: " + e.getMessage());
-                    out.writeObject("Error adding product: " + e.getMessage());
-                    out.flush();
+                    command = (String) client.readObject();
+                } catch (EOFException e) {
+                    break;
                 }
-            }
-            else if (command.startsWith("removeProduct")) {
-                try {
-                    // Assume product is sent as a follow-up object
-                    Product product = (Product) in.readObject();
-                    boolean success = removeProductFromStore(product);
-                    out.writeObject(success ? "Product removed successfully" : "Failed to remove product");
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("Error processing removeProduct: " + e.getMessage());
-                    out.writeObject("Error removing product: " + e.getMessage());
-                    out.flush();
-                }
-            }
-            else if (command.equals("reducerResults")) {
-                // Receive aggregated results from the Reducer
-                Object data = in.readObject();
-                if (data instanceof Map) {
-                    @SuppressWarnings("unchecked") // Suppress the unchecked cast warning
-                    Map<String, Object> resultMap = (Map<String, Object>) data;
-                    processReducerResults(resultMap);
-                    out.writeObject("acknowledged");
-                    out.flush();
-                } else {
-                    out.writeObject("Invalid data format");
-                    out.flush();
+                requestId = RequestIds.idOf(command);
+                command = RequestIds.untag(command);
+                System.out.println("Master received command: " + command +
+                        (requestId != null ? " (request " + requestId + ")" : ""));
+
+                // The follow-up object is read even for a request turned away, so the channel stays in step
+                Object payload = hasPayload(command) ? client.readObject() : null;
+                Admission.Lane lane = Admission.laneFor(command);
+                if (!lane.enter()) {
+                    String busy = lane.busyMessage();
+                    System.out.println("Master turned away " + command + ": " + busy);
+                    client.writeObject(busy);
+                    client.flush();
+                    continue;
                 }
-            }
-            else if (command.startsWith("getStoreProducts")) {
                 try {
-                    // Format: getStoreProducts|storeName
-                    String storeName = command.substring("getStoreProducts|".length()).trim();
-                    System.out.println("Master received getStoreProducts request for store: " + storeName);
-                    
-                    // Forward to appropriate worker
-                    String result = getStoreVisibleProducts(storeName);
-                    out.writeObject(result);
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("Error processing getStoreProducts: " + e.getMessage());
-                    e.printStackTrace();
-                    out.writeObject("Error: " + e.getMessage());
-                    out.flush();
+                    handle(command, payload);
+                } finally {
+                    lane.exit();
                 }
             }
-            else {
-                out.writeObject("Unknown command");
-                out.flush();
-            }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            Admission.connectionClosed();
             try { socket.close(); } catch (IOException ex) {
                 System.err.println("Error closing socket: " + ex.getMessage());
             }
         }
     }
 
-    private String forwardToWorker(Socket workerSocket, String command, Object payload) {
-        try {
-            System.out.println("Forwarding to worker on port " + workerSocket.getPort() + ": " + command);
-            //ObjectOutputStream out = new ObjectOutputStream(workerSocket.getOutputStream());
-            //ObjectInputStream in = new ObjectInputStream(workerSocket.getInputStream());
+    // Commands followed by a payload object
+    private static boolean hasPayload(String command) {
+        return command.startsWith("addStore") || command.equals("getStoreInfo") || command.equals("updateStock")
+                || command.startsWith("addProduct") || command.startsWith("removeProduct") || command.equals("batch")
+                || command.equals("importStores") || command.equals("reducerResults");
+    }
+
+    /**
+     * Serve one request that its lane admitted, writing the response to the client.
+     */
+    private void handle(String command, Object payload) throws IOException {
+        if (command.startsWith("addStore")) {
+            try {
+                // Read the JSON file path sent from the Manager
+                String jsonPath = (String) payload;
+                System.out.println("Master received addStore command for path: " + jsonPath);
+            
+                // Use the modified addStore method with the file path that returns status information
+                String[] result = addStore(jsonPath);
+                boolean success = Boolean.parseBoolean(result[0]);
+                boolean storeExists = Boolean.parseBoolean(result[1]);
+            
+                // Send appropriate response back to Manager based on whether store existed
+                String response;
+                if (storeExists) {
+                    response = "Store already exists: " + jsonPath + " (Store is already in the system)";
+                } else if (success) {
+                    response = "Store added successfully from: " + jsonPath;
+                } else {
+                    response = "Failed to add store from: " + jsonPath;
+                }
+            
+                System.out.println("Sending response to Manager: " + response);
+                client.writeObject(response);
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Error processing addStore command: " + e.getMessage());
+                e.printStackTrace();
+                client.writeObject("Error adding store: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.equals("getStoreInfo")) {
+            try {
+                // Read store name from the input stream
+                String storeName = (String) payload;
+                Store store = getStoreInfo(storeName);
+                client.writeObject(store != null ? store : "Store not found");
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Error processing getStoreInfo: " + e.getMessage());
+                e.printStackTrace();
+                client.writeObject("Error: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.startsWith("getSalesByCategory")) {
+            String foodCategory = command.substring("getSalesByCategory ".length()).trim();
+            String result = getSalesByFoodCategory(foodCategory);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("getSalesByProduct")) {
+            String productName = command.substring("getSalesByProduct ".length()).trim();
+            String result = getSalesByProduct(productName);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("findStores")) {
+            String result = findNearbyStores(command);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("search")) {
+            String searchTerm = command.substring("search ".length()).trim();
+            String result = searchProducts(searchTerm);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("reserve|")) {
+            String result = processReserve(command);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("checkout|")) {
+            String result = processCheckout(command);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("order|")) {
+            String result = processOrder(command);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.startsWith("buy")) {
+            String result = processPurchase(command);
+            client.writeObject(result);
+            client.flush();
+        }
+        else if (command.equals("updateStock")) {
+            try {
+                ProductUpdate update = toProductUpdate(command, payload);
+                System.out.println("Master: Processing updateStock operation");
+
+                // Forward request to worker using the renamed method
+                boolean success = forwardUpdateStockToWorker(update);
 
-            ObjectOutputStream workerOut = getOutput(workerSocket);
-            ObjectInputStream workerIn = getInput(workerSocket);
+                String response = success ? 
+                        "Successfully updated product stock" : 
+                        "Failed to update product stock";
 
+                System.out.println("Master: Response for updateStock: " + response);
+                client.writeObject(response);
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Master: Error processing updateStock: " + e.getMessage());
+                e.printStackTrace();
+                client.writeObject("Error: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.startsWith("addProduct")) {
+            try {
+                // The product change is sent as a follow-up object
+                ProductUpdate update = toProductUpdate(command, payload);
+                boolean success = addProductToStore(update);
+                client.writeObject(success ? "Product added successfully" : "Failed to add product");
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Error processing addProduct: " + e.getMessage());
+                client.writeObject("Error adding product: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.startsWith("removeProduct")) {
+            try {
+                // The product change is sent as a follow-up object
+                ProductUpdate update = toProductUpdate(command, payload);
+                boolean success = removeProductFromStore(update);
+                client.writeObject(success ? "Product removed successfully" : "Failed to remove product");
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Error processing removeProduct: " + e.getMessage());
+                client.writeObject("Error removing product: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.equals("batch")) {
+            try {
+                // A list of ProductUpdates; the answer has one result per item, in order
+                List<?> items = (List<?>) payload;
+                long startNanos = System.nanoTime();
+                ArrayList<String> results = runBatch(items);
+                System.out.printf("Master: batch of %d items done in %.1f ms%n",
+                        items.size(), (System.nanoTime() - startNanos) / 1e6);
+                client.writeObject(results);
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Master: Error processing batch: " + e.getMessage());
+                e.printStackTrace();
+                client.writeObject("Error processing batch: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.equals("importStores")) {
+            try {
+                // A directory of store JSON files or a .zip of them
+                String source = (String) payload;
+                System.out.println("Master received importStores command for: " + source);
+                client.writeObject(importStores(Paths.get(source)));
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Master: Error processing importStores: " + e.getMessage());
+                e.printStackTrace();
+                client.writeObject("Error importing stores: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else if (command.equals("reducerResults")) {
+            // Receive aggregated results from the Reducer
+            Object data = payload;
+            if (data instanceof Map) {
+                @SuppressWarnings("unchecked") // Suppress the unchecked cast warning
+                Map<String, Object> resultMap = (Map<String, Object>) data;
+                processReducerResults(resultMap);
+                client.writeObject("acknowledged");
+                client.flush();
+            } else {
+                client.writeObject("Invalid data format");
+                client.flush();
+            }
+        }
+        else if (command.startsWith("getAnalytics")) {
+            // Format: getAnalytics or getAnalytics <partition>
+            String argument = command.substring("getAnalytics".length()).trim();
+            int partition = argument.isEmpty() ? -1 : Integer.parseInt(argument);
+            Map<String, Object> merged = queryReducerPartitions(partition);
+            client.writeObject(merged.isEmpty() ? "No analytics available" : formatReducerResults(merged));
+            client.flush();
+        }
+        else if (command.startsWith("getStoreProducts")) {
             try {
-                // Connect to worker
-                //workerSocket = new Socket(hostAddress, workerPort);
-                //out = new ObjectOutputStream(workerSocket.getOutputStream());
-                //in = new ObjectInputStream(workerSocket.getInputStream());
+                // Format: getStoreProducts|storeName
+                String storeName = command.substring("getStoreProducts|".length()).trim();
+                System.out.println("Master received getStoreProducts request for store: " + storeName);
+            
+                // Forward to appropriate worker
+                String result = getStoreVisibleProducts(storeName);
+                client.writeObject(result);
+                client.flush();
+            } catch (Exception e) {
+                System.err.println("Error processing getStoreProducts: " + e.getMessage());
+                e.printStackTrace();
+                client.writeObject("Error: " + e.getMessage());
+                client.flush();
+            }
+        }
+        else {
+            client.writeObject("Unknown command");
+            client.flush();
+        }
+    }
+
+    // Send a change to a worker, tagged with the client's request ID so a retry isn't applied twice
+    private String forwardToWorker(WorkerConnection worker, String command, Object payload) {
+        Object response = requestFromWorker(worker, RequestIds.tag(requestId, command), payload);
+        return response == null || response instanceof String ? (String) response : String.valueOf(response);
+    }
+
+    /**
+     * Send one request to a worker and return its response as received: a message string,
+     * or a typed partial result (a list of StoreMatch, ProductMatch or SalesTotal).
+     */
+    private Object requestFromWorker(WorkerConnection worker, String command, Object payload) {
+        return requestFromWorker(worker, command, payload, null);
+    }
 
-                // Send command and payload
-                workerOut.writeObject(command);
-                workerOut.writeObject(payload);
-                workerOut.flush();
+    // race, if not null, is the hedged read this request is a copy of; it isn't sent once the race is decided
+    private Object requestFromWorker(WorkerConnection worker, String command, Object payload, Hedging.Race race) {
+        try {
+            System.out.println("Forwarding to worker on port " + worker.getPort() + ": " + command);
 
-                // Get the response from worker
-                String response = (String) workerIn.readObject();
-                System.out.println("Response from worker: " + response);
+            changeInFlight(worker, 1);
+            try {
+                // Send command and payload, and get the response from worker
+                long startNanos = System.nanoTime();
+                Object response = worker.request(command, payload, race != null ? race::cancelled : null);
+                if (response == null && race != null) {
+                    return CANCELLED;
+                }
+                recordRoundTrip(command, worker, System.nanoTime() - startNanos);
+                System.out.println("Response from worker: " +
+                        (response instanceof List ? ((List<?>) response).size() + " results" : response));
 
                 // Return the worker's response so it can be sent back to the Manager
                 return response;
 
+            } catch (WorkerConnection.Unavailable e) {
+                return "Error: " + e.getMessage();
+            } catch (SocketTimeoutException e) {
+                System.err.println("Worker on port " + worker.getPort() + " did not answer " + commandType(command) + " in time");
+                return "Error: worker on port " + worker.getPort() + " timed out";
             } catch (IOException e) {
-                System.err.println("Failed to connect to worker on port " + workerSocket.getPort() + ": " + e.getMessage());
+                System.err.println("Failed to connect to worker on port " + worker.getPort() + ": " + e.getMessage());
                 return "Error: Failed to connect to worker node - " + e.getMessage();
+            } finally {
+                changeInFlight(worker, -1);
             }
         } catch (Exception e) {
             System.err.println("Error in forwardToWorker: " + e.getMessage());
@@ -260,6 +388,238 @@ public class MasterHandler extends Thread {
         }
     }
 
+    /**
+     * Run a read over the stores of every slice, each slice answered by the least busy
+     * worker holding a copy of it. A worker is sent all the slices it answers for as the
+     * request's payload, so one request per worker still covers them. The requests go out
+     * at the same time and each may be hedged. The slices of a worker that fails are asked
+     * once more of another worker holding them; slices nobody answered for are added to
+     * missing, with the reason, and the result is partial.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<List<T>> readSlices(String command, List<String> missing) {
+        int workerCount = workerPorts.size();
+        List<Integer> slices = new ArrayList<>();
+        for (int slice = 0; slice < workerCount; slice++) {
+            slices.add(slice);
+        }
+        List<List<T>> partials = new ArrayList<>();
+        Set<WorkerConnection> failed = new HashSet<>();
+        Map<Integer, String> failures = new HashMap<>();
+        for (int attempt = 0; attempt < 2 && !slices.isEmpty(); attempt++) {
+            // Slices already planned count as load, so one request doesn't all go to one worker
+            Map<WorkerConnection, ArrayList<Integer>> plan = new LinkedHashMap<>();
+            for (int slice : slices) {
+                WorkerConnection worker = leastBusy(slice, failed, plan);
+                if (worker == null) {
+                    System.err.println("No worker left holding slice " + slice + " for " + commandType(command));
+                    missing.add("slice " + slice + " (" + failures.getOrDefault(slice, "no worker holding it answered") + ")");
+                    continue;
+                }
+                plan.computeIfAbsent(worker, k -> new ArrayList<>()).add(slice);
+            }
+            Set<WorkerConnection> excluded = new HashSet<>(failed);
+            // One sender per worker, all at the same time
+            Object[] responses = new Object[plan.size()];
+            List<Thread> senders = new ArrayList<>();
+            for (Map.Entry<WorkerConnection, ArrayList<Integer>> entry : plan.entrySet()) {
+                WorkerConnection worker = entry.getKey();
+                ArrayList<Integer> group = entry.getValue();
+                int index = senders.size();
+                Thread sender = new Thread(() -> responses[index] = hedgedRead(worker,
+                        () -> otherHolder(group, worker, excluded), command, group, r -> r instanceof List),
+                        "master-read-" + worker.getPort());
+                senders.add(sender);
+                sender.start();
+            }
+            // join() also makes the senders' writes to responses visible here
+            try {
+                for (Thread sender : senders) {
+                    sender.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<Integer> retry = new ArrayList<>();
+            int next = 0;
+            for (Map.Entry<WorkerConnection, ArrayList<Integer>> entry : plan.entrySet()) {
+                Object response = responses[next++];
+                if (response == null) {
+                    response = "Error: interrupted";
+                }
+                if (response instanceof List) {
+                    partials.add((List<T>) response);
+                } else {
+                    System.err.println("Worker on port " + entry.getKey().getPort() + " returned no results for slices " +
+                            entry.getValue() + ": " + response);
+                    failed.add(entry.getKey());
+                    retry.addAll(entry.getValue());
+                    for (int slice : entry.getValue()) {
+                        failures.put(slice, failureReason(response));
+                    }
+                }
+            }
+            slices = retry;
+        }
+        for (int slice : slices) {
+            missing.add("slice " + slice + " (" + failures.get(slice) + ")");
+        }
+        return partials;
+    }
+
+    /**
+     * Send a read about one store to the least busy worker holding it, and to another one
+     * if that worker answers with an error.
+     */
+    private Object readFromReplicas(String storeName, String command, Object payload) {
+        int slice = StoreRouting.primaryFor(storeName, workerPorts.size());
+        Set<WorkerConnection> failed = new HashSet<>();
+        Object response = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            WorkerConnection worker = leastBusy(slice, failed, null);
+            if (worker == null) break;
+            Set<WorkerConnection> excluded = new HashSet<>(failed);
+            response = hedgedRead(worker, () -> otherHolder(Collections.singletonList(slice), worker, excluded),
+                    command, payload, r -> !(r instanceof String && ((String) r).startsWith("Error")));
+            if (!(response instanceof String && ((String) response).startsWith("Error"))) break;
+            failed.add(worker);
+        }
+        return response;
+    }
+
+    /**
+     * Send a read to a worker and, if it hasn't answered within the recent p95 round trip
+     * of its command type, the same read to the worker hedgeTarget picks; the first usable
+     * answer is returned (see Hedging).
+     */
+    private Object hedgedRead(WorkerConnection worker, Supplier<WorkerConnection> hedgeTarget, String command, Object payload,
+                              Predicate<Object> usable) {
+        long delayNanos = Hedging.delayNanos(commandType(command));
+        if (delayNanos < 0) {
+            return requestFromWorker(worker, command, payload);
+        }
+        Hedging.Race race = new Hedging.Race();
+        sendCopy(race, false, worker, command, payload, usable);
+        try {
+            if (!race.await(delayNanos)) {
+                WorkerConnection other = hedgeTarget.get();
+                if (other != null && Hedging.tryAcquire()) {
+                    System.out.printf("Hedging %s: worker on port %d slower than p95 %.1f ms, also asking port %d%n",
+                            commandType(command), worker.getPort(), delayNanos / 1e6, other.getPort());
+                    sendCopy(race, true, other, command, payload, usable);
+                }
+                race.await(0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error: interrupted waiting for worker on port " + worker.getPort();
+        }
+        return race.answer();
+    }
+
+    private void sendCopy(Hedging.Race race, boolean hedge, WorkerConnection worker, String command, Object payload,
+                          Predicate<Object> usable) {
+        race.start();
+        // The race hands the first usable answer to the reader; a losing copy finishes on its own
+        Thread copy = new Thread(() -> {
+            Object response = requestFromWorker(worker, command, payload, race);
+            race.finish(hedge, response, response != CANCELLED && usable.test(response));
+        }, "master-read-" + worker.getPort());
+        copy.setDaemon(true);
+        copy.start();
+    }
+
+    // The least busy worker other than except holding every one of the slices; null if there is none
+    private WorkerConnection otherHolder(List<Integer> slices, WorkerConnection except, Set<WorkerConnection> failed) {
+        int workerCount = workerPorts.size();
+        WorkerConnection best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int index = 0; index < workers.size(); index++) {
+            WorkerConnection worker = workers.get(index);
+            if (worker == except || failed.contains(worker) || !worker.isAvailable()) continue;
+            boolean holdsAll = true;
+            for (int slice : slices) {
+                holdsAll &= StoreRouting.holds(index, slice, workerCount);
+            }
+            if (!holdsAll) continue;
+            int load;
+            synchronized (inFlight) {
+                load = inFlight.getOrDefault(worker.getPort(), 0);
+            }
+            if (load < bestLoad) {
+                best = worker;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    // The holder of a slice with the fewest requests in flight (plus slices already planned
+    // for it), leaving out failed workers; null if every holder failed
+    private WorkerConnection leastBusy(int slice, Set<WorkerConnection> failed, Map<WorkerConnection, ArrayList<Integer>> planned) {
+        int workerCount = workerPorts.size();
+        int copies = StoreRouting.backupsFor(workerCount) + 1;
+        int first;
+        synchronized (inFlight) {
+            first = readRotation++ % copies;
+        }
+        WorkerConnection best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < copies; i++) {
+            int index = StoreRouting.holderOf(slice, (first + i) % copies, workerCount);
+            if (index >= workers.size()) continue;
+            WorkerConnection worker = workers.get(index);
+            if (failed.contains(worker)) continue;
+            int load;
+            synchronized (inFlight) {
+                load = inFlight.getOrDefault(worker.getPort(), 0);
+            }
+            if (planned != null && planned.containsKey(worker)) {
+                load += planned.get(worker).size();
+            }
+            if (!worker.isAvailable()) {
+                // Its breaker is open: only asked if no other holder is left, and then it fails fast
+                load += UNAVAILABLE_LOAD;
+            }
+            if (load < bestLoad) {
+                best = worker;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private static void changeInFlight(WorkerConnection worker, int delta) {
+        synchronized (inFlight) {
+            inFlight.merge(worker.getPort(), delta, Integer::sum);
+        }
+    }
+
+    /**
+     * Collect one typed partial result per worker; workers that answered with an
+     * error message are logged, left out and added to missing.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<List<T>> collectPartials(Iterable<WorkerConnection> workers, String command, List<String> missing) {
+        List<List<T>> partials = new ArrayList<>();
+        for (WorkerConnection worker : workers) {
+            Object response = requestFromWorker(worker, command, null);
+            if (response instanceof List) {
+                partials.add((List<T>) response);
+            } else {
+                System.err.println("Worker on port " + worker.getPort() + " returned no results: " + response);
+                missing.add("worker on port " + worker.getPort() + " (" + failureReason(response) + ")");
+            }
+        }
+        return partials;
+    }
+
+    // "Error: worker on port 7002 timed out" -> "worker on port 7002 timed out"
+    private static String failureReason(Object response) {
+        String reason = String.valueOf(response);
+        return reason.startsWith("Error: ") ? reason.substring("Error: ".length()) : reason;
+    }
+
     /**
      * Adds a store from a JSON file path
      * This method is preserved for potential future use in direct file loading
@@ -285,25 +645,26 @@ public class MasterHandler extends Thread {
             }
 
             // Get the worker port for this store
-            Socket workerSocket = getWorkerNode(storeName);
+            WorkerConnection worker = getWorkerNode(storeName);
 
             // Check if the store already exists on the worker before adding
-            Store existingStore = checkIfStoreExists(storeName, workerSocket);
+            Store existingStore = checkIfStoreExists(storeName, worker);
+            LogoServer.register(store);
             if (existingStore != null) {
-                System.out.println("Store '" + storeName + "' already exists on worker port " + workerSocket.getPort() + ", skipping add");
+                System.out.println("Store '" + storeName + "' already exists on worker port " + worker.getPort() + ", skipping add");
                 return new String[]{"true", "true"}; // Return true since the store is already in the system
             }
 
             // Store doesn't exist, proceed with adding it
             String command = "addStore " + storeName;
-            System.out.println("Forwarding store to worker on port " + workerSocket.getPort() + ": " + storeName);
+            System.out.println("Forwarding store to worker on port " + worker.getPort() + ": " + storeName);
             
             // Forward the actual Store object, not just its string representation
-            String response = forwardToWorker(workerSocket, command, store);
+            String response = forwardToWorker(worker, command, store);
             
             boolean success = response != null && !response.startsWith("Error");
             if (success) {
-                System.out.println("Store '" + storeName + "' added successfully to worker on port " + workerSocket.getPort());
+                System.out.println("Store '" + storeName + "' added successfully to worker on port " + worker.getPort());
             } else {
                 System.err.println("Failed to add store to worker: " + response);
             }
@@ -320,38 +681,16 @@ public class MasterHandler extends Thread {
         try {
             System.out.println("Master: Looking up store info for: " + storeName);
 
-            // Determine which worker node handles this store
-            Socket workerSocket = getWorkerNode(storeName);
-            System.out.println("Master: Forwarding request to worker on port: " + workerSocket.getPort());
-
-            // Forward the command and store name to the worker
-            String command = "getStoreInfo";
-
-
-            try {
-                ObjectOutputStream workerOut = getOutput(workerSocket);
-                ObjectInputStream workerIn = getInput(workerSocket);
+            // Any worker holding a copy of the store can answer
+            Object response = readFromReplicas(storeName, "getStoreInfo", storeName);
 
-                // Send command and store name to worker
-                workerOut.writeObject(command);
-                workerOut.writeObject(storeName);
-                workerOut.flush();
-
-                // Read response from worker
-                Object response = workerIn.readObject();
-
-                // Check if response is a Store object
-                if (response instanceof Store) {
-                    System.out.println("Master: Successfully retrieved store info");
-                    return (Store) response;
-                } else {
-                    System.out.println("Master: Worker returned: " + response);
-                    return null;
-                }
-            } finally {
-                if (workerSocket != null) {
-                    workerSocket.close();
-                }
+            // Check if response is a Store object
+            if (response instanceof Store) {
+                System.out.println("Master: Successfully retrieved store info");
+                return (Store) response;
+            } else {
+                System.out.println("Master: Worker returned: " + response);
+                return null;
             }
         } catch (Exception e) {
             System.err.println("Master: Error getting store info: " + e.getMessage());
@@ -360,39 +699,30 @@ public class MasterHandler extends Thread {
         }
     }
 
-    private boolean forwardUpdateStockToWorker(List<Object> payload) {
+    private boolean forwardUpdateStockToWorker(ProductUpdate update) {
         try {
-            if (payload.size() != 3) {
-                System.err.println("Invalid payload size for updateProductStock");
-                return false;
-            }
-
-            Product selectedProduct = (Product) payload.get(0);
-            Boolean isAddOperation = (Boolean) payload.get(1); // true for add, false for reduce
-            int quantity = (int) payload.get(2);
-
-            String storeName = selectedProduct.getStore().getStoreName();
+            String storeName = update.getStoreName();
             System.out.println("Processing request to update stock for product '" +
-                    selectedProduct.getProductName() + "' in store: " + storeName);
-            System.out.println("Operation: " + (isAddOperation ? "Add" : "Reduce") +
-                    " " + quantity + " to product stock");
+                    update.getProductName() + "' in store: " + storeName);
+            System.out.println("Operation: " + (update.getStockDelta() >= 0 ? "Add" : "Reduce") +
+                    " " + Math.abs(update.getStockDelta()) + " to product stock");
 
             // Determine which worker node handles this store
-            Socket workerSocket = getWorkerNode(storeName);
-            System.out.println("Forwarding stock update request to worker on port: " + workerSocket.getPort());
+            WorkerConnection worker = getWorkerNode(storeName);
+            System.out.println("Forwarding stock update request to worker on port: " + worker.getPort());
 
             // Create a command to send to the worker
             String command = "updateStock";
 
             // Forward the command and update data to the worker
-            String response = forwardToWorker(workerSocket, command, payload);
+            String response = forwardToWorker(worker, command, update);
 
             // Check worker response
             boolean success = response != null && !response.startsWith("Error") &&
                     response.contains("successfully updated stock");
 
             if (success) {
-                System.out.println("Stock for product '" + selectedProduct.getProductName() +
+                System.out.println("Stock for product '" + update.getProductName() +
                         "' successfully updated in worker's memory for store: " + storeName);
             } else {
                 System.err.println("Failed to update product stock in worker's memory: " + response);
@@ -406,21 +736,21 @@ public class MasterHandler extends Thread {
         }
     }
 
-    private boolean addProductToStore(Product newProduct) {
+    private boolean addProductToStore(ProductUpdate newProduct) {
         try {
-            String storeName = newProduct.getStore().getStoreName();
+            String storeName = newProduct.getStoreName();
             System.out.println("Processing request to add product '" + 
                                newProduct.getProductName() + "' to store: " + storeName);
             
             // Determine which worker node handles this store
-            Socket workerSocket = getWorkerNode(storeName);
-            System.out.println("Forwarding product addition request to worker on port: " + workerSocket.getPort());
+            WorkerConnection worker = getWorkerNode(storeName);
+            System.out.println("Forwarding product addition request to worker on port: " + worker.getPort());
             
             // Create a command to send to the worker
             String command = "addProduct";
             
             // Forward the command and product data to the worker
-            String response = forwardToWorker(workerSocket, command, newProduct);
+            String response = forwardToWorker(worker, command, newProduct);
             
             // Check worker response
             boolean success = response != null && response.contains("success");
@@ -440,21 +770,21 @@ public class MasterHandler extends Thread {
         }
     }
 
-    private boolean removeProductFromStore(Product selectedProduct) {
+    private boolean removeProductFromStore(ProductUpdate selectedProduct) {
         try {
-            String storeName = selectedProduct.getStore().getStoreName();
+            String storeName = selectedProduct.getStoreName();
             System.out.println("Processing request to remove product '" + 
                                selectedProduct.getProductName() + "' from store: " + storeName);
             
             // Determine which worker node handles this store
-            Socket workerSocket = getWorkerNode(storeName);
-            System.out.println("Forwarding product removal request to worker on port: " + workerSocket.getPort());
+            WorkerConnection worker = getWorkerNode(storeName);
+            System.out.println("Forwarding product removal request to worker on port: " + worker.getPort());
             
             // Create a command to send to the worker
             String command = "removeProduct";
             
             // Forward the command and product data to the worker
-            String response = forwardToWorker(workerSocket, command, selectedProduct);
+            String response = forwardToWorker(worker, command, selectedProduct);
             
             // Check worker response
             boolean success = response != null && response.contains("success");
@@ -474,6 +804,130 @@ public class MasterHandler extends Thread {
         }
     }
 
+    /**
+     * Split a batch by the worker that owns each item's store, send every worker its share
+     * as one request, all workers in parallel, and put the results back in the batch order.
+     */
+    private ArrayList<String> runBatch(List<?> items) throws InterruptedException {
+        String[] results = new String[items.size()];
+        Map<WorkerConnection, List<Integer>> indicesByWorker = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            Object item = items.get(i);
+            if (item instanceof ProductUpdate && ((ProductUpdate) item).getStoreName() != null) {
+                WorkerConnection worker = getWorkerNode(((ProductUpdate) item).getStoreName());
+                indicesByWorker.computeIfAbsent(worker, k -> new ArrayList<>()).add(i);
+            } else {
+                results[i] = "Failed: not a product update: " + item;
+            }
+        }
+
+        // A retried batch splits the same way, so each worker can recognize its share by the batch's ID
+        String batchCommand = RequestIds.tag(requestId, "batch");
+        List<Thread> senders = new ArrayList<>();
+        for (Map.Entry<WorkerConnection, List<Integer>> entry : indicesByWorker.entrySet()) {
+            WorkerConnection worker = entry.getKey();
+            List<Integer> indices = entry.getValue();
+            Thread sender = new Thread(() -> {
+                ArrayList<ProductUpdate> share = new ArrayList<>(indices.size());
+                for (int index : indices) {
+                    share.add((ProductUpdate) items.get(index));
+                }
+                System.out.println("Master: sending " + share.size() + " batch items to worker on port " + worker.getPort());
+                Object response = requestFromWorker(worker, batchCommand, share);
+                List<?> workerResults = response instanceof List ? (List<?>) response : null;
+                for (int i = 0; i < indices.size(); i++) {
+                    results[indices.get(i)] = workerResults != null && i < workerResults.size()
+                            ? String.valueOf(workerResults.get(i))
+                            : "Failed: " + response;
+                }
+            }, "batch-worker-" + worker.getPort());
+            senders.add(sender);
+            sender.start();
+        }
+        // join() also makes the senders' writes to results visible here
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Bulk import: parse every store file in source in parallel, then stream the stores to
+     * their owning workers in batches of IMPORT_BATCH_SIZE, all workers in parallel. Stores
+     * a worker already has are skipped, which also makes a retried import safe without
+     * request IDs. Progress and throughput are printed as batches complete.
+     * @return a summary for the Manager
+     */
+    private String importStores(Path source) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        CatalogImport.Result parsed;
+        int fileCount;
+        try (CatalogImport catalog = new CatalogImport(source)) {
+            fileCount = catalog.fileCount();
+            parsed = catalog.parseAll();
+        }
+        double parseSeconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("Master: import parsed %d of %d files in %.2f s (%.0f files/s)%n",
+                parsed.stores.size(), fileCount, parseSeconds, fileCount / Math.max(parseSeconds, 1e-9));
+        for (String error : parsed.errors) {
+            System.err.println("Master: import skipped " + error);
+        }
+
+        Map<WorkerConnection, List<Store>> storesByWorker = new HashMap<>();
+        for (Store store : parsed.stores) {
+            LogoServer.register(store);
+            storesByWorker.computeIfAbsent(getWorkerNode(store.getStoreName()), k -> new ArrayList<>()).add(store);
+        }
+
+        // sent, added, existing, failed
+        int[] counts = new int[4];
+        int total = parsed.stores.size();
+        long sendStartNanos = System.nanoTime();
+        List<Thread> senders = new ArrayList<>();
+        for (Map.Entry<WorkerConnection, List<Store>> entry : storesByWorker.entrySet()) {
+            WorkerConnection worker = entry.getKey();
+            List<Store> stores = entry.getValue();
+            Thread sender = new Thread(() -> {
+                for (int from = 0; from < stores.size(); from += IMPORT_BATCH_SIZE) {
+                    ArrayList<Store> batch = new ArrayList<>(
+                            stores.subList(from, Math.min(from + IMPORT_BATCH_SIZE, stores.size())));
+                    Object response = requestFromWorker(worker, "addStores", batch);
+                    List<?> results = response instanceof List ? (List<?>) response : null;
+                    synchronized (counts) {
+                        counts[0] += batch.size();
+                        for (int i = 0; i < batch.size(); i++) {
+                            String result = results != null && i < results.size() ? String.valueOf(results.get(i)) : null;
+                            if ("OK".equals(result)) counts[1]++;
+                            else if ("Exists".equals(result)) counts[2]++;
+                            else counts[3]++;
+                        }
+                        double seconds = (System.nanoTime() - sendStartNanos) / 1e9;
+                        System.out.printf("Master: import %d/%d stores sent, %.0f stores/s%n",
+                                counts[0], total, counts[0] / Math.max(seconds, 1e-9));
+                    }
+                    if (results == null) {
+                        System.err.println("Master: import batch to worker on port " + worker.getPort() +
+                                " failed: " + response);
+                    }
+                }
+            }, "import-worker-" + worker.getPort());
+            senders.add(sender);
+            sender.start();
+        }
+        // join() also makes the senders' counts visible here
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String summary = String.format("Imported %d stores from %d files in %.2f s (%.0f stores/s): " +
+                        "%d added, %d already present, %d failed, %d files could not be parsed",
+                total, fileCount, seconds, total / Math.max(seconds, 1e-9),
+                counts[1], counts[2], counts[3], parsed.errors.size());
+        System.out.println("Master: " + summary);
+        return summary;
+    }
+
     private String findNearbyStores(String command) {
         try {
             // Parse the search parameters to determine which stores to query
@@ -488,60 +942,12 @@ public class MasterHandler extends Thread {
             
             System.out.println("Processing findNearbyStores command with radius=" + radius);
 
-            // Get all store files to determine which workers to query
-            Path storesDir = Paths.get(STORES_DIR);
-            System.out.println("Looking for stores in directory: " + storesDir.toAbsolutePath());
-            
-            if (!Files.exists(storesDir)) {
-                System.err.println("Stores directory not found: " + storesDir.toAbsolutePath());
-                return "No stores found";
-            }
-            
-            // Map to collect and merge results from workers
-            StringBuilder mergedResults = new StringBuilder();
-            int totalStoresFound = 0;
-            Set<Integer> queriedWorkers = new HashSet<>();
-            
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(storesDir, "*.json")) {
-                for (Path file : stream) {
-                    String storeName = file.getFileName().toString().replace(".json", "");
-                    
-                    // Determine which worker handles this store
-                    Socket workerSocket = getWorkerNode(storeName);
-                    int workerPort = workerSocket.getPort();
-                    // Only forward to each worker once
-                    if (!queriedWorkers.contains(workerPort)) {
-                        queriedWorkers.add(workerPort);
-                        
-                        System.out.println("Forwarding findStores request to worker on port: " + workerSocket.getPort());
-                        String workerResponse = forwardToWorker(workerSocket, command, null);
-                        
-                        // Process worker response - append to results if valid
-                        if (workerResponse != null && !workerResponse.equals("No stores found") && 
-                            !workerResponse.startsWith("Error")) {
-                            
-                            if (totalStoresFound > 0) {
-                                mergedResults.append("|");
-                            }
-                            mergedResults.append(workerResponse);
-                            
-                            // Count stores in response by counting pipe separators + 1
-                            int workerStoreCount = 1;
-                            for (int i = 0; i < workerResponse.length(); i++) {
-                                if (workerResponse.charAt(i) == '|') {
-                                    workerStoreCount++;
-                                }
-                            }
-                            
-                            totalStoresFound += workerStoreCount;
-                            System.out.println("Worker returned " + workerStoreCount + " stores");
-                        }
-                    }
-                }
-            }
-            
-            // Return the aggregated results
-            return totalStoresFound > 0 ? mergedResults.toString() : "No stores found";
+            // Every slice is answered by one of its replicas, each sorted by distance; merge them and format once
+            List<String> missing = new ArrayList<>();
+            List<List<StoreMatch>> partials = readSlices(command, missing);
+            List<StoreMatch> stores = ResultMerger.mergeSorted(partials, StoreMatch.BY_DISTANCE);
+            System.out.println("Workers returned " + stores.size() + " stores");
+            return ResultMerger.markPartial(stores.isEmpty() ? "No stores found" : ResultMerger.formatStores(stores), missing);
             
         } catch (Exception e) {
             System.err.println("Error in findNearbyStores: " + e.getMessage());
@@ -554,68 +960,15 @@ public class MasterHandler extends Thread {
         try {
             System.out.println("Processing searchProducts command with term: \"" + searchTerm + "\"");
             
-            // Set up to collect search results from all workers
-            StringBuilder combinedResults = new StringBuilder("Products matching \"" + searchTerm + "\":\n");
-            int totalProductsFound = 0;
-            
-            // Need to query all worker nodes since any worker might have products matching the search
-            //for (Integer workerPort : workerPorts) {
-            for (Socket workerSocket : workerSockets) {
-                System.out.println("Forwarding search request to worker on port: " + workerSocket.getPort());
-                
-                // Create the search command
-                String command = "search " + searchTerm;
-                
-                // Forward the search command to this worker
-                String workerResponse = forwardToWorker(workerSocket, command, null);
-                
-                // Process and combine the results if valid
-                if (workerResponse != null && !workerResponse.startsWith("Error") && 
-                    !workerResponse.contains("No products found")) {
-                    
-                    // Parse worker response for results
-                    // Skip the header line and connect the results
-                    int headerEndIndex = workerResponse.indexOf('\n') + 1;
-                    if (headerEndIndex > 0 && headerEndIndex < workerResponse.length()) {
-                        String productListings = workerResponse.substring(headerEndIndex);
-                        
-                        // If we already have products, maintain proper numbering by renaming them
-                        if (totalProductsFound > 0) {
-                            // Split the product listings into lines
-                            String[] lines = productListings.split("\n");
-                            for (String line : lines) {
-                                if (!line.trim().isEmpty()) {
-                                    // Extract everything after the number
-                                    int dotIndex = line.indexOf(".");
-                                    if (dotIndex >= 0) {
-                                        String productInfo = line.substring(dotIndex + 1).trim();
-                                        combinedResults.append(++totalProductsFound).append(". ").append(productInfo).append("\n");
-                                    }
-                                }
-                            }
-                        } else {
-                            // This is the first worker with results, append directly
-                            combinedResults.append(productListings);
-                            
-                            // Count the number of products in the response
-                            String[] lines = productListings.split("\n");
-                            totalProductsFound = lines.length;
-                            
-                            // Remove empty lines from the count
-                            for (String line : lines) {
-                                if (line.trim().isEmpty()) {
-                                    totalProductsFound--;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            // Any slice might have products matching the search; each answers sorted by name
+            List<String> missing = new ArrayList<>();
+            List<List<ProductMatch>> partials = readSlices("search " + searchTerm, missing);
+            List<ProductMatch> products = ResultMerger.mergeSorted(partials, ProductMatch.BY_NAME);
             
             // Return the combined results or a "not found" message
-            return totalProductsFound > 0 ? 
-                   combinedResults.toString() : 
-                   "No products found matching \"" + searchTerm + "\".";
+            return ResultMerger.markPartial(products.isEmpty() ?
+                   "No products found matching \"" + searchTerm + "\"." :
+                   ResultMerger.formatProducts(searchTerm, products), missing);
             
         } catch (Exception e) {
             System.err.println("Error in searchProducts: " + e.getMessage());
@@ -628,6 +981,10 @@ public class MasterHandler extends Thread {
         try {
             // Format: buy|storeName|productName|quantity
             String[] parts = command.split("\\|");
+            if (parts.length > 2 && parts[2].contains(",")) {
+                // buy|storeName|product,quantity|... is a cart, as the app's checkout sends it
+                return processOrder(command);
+            }
             if (parts.length < 4) {
                 return "Invalid purchase command format. Expected: buy|storeName|productName|quantity";
             }
@@ -643,11 +1000,11 @@ public class MasterHandler extends Thread {
             payload.add(quantity);
             
             // Determine which worker node handles this store
-            Socket workerSocket = getWorkerNode(storeName);
-            System.out.println("Forwarding purchase request to worker on port: " + workerSocket.getPort());
+            WorkerConnection worker = getWorkerNode(storeName);
+            System.out.println("Forwarding purchase request to worker on port: " + worker.getPort());
             
             // Forward the command and purchase data to the worker
-            String response = forwardToWorker(workerSocket, "buy", payload);
+            String response = forwardToWorker(worker, "buy", payload);
             
             // Check worker response
             if (response != null && response.startsWith("Success")) {
@@ -664,6 +1021,245 @@ public class MasterHandler extends Thread {
         }
     }
 
+    /**
+     * Place an order of several products from one store, order|storeName|product,quantity|...
+     * The store's primary checks and takes the stock of every line at once, all or nothing,
+     * and answers with each line's result and the total, in a single request.
+     */
+    private String processOrder(String command) {
+        try {
+            String[] parts = command.split("\\|");
+            if (parts.length < 3) {
+                return "Invalid order command format. Expected: order|storeName|productName,quantity|...";
+            }
+            String storeName = parts[1];
+
+            // Payload: storeName, then each line's product name and quantity
+            List<Object> payload = new ArrayList<>();
+            payload.add(storeName);
+            String invalid = addOrderLines(parts, payload);
+            if (invalid != null) {
+                return invalid;
+            }
+
+            WorkerConnection worker = getWorkerNode(storeName);
+            System.out.println("Forwarding order of " + (parts.length - 2) + " lines to worker on port: " + worker.getPort());
+            String response = forwardToWorker(worker, "order", payload);
+            return response != null ? response : "Failed to process order";
+        } catch (NumberFormatException e) {
+            return "Invalid quantity format: " + e.getMessage();
+        } catch (Exception e) {
+            System.err.println("Error processing order: " + e.getMessage());
+            e.printStackTrace();
+            return "Error processing order: " + e.getMessage();
+        }
+    }
+
+    // Add the product name and quantity of each "productName,quantity" in parts, from the third on
+    private static String addOrderLines(String[] parts, List<Object> payload) {
+        for (int i = 2; i < parts.length; i++) {
+            int comma = parts[i].lastIndexOf(',');
+            if (comma < 0) {
+                return "Invalid order line \"" + parts[i] + "\". Expected: productName,quantity";
+            }
+            payload.add(parts[i].substring(0, comma));
+            payload.add(Integer.parseInt(parts[i].substring(comma + 1).trim()));
+        }
+        return null;
+    }
+
+    /**
+     * Reserve stock for a cart at one store, reserve|cartId|storeName|product,quantity|...
+     * The lines are all of the cart's lines from the store; the store's primary holds them
+     * for a few minutes, all or nothing, so they are still there at checkout. Reserving
+     * again renews the reservation, and reserving no lines gives the stock back.
+     */
+    private String processReserve(String command) {
+        try {
+            String[] parts = command.split("\\|");
+            if (parts.length < 3) {
+                return "Invalid reserve command format. Expected: reserve|cartId|storeName|productName,quantity|...";
+            }
+            // Payload: cart ID, storeName, then each line's product name and quantity
+            List<Object> payload = new ArrayList<>();
+            payload.add(parts[1]);
+            payload.add(parts[2]);
+            // The lines start one part later than an order's
+            String invalid = addOrderLines(Arrays.copyOfRange(parts, 1, parts.length), payload);
+            if (invalid != null) {
+                return invalid;
+            }
+
+            WorkerConnection worker = getWorkerNode(parts[2]);
+            String response = forwardToWorker(worker, "reserve", payload);
+            return response != null ? response : "Failed to reserve stock";
+        } catch (NumberFormatException e) {
+            return "Invalid quantity format: " + e.getMessage();
+        } catch (Exception e) {
+            System.err.println("Error processing reserve: " + e.getMessage());
+            e.printStackTrace();
+            return "Error processing reserve: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Check out a cart from several stores, all or nothing,
+     * checkout|cartId|storeName|product,quantity|...;storeName|product,quantity|...
+     *
+     * Two phases, each one parallel round trip: every involved store's primary is asked to
+     * hold its lines' stock, then, if all of them hold it, to buy what it holds, and
+     * otherwise to give it back. Each store's hold is named after the checkout's request
+     * ID and the store, checkoutId@encodedStoreName, so a retried checkout finds the holds (or
+     * orders) of its first try at the same stores, whatever their order; a retry after
+     * a commit that didn't reach every store completes it. A store that refuses its commit,
+     * its hold having expired or its stock having been lowered meanwhile, is told to release
+     * the hold, and the answer says that store's part can't be bought. The holds take over the
+     * reservations of the cart named in the command (see processReserve); the request ID
+     * names this checkout attempt only, so a changed cart is checked out under a new one.
+     */
+    private String processCheckout(String command) {
+        try {
+            // Lines per store, a store named twice getting all of its lines
+            String usage = "Invalid checkout command format. Expected: " +
+                    "checkout|cartId|storeName|productName,quantity|...;storeName|productName,quantity|...";
+            String stores = command.substring("checkout|".length());
+            int bar = stores.indexOf('|');
+            if (bar <= 0) {
+                return usage;
+            }
+            String cartId = stores.substring(0, bar);
+            Map<String, List<Object>> payloads = new LinkedHashMap<>();
+            for (String segment : stores.substring(bar + 1).split(";")) {
+                String[] parts = ("checkout|" + segment.trim()).split("\\|");
+                if (parts.length < 3) {
+                    return usage;
+                }
+                List<Object> lines = payloads.computeIfAbsent(parts[1], k -> new ArrayList<>());
+                String invalid = addOrderLines(parts, lines);
+                if (invalid != null) {
+                    return invalid;
+                }
+            }
+
+            String checkoutId = requestId != null ? requestId : RequestIds.newId();
+            if (checkoutId.equals(cartId)) {
+                // Its holds would be named like the cart's reservations
+                return "Error: A checkout's request ID must not be its cart ID";
+            }
+            List<String> storeNames = new ArrayList<>(payloads.keySet());
+            List<WorkerConnection> primaries = new ArrayList<>();
+            List<String> holdIds = new ArrayList<>();
+            List<Object> preparePayloads = new ArrayList<>();
+            for (int i = 0; i < storeNames.size(); i++) {
+                // A request ID has no spaces; encoded, no two store names give the same one
+                String holdId = checkoutId + "@" + URLEncoder.encode(storeNames.get(i), StandardCharsets.UTF_8);
+                // Payload: hold ID, cart ID, storeName, then each line's product name and quantity
+                ArrayList<Object> payload = new ArrayList<>();
+                payload.add(holdId);
+                payload.add(cartId);
+                payload.add(storeNames.get(i));
+                payload.addAll(payloads.get(storeNames.get(i)));
+                primaries.add(getWorkerNode(storeNames.get(i)));
+                holdIds.add(holdId);
+                preparePayloads.add(payload);
+            }
+            System.out.println("Checkout " + checkoutId + ": preparing " + storeNames.size() + " stores");
+
+            // Phase one: hold. A hold's ID is also its prepare's request ID, so a retry is
+            // answered as the first try was, unless the hold was released since
+            List<String> prepared = requestAll(primaries, "prepare", holdIds, preparePayloads);
+            List<String> rejections = new ArrayList<>();
+            for (String answer : prepared) {
+                if (!answer.startsWith("Prepared")) {
+                    rejections.add(answer.startsWith("Error: ") ? answer.substring("Error: ".length()) : answer);
+                }
+            }
+
+            if (!rejections.isEmpty()) {
+                // Phase two, abort: every store is told, as one whose prepare timed out may hold anyway
+                requestAll(primaries, "release", null, new ArrayList<>(holdIds));
+                System.out.println("Checkout " + checkoutId + " rejected: " + String.join("; ", rejections));
+                return "Error: Checkout rejected, nothing was bought: " + String.join("; ", rejections);
+            }
+
+            // Phase two, commit
+            List<String> commitIds = new ArrayList<>();
+            for (String holdId : holdIds) {
+                commitIds.add(holdId + ".commit");
+            }
+            List<String> committed = requestAll(primaries, "commit", commitIds, new ArrayList<>(holdIds));
+            List<String> bought = new ArrayList<>();
+            // A store that refused the commit never will; one that didn't answer may still
+            // hold the stock or have bought it, and a retry finds out which
+            List<String> refused = new ArrayList<>();
+            List<String> unconfirmed = new ArrayList<>();
+            List<WorkerConnection> refusedPrimaries = new ArrayList<>();
+            List<Object> refusedHolds = new ArrayList<>();
+            for (int i = 0; i < committed.size(); i++) {
+                String answer = committed.get(i);
+                if (answer.startsWith("Success")) {
+                    bought.add(answer);
+                } else if (answer.startsWith("Refused: ")) {
+                    refused.add(storeNames.get(i) + " (" + answer.substring("Refused: ".length()) + ")");
+                    refusedPrimaries.add(primaries.get(i));
+                    refusedHolds.add(holdIds.get(i));
+                } else {
+                    unconfirmed.add(storeNames.get(i) + " (" + failureReason(answer) + ")");
+                }
+            }
+            if (refused.isEmpty() && unconfirmed.isEmpty()) {
+                return "Success: Checkout from " + storeNames.size() + " stores:\n" + String.join("\n", bought);
+            }
+            if (!refused.isEmpty()) {
+                // Their stock goes back; a hold that can't be filled any more is of no use
+                requestAll(refusedPrimaries, "release", null, refusedHolds);
+            }
+            System.err.println("Checkout " + checkoutId + " only partly committed: refused at " + refused +
+                    ", unconfirmed at " + unconfirmed);
+            String answer = bought.isEmpty() && unconfirmed.isEmpty()
+                    ? "Error: Checkout failed, nothing was bought." : "Error: Checkout partly committed.";
+            if (!refused.isEmpty()) {
+                answer += " Not bought, and retrying won't buy it: " + String.join("; ", refused) + ".";
+            }
+            if (!unconfirmed.isEmpty()) {
+                answer += " Not confirmed yet, retry the checkout to complete it: " + String.join("; ", unconfirmed) + ".";
+            }
+            return answer + (bought.isEmpty() ? "" : " Bought:\n" + String.join("\n", bought));
+        } catch (NumberFormatException e) {
+            return "Invalid quantity format: " + e.getMessage();
+        } catch (Exception e) {
+            System.err.println("Error processing checkout: " + e.getMessage());
+            e.printStackTrace();
+            return "Error processing checkout: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Send one request to each of the workers at the same time and wait for all of them.
+     * @param requestIds the ID to tag each request with, or null for untagged requests
+     * @return each worker's answer, in order
+     */
+    private List<String> requestAll(List<WorkerConnection> targets, String command, List<String> requestIds,
+                                    List<Object> payloads) throws InterruptedException {
+        String[] answers = new String[targets.size()];
+        List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            WorkerConnection worker = targets.get(i);
+            String tagged = RequestIds.tag(requestIds != null ? requestIds.get(i) : null, command);
+            Object payload = payloads.get(i);
+            int index = i;
+            Thread sender = new Thread(() -> answers[index] = String.valueOf(requestFromWorker(worker, tagged, payload)),
+                    command + "-" + worker.getPort());
+            senders.add(sender);
+            sender.start();
+        }
+        // join() also makes the senders' writes to answers visible here
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        return new ArrayList<>(Arrays.asList(answers));
+    }
+
     /**
      * Gets sales data for stores in a particular food category
      * @param foodCategory The food category to filter by
@@ -673,59 +1269,15 @@ public class MasterHandler extends Thread {
         try {
             System.out.println("Retrieving sales data for food category: " + foodCategory);
             
-            // Create command for workers
-            String command = "getSalesByCategory " + foodCategory;
-            
-            // Track results from workers
-            StringBuilder results = new StringBuilder();
-            int totalSales = 0;
-            int totalStores = 0;
-            
-            // Need to query all worker nodes for this type of command since any worker
-            // could be handling stores with the target food category
-            //for (Integer workerPort : workerPorts) {
-            for (Socket workerSocket : workerSockets) {
-                System.out.println("Forwarding request to worker on port: " + workerSocket.getPort());
-                
-                // Forward the command to the worker
-                String workerResponse = forwardToWorker(workerSocket, command, null);
-                
-                // Process worker response if valid
-                if (workerResponse != null && !workerResponse.startsWith("Error") && 
-                    !workerResponse.equals("No sales data found for category: " + foodCategory)) {
-                    
-                    // Parse the response format: "StoreName:Count|StoreName:Count|...|Total:Count"
-                    String[] parts = workerResponse.split("\\|");
-                    
-                    // Extract individual store data and total from the worker
-                    int workerTotal = 0;
-                    
-                    for (String part : parts) {
-                        if (part.startsWith("Total:")) {
-                            // This is the total from this worker
-                            workerTotal = Integer.parseInt(part.substring("Total:".length()));
-                        } else if (part.contains(":")) {
-                            // This is a store entry
-                            if (totalStores > 0) {
-                                results.append("|");
-                            }
-                            results.append(part);
-                            totalStores++;
-                        }
-                    }
-                    
-                    // Add to global total
-                    totalSales += workerTotal;
-                }
-            }
+            // Any worker could be handling stores with the target food category;
+            // each store lives on exactly one worker, so the partial lists just add up
+            List<String> missing = new ArrayList<>();
+            List<List<SalesTotal>> partials = collectPartials(workers, "getSalesByCategory " + foodCategory, missing);
+            List<SalesTotal> stores = ResultMerger.sumByName(partials);
             
-            // Add the final total to results
-            if (totalStores > 0) {
-                results.append("|Total:").append(totalSales);
-                return results.toString();
-            } else {
-                return "No sales data found for category: " + foodCategory;
-            }
+            return ResultMerger.markPartial(stores.isEmpty() ?
+                   "No sales data found for category: " + foodCategory :
+                   ResultMerger.formatCategorySales(stores), missing);
             
         } catch (Exception e) {
             System.err.println("Error retrieving sales data: " + e.getMessage());
@@ -744,95 +1296,13 @@ public class MasterHandler extends Thread {
             System.out.println("Retrieving sales data for product: " + 
                               (productName.isEmpty() ? "all products" : productName));
             
-            // Create command for workers
-            String command = "getSalesByProduct " + productName;
-            
-            // Track results from workers
-            StringBuilder results = new StringBuilder();
-            int totalSales = 0;
-            double totalIncome = 0.0;
-            int productCount = 0;
-            
-            // Need to query all worker nodes since any worker might have relevant data
-            //for (Integer workerPort : workerPorts) {
-            for (Socket workerSocket : workerSockets) {
-                System.out.println("Forwarding request to worker on port: " + workerSocket.getPort());
-                
-                // Forward the command to the worker
-                String workerResponse = forwardToWorker(workerSocket, command, null);
-                
-                // Process worker response if valid
-                if (workerResponse != null && !workerResponse.startsWith("Error") && 
-                    !workerResponse.equals("No sales data found")) {
-                    
-                    // Parse the response format: "ProductName:Count:Income|...|Total:Count:Income"
-                    String[] parts = workerResponse.split("\\|");
-                    
-                    // Extract data from the worker response
-                    for (String part : parts) {
-                        if (part.startsWith("Total:")) {
-                            // This is the total from this worker
-                            String[] totalData = part.split(":");
-                            if (totalData.length >= 3) {
-                                totalSales += Integer.parseInt(totalData[1]);
-                                totalIncome += Double.parseDouble(totalData[2]);
-                            }
-                        } else if (part.contains(":")) {
-                            // This is a product entry
-                            // Check if we already have this product in our results
-                            String[] productData = part.split(":");
-                            String currentProduct = productData[0];
-                            int currentSales = Integer.parseInt(productData[1]);
-                            double currentIncome = Double.parseDouble(productData[2]);
-                            
-                            // Check if this product is already in our results
-                            boolean productFound = false;
-                            String[] existingProducts = results.toString().split("\\|");
-                            StringBuilder updatedResults = new StringBuilder();
-                            
-                            for (int i = 0; i < existingProducts.length; i++) {
-                                if (!existingProducts[i].isEmpty()) {
-                                    String[] existingData = existingProducts[i].split(":");
-                                    if (existingData[0].equals(currentProduct)) {
-                                        // Product already exists, update the counts
-                                        int updatedSales = Integer.parseInt(existingData[1]) + currentSales;
-                                        double updatedIncome = Double.parseDouble(existingData[2]) + currentIncome;
-                                        
-                                        if (i > 0) updatedResults.append("|");
-                                        updatedResults.append(currentProduct).append(":")
-                                                    .append(updatedSales).append(":")
-                                                    .append(updatedIncome);
-                                        productFound = true;
-                                    } else {
-                                        // Not the same product, keep it as is
-                                        if (i > 0) updatedResults.append("|");
-                                        updatedResults.append(existingProducts[i]);
-                                    }
-                                }
-                            }
-                            
-                            if (!productFound) {
-                                // New product, add it to results
-                                if (results.length() > 0) results.append("|");
-                                results.append(part);
-                                productCount++;
-                            } else {
-                                // Update results with the merged data
-                                results = updatedResults;
-                            }
-                        }
-                    }
-                }
-            }
+            // The same product name can sell on several workers; totals are added up by name
+            List<String> missing = new ArrayList<>();
+            List<List<SalesTotal>> partials = collectPartials(workers, "getSalesByProduct " + productName, missing);
+            List<SalesTotal> products = ResultMerger.sumByName(partials);
             
-            // Add the grand total to the results
-            if (productCount > 0) {
-                if (results.length() > 0) results.append("|");
-                results.append("Total:").append(totalSales).append(":").append(totalIncome);
-                return results.toString();
-            } else {
-                return "No sales data found";
-            }
+            return ResultMerger.markPartial(products.isEmpty() ? "No sales data found" :
+                   ResultMerger.formatProductSales(products), missing);
             
         } catch (Exception e) {
             System.err.println("Error retrieving product sales data: " + e.getMessage());
@@ -848,61 +1318,174 @@ public class MasterHandler extends Thread {
      * and sales information.
      */
     private void processReducerResults(Map<String, Object> data) {
+        System.out.println("\n=== Received Reducer Results ===");
+        System.out.print(formatReducerResults(data));
+        System.out.println("=====================================\n");
+    }
+
+    /**
+     * Query the Reducer partitions and merge their aggregated results
+     * @param partition Index of a single partition to query, or -1 for all of them
+     * @return Merged results, empty if no partition could be reached
+     */
+    private Map<String, Object> queryReducerPartitions(int partition) {
+        Map<String, Object> merged = new HashMap<>();
+        List<Integer> ports = ReducerPartitions.ports();
+        for (int i = 0; i < ports.size(); i++) {
+            if (partition >= 0 && partition != i) continue;
+
+            int reducerPort = ports.get(i);
+            try (MessageChannel reducer = MessageChannels.connect(ReducerPartitions.HOST, reducerPort)) {
+                reducer.writeObject("getAnalytics");
+                reducer.flush();
+
+                Object response = reducer.readObject();
+                if (response instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> partitionResults = (Map<String, Object>) response;
+                    partitionResults.remove("partitionPort");
+                    ReducerPartitions.mergeResults(merged, partitionResults);
+                    System.out.println("Master: Merged analytics from Reducer partition " + i + " (port " + reducerPort + ")");
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                System.err.println("Master: Reducer partition " + i + " (port " + reducerPort + ") unavailable: " + e.getMessage());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Format aggregated Reducer results as a readable report
+     */
+    private String formatReducerResults(Map<String, Object> data) {
+        StringBuilder report = new StringBuilder();
         try {
-            System.out.println("\n=== Received Reducer Results ===");
-            
             // Get total requests count
             Integer totalRequests = (Integer) data.getOrDefault("totalRequests", 0);
-            System.out.println("Total requests processed: " + totalRequests);
+            report.append("Total requests processed: ").append(totalRequests).append("\n");
             
             // Process system information
             Long systemStartTime = (Long) data.getOrDefault("systemStartTime", 0L);
             Long reportTime = (Long) data.getOrDefault("reportTime", System.currentTimeMillis());
             long uptimeMinutes = (reportTime - systemStartTime) / (1000 * 60);
-            System.out.println("System uptime: " + uptimeMinutes + " minutes");
+            report.append("System uptime: ").append(uptimeMinutes).append(" minutes\n");
             
             // Display request statistics by type
-            System.out.println("\nRequest Statistics by Type:");
+            report.append("\nRequest Statistics by Type:\n");
             for (String key : data.keySet()) {
                 if (key.startsWith("count_") && data.get(key) instanceof Integer) {
                     String requestType = key.substring("count_".length());
                     Integer count = (Integer) data.get(key);
-                    System.out.println("  " + requestType + ": " + count + " requests");
+                    report.append("  ").append(requestType).append(": ").append(count).append(" requests\n");
                 }
             }
             
             // Display worker statistics
-            System.out.println("\nWorker Node Statistics:");
+            report.append("\nWorker Node Statistics:\n");
             for (String key : data.keySet()) {
                 if (key.startsWith("worker_") && data.get(key) instanceof Map) {
                     String workerId = key.substring("worker_".length());
                     @SuppressWarnings("unchecked")
                     Map<String, Integer> workerStats = (Map<String, Integer>) data.get(key);
-                    System.out.println("  Worker " + workerId + ": " + 
-                                       workerStats.getOrDefault("requests", 0) + " requests");
+                    report.append("  Worker ").append(workerId).append(": ")
+                          .append(workerStats.getOrDefault("requests", 0)).append(" requests\n");
                 }
             }
             
             // Display store sales statistics
-            System.out.println("\nStore Sales Statistics:");
+            report.append("\nStore Sales Statistics:\n");
             for (String key : data.keySet()) {
                 if (key.startsWith("store_") && data.get(key) instanceof Map) {
                     String storeName = key.substring("store_".length());
                     @SuppressWarnings("unchecked")
                     Map<String, Integer> storeStats = (Map<String, Integer>) data.get(key);
-                    System.out.println("  " + storeName + ": " + 
-                                      storeStats.getOrDefault("totalSales", 0) + " total sales");
+                    report.append("  ").append(storeName).append(": ")
+                          .append(storeStats.getOrDefault("totalSales", 0)).append(" total sales\n");
                 }
             }
             
+            // Latency percentiles: worker service time and Master round trip
+            report.append("\nLatency (cluster-wide):\n");
+            for (String key : data.keySet()) {
+                if (key.startsWith("latency_") && data.get(key) instanceof LatencyHistogram) {
+                    LatencyHistogram histogram = (LatencyHistogram) data.get(key);
+                    report.append("  ").append(key.substring("latency_".length())).append(": ")
+                          .append(histogram.summary()).append("\n");
+                }
+            }
+
+            // Hedged reads are decided by this Master alone
+            report.append("\nHedged reads (this Master):\n  ").append(Hedging.summary()).append("\n");
+            report.append("\nAdmission (this Master):\n").append(Admission.summary());
+            report.append("\nWorker circuits (this Master):\n");
+            for (WorkerConnection worker : workers) {
+                report.append("  ").append(worker.describe()).append("\n");
+            }
+
+            // Wire compression per node (-Dwire.link.mbps sets the link speed for the estimate)
+            double linkMbps = Double.parseDouble(System.getProperty("wire.link.mbps", "10"));
+            report.append("\nWire compression:\n");
+            for (String key : data.keySet()) {
+                if (key.startsWith("compression_") && data.get(key) instanceof CompressionStats) {
+                    CompressionStats stats = (CompressionStats) data.get(key);
+                    report.append("  ").append(key.substring("compression_".length())).append(": ")
+                          .append(stats.summary(linkMbps)).append("\n");
+                }
+            }
+
+            // Approximate analytics (Reducer started with --approximate)
+            if ("approximate".equals(data.get("analyticsMode"))) {
+                appendApproximateAnalytics(report, data);
+            }
+
             // Log the timestamp of this report
-            System.out.println("\nReport timestamp: " + new java.util.Date(reportTime));
-            System.out.println("=====================================\n");
+            report.append("\nReport timestamp: ").append(new java.util.Date(reportTime)).append("\n");
             
         } catch (Exception e) {
             System.err.println("Error processing reducer results: " + e.getMessage());
             e.printStackTrace();
         }
+        return report.toString();
+    }
+
+    /**
+     * Append the sketch-based statistics together with their error bounds
+     */
+    private void appendApproximateAnalytics(StringBuilder report, Map<String, Object> data) {
+        Object topProducts = data.get("sketch_topProducts");
+        if (topProducts instanceof HeavyHitters) {
+            HeavyHitters products = (HeavyHitters) topProducts;
+            report.append(String.format("\nTop Products (approx., +%.0f units max error):%n",
+                    products.getSketch().getErrorBound()));
+            for (Map.Entry<String, Long> entry : products.top(10)) {
+                report.append("  ").append(entry.getKey()).append(": ~").append(entry.getValue()).append(" units\n");
+            }
+        }
+
+        Object topStores = data.get("sketch_topStores");
+        if (topStores instanceof HeavyHitters) {
+            HeavyHitters stores = (HeavyHitters) topStores;
+            report.append(String.format("\nTop Stores (approx., +%.0f units max error):%n",
+                    stores.getSketch().getErrorBound()));
+            for (Map.Entry<String, Long> entry : stores.top(10)) {
+                report.append("  ").append(entry.getKey()).append(": ~").append(entry.getValue()).append(" units\n");
+            }
+        }
+
+        Object locations = data.get("sketch_distinctLocations");
+        if (locations instanceof HyperLogLog) {
+            HyperLogLog distinct = (HyperLogLog) locations;
+            report.append(String.format("\nDistinct customer locations: ~%d (+/- %.1f%%)%n",
+                    distinct.cardinality(), distinct.getStandardError() * 100));
+        }
+
+        Object orderValues = data.get("sketch_orderValues");
+        if (orderValues instanceof TDigest && ((TDigest) orderValues).getTotalWeight() > 0) {
+            TDigest digest = (TDigest) orderValues;
+            report.append(String.format("\nOrder values: p50=%.2f EUR, p90=%.2f EUR, p99=%.2f EUR (%d orders)%n",
+                    digest.quantile(0.5), digest.quantile(0.9), digest.quantile(0.99),
+                    (long) digest.getTotalWeight()));
+        }
     }
 
     /**
@@ -914,16 +1497,16 @@ public class MasterHandler extends Thread {
         try {
             System.out.println("Master: Getting visible products for store: " + storeName);
             
-            // Determine which worker node handles this store
-            Socket workerSocket = getWorkerNode(storeName);
-            System.out.println("Master: Forwarding request to worker on port: " + workerSocket.getPort());
-            
-            // Forward the command and store name to the worker
-            String command = "getStoreProducts";
-            String response = forwardToWorker(workerSocket, command, storeName);
+            // Only the store's primary knows the stock held for carts, so it answers when it
+            // can; any other worker holding a copy answers when it can't
+            WorkerConnection primary = getWorkerNode(storeName);
+            Object response = primary.isAvailable() ? requestFromWorker(primary, "getStoreProducts", storeName) : null;
+            if (response == null || String.valueOf(response).startsWith("Error")) {
+                response = readFromReplicas(storeName, "getStoreProducts", storeName);
+            }
             
             // Return the worker's response
-            return response;
+            return response == null || response instanceof String ? (String) response : String.valueOf(response);
             
         } catch (Exception e) {
             System.err.println("Master: Error getting store products: " + e.getMessage());
@@ -938,35 +1521,23 @@ public class MasterHandler extends Thread {
 
      * @return Store object if it exists, null otherwise.
      */
-    private Store checkIfStoreExists(String storeName, Socket workerSocket) {
+    private Store checkIfStoreExists(String storeName, WorkerConnection worker) {
         try {
-            System.out.println("Checking if store '" + storeName + "' exists on worker port " + workerSocket.getPort());
+            System.out.println("Checking if store '" + storeName + "' exists on worker port " + worker.getPort());
             String command = "getStoreInfo";
 
-            try {
-                ObjectOutputStream workerOut = getOutput(workerSocket);
-                ObjectInputStream workerIn = getInput(workerSocket);
-
-                // Send command and store name to worker
-                workerOut.writeObject(command);
-                workerOut.writeObject(storeName);
-                workerOut.flush();
+            // Send command and store name to worker
+            long startNanos = System.nanoTime();
+            Object response = worker.request(command, storeName, null);
+            recordRoundTrip(command, worker, System.nanoTime() - startNanos);
 
-                // Read response from worker
-                Object response = workerIn.readObject();
-
-                // Check if response is a Store object
-                if (response instanceof Store) {
-                    System.out.println("Store '" + storeName + "' exists on worker port " + workerSocket.getPort());
-                    return (Store) response;
-                } else {
-                    System.out.println("Store '" + storeName + "' does not exist on worker port " + workerSocket.getPort());
-                    return null;
-                }
-            } finally {
-                if (workerSocket != null) {
-                    workerSocket.close();
-                }
+            // Check if response is a Store object
+            if (response instanceof Store) {
+                System.out.println("Store '" + storeName + "' exists on worker port " + worker.getPort());
+                return (Store) response;
+            } else {
+                System.out.println("Store '" + storeName + "' does not exist on worker port " + worker.getPort());
+                return null;
             }
         } catch (Exception e) {
             System.err.println("Error checking if store exists: " + e.getMessage());
@@ -975,22 +1546,66 @@ public class MasterHandler extends Thread {
         }
     }
 
-    // SUB METHODS TO HELP WITH STREAMS/SOCKETS
-    private ObjectOutputStream getOutput(Socket socket) {
-        int index = workerSockets.indexOf(socket);
-        if (index<0) throw new IllegalArgumentException("Socket not found in workerSockets: " + socket);
-        return workerOutputs.get(index);
+    /**
+     * Managers from before ProductUpdate send a Product (whose store field carries the whole Store)
+     * or, for updateStock, [Product, isAdd, quantity]. Convert those to the equivalent ProductUpdate.
+     */
+    private static ProductUpdate toProductUpdate(String command, Object payload) {
+        if (payload instanceof ProductUpdate) {
+            return (ProductUpdate) payload;
+        }
+        if (command.equals("updateStock") && payload instanceof List) {
+            List<?> legacy = (List<?>) payload;
+            Product product = (Product) legacy.get(0);
+            return ProductUpdate.stockChange(product.getStore().getStoreName(), product.getProductName(),
+                    (Boolean) legacy.get(1), (Integer) legacy.get(2));
+        }
+        if (payload instanceof Product) {
+            Product product = (Product) payload;
+            String storeName = product.getStore().getStoreName();
+            return command.startsWith("removeProduct")
+                    ? ProductUpdate.hide(storeName, product.getProductName())
+                    : ProductUpdate.add(storeName, product);
+        }
+        throw new IllegalArgumentException("Unexpected " + command + " payload: " + payload);
+    }
+
+    /**
+     * Record a Master -> Worker round trip under its command type and under the worker's port
+     */
+    private static void recordRoundTrip(String command, WorkerConnection worker, long nanos) {
+        synchronized (roundTripHistograms) {
+            roundTripHistograms.computeIfAbsent(commandType(command), k -> new LatencyHistogram()).record(nanos);
+            roundTripHistograms.computeIfAbsent("worker_" + worker.getPort(), k -> new LatencyHistogram()).record(nanos);
+        }
+        Hedging.record(commandType(command), nanos);
+    }
+
+    /**
+     * Hand over the histograms recorded since the last call and start new ones
+     */
+    static Map<String, LatencyHistogram> drainRoundTripHistograms() {
+        synchronized (roundTripHistograms) {
+            Map<String, LatencyHistogram> snapshot = new HashMap<>(roundTripHistograms);
+            roundTripHistograms.clear();
+            return snapshot;
+        }
     }
 
-    private ObjectInputStream getInput(Socket socket) {
-        int index = workerSockets.indexOf(socket);
-        if (index<0) throw new IllegalArgumentException("Socket not found in workerSockets: " + socket);
-        return workerInputs.get(index);
+    // "getSalesByCategory pizza" -> "getSalesByCategory", "findStores|..." -> "findStores", "#id buy" -> "buy"
+    private static String commandType(String command) {
+        command = RequestIds.untag(command);
+        int end = command.length();
+        int space = command.indexOf(' ');
+        int pipe = command.indexOf('|');
+        if (space >= 0) end = Math.min(end, space);
+        if (pipe >= 0) end = Math.min(end, pipe);
+        return command.substring(0, end);
     }
 
-    private Socket getWorkerNode(String storeName) {
-        int hash = storeName.hashCode();
-        return workerSockets.get(Math.abs(hash) % workerPorts.size());
+    // The store's primary, which every change to it goes to
+    private WorkerConnection getWorkerNode(String storeName) {
+        return workers.get(StoreRouting.primaryFor(storeName, workerPorts.size()));
     }
 
 }
\ No newline at end of file
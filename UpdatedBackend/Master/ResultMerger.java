@@ -0,0 +1,131 @@
+package Master;
+
+import Objects.ProductMatch;
+import Objects.SalesTotal;
+import Objects.StoreMatch;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the typed partial results the workers return and formats the merged result
+ * once, in the text format the Manager and Customer clients parse.
+ *
+ * Store and product lists arrive sorted, so they are combined with a k-way heap merge
+ * (O(n log k) for k workers); sales totals are added up in a hash map keyed by name.
+ */
+final class ResultMerger {
+
+    private ResultMerger() {
+    }
+
+    /**
+     * Merge lists that are each sorted by order into one sorted list.
+     */
+    static <T> List<T> mergeSorted(List<List<T>> sortedLists, Comparator<? super T> order) {
+        int total = 0;
+        for (List<T> list : sortedLists) total += list.size();
+        List<T> merged = new ArrayList<>(total);
+
+        // Heap of (current head, rest of its list), smallest head first
+        PriorityQueue<Map.Entry<T, Iterator<T>>> heads =
+                new PriorityQueue<>(Math.max(1, sortedLists.size()), (a, b) -> order.compare(a.getKey(), b.getKey()));
+        for (List<T> list : sortedLists) {
+            Iterator<T> rest = list.iterator();
+            if (rest.hasNext()) heads.add(new AbstractMap.SimpleEntry<>(rest.next(), rest));
+        }
+        while (!heads.isEmpty()) {
+            Map.Entry<T, Iterator<T>> head = heads.poll();
+            merged.add(head.getKey());
+            Iterator<T> rest = head.getValue();
+            if (rest.hasNext()) heads.add(new AbstractMap.SimpleEntry<>(rest.next(), rest));
+        }
+        return merged;
+    }
+
+    /**
+     * Add up the totals that share a name, keeping the order names were first seen in.
+     */
+    static List<SalesTotal> sumByName(List<List<SalesTotal>> partials) {
+        Map<String, SalesTotal> totals = new LinkedHashMap<>();
+        for (List<SalesTotal> partial : partials) {
+            for (SalesTotal total : partial) {
+                totals.computeIfAbsent(total.getName(), name -> new SalesTotal(name, 0, 0.0))
+                        .add(total.getUnits(), total.getIncome());
+            }
+        }
+        return new ArrayList<>(totals.values());
+    }
+
+    /**
+     * Mark a result that lacks what some workers hold by appending "|Partial:" and what is
+     * missing; the clients show that segment as a warning instead of parsing it as a result.
+     */
+    static String markPartial(String result, List<String> missing) {
+        return missing.isEmpty() ? result : result + "|Partial:" + String.join("; ", missing);
+    }
+
+    /**
+     * Format: StoreName,FoodCategory,Distance,Stars,AvgPrice,PriceRating|...
+     */
+    static String formatStores(List<StoreMatch> stores) {
+        StringBuilder result = new StringBuilder(stores.size() * 48);
+        for (StoreMatch store : stores) {
+            if (result.length() > 0) result.append("|");
+            result.append(String.format("%s,%s,%.2f,%d,%.2f,%s",
+                    store.getStoreName(), store.getFoodCategory(), store.getDistance(),
+                    store.getStars(), store.getAveragePrice(), "$".repeat(store.getPriceRating())));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Numbered list under a "Products matching" header.
+     */
+    static String formatProducts(String searchTerm, List<ProductMatch> products) {
+        StringBuilder result = new StringBuilder(64 + products.size() * 80);
+        result.append("Products matching \"").append(searchTerm).append("\":\n");
+        int number = 0;
+        for (ProductMatch product : products) {
+            result.append(String.format("%d. %s - %s - Price: %.2f - Available: %d - Store: %s\n",
+                    ++number, product.getProductName(), product.getProductType(),
+                    product.getPrice(), product.getAvailableAmount(), product.getStoreName()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Format: StoreName:SalesCount|...|Total:TotalCount
+     */
+    static String formatCategorySales(List<SalesTotal> stores) {
+        StringBuilder result = new StringBuilder();
+        int totalUnits = 0;
+        for (SalesTotal store : stores) {
+            result.append(store.getName()).append(":").append(store.getUnits()).append("|");
+            totalUnits += store.getUnits();
+        }
+        return result.append("Total:").append(totalUnits).toString();
+    }
+
+    /**
+     * Format: ProductName:SalesCount:TotalIncome|...|Total:TotalCount:TotalIncome
+     */
+    static String formatProductSales(List<SalesTotal> products) {
+        StringBuilder result = new StringBuilder();
+        int totalUnits = 0;
+        double totalIncome = 0.0;
+        for (SalesTotal product : products) {
+            result.append(product.getName()).append(":").append(product.getUnits())
+                  .append(":").append(product.getIncome()).append("|");
+            totalUnits += product.getUnits();
+            totalIncome += product.getIncome();
+        }
+        return result.append("Total:").append(totalUnits).append(":").append(totalIncome).toString();
+    }
+}
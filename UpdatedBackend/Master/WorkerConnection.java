@@ -0,0 +1,321 @@
+package Master;
+
+import Objects.RequestIds;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The Master's connection to one worker, shared by every MasterHandler: a pool of
+ * -Dworker.channels (default 4) channels, each opened on first use. A request holds a
+ * channel until its response is read, so requests from different handlers don't interleave
+ * on it, and waits for one to be free when all of them are busy. The worker serves each
+ * channel on a thread of its own, so that many requests are handled at once: purchases
+ * arriving together share a write-ahead log fsync, and a read needn't wait for a purchase's.
+ *
+ * A response has -Dworker.read.timeout.ms (default 5000) to arrive and a connection
+ * -Dworker.connect.timeout.ms (default 2000) to be made, so a hung worker costs each
+ * request at most that long. Bulk changes (store imports, update batches) and the phases
+ * of a checkout have -Dworker.bulk.timeout.ms (default 60000) instead: they wait on the
+ * worker's log and backups for many records, and timing one out would report a change
+ * the worker goes on to apply as failed. A request that times out or fails closes its channel, since a
+ * late answer would otherwise be read as the answer to the next request; the next request
+ * to take it reconnects and first sends the worker its greeting (its place in the
+ * cluster), which a restarted worker needs again.
+ *
+ * A circuit breaker stops sending to a worker that keeps failing: after -Dbreaker.failures
+ * (default 3) failures in a row it opens, and requests fail at once with Unavailable
+ * instead of waiting for a channel and timing out one after the other. After
+ * -Dbreaker.open.ms (default 5000) one request is let through as a probe; the breaker
+ * closes if it succeeds and opens again if it fails. An error answered by the worker is
+ * not a failure: the worker is up.
+ */
+final class WorkerConnection {
+    private static final int READ_TIMEOUT_MS = Integer.getInteger("worker.read.timeout.ms", 5_000);
+    private static final int BULK_TIMEOUT_MS = Integer.getInteger("worker.bulk.timeout.ms", 60_000);
+    private static final int CONNECT_TIMEOUT_MS = Integer.getInteger("worker.connect.timeout.ms", 2_000);
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("breaker.failures", 3);
+    private static final long OPEN_MS = Long.getLong("breaker.open.ms", 5_000);
+    private static final int CHANNELS = Integer.getInteger("worker.channels", 4);
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String host;
+    private final int port;
+    private final String greetingCommand;
+    private final Object greeting;
+    // Channels no request holds, null for one not connected; open ones are taken first, from
+    // the end. Guarded by itself
+    private final List<MessageChannel> idle = new ArrayList<>();
+    // Set once the Master shuts down; guarded by idle
+    private boolean closed;
+
+    // Breaker state, guarded by this
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private long rejected;
+    private long opened;
+
+    WorkerConnection(String host, int port, String greetingCommand, Object greeting) {
+        this.host = host;
+        this.port = port;
+        this.greetingCommand = greetingCommand;
+        this.greeting = greeting;
+        for (int i = 0; i < CHANNELS; i++) {
+            idle.add(null);
+        }
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * Thrown instead of sending a request while the worker's breaker is open.
+     */
+    static final class Unavailable extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Unavailable(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Connect and greet the worker now rather than on the first request.
+     */
+    void connect() throws IOException, ClassNotFoundException {
+        MessageChannel channel = take();
+        try {
+            if (channel == null) {
+                channel = openChannel();
+            }
+        } finally {
+            giveBack(channel);
+        }
+    }
+
+    /**
+     * Send a request and read its response within the command's read timeout.
+     * @param cancelled checked once a channel is held; if it is true nothing is sent and null is returned
+     * @throws Unavailable if the breaker is open
+     * @throws IOException if the worker could not be reached or didn't answer in time
+     */
+    Object request(String command, Object payload, BooleanSupplier cancelled) throws IOException, ClassNotFoundException {
+        return request(command, payload, cancelled, readTimeoutFor(RequestIds.untag(command)));
+    }
+
+    private static int readTimeoutFor(String command) {
+        switch (command) {
+            case "addStores":
+            case "batch":
+            case "prepare":
+            case "commit":
+            case "release":
+                return BULK_TIMEOUT_MS;
+            default:
+                return READ_TIMEOUT_MS;
+        }
+    }
+
+    /**
+     * Send a request whose response may take readTimeoutMs, or as long as it takes if that is 0.
+     */
+    Object request(String command, Object payload, BooleanSupplier cancelled, int readTimeoutMs)
+            throws IOException, ClassNotFoundException {
+        boolean probe = admit();
+        boolean done = false;
+        try {
+            MessageChannel channel = take();
+            try {
+                // Requests queued behind one that failed don't each wait out their own timeout
+                if (!probe) checkClosed();
+                if (cancelled != null && cancelled.getAsBoolean()) {
+                    return null;
+                }
+                try {
+                    if (channel == null) {
+                        channel = openChannel();
+                    }
+                    channel.getSocket().setSoTimeout(readTimeoutMs);
+                    channel.writeObject(command);
+                    channel.writeObject(payload);
+                    channel.flush();
+                    Object response = channel.readObject();
+                    done = true;
+                    succeeded();
+                    return response;
+                } catch (IOException | ClassNotFoundException e) {
+                    done = true;
+                    closeQuietly(channel);
+                    channel = null;
+                    // The idle ones most likely went the same way, with a restarted or hung worker
+                    closeIdle();
+                    failed(probe, e);
+                    throw e;
+                }
+            } finally {
+                giveBack(channel);
+            }
+        } finally {
+            if (probe && !done) {
+                // The probe was cancelled or turned away before it reached the worker; let the next one try
+                probeSkipped();
+            }
+        }
+    }
+
+    /**
+     * Whether requests are currently let through; reads are routed around workers that aren't.
+     */
+    synchronized boolean isAvailable() {
+        return state == State.CLOSED || (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MS);
+    }
+
+    synchronized String describe() {
+        String summary = "port " + port + ": " + state.name().toLowerCase().replace('_', '-');
+        if (state == State.OPEN) {
+            summary += String.format(" (probe in %d ms)", Math.max(0, OPEN_MS - (System.currentTimeMillis() - openedAt)));
+        }
+        return summary + ", opened " + opened + " times, " + rejected + " requests failed fast";
+    }
+
+    /**
+     * Close the channels; one still in use is closed when its request is done.
+     */
+    void close() {
+        synchronized (idle) {
+            closed = true;
+            for (MessageChannel channel : idle) {
+                closeQuietly(channel);
+            }
+            idle.clear();
+        }
+    }
+
+    // Waits for a channel no request holds; null if it isn't connected
+    private MessageChannel take() throws IOException {
+        synchronized (idle) {
+            while (idle.isEmpty()) {
+                if (closed) {
+                    throw new IOException("connection to worker on port " + port + " closed");
+                }
+                try {
+                    idle.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a channel to worker on port " + port);
+                }
+            }
+            return idle.remove(idle.size() - 1);
+        }
+    }
+
+    private void closeIdle() {
+        synchronized (idle) {
+            for (int i = 0; i < idle.size(); i++) {
+                closeQuietly(idle.get(i));
+                idle.set(i, null);
+            }
+        }
+    }
+
+    private void giveBack(MessageChannel channel) {
+        synchronized (idle) {
+            if (closed) {
+                closeQuietly(channel);
+            } else if (channel != null) {
+                idle.add(channel);
+            } else {
+                idle.add(0, null);
+            }
+            idle.notify();
+        }
+    }
+
+    // Connects and greets the worker
+    private MessageChannel openChannel() throws IOException, ClassNotFoundException {
+        MessageChannel opening = MessageChannels.connect(host, port, CONNECT_TIMEOUT_MS);
+        try {
+            opening.getSocket().setSoTimeout(READ_TIMEOUT_MS);
+            Object answer = null;
+            if (greetingCommand != null) {
+                opening.writeObject(greetingCommand);
+                opening.writeObject(greeting);
+                opening.flush();
+                answer = opening.readObject();
+            }
+            System.out.println("Connected to worker on port " + port + " (" +
+                    (opening.isBinary() ? "binary" : "Object stream") + " protocol)" +
+                    (answer != null ? ": " + answer : ""));
+            return opening;
+        } catch (IOException | ClassNotFoundException e) {
+            opening.close();
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(MessageChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Already broken
+        }
+    }
+
+    // Whether a request may go ahead, and whether it is the probe of an open breaker
+    private synchronized boolean admit() throws Unavailable {
+        if (state == State.CLOSED) return false;
+        long openFor = System.currentTimeMillis() - openedAt;
+        if (state == State.OPEN && openFor >= OPEN_MS) {
+            state = State.HALF_OPEN;
+            System.out.println("Circuit for worker on port " + port + " half-open, probing");
+            return true;
+        }
+        rejected++;
+        throw new Unavailable(state == State.OPEN
+                ? "worker on port " + port + " unavailable (circuit open, next probe in " + (OPEN_MS - openFor) + " ms)"
+                : "worker on port " + port + " unavailable (circuit half-open, probe in progress)");
+    }
+
+    private synchronized void checkClosed() throws Unavailable {
+        if (state != State.CLOSED) {
+            rejected++;
+            throw new Unavailable("worker on port " + port + " unavailable (circuit " +
+                    state.name().toLowerCase().replace('_', '-') + ")");
+        }
+    }
+
+    private synchronized void succeeded() {
+        if (state != State.CLOSED) {
+            System.out.println("Circuit for worker on port " + port + " closed, worker is back");
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    private synchronized void failed(boolean probe, Exception cause) {
+        failures++;
+        if (probe || (state == State.CLOSED && failures >= FAILURE_THRESHOLD)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            opened++;
+            System.err.println("Circuit for worker on port " + port + " open after " + failures +
+                    " failures in a row (" + cause + "), failing fast for " + OPEN_MS + " ms");
+        }
+    }
+
+    private synchronized void probeSkipped() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis() - OPEN_MS;
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package Objects;
 
-import java.io.Serializable;
-
-public class Product implements Serializable {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Externalizable so that a product travels with its own fields and only the name of its
+ * store; the receiving side gets a placeholder Store holding just that name. Products
+ * inside a Store are written by the Store and linked back to it when read.
+ */
+public class Product implements Externalizable {
     private static final long serialVersionUID = 1L;
     private String productName;
     private String productType;
@@ -86,4 +94,47 @@ public class Product implements Serializable {
         return String.format("%s - %s - Price: %.2f - Available: %d",
                 productName, productType, price, availableAmount);
     }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeFields(out);
+        writeNullableUTF(out, store != null ? store.getStoreName() : null);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+        String storeName = readNullableUTF(in);
+        if (storeName != null) {
+            store = new Store();
+            store.setStoreName(storeName);
+        }
+    }
+
+    // Everything except the store reference
+    void writeFields(ObjectOutput out) throws IOException {
+        writeNullableUTF(out, productName);
+        writeNullableUTF(out, productType);
+        out.writeInt(availableAmount);
+        out.writeDouble(price);
+        out.writeByte(visible == null ? 2 : visible ? 1 : 0);
+    }
+
+    void readFields(ObjectInput in) throws IOException {
+        productName = readNullableUTF(in);
+        productType = readNullableUTF(in);
+        availableAmount = in.readInt();
+        price = in.readDouble();
+        byte visibleFlag = in.readByte();
+        visible = visibleFlag == 2 ? null : visibleFlag == 1;
+    }
+
+    static void writeNullableUTF(ObjectOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    static String readNullableUTF(ObjectInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package Objects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Comparator;
+
+/**
+ * One visible product found by a product search on a worker. Workers return them
+ * sorted BY_NAME so the Master can merge the workers' lists without sorting again.
+ */
+public class ProductMatch implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    public static final Comparator<ProductMatch> BY_NAME =
+            Comparator.comparing(ProductMatch::getProductName, String.CASE_INSENSITIVE_ORDER)
+                    .thenComparing(ProductMatch::getStoreName);
+
+    private String productName;
+    private String productType;
+    private double price;
+    private int availableAmount;
+    private String storeName;
+
+    // Required by Externalizable
+    public ProductMatch() {
+    }
+
+    public ProductMatch(Product product, String storeName) {
+        this.productName = product.getProductName();
+        this.productType = product.getProductType();
+        this.price = product.getPrice();
+        this.availableAmount = product.getAvailableAmount();
+        this.storeName = storeName;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public String getProductType() {
+        return productType;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public int getAvailableAmount() {
+        return availableAmount;
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    /**
+     * Compact binary encoding, shared by Java serialization and the binary wire protocol.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(productName);
+        out.writeUTF(productType);
+        out.writeDouble(price);
+        out.writeInt(availableAmount);
+        out.writeUTF(storeName);
+    }
+
+    public static ProductMatch readFrom(DataInput in) throws IOException {
+        ProductMatch match = new ProductMatch();
+        match.readFields(in);
+        return match;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        productName = in.readUTF();
+        productType = in.readUTF();
+        price = in.readDouble();
+        availableAmount = in.readInt();
+        storeName = in.readUTF();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+
+    @Override
+    public String toString() {
+        return productName + " @ " + storeName;
+    }
+}
@@ -0,0 +1,183 @@
+package Objects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * A change to one product, identified by store name and product name.
+ *
+ * Sent with updateStock, addProduct and removeProduct instead of a Product whose store
+ * field drags the whole Store and menu along. Fields that are not part of the change
+ * are null (stockDelta is 0). Lists of updates are also sent as one batch command.
+ */
+public class ProductUpdate implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * What an update does, as implied by the fields that are set.
+     */
+    public enum Operation { STOCK, ADD, HIDE, PRICE }
+
+    private String storeName;
+    private String productName;
+    // Positive to add stock, negative to reduce it
+    private int stockDelta;
+    private String productType;
+    private Integer availableAmount;
+    private Double price;
+    private Boolean visible;
+
+    // Required by Externalizable
+    public ProductUpdate() {
+    }
+
+    private ProductUpdate(String storeName, String productName) {
+        this.storeName = storeName;
+        this.productName = productName;
+    }
+
+    /**
+     * Add quantity to the product's stock, or reduce it by quantity.
+     */
+    public static ProductUpdate stockChange(String storeName, String productName, boolean add, int quantity) {
+        ProductUpdate update = new ProductUpdate(storeName, productName);
+        update.stockDelta = add ? quantity : -quantity;
+        return update;
+    }
+
+    /**
+     * Add a new product, or restore a hidden one with these details.
+     */
+    public static ProductUpdate add(String storeName, Product product) {
+        ProductUpdate update = new ProductUpdate(storeName, product.getProductName());
+        update.productType = product.getProductType();
+        update.availableAmount = product.getAvailableAmount();
+        update.price = product.getPrice();
+        update.visible = true;
+        return update;
+    }
+
+    /**
+     * Hide the product from customers.
+     */
+    public static ProductUpdate hide(String storeName, String productName) {
+        ProductUpdate update = new ProductUpdate(storeName, productName);
+        update.visible = false;
+        return update;
+    }
+
+    /**
+     * Change the product's price.
+     */
+    public static ProductUpdate priceChange(String storeName, String productName, double price) {
+        ProductUpdate update = new ProductUpdate(storeName, productName);
+        update.price = price;
+        return update;
+    }
+
+    public Operation getOperation() {
+        if (visible != null) return visible ? Operation.ADD : Operation.HIDE;
+        if (price != null) return Operation.PRICE;
+        return Operation.STOCK;
+    }
+
+    /**
+     * The product this update describes, for adding it to a store.
+     */
+    public Product toProduct() {
+        Product product = new Product(productName, productType,
+                availableAmount != null ? availableAmount : 0, price != null ? price : 0.0);
+        product.setVisible(visible == null || visible);
+        return product;
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public int getStockDelta() {
+        return stockDelta;
+    }
+
+    public String getProductType() {
+        return productType;
+    }
+
+    public Integer getAvailableAmount() {
+        return availableAmount;
+    }
+
+    public Double getPrice() {
+        return price;
+    }
+
+    public Boolean getVisible() {
+        return visible;
+    }
+
+    // Bit set of the optional fields that are present
+    private int presentFields() {
+        return (productType != null ? 1 : 0) | (availableAmount != null ? 2 : 0)
+                | (price != null ? 4 : 0) | (visible != null ? 8 : 0);
+    }
+
+    /**
+     * Compact binary encoding, shared by Java serialization and the binary wire protocol.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(storeName);
+        out.writeUTF(productName);
+        out.writeInt(stockDelta);
+        out.writeByte(presentFields());
+        if (productType != null) out.writeUTF(productType);
+        if (availableAmount != null) out.writeInt(availableAmount);
+        if (price != null) out.writeDouble(price);
+        if (visible != null) out.writeBoolean(visible);
+    }
+
+    public static ProductUpdate readFrom(DataInput in) throws IOException {
+        ProductUpdate update = new ProductUpdate();
+        update.readFields(in);
+        return update;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        storeName = in.readUTF();
+        productName = in.readUTF();
+        stockDelta = in.readInt();
+        int present = in.readByte();
+        productType = (present & 1) != 0 ? in.readUTF() : null;
+        availableAmount = (present & 2) != 0 ? in.readInt() : null;
+        price = (present & 4) != 0 ? in.readDouble() : null;
+        visible = (present & 8) != 0 ? in.readBoolean() : null;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(storeName + "/" + productName);
+        if (stockDelta != 0) text.append(" stock ").append(stockDelta > 0 ? "+" : "").append(stockDelta);
+        if (productType != null) text.append(" type=").append(productType);
+        if (availableAmount != null) text.append(" amount=").append(availableAmount);
+        if (price != null) text.append(" price=").append(price);
+        if (visible != null) text.append(" visible=").append(visible);
+        return text.toString();
+    }
+}
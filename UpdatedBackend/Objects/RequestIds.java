@@ -0,0 +1,61 @@
+package Objects;
+
+import java.util.UUID;
+
+/**
+ * Request IDs that make changes safe to retry. A client tags each change it sends with an
+ * ID of its own, "#&lt;id&gt; " in front of the command, and sends the same tagged command
+ * again when it retries. The Master passes the tag on to the worker applying the change,
+ * which applies it only the first time and answers any repeat with the first answer, so
+ * a purchase retried after its response was lost is not bought twice.
+ *
+ * Untagged commands are handled as before, each one on its own.
+ */
+public final class RequestIds {
+    private static final String PREFIX = "#";
+
+    private RequestIds() {
+    }
+
+    /**
+     * A new ID, unique across clients.
+     */
+    public static String newId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Whether a command changes stores or stock, and so should carry an ID. Imports don't
+     * need one: they skip the stores a worker has already.
+     */
+    public static boolean isChange(String command) {
+        String untagged = untag(command);
+        return untagged.startsWith("buy") || untagged.startsWith("order")
+                || untagged.startsWith("checkout") || untagged.startsWith("addStore")
+                || untagged.equals("updateStock") || untagged.startsWith("addProduct") || untagged.startsWith("removeProduct")
+                || untagged.equals("batch");
+    }
+
+    /**
+     * The command with the ID in front; the command itself if id is null.
+     */
+    public static String tag(String id, String command) {
+        return id == null ? command : PREFIX + id + " " + command;
+    }
+
+    /**
+     * The ID a command is tagged with, or null.
+     */
+    public static String idOf(String command) {
+        if (!command.startsWith(PREFIX)) return null;
+        int space = command.indexOf(' ');
+        return space > PREFIX.length() ? command.substring(PREFIX.length(), space) : null;
+    }
+
+    /**
+     * The command without its ID.
+     */
+    public static String untag(String command) {
+        return idOf(command) == null ? command : command.substring(command.indexOf(' ') + 1);
+    }
+}
@@ -0,0 +1,83 @@
+package Objects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Units sold and income for one store (getSalesByCategory) or one product name
+ * (getSalesByProduct) on a worker. The Master adds up the totals for the same name.
+ */
+public class SalesTotal implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private int units;
+    private double income;
+
+    // Required by Externalizable
+    public SalesTotal() {
+    }
+
+    public SalesTotal(String name, int units, double income) {
+        this.name = name;
+        this.units = units;
+        this.income = income;
+    }
+
+    public void add(int units, double income) {
+        this.units += units;
+        this.income += income;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    public double getIncome() {
+        return income;
+    }
+
+    /**
+     * Compact binary encoding, shared by Java serialization and the binary wire protocol.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeInt(units);
+        out.writeDouble(income);
+    }
+
+    public static SalesTotal readFrom(DataInput in) throws IOException {
+        SalesTotal total = new SalesTotal();
+        total.readFields(in);
+        return total;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        name = in.readUTF();
+        units = in.readInt();
+        income = in.readDouble();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + units + " units, " + income;
+    }
+}
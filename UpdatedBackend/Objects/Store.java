@@ -1,12 +1,20 @@
 package Objects;
 
+import java.io.Externalizable;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
-public class Store implements Serializable {
+/**
+ * Externalizable: the store's fields followed by its products' own fields, without the
+ * per-product back-references, which are restored on read.
+ */
+public class Store implements Externalizable {
     private static final long serialVersionUID = 1L;
 
     private String storeName;
@@ -17,6 +25,9 @@ public class Store implements Serializable {
     private int noOfVotes;
     private String storeLogo;
     private List<Product> products;
+    // Worker side, guarded by the store's lock: changed since its JSON file was last written.
+    // Not part of the wire format
+    private boolean dirty;
 
     // Constructors
     public Store() {
@@ -100,6 +111,14 @@ public class Store implements Serializable {
         this.products = products;
     }
 
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
     public Optional<Product> findProductByName(String productName) {
         return products.stream()
                 .filter(p -> p.getProductName().equalsIgnoreCase(productName))
@@ -112,20 +131,56 @@ public class Store implements Serializable {
                 storeName, foodCategory, stars, noOfVotes);
     }
 
+    // Locked like the Worker's product updates so the product list cannot change mid-write
+    @Override
+    public synchronized void writeExternal(ObjectOutput out) throws IOException {
+        Product.writeNullableUTF(out, storeName);
+        out.writeDouble(latitude);
+        out.writeDouble(longitude);
+        Product.writeNullableUTF(out, foodCategory);
+        out.writeInt(stars);
+        out.writeInt(noOfVotes);
+        Product.writeNullableUTF(out, storeLogo);
+        out.writeInt(products == null ? -1 : products.size());
+        if (products != null) {
+            for (Product product : products) {
+                product.writeFields(out);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        storeName = Product.readNullableUTF(in);
+        latitude = in.readDouble();
+        longitude = in.readDouble();
+        foodCategory = Product.readNullableUTF(in);
+        stars = in.readInt();
+        noOfVotes = in.readInt();
+        storeLogo = Product.readNullableUTF(in);
+        int productCount = in.readInt();
+        products = productCount < 0 ? null : new ArrayList<>(productCount);
+        for (int i = 0; i < productCount; i++) {
+            Product product = new Product();
+            product.readFields(in);
+            product.setStore(this);
+            products.add(product);
+        }
+    }
+
+    /**
+     * Load this store's fields and products from a store JSON file.
+     */
     public void insertStore(String jsonPath) {
         try {
-            // Read the JSON file
-            String content = new String(java.nio.file.Files.readAllBytes(
-                    java.nio.file.Paths.get(jsonPath)), java.nio.charset.StandardCharsets.UTF_8);
-
-            // Parse basic store information
-            this.storeName = extractValue(content, "StoreName");
-            this.latitude = Double.parseDouble(extractValue(content, "Latitude"));
-            this.longitude = Double.parseDouble(extractValue(content, "Longitude"));
-            this.foodCategory = extractValue(content, "FoodCategory");
-            this.stars = Integer.parseInt(extractValue(content, "Stars"));
-            this.noOfVotes = Integer.parseInt(extractValue(content, "NoOfVotes"));
-            this.storeLogo = extractValue(content, "StoreLogo");
+            Store parsed = StoreJsonParser.parse(Paths.get(jsonPath));
+            this.storeName = parsed.storeName;
+            this.latitude = parsed.latitude;
+            this.longitude = parsed.longitude;
+            this.foodCategory = parsed.foodCategory;
+            this.stars = parsed.stars;
+            this.noOfVotes = parsed.noOfVotes;
+            this.storeLogo = parsed.storeLogo;
 
             // Initialize products list if null
             if (this.products == null) {
@@ -133,79 +188,19 @@ public class Store implements Serializable {
             } else {
                 this.products.clear(); // Clear existing products
             }
-
-            // Extract products array
-            String productsSection = content.substring(content.indexOf("\"Products\": [") + 13);
-            productsSection = productsSection.substring(0, productsSection.lastIndexOf("]"));
-
-            // Split products by their JSON object boundaries
-            List<String> productJsons = splitProductJson(productsSection);
-
-            // Process each product
-            for (String productJson : productJsons) {
-                Product product = new Product();
-                product.setProductName(extractValue(productJson, "ProductName"));
-                product.setProductType(extractValue(productJson, "ProductType"));
-                product.setAvailableAmount(Integer.parseInt(extractValue(productJson, "Available Amount")));
-                product.setPrice(Double.parseDouble(extractValue(productJson, "Price")));
-
-                // Add to store's products list
+            for (Product product : parsed.products) {
+                product.setStore(this);
                 this.products.add(product);
             }
 
             System.out.println("Successfully loaded store " + storeName + " with " + products.size() + " products");
 
-        } catch (IOException e) {
+        } catch (NoSuchFileException e) {
             System.err.println("Error reading file: " + jsonPath);
             e.printStackTrace();
-        } catch (Exception e) {
+        } catch (IOException e) {
             System.err.println("Error parsing store data: " + e.getMessage());
             e.printStackTrace();
         }
     }
-
-    private String extractValue(String json, String key) {
-        String searchString = "\"" + key + "\": ";
-        int startIndex = json.indexOf(searchString) + searchString.length();
-
-        // Handle string value (with quotes)
-        if (json.charAt(startIndex) == '"') {
-            int endIndex = json.indexOf("\"", startIndex + 1);
-            return json.substring(startIndex + 1, endIndex);
-        }
-        // Handle numeric value (without quotes)
-        else {
-            int endIndex = json.indexOf(",", startIndex);
-            if (endIndex == -1) {
-                // Could be the last property in the object
-                endIndex = json.indexOf("}", startIndex);
-            }
-            return json.substring(startIndex, endIndex).trim();
-        }
-    }
-
-    private List<String> splitProductJson(String productsJson) {
-        List<String> result = new ArrayList<>();
-        int depth = 0;
-        int startIndex = 0;
-
-        for (int i = 0; i < productsJson.length(); i++) {
-            char c = productsJson.charAt(i);
-
-            if (c == '{') {
-                if (depth == 0) {
-                    startIndex = i;
-                }
-                depth++;
-            } else if (c == '}') {
-                depth--;
-                if (depth == 0) {
-                    // Found complete JSON product
-                    String productJson = productsJson.substring(startIndex, i + 1);
-                    result.add(productJson);
-                }
-            }
-        }
-        return result;
-    }
 }
\ No newline at end of file
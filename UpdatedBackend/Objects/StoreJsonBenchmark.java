@@ -0,0 +1,215 @@
+package Objects;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares StoreJsonParser with the indexOf/substring parser Store.insertStore used
+ * before it: time and heap allocated per parse, on a store from data/stores and on
+ * generated catalogs with large product arrays.
+ *
+ * Usage: java Objects.StoreJsonBenchmark [iterations]   (run from UpdatedBackend so data/stores is found)
+ *
+ * A second table shows inputs outside the exact layout the old parser expects:
+ * compact whitespace, a different key order and an escaped quote.
+ */
+public class StoreJsonBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+
+        Map<String, Path> catalogs = new LinkedHashMap<>();
+        Path sample = sampleStoreFile();
+        if (sample != null) catalogs.put(sample.getFileName().toString(), sample);
+        catalogs.put("generated, 1000 products", writeCatalog(1_000));
+        catalogs.put("generated, 20000 products", writeCatalog(20_000));
+
+        System.out.printf("%-28s %10s %12s %12s %12s %12s%n", "catalog", "KB",
+                "old time", "new time", "old alloc", "new alloc");
+        for (Map.Entry<String, Path> entry : catalogs.entrySet()) {
+            Path file = entry.getValue();
+            Store expected = legacyParse(file);
+            Store actual = StoreJsonParser.parse(file);
+            if (!sameStore(expected, actual)) {
+                System.out.println(entry.getKey() + ": parsers disagree!");
+            }
+            int runs = Math.max(5, (int) (iterations * 20_000L / Math.max(1, Files.size(file))));
+            runs = Math.min(runs, iterations);
+
+            // Warm up both paths before measuring
+            measure(() -> legacyParse(file), runs / 4 + 1);
+            measure(() -> StoreJsonParser.parse(file), runs / 4 + 1);
+            double[] old = measure(() -> legacyParse(file), runs);
+            double[] streaming = measure(() -> StoreJsonParser.parse(file), runs);
+            System.out.printf("%-28s %10d %10.0fus %10.0fus %10dKB %10dKB%n", entry.getKey(),
+                    Files.size(file) / 1024, old[0] / 1000, streaming[0] / 1000,
+                    (long) old[1] / 1024, (long) streaming[1] / 1024);
+        }
+
+        Map<String, String> variants = new LinkedHashMap<>();
+        variants.put("compact whitespace", "{\"StoreName\":\"Compact\",\"Latitude\":37.9,\"Longitude\":23.7,"
+                + "\"FoodCategory\":\"pizzeria\",\"Stars\":4,\"NoOfVotes\":10,\"StoreLogo\":\"x.png\","
+                + "\"Products\":[{\"ProductName\":\"Margherita\",\"ProductType\":\"pizza\","
+                + "\"Available Amount\":5,\"Price\":8.5}]}");
+        variants.put("keys reordered", "{\n  \"Products\": [\n    {\"Price\": 8.5, \"ProductName\": \"Margherita\", "
+                + "\"Available Amount\": 5, \"ProductType\": \"pizza\"}\n  ],\n  \"Stars\": 4, \"StoreName\": \"Reordered\", "
+                + "\"NoOfVotes\": 10, \"Latitude\": 37.9, \"Longitude\": 23.7, \"FoodCategory\": \"pizzeria\", "
+                + "\"StoreLogo\": \"x.png\"\n}");
+        variants.put("escaped quote", "{\n    \"StoreName\": \"Joe's \\\"Famous\\\" Pizza\",\n    \"Latitude\": 37.9,\n"
+                + "    \"Longitude\": 23.7,\n    \"FoodCategory\": \"pizzeria\",\n    \"Stars\": 4,\n"
+                + "    \"NoOfVotes\": 10,\n    \"StoreLogo\": \"x.png\",\n    \"Products\": [\n        {\n"
+                + "            \"ProductName\": \"Margherita\",\n            \"ProductType\": \"pizza\",\n"
+                + "            \"Available Amount\": 5,\n            \"Price\": 8.5\n        }\n    ]\n}");
+
+        System.out.printf("%n%-28s %-36s %-36s%n", "input", "old parser", "new parser");
+        for (Map.Entry<String, String> entry : variants.entrySet()) {
+            Path file = Files.createTempFile("store", ".json");
+            Files.write(file, entry.getValue().getBytes(StandardCharsets.UTF_8));
+            System.out.printf("%-28s %-36s %-36s%n", entry.getKey(), describe(() -> legacyParse(file)),
+                    describe(() -> StoreJsonParser.parse(file)));
+            Files.delete(file);
+        }
+    }
+
+    private interface Parse {
+        Store run() throws Exception;
+    }
+
+    // Average nanoseconds and bytes allocated per call
+    private static double[] measure(Parse parse, int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Store sink = null;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = parse.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        if (sink == null) System.out.print("");
+        return new double[]{(double) elapsed / iterations, (double) allocated / iterations};
+    }
+
+    private static String describe(Parse parse) {
+        try {
+            Store store = parse.run();
+            return String.format("%s, %d product(s)", store.getStoreName(), store.getProducts().size());
+        } catch (Exception e) {
+            return "fails: " + e.getClass().getSimpleName();
+        }
+    }
+
+    private static boolean sameStore(Store a, Store b) {
+        if (!Objects.equals(a.getStoreName(), b.getStoreName()) || a.getLatitude() != b.getLatitude()
+                || a.getLongitude() != b.getLongitude() || !Objects.equals(a.getFoodCategory(), b.getFoodCategory())
+                || a.getStars() != b.getStars() || a.getNoOfVotes() != b.getNoOfVotes()
+                || !Objects.equals(a.getStoreLogo(), b.getStoreLogo())
+                || a.getProducts().size() != b.getProducts().size()) {
+            return false;
+        }
+        for (int i = 0; i < a.getProducts().size(); i++) {
+            Product x = a.getProducts().get(i);
+            Product y = b.getProducts().get(i);
+            if (!x.getProductName().equals(y.getProductName()) || !x.getProductType().equals(y.getProductType())
+                    || x.getAvailableAmount() != y.getAvailableAmount() || x.getPrice() != y.getPrice()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Path sampleStoreFile() throws IOException {
+        Path storesDir = Paths.get("data", "stores");
+        if (!Files.isDirectory(storesDir)) return null;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(storesDir, "*.json")) {
+            for (Path file : stream) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    // Same layout as the Worker's StoreFlusher.toJson, which the old parser depends on
+    private static Path writeCatalog(int productCount) throws IOException {
+        StringBuilder json = new StringBuilder(productCount * 160);
+        json.append("{\n    \"StoreName\": \"Catalog ").append(productCount).append("\",\n")
+            .append("    \"Latitude\": 37.9838,\n    \"Longitude\": 23.7275,\n")
+            .append("    \"FoodCategory\": \"pizzeria\",\n    \"Stars\": 4,\n    \"NoOfVotes\": 120,\n")
+            .append("    \"StoreLogo\": \"data/images/PizzaFun-Logo.png\",\n    \"Products\": [\n");
+        for (int i = 0; i < productCount; i++) {
+            json.append("        {\n")
+                .append("            \"ProductName\": \"Product ").append(i).append("\",\n")
+                .append("            \"ProductType\": \"").append(i % 2 == 0 ? "pizza" : "salad").append("\",\n")
+                .append("            \"Available Amount\": ").append(10 + i % 40).append(",\n")
+                .append("            \"Price\": ").append(5.5 + i % 12).append("\n")
+                .append("        }").append(i < productCount - 1 ? "," : "").append("\n");
+        }
+        json.append("    ]\n}");
+        Path file = Files.createTempFile("catalog-" + productCount + "-", ".json");
+        file.toFile().deleteOnExit();
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // ---------- the parser Store.insertStore used before StoreJsonParser ----------
+
+    private static Store legacyParse(Path jsonPath) throws IOException {
+        String content = new String(Files.readAllBytes(jsonPath), StandardCharsets.UTF_8);
+        Store store = new Store();
+        store.setStoreName(extractValue(content, "StoreName"));
+        store.setLatitude(Double.parseDouble(extractValue(content, "Latitude")));
+        store.setLongitude(Double.parseDouble(extractValue(content, "Longitude")));
+        store.setFoodCategory(extractValue(content, "FoodCategory"));
+        store.setStars(Integer.parseInt(extractValue(content, "Stars")));
+        store.setNoOfVotes(Integer.parseInt(extractValue(content, "NoOfVotes")));
+        store.setStoreLogo(extractValue(content, "StoreLogo"));
+
+        String productsSection = content.substring(content.indexOf("\"Products\": [") + 13);
+        productsSection = productsSection.substring(0, productsSection.lastIndexOf("]"));
+        for (String productJson : splitProductJson(productsSection)) {
+            Product product = new Product();
+            product.setProductName(extractValue(productJson, "ProductName"));
+            product.setProductType(extractValue(productJson, "ProductType"));
+            product.setAvailableAmount(Integer.parseInt(extractValue(productJson, "Available Amount")));
+            product.setPrice(Double.parseDouble(extractValue(productJson, "Price")));
+            store.getProducts().add(product);
+        }
+        return store;
+    }
+
+    private static String extractValue(String json, String key) {
+        String searchString = "\"" + key + "\": ";
+        int startIndex = json.indexOf(searchString) + searchString.length();
+        if (json.charAt(startIndex) == '"') {
+            int endIndex = json.indexOf("\"", startIndex + 1);
+            return json.substring(startIndex + 1, endIndex);
+        } else {
+            int endIndex = json.indexOf(",", startIndex);
+            if (endIndex == -1) {
+                endIndex = json.indexOf("}", startIndex);
+            }
+            return json.substring(startIndex, endIndex).trim();
+        }
+    }
+
+    private static List<String> splitProductJson(String productsJson) {
+        List<String> result = new ArrayList<>();
+        int depth = 0;
+        int startIndex = 0;
+        for (int i = 0; i < productsJson.length(); i++) {
+            char c = productsJson.charAt(i);
+            if (c == '{') {
+                if (depth == 0) startIndex = i;
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0) result.add(productsJson.substring(startIndex, i + 1));
+            }
+        }
+        return result;
+    }
+}
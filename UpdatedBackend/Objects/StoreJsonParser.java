@@ -0,0 +1,345 @@
+package Objects;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Single-pass parser for the store JSON format (see data/stores):
+ * StoreName, Latitude, Longitude, FoodCategory, Stars, NoOfVotes, StoreLogo and a
+ * Products array of ProductName, ProductType, "Available Amount", Price and an optional
+ * Visible (true when absent).
+ *
+ * It reads characters through a fixed buffer, so a catalog with a large product array
+ * is never held in memory as one String. Keys are matched in a reused builder rather
+ * than allocated; strings without escapes are created straight from the buffer and
+ * numbers are parsed in place. Any whitespace, key order and standard escapes are
+ * accepted; unknown keys are skipped.
+ */
+public final class StoreJsonParser {
+    private static final int BUFFER_SIZE = 8192;
+    // Powers of ten that are exact doubles, for the fast number path
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    // Characters consumed before the current buffer, for error messages
+    private long offset;
+    private final StringBuilder text = new StringBuilder(64);
+
+    private StoreJsonParser(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+    }
+
+    public static Store parse(Path file) throws IOException {
+        // A small store file doesn't need the whole buffer
+        int bufferSize = (int) Math.min(BUFFER_SIZE, Files.size(file) + 1);
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            Store store = new Store();
+            new StoreJsonParser(reader, bufferSize).readStore(store);
+            return store;
+        }
+    }
+
+    public static Store parse(Reader reader) throws IOException {
+        Store store = new Store();
+        new StoreJsonParser(reader, BUFFER_SIZE).readStore(store);
+        return store;
+    }
+
+    /**
+     * Escape a value for a JSON string literal, so what StoreFlusher writes parses back.
+     */
+    public static String escape(String value) {
+        if (value == null) return "";
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = c == '"' ? "\\\"" : c == '\\' ? "\\\\" : c == '\n' ? "\\n"
+                    : c == '\r' ? "\\r" : c == '\t' ? "\\t" : c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) escaped.append(replacement);
+                else escaped.append(c);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private void readStore(Store store) throws IOException {
+        expect('{');
+        if (!tryConsume('}')) {
+            do {
+                readKey();
+                if (keyIs("StoreName")) store.setStoreName(readString());
+                else if (keyIs("Latitude")) store.setLatitude(readDouble());
+                else if (keyIs("Longitude")) store.setLongitude(readDouble());
+                else if (keyIs("FoodCategory")) store.setFoodCategory(readString());
+                else if (keyIs("Stars")) store.setStars(readInt());
+                else if (keyIs("NoOfVotes")) store.setNoOfVotes(readInt());
+                else if (keyIs("StoreLogo")) store.setStoreLogo(readString());
+                else if (keyIs("Products")) readProducts(store);
+                else skipValue();
+            } while (tryConsume(','));
+            expect('}');
+        }
+        if (skipWhitespace() != -1) {
+            throw error("trailing content after the store object");
+        }
+    }
+
+    private void readProducts(Store store) throws IOException {
+        store.getProducts().clear();
+        expect('[');
+        if (tryConsume(']')) return;
+        do {
+            Product product = new Product();
+            expect('{');
+            if (!tryConsume('}')) {
+                do {
+                    readKey();
+                    if (keyIs("ProductName")) product.setProductName(readString());
+                    else if (keyIs("ProductType")) product.setProductType(readString());
+                    else if (keyIs("Available Amount")) product.setAvailableAmount(readInt());
+                    else if (keyIs("Price")) product.setPrice(readDouble());
+                    else if (keyIs("Visible")) product.setVisible(readBoolean());
+                    else skipValue();
+                } while (tryConsume(','));
+                expect('}');
+            }
+            product.setStore(store);
+            store.getProducts().add(product);
+        } while (tryConsume(','));
+        expect(']');
+    }
+
+    // ---------- tokens ----------
+
+    // Reads "key": into text, leaving the value next
+    private void readKey() throws IOException {
+        if (skipWhitespace() != '"') throw error("expected a key");
+        position++;
+        text.setLength(0);
+        readStringBody(text);
+        expect(':');
+    }
+
+    private boolean keyIs(String key) {
+        if (text.length() != key.length()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (text.charAt(i) != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // A string value or null
+    private String readString() throws IOException {
+        int c = skipWhitespace();
+        if (c == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        if (c != '"') throw error("expected a string");
+        position++;
+        // Fast path: the whole string is in the buffer and has no escapes
+        for (int i = position; i < limit; i++) {
+            char ch = buffer[i];
+            if (ch == '"') {
+                String value = new String(buffer, position, i - position);
+                position = i + 1;
+                return value;
+            }
+            if (ch == '\\') break;
+        }
+        text.setLength(0);
+        readStringBody(text);
+        return text.toString();
+    }
+
+    // Appends characters up to the closing quote, resolving escapes
+    private void readStringBody(StringBuilder into) throws IOException {
+        while (true) {
+            if (position == limit && !fill()) throw error("unterminated string");
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+                position++;
+            }
+            into.append(buffer, start, position - start);
+            if (position == limit) continue;
+            char c = buffer[position++];
+            if (c == '"') return;
+            into.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        char c = next();
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) throw error("bad \\u escape");
+                    code = code * 16 + digit;
+                }
+                return (char) code;
+            default:
+                throw error("bad escape \\" + c);
+        }
+    }
+
+    private boolean readBoolean() throws IOException {
+        int c = skipWhitespace();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        }
+        throw error("expected true or false");
+    }
+
+    private int readInt() throws IOException {
+        double value = readDouble();
+        if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE) {
+            throw error("expected a whole number");
+        }
+        return (int) value;
+    }
+
+    // Numbers with at most 15 significant digits and a small exponent are exact as
+    // mantissa * or / a power of ten; anything else goes through Double.parseDouble
+    private double readDouble() throws IOException {
+        skipWhitespace();
+        text.setLength(0);
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        int exponent = 0;
+        boolean negative = false;
+        boolean fraction = false;
+        boolean simple = true;
+        while (true) {
+            if (position == limit && !fill()) break;
+            char c = buffer[position];
+            if (c >= '0' && c <= '9') {
+                if (mantissa != 0 || c != '0') digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction) scale++;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else if (c == '-' && text.length() == 0) {
+                negative = true;
+            } else if (c == 'e' || c == 'E' || c == '+' || c == '-') {
+                simple = false;
+            } else {
+                break;
+            }
+            text.append(c);
+            position++;
+        }
+        if (text.length() == 0 || (negative && text.length() == 1)) throw error("expected a number");
+        if (simple && digits <= 15 && scale < POWERS_OF_TEN.length) {
+            double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw error("bad number " + text);
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int c = skipWhitespace();
+        if (c == '"') {
+            position++;
+            text.setLength(0);
+            readStringBody(text);
+        } else if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            position++;
+            if (tryConsume(close)) return;
+            do {
+                if (c == '{') readKey();
+                skipValue();
+            } while (tryConsume(','));
+            expect(close);
+        } else if (c == 't') {
+            expectLiteral("true");
+        } else if (c == 'f') {
+            expectLiteral("false");
+        } else if (c == 'n') {
+            expectLiteral("null");
+        } else {
+            readDouble();
+        }
+    }
+
+    // ---------- characters ----------
+
+    // The next non-whitespace character without consuming it, or -1 at the end
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) return -1;
+            char c = buffer[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != '\uFEFF') return c;
+            position++;
+        }
+    }
+
+    private boolean tryConsume(char expected) throws IOException {
+        if (skipWhitespace() == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (!tryConsume(expected)) throw error("expected '" + expected + "'");
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) throw error("expected " + literal);
+        }
+    }
+
+    private char next() throws IOException {
+        if (position == limit && !fill()) throw error("unexpected end of input");
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = Math.max(0, reader.read(buffer, 0, buffer.length));
+        return limit > 0;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed store JSON at character " + (offset + position) + ": " + message);
+    }
+}
@@ -0,0 +1,109 @@
+package Objects;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Comparator;
+
+/**
+ * One store found by findStores on a worker, with the distance from the customer and
+ * the values the filters looked at. Workers return them sorted BY_DISTANCE so the
+ * Master can merge the workers' lists without sorting again.
+ */
+public class StoreMatch implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    public static final Comparator<StoreMatch> BY_DISTANCE =
+            Comparator.comparingDouble(StoreMatch::getDistance).thenComparing(StoreMatch::getStoreName);
+
+    private String storeName;
+    private String foodCategory;
+    private double distance;
+    private int stars;
+    private double averagePrice;
+    // 1 to 3, shown as $ to $$$
+    private int priceRating;
+
+    // Required by Externalizable
+    public StoreMatch() {
+    }
+
+    public StoreMatch(String storeName, String foodCategory, double distance, int stars,
+                      double averagePrice, int priceRating) {
+        this.storeName = storeName;
+        this.foodCategory = foodCategory;
+        this.distance = distance;
+        this.stars = stars;
+        this.averagePrice = averagePrice;
+        this.priceRating = priceRating;
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    public String getFoodCategory() {
+        return foodCategory;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public int getStars() {
+        return stars;
+    }
+
+    public double getAveragePrice() {
+        return averagePrice;
+    }
+
+    public int getPriceRating() {
+        return priceRating;
+    }
+
+    /**
+     * Compact binary encoding, shared by Java serialization and the binary wire protocol.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(storeName);
+        out.writeUTF(foodCategory);
+        out.writeDouble(distance);
+        out.writeInt(stars);
+        out.writeDouble(averagePrice);
+        out.writeByte(priceRating);
+    }
+
+    public static StoreMatch readFrom(DataInput in) throws IOException {
+        StoreMatch match = new StoreMatch();
+        match.readFields(in);
+        return match;
+    }
+
+    private void readFields(DataInput in) throws IOException {
+        storeName = in.readUTF();
+        foodCategory = in.readUTF();
+        distance = in.readDouble();
+        stars = in.readInt();
+        averagePrice = in.readDouble();
+        priceRating = in.readByte();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        readFields(in);
+    }
+
+    @Override
+    public String toString() {
+        return storeName + " (" + foodCategory + ", " + distance + " km)";
+    }
+}
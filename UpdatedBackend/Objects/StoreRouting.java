@@ -0,0 +1,46 @@
+package Objects;
+
+/**
+ * Which workers hold a store. The store name's hash picks its slice, and the worker with
+ * the slice's index is the store's primary: every change to the store goes there. The
+ * next -Dstore.backups workers (default 1, at most one copy per other worker) keep
+ * backups that the primary ships its changes to and that can answer reads.
+ *
+ * The Master routes with this, and the workers use it to tell the stores they are primary
+ * for from the copies they hold for another worker.
+ */
+public final class StoreRouting {
+    private static final int BACKUPS = Integer.getInteger("store.backups", 1);
+
+    private StoreRouting() {
+    }
+
+    /**
+     * The slice of a store, which is also the index of its primary worker.
+     */
+    public static int primaryFor(String storeName, int workerCount) {
+        int hash = storeName.hashCode();
+        return Math.abs(hash) % workerCount;
+    }
+
+    /**
+     * Backups kept of every store in a cluster of workerCount workers.
+     */
+    public static int backupsFor(int workerCount) {
+        return Math.max(0, Math.min(BACKUPS, workerCount - 1));
+    }
+
+    /**
+     * The worker holding a slice's copy: copy 0 is the primary, 1.. the backups.
+     */
+    public static int holderOf(int slice, int copy, int workerCount) {
+        return (slice + copy) % workerCount;
+    }
+
+    /**
+     * Whether a worker holds a copy of a slice, as its primary or a backup.
+     */
+    public static boolean holds(int worker, int slice, int workerCount) {
+        return Math.floorMod(worker - slice, workerCount) <= backupsFor(workerCount);
+    }
+}
@@ -0,0 +1,134 @@
+package Protocol;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary protocol: every message is one frame, a 4-byte length followed by the
+ * WireCodec encoding of the message (opcode + primitive fields).
+ *
+ * When the connection negotiated compression, frames of at least
+ * Compression.THRESHOLD_BYTES are deflated if that makes them smaller. A compressed
+ * frame has the top bit of its length set and starts with the uncompressed length.
+ */
+class BinaryChannel implements MessageChannel {
+    // Guards against a corrupt length prefix allocating a huge buffer
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    private static final int COMPRESSED_FLAG = 0x80000000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Compression compression;
+    // Reused for every frame on this connection; created on first use
+    private Deflater deflater;
+    private Inflater inflater;
+
+    BinaryChannel(Socket socket, InputStream in, OutputStream out) {
+        this(socket, in, out, Compression.NONE);
+    }
+
+    BinaryChannel(Socket socket, InputStream in, OutputStream out, Compression compression) {
+        this.socket = socket;
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.compression = compression;
+    }
+
+    @Override
+    public void writeObject(Object message) throws IOException {
+        byte[] frame = WireCodec.encode(message);
+        if (compression != Compression.NONE && frame.length >= Compression.THRESHOLD_BYTES
+                && writeCompressed(frame)) {
+            return;
+        }
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    // Sends the frame deflated, unless that would not save anything
+    private boolean writeCompressed(byte[] frame) throws IOException {
+        long start = System.nanoTime();
+        if (deflater == null) deflater = new Deflater(compression.level);
+        deflater.reset();
+        deflater.setInput(frame);
+        deflater.finish();
+        // Anything at least as long as the raw frame is not worth sending
+        byte[] buffer = new byte[frame.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        if (!deflater.finished() || length + 4 >= frame.length) {
+            return false;
+        }
+        out.writeInt((length + 4) | COMPRESSED_FLAG);
+        out.writeInt(frame.length);
+        out.write(buffer, 0, length);
+        Compression.stats().recordCompressed(frame.length, length + 4, System.nanoTime() - start);
+        return true;
+    }
+
+    @Override
+    public Object readObject() throws IOException {
+        int header = in.readInt();
+        boolean compressed = (header & COMPRESSED_FLAG) != 0;
+        int length = header & ~COMPRESSED_FLAG;
+        if (length > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return WireCodec.decode(compressed ? inflate(frame) : frame);
+    }
+
+    private byte[] inflate(byte[] frame) throws IOException {
+        long start = System.nanoTime();
+        if (frame.length < 4) throw new StreamCorruptedException("Truncated compressed frame");
+        int rawLength = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+        if (rawLength < 0 || rawLength > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Invalid frame length: " + rawLength);
+        }
+        if (inflater == null) inflater = new Inflater();
+        inflater.reset();
+        inflater.setInput(frame, 4, frame.length - 4);
+        byte[] raw = new byte[rawLength];
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (length != rawLength) throw new StreamCorruptedException("Compressed frame is truncated");
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        }
+        Compression.stats().recordDecompressed(System.nanoTime() - start);
+        return raw;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public Socket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The Deflater/Inflater are left to the GC: another thread may still be mid-frame
+        socket.close();
+    }
+}
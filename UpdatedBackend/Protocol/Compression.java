@@ -0,0 +1,75 @@
+package Protocol;
+
+import Analytics.CompressionStats;
+
+import java.util.zip.Deflater;
+
+/**
+ * Frame compression a binary connection can negotiate. Both codecs are DEFLATE from
+ * java.util.zip at different levels, so no extra library is needed on the server or
+ * on Android: FAST trades ratio for CPU, HIGH_RATIO is for slow mobile links.
+ *
+ * -Dwire.compression=none|fast|high picks what this node asks for (as a client) and
+ * allows (as a server); "none" turns it off. -Dwire.compression.threshold sets the
+ * frame size in bytes below which frames are sent as is (default 1024).
+ */
+public enum Compression {
+    NONE(0, Deflater.NO_COMPRESSION),
+    FAST(1, Deflater.BEST_SPEED),
+    HIGH_RATIO(2, Deflater.BEST_COMPRESSION);
+
+    static final int THRESHOLD_BYTES = Integer.getInteger("wire.compression.threshold", 1024);
+
+    // Process-wide counters, reported to the Reducer as node metrics
+    private static final CompressionStats stats = new CompressionStats();
+
+    final byte id;
+    final int level;
+
+    Compression(int id, int level) {
+        this.id = (byte) id;
+        this.level = level;
+    }
+
+    /**
+     * The codec set with -Dwire.compression (FAST when unset).
+     */
+    static Compression configured() {
+        String name = System.getProperty("wire.compression", "fast").trim().toLowerCase();
+        switch (name) {
+            case "none":
+            case "off":
+                return NONE;
+            case "high":
+            case "high_ratio":
+                return HIGH_RATIO;
+            default:
+                return FAST;
+        }
+    }
+
+    static Compression fromId(int id) {
+        for (Compression compression : values()) {
+            if (compression.id == id) return compression;
+        }
+        return NONE;
+    }
+
+    /**
+     * Server side: what to use when the client asks for requested.
+     */
+    static Compression negotiate(Compression requested) {
+        return configured() == NONE ? NONE : requested;
+    }
+
+    static CompressionStats stats() {
+        return stats;
+    }
+
+    /**
+     * Hand over this node's compression counts since the last call.
+     */
+    public static CompressionStats drainStats() {
+        return stats.drain();
+    }
+}
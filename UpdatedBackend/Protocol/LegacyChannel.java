@@ -0,0 +1,55 @@
+package Protocol;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+
+/**
+ * The original protocol: Java serialization over a pair of Object streams.
+ * Kept for peers that do not speak the binary protocol.
+ */
+class LegacyChannel implements MessageChannel {
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    LegacyChannel(Socket socket, ObjectOutputStream out, ObjectInputStream in) {
+        this.socket = socket;
+        this.out = out;
+        this.in = in;
+    }
+
+    @Override
+    public void writeObject(Object message) throws IOException {
+        out.writeObject(message);
+        // The stream lives as long as the connection, so forget back-references:
+        // a Store sent twice must arrive with its current contents both times
+        out.reset();
+    }
+
+    @Override
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return in.readObject();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public Socket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,30 @@
+package Protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * A connection that exchanges whole messages (command strings, payload objects, responses).
+ *
+ * The method names mirror ObjectOutputStream / ObjectInputStream so the handlers read
+ * the same whichever protocol was negotiated. Use MessageChannels to open or accept one.
+ */
+public interface MessageChannel extends Closeable {
+
+    void writeObject(Object message) throws IOException;
+
+    /**
+     * Reads the next message. Throws EOFException when the peer closed the connection.
+     */
+    Object readObject() throws IOException, ClassNotFoundException;
+
+    void flush() throws IOException;
+
+    /**
+     * True for the length-prefixed binary protocol, false for Java serialization.
+     */
+    boolean isBinary();
+
+    Socket getSocket();
+}
@@ -0,0 +1,139 @@
+package Protocol;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Opens and accepts MessageChannels, negotiating the protocol at connect time.
+ *
+ * A binary client opens with the 4-byte hello "DSB" + version and the server answers
+ * with the same magic and the version it will speak. A legacy client opens with the
+ * Java serialization header (0xACED0005) instead, so a server can tell the two apart
+ * from the first four bytes and falls back to Object streams. A legacy server answers
+ * a hello with its own serialization header and drops the connection; the client
+ * then reconnects with Object streams and remembers that endpoint as legacy.
+ *
+ * From version 2 the hello is followed by one byte naming the Compression the client
+ * wants, and a version 2 answer is followed by the one the server agreed to. Version 1
+ * peers (older app builds) send and receive the bare 4 bytes and never see compressed frames.
+ *
+ * -Dwire.protocol=legacy makes clients skip the hello and always use Object streams.
+ */
+public final class MessageChannels {
+    static final byte[] MAGIC = {'D', 'S', 'B'};
+    static final byte VERSION = 2;
+
+    private static final boolean PREFER_BINARY =
+            !"legacy".equalsIgnoreCase(System.getProperty("wire.protocol", "binary"));
+
+    // host:port of peers that answered a hello with Object streams
+    private static final Set<String> legacyEndpoints = Collections.synchronizedSet(new HashSet<>());
+
+    private MessageChannels() {
+    }
+
+    /**
+     * Server side: read the peer's first bytes and answer in the protocol it opened with.
+     */
+    public static MessageChannel accept(Socket socket) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+        in.mark(4);
+        byte[] hello = new byte[4];
+        new DataInputStream(in).readFully(hello);
+
+        if (isHello(hello)) {
+            byte version = (byte) Math.min(hello[3], VERSION);
+            Compression compression = Compression.NONE;
+            OutputStream out = socket.getOutputStream();
+            if (version >= 2) {
+                int requested = in.read();
+                if (requested < 0) throw new EOFException("Connection closed during hello");
+                compression = Compression.negotiate(Compression.fromId(requested));
+                out.write(new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], version, compression.id});
+            } else {
+                out.write(new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], version});
+            }
+            out.flush();
+            return new BinaryChannel(socket, in, out, compression);
+        }
+
+        // Anything else is a serialization stream header; let the ObjectInputStream read it
+        in.reset();
+        ObjectOutputStream objectOut = new ObjectOutputStream(socket.getOutputStream());
+        objectOut.flush();
+        return new LegacyChannel(socket, objectOut, new ObjectInputStream(in));
+    }
+
+    public static MessageChannel connect(String host, int port) throws IOException {
+        return connect(host, port, 0);
+    }
+
+    /**
+     * Client side: connect and negotiate, falling back to Object streams for legacy servers.
+     * @param connectTimeoutMs timeout in milliseconds for connecting and for the server's answer
+     *                         to the negotiation, 0 for none; reads on the channel have no timeout
+     */
+    public static MessageChannel connect(String host, int port, int connectTimeoutMs) throws IOException {
+        MessageChannel channel = negotiate(host, port, connectTimeoutMs);
+        channel.getSocket().setSoTimeout(0);
+        return channel;
+    }
+
+    private static MessageChannel negotiate(String host, int port, int connectTimeoutMs) throws IOException {
+        String endpoint = host + ":" + port;
+        if (PREFER_BINARY && !legacyEndpoints.contains(endpoint)) {
+            Socket socket = open(host, port, connectTimeoutMs);
+            try {
+                OutputStream out = socket.getOutputStream();
+                out.write(new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], VERSION, Compression.configured().id});
+                out.flush();
+
+                BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                DataInputStream data = new DataInputStream(in);
+                byte[] answer = new byte[4];
+                data.readFully(answer);
+                if (isHello(answer)) {
+                    Compression compression = answer[3] >= 2
+                            ? Compression.fromId(data.readUnsignedByte()) : Compression.NONE;
+                    return new BinaryChannel(socket, in, out, compression);
+                }
+            } catch (EOFException e) {
+                // Server closed without answering; treat it as legacy
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            socket.close();
+            legacyEndpoints.add(endpoint);
+            System.out.println("Peer " + endpoint + " does not speak the binary protocol, using Object streams");
+        }
+
+        Socket socket = open(host, port, connectTimeoutMs);
+        try {
+            ObjectOutputStream objectOut = new ObjectOutputStream(socket.getOutputStream());
+            objectOut.flush();
+            return new LegacyChannel(socket, objectOut, new ObjectInputStream(socket.getInputStream()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static Socket open(String host, int port, int connectTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+        // A server that accepts but never answers the hello must not hang the client either
+        socket.setSoTimeout(connectTimeoutMs);
+        return socket;
+    }
+
+    private static boolean isHello(byte[] bytes) {
+        return Arrays.equals(Arrays.copyOf(bytes, 3), MAGIC) && bytes[3] >= 1;
+    }
+}
@@ -0,0 +1,209 @@
+package Protocol;
+
+import Objects.Product;
+import Objects.ProductUpdate;
+import Objects.Store;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compares the binary protocol with Java serialization on typical messages:
+ * bytes on the wire per message and encode / decode time.
+ *
+ * Usage: java Protocol.WireBenchmark [iterations]   (run from UpdatedBackend so data/stores is found)
+ *
+ * Object stream sizes are measured the way LegacyChannel sends them: one long-lived
+ * stream, reset after every message, so the 4-byte stream header is not counted.
+ * Binary sizes include the 4-byte frame length.
+ *
+ * A second table compares the two Compression codecs on large responses (a long
+ * search result and a store with many products), which is where compression kicks in.
+ */
+public class WireBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messages.put("findStores command", String.format("findStores|%f|%f|%f|%s|%s|%d|%d",
+                37.9838, 23.7275, 5.0, "category", "pizzeria", 0, 3));
+        messages.put("buy command", "buy|PizzaFun|Margherita|2");
+        messages.put("getStoreProducts command", "getStoreProducts|PizzaFun");
+        messages.put("buy payload", new ArrayList<>(Arrays.asList("PizzaFun", "Margherita", 2)));
+
+        Store store = loadSampleStore();
+        messages.put("Store (" + store.getProducts().size() + " products)", store);
+        Product product = store.getProducts().isEmpty()
+                ? new Product("Margherita", "pizza", 50, 8.5)
+                : store.getProducts().get(0);
+        product.setStore(store);
+        messages.put("Product with store", product);
+        messages.put("updateStock ProductUpdate",
+                ProductUpdate.stockChange(store.getStoreName(), product.getProductName(), true, 5));
+        messages.put("addProduct ProductUpdate", ProductUpdate.add(store.getStoreName(), product));
+
+        Map<String, Object> reducerEvent = new HashMap<>();
+        reducerEvent.put("workerId", "Worker-7001");
+        reducerEvent.put("timestamp", System.currentTimeMillis());
+        reducerEvent.put("requestType", "purchase");
+        reducerEvent.put("serviceTimeNanos", 182_344L);
+        reducerEvent.put("processingTime", 0L);
+        reducerEvent.put("storeName", store.getStoreName());
+        reducerEvent.put("productName", product.getProductName());
+        reducerEvent.put("quantity", 2);
+        reducerEvent.put("orderValue", 17.0);
+        reducerEvent.put("success", true);
+        messages.put("Reducer mapResult", reducerEvent);
+
+        System.out.printf("%-28s %10s %10s %8s %12s %12s %12s %12s%n", "message", "java B", "binary B", "saved",
+                "java enc", "binary enc", "java dec", "binary dec");
+        for (Map.Entry<String, Object> entry : messages.entrySet()) {
+            Object message = entry.getValue();
+            byte[] javaBytes = javaEncode(message);
+            byte[] binaryBytes = WireCodec.encode(message);
+            int binarySize = binaryBytes.length + 4;
+
+            // Warm up both paths before timing
+            time(() -> javaEncode(message), iterations / 4);
+            time(() -> WireCodec.encode(message), iterations / 4);
+            double javaEncode = time(() -> javaEncode(message), iterations);
+            double binaryEncode = time(() -> WireCodec.encode(message), iterations);
+            time(() -> javaDecode(javaBytes), iterations / 4);
+            time(() -> WireCodec.decode(binaryBytes), iterations / 4);
+            double javaDecode = time(() -> javaDecode(javaBytes), iterations);
+            double binaryDecode = time(() -> WireCodec.decode(binaryBytes), iterations);
+
+            System.out.printf("%-28s %10d %10d %7.0f%% %10.0fns %10.0fns %10.0fns %10.0fns%n", entry.getKey(),
+                    javaBytes.length, binarySize, 100.0 * (javaBytes.length - binarySize) / javaBytes.length,
+                    javaEncode, binaryEncode, javaDecode, binaryDecode);
+        }
+
+        Map<String, Object> largeMessages = new LinkedHashMap<>();
+        largeMessages.put("search result (2000 lines)", sampleSearchResult(store, 2000));
+        Store bigStore = new Store(store.getStoreName(), store.getLatitude(), store.getLongitude(),
+                store.getFoodCategory(), store.getStars(), store.getNoOfVotes(), store.getStoreLogo());
+        for (int i = 0; i < 500; i++) {
+            bigStore.getProducts().add(new Product("Product " + i, i % 2 == 0 ? "pizza" : "salad", 10 + i % 40, 5.5 + i % 12));
+        }
+        largeMessages.put("Store (500 products)", bigStore);
+
+        System.out.printf("%n%-28s %-10s %10s %10s %8s %12s %12s%n", "large message", "codec", "raw B", "sent B",
+                "saved", "compress", "inflate");
+        int largeIterations = Math.max(1, iterations / 20);
+        for (Map.Entry<String, Object> entry : largeMessages.entrySet()) {
+            byte[] frame = WireCodec.encode(entry.getValue());
+            for (Compression compression : new Compression[]{Compression.FAST, Compression.HIGH_RATIO}) {
+                Deflater deflater = new Deflater(compression.level);
+                Inflater inflater = new Inflater();
+                byte[] compressed = deflate(deflater, frame);
+                time(() -> deflate(deflater, frame), largeIterations / 4 + 1);
+                double compressTime = time(() -> deflate(deflater, frame), largeIterations);
+                time(() -> inflate(inflater, compressed, frame.length), largeIterations / 4 + 1);
+                double inflateTime = time(() -> inflate(inflater, compressed, frame.length), largeIterations);
+                int sent = compressed.length + 8;
+                System.out.printf("%-28s %-10s %10d %10d %7.0f%% %10.0fus %10.0fus%n", entry.getKey(), compression,
+                        frame.length + 4, sent, 100.0 * (frame.length + 4 - sent) / (frame.length + 4),
+                        compressTime / 1000, inflateTime / 1000);
+                deflater.end();
+                inflater.end();
+            }
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] frame) {
+        deflater.reset();
+        deflater.setInput(frame);
+        deflater.finish();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(frame.length / 2);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            bytes.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] compressed, int rawLength) throws Exception {
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] raw = new byte[rawLength];
+        int length = 0;
+        while (length < rawLength) {
+            length += inflater.inflate(raw, length, rawLength - length);
+        }
+        return raw;
+    }
+
+    // Same shape as the Master's search answer: one line per matching product
+    private static String sampleSearchResult(Store store, int lines) {
+        StringBuilder result = new StringBuilder("Products matching \"pizza\":\n");
+        for (int i = 0; i < lines; i++) {
+            result.append("- ").append(store.getStoreName()).append(" #").append(i % 150)
+                  .append(": Pizza ").append(i).append(" (pizza) - ").append(String.format("%.2f", 6.5 + i % 9))
+                  .append(" EUR, ").append(5 + i % 60).append(" available\n");
+        }
+        return result.toString();
+    }
+
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    // Average nanoseconds per call
+    private static double time(Task task, int iterations) throws Exception {
+        Object sink = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == null) System.out.print("");
+        return (double) elapsed / iterations;
+    }
+
+    // One message on a long-lived Object stream: object bytes plus the reset marker
+    private static byte[] javaEncode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.flush();
+        int header = bytes.size();
+        out.writeObject(message);
+        out.reset();
+        out.flush();
+        byte[] all = bytes.toByteArray();
+        return Arrays.copyOfRange(all, header, all.length);
+    }
+
+    private static Object javaDecode(byte[] messageBytes) throws IOException, ClassNotFoundException {
+        // Put the stream header back in front so ObjectInputStream accepts the message
+        byte[] withHeader = new byte[messageBytes.length + 4];
+        withHeader[0] = (byte) 0xAC;
+        withHeader[1] = (byte) 0xED;
+        withHeader[2] = 0x00;
+        withHeader[3] = 0x05;
+        System.arraycopy(messageBytes, 0, withHeader, 4, messageBytes.length);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(withHeader))) {
+            return in.readObject();
+        }
+    }
+
+    private static Store loadSampleStore() throws IOException {
+        Path storesDir = Paths.get("data", "stores");
+        if (Files.isDirectory(storesDir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(storesDir, "*.json")) {
+                for (Path file : stream) {
+                    Store store = new Store();
+                    store.insertStore(file.toString());
+                    if (store.getStoreName() != null) return store;
+                }
+            }
+        }
+        Store store = new Store("PizzaFun", 37.9838, 23.7275, "pizzeria", 4, 120, "data/images/PizzaFun-Logo.png");
+        store.getProducts().add(new Product("Margherita", "pizza", 50, 8.5));
+        store.getProducts().add(new Product("Pepperoni", "pizza", 40, 10.0));
+        return store;
+    }
+}
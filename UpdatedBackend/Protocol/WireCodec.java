@@ -0,0 +1,439 @@
+package Protocol;
+
+import Analytics.LatencyHistogram;
+import Objects.Product;
+import Objects.ProductMatch;
+import Objects.ProductUpdate;
+import Objects.SalesTotal;
+import Objects.Store;
+import Objects.StoreMatch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Encoding of one message of the binary protocol.
+ *
+ * A message starts with an opcode byte followed by its fields in primitive form
+ * (varint lengths and counts, UTF-8 strings, 8-byte doubles). Opcodes below 0x20 are
+ * value types; opcodes from 0x20 are client commands whose pipe-delimited text is
+ * carried as typed fields instead. Command encoding is lossless: a command is only
+ * packed when decoding reproduces exactly the same string, otherwise it is sent as
+ * a plain STRING. Anything the codec has no opcode for falls back to Java
+ * serialization inside a SERIALIZED value.
+ */
+public final class WireCodec {
+    // Value opcodes
+    static final byte NULL = 0x00;
+    static final byte STRING = 0x01;
+    static final byte INT = 0x02;
+    static final byte LONG = 0x03;
+    static final byte DOUBLE = 0x04;
+    static final byte BOOLEAN = 0x05;
+    static final byte LIST = 0x06;
+    static final byte MAP = 0x07;
+    static final byte STORE = 0x08;
+    static final byte PRODUCT = 0x09;
+    static final byte HISTOGRAM = 0x0A;
+    static final byte SERIALIZED = 0x0B;
+    static final byte PRODUCT_UPDATE = 0x0C;
+    static final byte STORE_MATCH = 0x0D;
+    static final byte PRODUCT_MATCH = 0x0E;
+    static final byte SALES_TOTAL = 0x0F;
+    static final byte BYTES = 0x10;
+
+    // Command opcodes
+    static final byte CMD_FIND_STORES = 0x20;
+    static final byte CMD_BUY = 0x21;
+    static final byte CMD_GET_STORE_PRODUCTS = 0x22;
+    static final byte CMD_SEARCH = 0x23;
+
+    private WireCodec() {
+    }
+
+    public static byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (message instanceof String) {
+            writeCommandOrString(out, (String) message);
+        } else {
+            writeValue(out, message);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static Object decode(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        return readValue(in);
+    }
+
+    // ---- commands ----
+
+    private static void writeCommandOrString(DataOutputStream out, String text) throws IOException {
+        String[] parts = text.split("\\|", -1);
+        try {
+            if (text.startsWith("findStores|") && parts.length == 8) {
+                long latitude = parseMicros(parts[1]);
+                long longitude = parseMicros(parts[2]);
+                long radius = parseMicros(parts[3]);
+                int minStars = Integer.parseInt(parts[6]);
+                int maxPrice = Integer.parseInt(parts[7]);
+                if (Integer.toString(minStars).equals(parts[6]) && Integer.toString(maxPrice).equals(parts[7])) {
+                    out.writeByte(CMD_FIND_STORES);
+                    writeVarLong(out, latitude);
+                    writeVarLong(out, longitude);
+                    writeVarLong(out, radius);
+                    writeString(out, parts[4]);
+                    writeString(out, parts[5]);
+                    writeVarInt(out, minStars);
+                    writeVarInt(out, maxPrice);
+                    return;
+                }
+            } else if (text.startsWith("buy|") && parts.length == 4) {
+                int quantity = Integer.parseInt(parts[3]);
+                if (quantity >= 0 && Integer.toString(quantity).equals(parts[3])) {
+                    out.writeByte(CMD_BUY);
+                    writeString(out, parts[1]);
+                    writeString(out, parts[2]);
+                    writeVarInt(out, quantity);
+                    return;
+                }
+            } else if (text.startsWith("getStoreProducts|")) {
+                out.writeByte(CMD_GET_STORE_PRODUCTS);
+                writeString(out, text.substring("getStoreProducts|".length()));
+                return;
+            } else if (text.startsWith("search ")) {
+                out.writeByte(CMD_SEARCH);
+                writeString(out, text.substring("search ".length()));
+                return;
+            }
+        } catch (NumberFormatException e) {
+            // Not a well-formed command; send the text as it is
+        }
+        out.writeByte(STRING);
+        writeString(out, text);
+    }
+
+    /**
+     * The clients format coordinates and radius with %f, i.e. exactly six decimals, so they
+     * travel as a varint count of millionths. Anything else (other precision, exponent,
+     * a locale's decimal comma) throws NumberFormatException and is sent as text.
+     */
+    private static long parseMicros(String text) {
+        boolean negative = text.startsWith("-");
+        int start = negative ? 1 : 0;
+        int dot = text.indexOf('.');
+        // One or more integer digits without leading zeros, then exactly six decimals
+        if (dot <= start || text.length() - dot - 1 != 6 || (text.charAt(start) == '0' && dot - start > 1)) {
+            throw new NumberFormatException(text);
+        }
+        long value = 0;
+        for (int i = start; i < text.length(); i++) {
+            if (i == dot) continue;
+            char c = text.charAt(i);
+            if (c < '0' || c > '9' || value > Long.MAX_VALUE / 10 - 9) throw new NumberFormatException(text);
+            value = value * 10 + (c - '0');
+        }
+        // "-0.000000" would come back as "0.000000"
+        if (negative && value == 0) throw new NumberFormatException(text);
+        return negative ? -value : value;
+    }
+
+    private static String formatMicros(long micros) {
+        StringBuilder text = new StringBuilder(16);
+        if (micros < 0) text.append('-');
+        long magnitude = Math.abs(micros);
+        String fraction = Long.toString(magnitude % 1_000_000);
+        text.append(magnitude / 1_000_000).append('.');
+        for (int i = fraction.length(); i < 6; i++) text.append('0');
+        return text.append(fraction).toString();
+    }
+
+    // ---- values ----
+
+    @SuppressWarnings("unchecked")
+    public static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            out.writeByte(LIST);
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+            Map<String, Object> map = (Map<String, Object>) value;
+            out.writeByte(MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                writeString(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof Store) {
+            out.writeByte(STORE);
+            writeStore(out, (Store) value);
+        } else if (value instanceof Product) {
+            // Like Product's Externalizable form: only the store's name travels with it
+            Product product = (Product) value;
+            out.writeByte(PRODUCT);
+            writeProduct(out, product);
+            writeString(out, product.getStore() != null ? product.getStore().getStoreName() : null);
+        } else if (value instanceof ProductUpdate) {
+            out.writeByte(PRODUCT_UPDATE);
+            ((ProductUpdate) value).writeTo(out);
+        } else if (value instanceof StoreMatch) {
+            out.writeByte(STORE_MATCH);
+            ((StoreMatch) value).writeTo(out);
+        } else if (value instanceof ProductMatch) {
+            out.writeByte(PRODUCT_MATCH);
+            ((ProductMatch) value).writeTo(out);
+        } else if (value instanceof SalesTotal) {
+            out.writeByte(SALES_TOTAL);
+            ((SalesTotal) value).writeTo(out);
+        } else if (value instanceof LatencyHistogram) {
+            out.writeByte(HISTOGRAM);
+            ((LatencyHistogram) value).writeTo(out);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                objectOut.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            writeVarInt(out, bytes.size());
+            bytes.writeTo(out);
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    public static Object readValue(DataInputStream in) throws IOException {
+        byte opcode = in.readByte();
+        switch (opcode) {
+            case NULL: return null;
+            case STRING: return readString(in);
+            case INT: return in.readInt();
+            case LONG: return in.readLong();
+            case DOUBLE: return in.readDouble();
+            case BOOLEAN: return in.readBoolean();
+            case LIST: {
+                int size = readVarInt(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case MAP: {
+                int size = readVarInt(in);
+                Map<String, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    String key = readString(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            }
+            case STORE: return readStore(in);
+            case PRODUCT: {
+                Product product = readProduct(in);
+                String storeName = readString(in);
+                if (storeName != null) {
+                    Store store = new Store();
+                    store.setStoreName(storeName);
+                    product.setStore(store);
+                }
+                return product;
+            }
+            case PRODUCT_UPDATE: return ProductUpdate.readFrom(in);
+            case STORE_MATCH: return StoreMatch.readFrom(in);
+            case PRODUCT_MATCH: return ProductMatch.readFrom(in);
+            case SALES_TOTAL: return SalesTotal.readFrom(in);
+            case HISTOGRAM: return LatencyHistogram.readFrom(in);
+            case BYTES: {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case SERIALIZED: {
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidClassException("Unknown class in SERIALIZED value: " + e.getMessage());
+                }
+            }
+            case CMD_FIND_STORES: {
+                String latitude = formatMicros(readVarLong(in));
+                String longitude = formatMicros(readVarLong(in));
+                String radius = formatMicros(readVarLong(in));
+                String filterType = readString(in);
+                String category = readString(in);
+                int minStars = readVarInt(in);
+                int maxPrice = readVarInt(in);
+                return "findStores|" + latitude + "|" + longitude + "|" + radius + "|" + filterType + "|"
+                        + category + "|" + minStars + "|" + maxPrice;
+            }
+            case CMD_BUY: {
+                String storeName = readString(in);
+                String productName = readString(in);
+                return "buy|" + storeName + "|" + productName + "|" + readVarInt(in);
+            }
+            case CMD_GET_STORE_PRODUCTS: return "getStoreProducts|" + readString(in);
+            case CMD_SEARCH: return "search " + readString(in);
+            default:
+                throw new StreamCorruptedException("Unknown opcode: " + opcode);
+        }
+    }
+
+    // Products inside a Store are written without their back-reference to the Store
+    private static void writeStore(DataOutputStream out, Store store) throws IOException {
+        synchronized (store) {
+            writeStoreFields(out, store);
+        }
+    }
+
+    private static void writeStoreFields(DataOutputStream out, Store store) throws IOException {
+        writeString(out, store.getStoreName());
+        out.writeDouble(store.getLatitude());
+        out.writeDouble(store.getLongitude());
+        writeString(out, store.getFoodCategory());
+        writeVarInt(out, store.getStars());
+        writeVarInt(out, store.getNoOfVotes());
+        writeString(out, store.getStoreLogo());
+        List<Product> products = store.getProducts();
+        if (products == null) {
+            writeVarInt(out, -1);
+            return;
+        }
+        writeVarInt(out, products.size());
+        for (Product product : products) {
+            writeProduct(out, product);
+        }
+    }
+
+    private static Store readStore(DataInputStream in) throws IOException {
+        Store store = new Store(readString(in), in.readDouble(), in.readDouble(), readString(in),
+                readVarInt(in), readVarInt(in), readString(in));
+        int productCount = readVarInt(in);
+        if (productCount < 0) {
+            store.setProducts(null);
+            return store;
+        }
+        for (int i = 0; i < productCount; i++) {
+            Product product = readProduct(in);
+            product.setStore(store);
+            store.getProducts().add(product);
+        }
+        return store;
+    }
+
+    private static void writeProduct(DataOutputStream out, Product product) throws IOException {
+        writeString(out, product.getProductName());
+        writeString(out, product.getProductType());
+        out.writeInt(product.getAvailableAmount());
+        out.writeDouble(product.getPrice());
+        Boolean visible = product.getVisible();
+        out.writeByte(visible == null ? 2 : visible ? 1 : 0);
+    }
+
+    private static Product readProduct(DataInputStream in) throws IOException {
+        Product product = new Product(readString(in), readString(in), in.readInt(), in.readDouble());
+        byte visible = in.readByte();
+        product.setVisible(visible == 2 ? null : visible == 1);
+        return product;
+    }
+
+    private static boolean hasStringKeys(Map<?, ?> map) {
+        for (Object key : map.keySet()) {
+            if (!(key instanceof String)) return false;
+        }
+        return true;
+    }
+
+    // ---- primitives ----
+
+    // Strings are a varint of (byte length + 1), 0 meaning null, then UTF-8 bytes
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Zig-zag varint: small counts and lengths (and -1 markers) take a single byte
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            out.writeByte((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte(zigzag);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (result >>> 1) ^ -(result & 1);
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (result >>> 1) ^ -(result & 1);
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+}
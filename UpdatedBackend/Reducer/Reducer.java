@@ -1,5 +1,9 @@
 package Reducer;
 
+import Analytics.HeavyHitters;
+import Analytics.HyperLogLog;
+import Analytics.ReducerPartitions;
+import Analytics.TDigest;
 import javax.management.ObjectName;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -10,29 +14,76 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class Reducer {
-    private static final int REDUCER_PORT = 7003;
+    // Port of the partition this instance owns; must be listed in -Dreducer.ports
+    private static int reducerPort = ReducerPartitions.DEFAULT_REDUCER_PORT;
     private static final int MASTER_PORT = 5055;
     private static final String MASTER_HOST = "localhost";
     Socket masterSocket;
 
     private ServerSocket reducerSocket;
     private static Map<String, Object> aggregatedResults = new HashMap<>();
+    // Approximate mode keeps sketches instead of one counter per store/product key
+    private static boolean approximateMode = false;
+    // Checkpoint + event log so the aggregates survive a restart
+    private static ReducerCheckpoint checkpoint;
+    private static final long CHECKPOINT_INTERVAL_MS = Long.getLong("reducer.checkpoint.interval.ms", 30_000L);
 
     public Reducer() {
         aggregatedResults.put("systemStartTime", System.currentTimeMillis());
+        if (approximateMode) {
+            aggregatedResults.put("analyticsMode", "approximate");
+            aggregatedResults.put(ReducerHandler.TOP_PRODUCTS, new HeavyHitters());
+            aggregatedResults.put(ReducerHandler.TOP_STORES, new HeavyHitters());
+            aggregatedResults.put(ReducerHandler.DISTINCT_LOCATIONS, new HyperLogLog());
+            aggregatedResults.put(ReducerHandler.ORDER_VALUES, new TDigest());
+        } else {
+            aggregatedResults.put("analyticsMode", "exact");
+        }
     }
 
     public static Map<String, Object> getAggregatedResults() {
         return aggregatedResults;
     }
 
+    static ReducerCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    public static boolean isApproximateMode() {
+        return approximateMode;
+    }
+
     public static void main(String[] args) {
+        // Usage: java Reducer [port] [--approximate]
+        for (String arg : args) {
+            if (arg.equals("--approximate")) {
+                approximateMode = true;
+            } else {
+                reducerPort = Integer.parseInt(arg);
+            }
+        }
+        if (!ReducerPartitions.ports().contains(reducerPort)) {
+            System.err.println("Warning: port " + reducerPort + " is not in reducer.ports " +
+                    ReducerPartitions.ports() + ", no worker will route events here");
+        }
+        System.out.println("Reducer analytics mode: " + (approximateMode ? "approximate (sketches)" : "exact"));
         new Reducer().startReducer();
     }
 
     public void startReducer() {
-        try (ServerSocket reducerSocket = new ServerSocket(REDUCER_PORT)) {
-            System.out.println("Reducer node running on port " + REDUCER_PORT);
+        // Restore the aggregates before accepting any new events
+        checkpoint = new ReducerCheckpoint(reducerPort);
+        try {
+            checkpoint.recover(aggregatedResults);
+        } catch (IOException e) {
+            System.err.println("Error recovering Reducer state, starting empty: " + e.getMessage());
+            e.printStackTrace();
+        }
+        checkpoint.startPeriodicCheckpoints(aggregatedResults, CHECKPOINT_INTERVAL_MS);
+
+        try (ServerSocket reducerSocket = new ServerSocket(reducerPort)) {
+            System.out.println("Reducer node running on port " + reducerPort + " (partition " +
+                    ReducerPartitions.ports().indexOf(reducerPort) + " of " + ReducerPartitions.count() + ")");
 
             //startMasterCommunicationThread();
 
@@ -67,7 +118,7 @@ public class Reducer {
             while (true) {
                 // ACCEPT CONNECTIONS FROM WORKERS
                 Socket workerSocket = reducerSocket.accept(); // Accept connection from worker
-                new ReducerHandler(workerSocket, masterSocket).start();
+                new ReducerHandler(workerSocket).start();
             }
         } catch (IOException e) {
             System.err.println("Error starting Reducer: " + e.getMessage());
@@ -0,0 +1,363 @@
+package Reducer;
+
+import Analytics.CompressionStats;
+import Analytics.HeavyHitters;
+import Analytics.HyperLogLog;
+import Analytics.LatencyHistogram;
+import Analytics.TDigest;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Durable Reducer state: a compact binary checkpoint of aggregatedResults plus an
+ * append-only log of the events applied since that checkpoint.
+ *
+ * Every log record carries a sequence number and the checkpoint remembers the last
+ * sequence it contains, so a crash between writing a checkpoint and truncating the
+ * log never applies an event twice. Records are length-prefixed and CRC-checked;
+ * a torn record at the end of the log (crash mid-write) is ignored.
+ *
+ * Files live in data/reducer as partition-<port>.ckpt and partition-<port>.log.
+ */
+class ReducerCheckpoint {
+    private static final int MAGIC = 0x52434B50; // "RCKP"
+    private static final int VERSION = 1;
+
+    private static final byte EVENT_WORKER_RESULT = 1;
+    private static final byte EVENT_MASTER_LATENCY = 2;
+    private static final byte EVENT_NODE_METRICS = 3;
+
+    private final Path checkpointFile;
+    private final Path logFile;
+    private DataOutputStream logOut;
+    private long nextSequence = 1;
+
+    ReducerCheckpoint(int partitionPort) {
+        Path dir = Paths.get("data", "reducer");
+        this.checkpointFile = dir.resolve("partition-" + partitionPort + ".ckpt");
+        this.logFile = dir.resolve("partition-" + partitionPort + ".log");
+    }
+
+    /**
+     * Load the last checkpoint, replay the log on top of it and start a fresh log.
+     * Must be called before the Reducer accepts connections.
+     */
+    void recover(Map<String, Object> aggregatedResults) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(checkpointFile.getParent());
+
+        long lastCheckpointed = 0;
+        int restoredEntries = 0;
+        if (Files.exists(checkpointFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unrecognised checkpoint file " + checkpointFile);
+                }
+                lastCheckpointed = in.readLong();
+                int entries = in.readInt();
+                synchronized (aggregatedResults) {
+                    for (int i = 0; i < entries; i++) {
+                        String key = in.readUTF();
+                        Object value = readValue(in);
+                        // Keep this run's start time and analytics mode
+                        if (!key.equals("systemStartTime") && !key.equals("analyticsMode")) {
+                            aggregatedResults.put(key, value);
+                        }
+                    }
+                }
+                restoredEntries = entries;
+            }
+        }
+        nextSequence = lastCheckpointed + 1;
+
+        int replayed = 0;
+        if (Files.exists(logFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+                while (true) {
+                    byte[] record = readRecord(in);
+                    if (record == null) break;
+                    DataInputStream event = new DataInputStream(new ByteArrayInputStream(record));
+                    long sequence = event.readLong();
+                    if (sequence <= lastCheckpointed) continue;
+                    applyEvent(event, aggregatedResults);
+                    nextSequence = sequence + 1;
+                    replayed++;
+                }
+            }
+        }
+
+        // Fold the replayed events into a new checkpoint so the log starts empty
+        checkpoint(aggregatedResults);
+        System.out.printf("Reducer state recovered in %.1f ms: %d checkpoint entries, %d logged events replayed%n",
+                (System.nanoTime() - start) / 1e6, restoredEntries, replayed);
+    }
+
+    void logWorkerResult(Map<String, Object> resultMap) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream event = new DataOutputStream(bytes);
+            event.writeLong(nextSequence);
+            event.writeByte(EVENT_WORKER_RESULT);
+            int loggedFields = 0;
+            for (Object value : resultMap.values()) {
+                if (isLoggable(value)) loggedFields++;
+            }
+            event.writeInt(loggedFields);
+            for (Map.Entry<String, Object> entry : resultMap.entrySet()) {
+                if (isLoggable(entry.getValue())) {
+                    event.writeUTF(entry.getKey());
+                    writeValue(event, entry.getValue());
+                }
+            }
+            appendRecord(bytes.toByteArray());
+        } catch (IOException e) {
+            System.err.println("Reducer: could not log event: " + e.getMessage());
+        }
+    }
+
+    void logMasterLatency(Map<String, LatencyHistogram> histograms) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            DataOutputStream event = new DataOutputStream(bytes);
+            event.writeLong(nextSequence);
+            event.writeByte(EVENT_MASTER_LATENCY);
+            event.writeInt(histograms.size());
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                event.writeUTF(entry.getKey());
+                entry.getValue().writeTo(event);
+            }
+            appendRecord(bytes.toByteArray());
+        } catch (IOException e) {
+            System.err.println("Reducer: could not log event: " + e.getMessage());
+        }
+    }
+
+    void logNodeMetrics(Map<String, CompressionStats> metrics) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream event = new DataOutputStream(bytes);
+            event.writeLong(nextSequence);
+            event.writeByte(EVENT_NODE_METRICS);
+            event.writeInt(metrics.size());
+            for (Map.Entry<String, CompressionStats> entry : metrics.entrySet()) {
+                event.writeUTF(entry.getKey());
+                entry.getValue().writeTo(event);
+            }
+            appendRecord(bytes.toByteArray());
+        } catch (IOException e) {
+            System.err.println("Reducer: could not log event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write a new checkpoint (temp file + atomic rename) and truncate the log.
+     * Callers may hold the aggregatedResults lock; it is taken here as well.
+     */
+    void checkpoint(Map<String, Object> aggregatedResults) throws IOException {
+        synchronized (aggregatedResults) {
+            Path tempFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(nextSequence - 1);
+                int entries = 0;
+                for (Object value : aggregatedResults.values()) {
+                    if (isCheckpointable(value)) entries++;
+                }
+                out.writeInt(entries);
+                for (Map.Entry<String, Object> entry : aggregatedResults.entrySet()) {
+                    if (isCheckpointable(entry.getValue())) {
+                        out.writeUTF(entry.getKey());
+                        writeValue(out, entry.getValue());
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Everything up to nextSequence - 1 is now in the checkpoint
+            synchronized (this) {
+                if (logOut != null) {
+                    logOut.close();
+                }
+                logOut = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(logFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                StandardOpenOption.WRITE)));
+            }
+        }
+    }
+
+    /**
+     * Checkpoint in the background every intervalMs milliseconds.
+     */
+    void startPeriodicCheckpoints(Map<String, Object> aggregatedResults, long intervalMs) {
+        Thread checkpointer = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMs);
+                    long start = System.nanoTime();
+                    checkpoint(aggregatedResults);
+                    System.out.printf("Reducer checkpoint written in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Reducer: checkpoint failed: " + e.getMessage());
+                }
+            }
+        }, "reducer-checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    private synchronized void appendRecord(byte[] record) throws IOException {
+        if (logOut == null) return; // not recovered yet
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        logOut.writeInt(record.length);
+        logOut.writeInt((int) crc.getValue());
+        logOut.write(record);
+        logOut.flush();
+        nextSequence++;
+    }
+
+    // Returns null at the end of the log or at a torn / corrupt record
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expectedCrc = in.readInt();
+            if (length <= 0 || length > (1 << 24)) return null;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue() == expectedCrc ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static void applyEvent(DataInputStream event, Map<String, Object> aggregatedResults) throws IOException {
+        byte type = event.readByte();
+        int count = event.readInt();
+        if (type == EVENT_WORKER_RESULT) {
+            Map<String, Object> resultMap = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = event.readUTF();
+                resultMap.put(key, readValue(event));
+            }
+            ReducerHandler.processWorkerData("mapResult", resultMap);
+        } else if (type == EVENT_MASTER_LATENCY) {
+            Map<String, LatencyHistogram> histograms = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = event.readUTF();
+                histograms.put(key, LatencyHistogram.readFrom(event));
+            }
+            ReducerHandler.mergeMasterLatency(histograms);
+        } else if (type == EVENT_NODE_METRICS) {
+            Map<String, CompressionStats> metrics = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = event.readUTF();
+                metrics.put(key, CompressionStats.readFrom(event));
+            }
+            ReducerHandler.mergeNodeMetrics(metrics);
+        }
+    }
+
+    private static boolean isSimple(Object value) {
+        return value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Boolean;
+    }
+
+    // Fields of a worker result the event log keeps: simple values, and counter maps such as an order's lines
+    private static boolean isLoggable(Object value) {
+        if (isSimple(value)) return true;
+        if (!(value instanceof Map)) return false;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof Integer)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isCheckpointable(Object value) {
+        return isSimple(value) || value instanceof Map || value instanceof HeavyHitters
+                || value instanceof HyperLogLog || value instanceof TDigest || value instanceof LatencyHistogram
+                || value instanceof CompressionStats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte('S');
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Map) {
+            // Nested counter maps (worker_<id>, store_<name>, an order's lines)
+            Map<String, Integer> counters = (Map<String, Integer>) value;
+            out.writeByte('M');
+            out.writeInt(counters.size());
+            for (Map.Entry<String, Integer> counter : counters.entrySet()) {
+                out.writeUTF(counter.getKey());
+                out.writeInt(counter.getValue());
+            }
+        } else if (value instanceof HeavyHitters) {
+            out.writeByte('H');
+            ((HeavyHitters) value).writeTo(out);
+        } else if (value instanceof HyperLogLog) {
+            out.writeByte('L');
+            ((HyperLogLog) value).writeTo(out);
+        } else if (value instanceof TDigest) {
+            out.writeByte('T');
+            ((TDigest) value).writeTo(out);
+        } else if (value instanceof LatencyHistogram) {
+            out.writeByte('G');
+            ((LatencyHistogram) value).writeTo(out);
+        } else if (value instanceof CompressionStats) {
+            out.writeByte('C');
+            ((CompressionStats) value).writeTo(out);
+        } else {
+            throw new IOException("Cannot checkpoint value of type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case 'S': return in.readUTF();
+            case 'I': return in.readInt();
+            case 'J': return in.readLong();
+            case 'D': return in.readDouble();
+            case 'Z': return in.readBoolean();
+            case 'M': {
+                int size = in.readInt();
+                Map<String, Integer> counters = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    counters.put(in.readUTF(), in.readInt());
+                }
+                return counters;
+            }
+            case 'H': return HeavyHitters.readFrom(in);
+            case 'L': return HyperLogLog.readFrom(in);
+            case 'T': return TDigest.readFrom(in);
+            case 'G': return LatencyHistogram.readFrom(in);
+            case 'C': return CompressionStats.readFrom(in);
+            default: throw new IOException("Unknown value tag in checkpoint: " + tag);
+        }
+    }
+}
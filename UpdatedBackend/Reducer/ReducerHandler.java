@@ -1,52 +1,100 @@
 package Reducer;
 
+import Analytics.CompressionStats;
+import Analytics.HeavyHitters;
+import Analytics.HyperLogLog;
+import Analytics.LatencyHistogram;
+import Analytics.TDigest;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
 import java.io.*;
 import java.net.*;
 import java.util.*;
 
 class ReducerHandler extends Thread {
+    // Keys of the sketches kept in aggregatedResults when the Reducer runs in approximate mode
+    static final String TOP_PRODUCTS = "sketch_topProducts";
+    static final String TOP_STORES = "sketch_topStores";
+    static final String DISTINCT_LOCATIONS = "sketch_distinctLocations";
+    static final String ORDER_VALUES = "sketch_orderValues";
+
     private Socket workerSocket; // Sockets for the workers to connect to
-    private static ObjectOutputStream out; // for workers
-    private static ObjectInputStream in;
-    private static ObjectOutputStream masterOut;
-    private static ObjectInputStream masterIn;
+    private MessageChannel channel; // for workers and the Master
 
     // Get the shared aggregatedResults map from the Reducer
     private static final Map<String,Object> aggregatedResults = Reducer.getAggregatedResults();
 
-    public ReducerHandler(Socket workerSocket, Socket masterSocket) throws IOException {
+    public ReducerHandler(Socket workerSocket) {
         this.workerSocket = workerSocket;
-
-        this.out = new ObjectOutputStream(workerSocket.getOutputStream());
-        this.in = new ObjectInputStream(workerSocket.getInputStream());
-
-        this.masterOut = new ObjectOutputStream(masterSocket.getOutputStream());
-        masterOut.writeObject("Reducer established connection with Master");
-        masterOut.flush();
-        this.masterIn = new ObjectInputStream(masterSocket.getInputStream());
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void run() {
         try {
+            this.channel = MessageChannels.accept(workerSocket);
+
             // Read command from worker
-            String command = (String) in.readObject();
+            String command = (String) channel.readObject();
             System.out.println("Reducer received command: " + command);
 
             if (command.equals("mapResult")) {
                 // Receive map results from worker
-                Object data = in.readObject();
+                Object data = channel.readObject();
+                if (data instanceof Map) {
+                    // Log before applying, under the same lock the checkpointer takes
+                    synchronized (aggregatedResults) {
+                        Reducer.getCheckpoint().logWorkerResult((Map<String, Object>) data);
+                        processWorkerData(command, data);
+                    }
+                    channel.writeObject("acknowledged");
+                    channel.flush();
+                } else {
+                    channel.writeObject("Invalid data format");
+                    channel.flush();
+                }
+            } else if (command.equals("ping")) {
+                // Readiness probe from workers at startup
+                channel.writeObject("pong");
+                channel.flush();
+            } else if (command.equals("getAnalytics")) {
+                // Master queries this partition; it merges the answers of all partitions
+                Map<String, Object> snapshot;
+                synchronized (aggregatedResults) {
+                    snapshot = new HashMap<>(aggregatedResults);
+                    snapshot.put("partitionPort", workerSocket.getLocalPort());
+                    channel.writeObject(snapshot);
+                }
+                channel.flush();
+            } else if (command.equals("masterLatency")) {
+                // Round-trip histograms recorded by the Master since its last report
+                Object data = channel.readObject();
+                if (data instanceof Map) {
+                    synchronized (aggregatedResults) {
+                        Reducer.getCheckpoint().logMasterLatency((Map<String, LatencyHistogram>) data);
+                        mergeMasterLatency((Map<String, LatencyHistogram>) data);
+                    }
+                    channel.writeObject("acknowledged");
+                } else {
+                    channel.writeObject("Invalid data format");
+                }
+                channel.flush();
+            } else if (command.equals("nodeMetrics")) {
+                // Wire compression counts from the Master or a worker, keyed by node name
+                Object data = channel.readObject();
                 if (data instanceof Map) {
-                    processWorkerData(command, data);
-                    out.writeObject("acknowledged");
-                    out.flush();
+                    synchronized (aggregatedResults) {
+                        Reducer.getCheckpoint().logNodeMetrics((Map<String, CompressionStats>) data);
+                        mergeNodeMetrics((Map<String, CompressionStats>) data);
+                    }
+                    channel.writeObject("acknowledged");
                 } else {
-                    out.writeObject("Invalid data format");
-                    out.flush();
+                    channel.writeObject("Invalid data format");
                 }
+                channel.flush();
             } else {
-                out.writeObject("Unknown command");
-                out.flush();
+                channel.writeObject("Unknown command");
+                channel.flush();
             }
         } catch (Exception e) {
             System.err.println("Error handling connection: " + e.getMessage());
@@ -60,7 +108,8 @@ class ReducerHandler extends Thread {
         }
     }
 
-    private void processWorkerData(String command, Object data) {
+    @SuppressWarnings("unchecked")
+    static void processWorkerData(String command, Object data) {
         if ("mapResult".equals(command) && data instanceof Map) {
             Map<String, Object> resultMap = (Map<String, Object>) data;
             System.out.println("Processing map result with " + resultMap.size() + " entries");
@@ -90,18 +139,37 @@ class ReducerHandler extends Thread {
                     String productName = (String) resultMap.get("productName");
                     int    quantity    = (Integer) resultMap.get("quantity");
 
-                    // Update store-level sales
-                    Map<String,Integer> storeSales = getOrCreateStoreSales(storeName);
-                    storeSales.put("totalSales",
-                            storeSales.getOrDefault("totalSales", 0) + quantity
-                    );
-
-                    // Update per-product count
-                    String productKey = storeName + "_" + productName;
-                    aggregatedResults.put(
-                            productKey,
-                            ((Integer)aggregatedResults.getOrDefault(productKey, 0)) + quantity
-                    );
+                    recordSale(storeName, productName, quantity);
+                    if (Reducer.isApproximateMode() && resultMap.get("orderValue") instanceof Double) {
+                        ((TDigest) aggregatedResults.get(ORDER_VALUES)).add((Double) resultMap.get("orderValue"));
+                    }
+                }
+
+                // Orders: every line is a sale, the whole order one order value
+                if ("order".equals(requestType)
+                        && resultMap.containsKey("storeName")
+                        && resultMap.get("orderLines") instanceof Map) {
+
+                    String storeName = (String) resultMap.get("storeName");
+                    for (Map.Entry<String, Integer> line : ((Map<String, Integer>) resultMap.get("orderLines")).entrySet()) {
+                        recordSale(storeName, line.getKey(), line.getValue());
+                    }
+                    if (Reducer.isApproximateMode() && resultMap.get("orderValue") instanceof Double) {
+                        ((TDigest) aggregatedResults.get(ORDER_VALUES)).add((Double) resultMap.get("orderValue"));
+                    }
+                }
+
+                // Distinct customer locations from store searches
+                if (Reducer.isApproximateMode() && resultMap.get("customerLocation") instanceof String) {
+                    ((HyperLogLog) aggregatedResults.get(DISTINCT_LOCATIONS)).add((String) resultMap.get("customerLocation"));
+                }
+
+                // Real service time measured on the worker
+                if (resultMap.get("serviceTimeNanos") instanceof Long) {
+                    long serviceNanos = (Long) resultMap.get("serviceTimeNanos");
+                    getOrCreateHistogram("latency_service_" + requestType).record(serviceNanos);
+                    getOrCreateHistogram("latency_worker_" + workerId).record(serviceNanos);
+                    getOrCreateHistogram("latency_service_all").record(serviceNanos);
                 }
 
                 // Update last-activity timestamp
@@ -116,8 +184,49 @@ class ReducerHandler extends Thread {
         }
     }
     
+    static void mergeMasterLatency(Map<String, LatencyHistogram> histograms) {
+        synchronized (aggregatedResults) {
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                // Keys are "<commandType>" or "worker_<port>"
+                getOrCreateHistogram("latency_rtt_" + entry.getKey()).merge(entry.getValue());
+                if (!entry.getKey().startsWith("worker_")) {
+                    getOrCreateHistogram("latency_rtt_all").merge(entry.getValue());
+                }
+            }
+            aggregatedResults.put("lastUpdate", System.currentTimeMillis());
+            aggregatedResults.notifyAll();
+        }
+        System.out.println("Merged " + histograms.size() + " round-trip histograms from Master");
+    }
+
+    static void mergeNodeMetrics(Map<String, CompressionStats> metrics) {
+        synchronized (aggregatedResults) {
+            for (Map.Entry<String, CompressionStats> entry : metrics.entrySet()) {
+                getOrCreateCompressionStats("compression_" + entry.getKey()).merge(entry.getValue());
+                getOrCreateCompressionStats("compression_all").merge(entry.getValue());
+            }
+            aggregatedResults.put("lastUpdate", System.currentTimeMillis());
+            aggregatedResults.notifyAll();
+        }
+        System.out.println("Merged compression metrics from " + metrics.keySet());
+    }
+
+    private static CompressionStats getOrCreateCompressionStats(String key) {
+        if (!(aggregatedResults.get(key) instanceof CompressionStats)) {
+            aggregatedResults.put(key, new CompressionStats());
+        }
+        return (CompressionStats) aggregatedResults.get(key);
+    }
+
+    private static LatencyHistogram getOrCreateHistogram(String key) {
+        if (!(aggregatedResults.get(key) instanceof LatencyHistogram)) {
+            aggregatedResults.put(key, new LatencyHistogram());
+        }
+        return (LatencyHistogram) aggregatedResults.get(key);
+    }
+
     @SuppressWarnings("unchecked")
-    private Map<String, Integer> getOrCreateWorkerStats(String workerId) {
+    private static Map<String, Integer> getOrCreateWorkerStats(String workerId) {
         String key = "worker_" + workerId;
         if (!aggregatedResults.containsKey(key)) {
             aggregatedResults.put(key, new HashMap<String, Integer>());
@@ -125,8 +234,30 @@ class ReducerHandler extends Thread {
         return (Map<String, Integer>) aggregatedResults.get(key);
     }
     
+    // Add one sale to the store and product totals; called with aggregatedResults locked
+    private static void recordSale(String storeName, String productName, int quantity) {
+        if (Reducer.isApproximateMode()) {
+            // Fixed-size sketches instead of one entry per store/product
+            ((HeavyHitters) aggregatedResults.get(TOP_STORES)).add(storeName, quantity);
+            ((HeavyHitters) aggregatedResults.get(TOP_PRODUCTS)).add(storeName + "_" + productName, quantity);
+        } else {
+            // Update store-level sales
+            Map<String,Integer> storeSales = getOrCreateStoreSales(storeName);
+            storeSales.put("totalSales",
+                    storeSales.getOrDefault("totalSales", 0) + quantity
+            );
+
+            // Update per-product count
+            String productKey = storeName + "_" + productName;
+            aggregatedResults.put(
+                    productKey,
+                    ((Integer)aggregatedResults.getOrDefault(productKey, 0)) + quantity
+            );
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    private Map<String, Integer> getOrCreateStoreSales(String storeName) {
+    private static Map<String, Integer> getOrCreateStoreSales(String storeName) {
         String key = "store_" + storeName;
         if (!aggregatedResults.containsKey(key)) {
             aggregatedResults.put(key, new HashMap<String, Integer>());
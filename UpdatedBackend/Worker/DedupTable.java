@@ -0,0 +1,92 @@
+package Worker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The answers to the tagged changes this worker applied recently, by request ID, so a
+ * retried change is answered instead of applied again (see Objects.RequestIds).
+ *
+ * An answer is kept for -Ddedup.ttl.ms (default 10 minutes), and at most
+ * -Ddedup.max.entries (default 100000) of them, the oldest going first; a client retries
+ * within seconds, so that is plenty. A repeat that arrives while the first is still being
+ * applied, over another connection from a reconnected Master, waits for it and gets its
+ * answer. A change that failed with an error is forgotten, so its retry is applied anew.
+ *
+ * The table lives in memory: after a restart a worker applies a retried change again.
+ */
+class DedupTable {
+    private static final long TTL_MS = Long.getLong("dedup.ttl.ms", 10 * 60_000L);
+    private static final int MAX_ENTRIES = Integer.getInteger("dedup.max.entries", 100_000);
+
+    private static final class Entry {
+        final long expiresAt;
+        // Null while the change is being applied
+        Object response;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // In insertion order, which is also expiry order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long replayed;
+
+    /**
+     * Start applying a tagged change.
+     * @return null if this is its first arrival, which must then be ended with complete or
+     *         forget; otherwise the answer to its first arrival, to send again
+     */
+    synchronized Object begin(String requestId) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        expire(now);
+        Entry entry = entries.get(requestId);
+        if (entry == null) {
+            entries.put(requestId, new Entry(now + TTL_MS));
+            return null;
+        }
+        while (entry.response == null && entries.get(requestId) == entry) {
+            wait();
+        }
+        if (entries.get(requestId) != entry) {
+            // The first arrival failed and was forgotten; this one applies the change
+            entries.put(requestId, new Entry(now + TTL_MS));
+            return null;
+        }
+        replayed++;
+        return entry.response;
+    }
+
+    synchronized void complete(String requestId, Object response) {
+        Entry entry = entries.get(requestId);
+        if (entry != null) {
+            entry.response = response;
+        }
+        notifyAll();
+    }
+
+    synchronized void forget(String requestId) {
+        entries.remove(requestId);
+        notifyAll();
+    }
+
+    synchronized long replayed() {
+        return replayed;
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<String, Entry> next = oldest.next();
+            // Changes still being applied stay, however old
+            boolean done = next.getValue().response != null;
+            if (done && (next.getValue().expiresAt <= now || entries.size() > MAX_ENTRIES)) {
+                oldest.remove();
+            } else if (next.getValue().expiresAt > now && entries.size() <= MAX_ENTRIES) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package Worker;
+
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ships the changes to the stores this worker is primary for to their backup workers.
+ * A change is shipped as its write-ahead log record, while its store is locked, so every
+ * backup receives a store's changes in the order the primary applied them.
+ *
+ * Each backup has a link with its own connection and sender thread. The sender sends
+ * whatever has queued up as one "replicate" request and waits for the backup's answer,
+ * which comes once the backup has applied the records and logged them on its own disk;
+ * requests waiting on awaitReplicated are then released together, the way the log's
+ * group commit shares one fsync.
+ *
+ * A backup that cannot be reached is skipped: changes are not queued for it and nobody
+ * waits for it. Its link reconnects every RECONNECT_MS and then resends every store this
+ * worker is primary for, so the backup catches up with whatever it missed. Until a store's
+ * copy is queued, its changes are not: the copy has them, and a backup that doesn't have
+ * the store yet couldn't apply them. A backup that
+ * takes longer than -Dreplica.timeout.ms (default 5000) to answer a request, or answers it
+ * with anything but having applied it, is dropped the same way, so a hung backup doesn't
+ * hold up this worker's changes and one that fell behind is resynchronized.
+ */
+class Replicator {
+    private static final long RECONNECT_MS = 1_000;
+    // Records per replicate request, so a resync of many stores is sent in pieces
+    private static final int MAX_BATCH = 1_000;
+    private static final int TIMEOUT_MS = Integer.getInteger("replica.timeout.ms", 5_000);
+
+    /**
+     * Sends a newly connected backup the current state of every store this worker is primary for.
+     */
+    interface Resync {
+        void run(Replicator replicator, Link link) throws IOException;
+    }
+
+    private final String workerId;
+    private final Resync resync;
+    private final List<Link> links = new ArrayList<>();
+    // Sequence of the last record shipped to any link
+    private long lastShipped;
+
+    Replicator(List<Integer> backupPorts, String workerId, Resync resync) {
+        this.workerId = workerId;
+        this.resync = resync;
+        for (int port : backupPorts) {
+            links.add(new Link(port));
+        }
+    }
+
+    void start() {
+        for (Link link : links) {
+            Thread sender = new Thread(link::run, "replicator-" + link.port);
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    /**
+     * Queue a record for every reachable backup. Called with the record's store locked.
+     * @return the sequence to pass to awaitReplicated
+     */
+    synchronized long ship(String storeName, byte[] record) {
+        long sequence = ++lastShipped;
+        for (Link link : links) {
+            link.enqueue(sequence, storeName, record);
+        }
+        return sequence;
+    }
+
+    /**
+     * Queue a store's whole state for one backup only, while it is resynchronized. Called
+     * with the store locked.
+     */
+    synchronized void shipTo(Link link, String storeName, byte[] record) {
+        link.enqueue(++lastShipped, storeName, record);
+    }
+
+    /**
+     * Block until every reachable backup has applied and logged the records up to sequence.
+     */
+    void awaitReplicated(long sequence) throws InterruptedIOException {
+        for (Link link : links) {
+            link.await(sequence);
+        }
+    }
+
+    final class Link {
+        final int port;
+        // Records queued for the next request, and their sequences
+        private List<byte[]> pending = new ArrayList<>();
+        private List<Long> sequences = new ArrayList<>();
+        // Every record up to this sequence has been applied by the backup
+        private long acked;
+        private boolean connected;
+        // While the backup is resynchronized, the stores whose whole state is queued; null after
+        private Set<String> resynced;
+
+        private Link(int port) {
+            this.port = port;
+        }
+
+        private synchronized void enqueue(long sequence, String storeName, byte[] record) {
+            // Not queued while disconnected: the resync after reconnecting covers it
+            if (!connected) return;
+            if (resynced != null) {
+                if (record[0] == WriteAheadLog.ADD_STORE) {
+                    resynced.add(storeName);
+                } else if (!resynced.contains(storeName)) {
+                    // Nor before the store's copy, which is taken after this change
+                    return;
+                }
+            }
+            pending.add(record);
+            sequences.add(sequence);
+            notifyAll();
+        }
+
+        // Returns once the backup has the records, or is dropped
+        private synchronized void await(long sequence) throws InterruptedIOException {
+            while (connected && acked < sequence) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the backup on port " + port);
+                }
+            }
+        }
+
+        private void run() {
+            boolean reported = false;
+            while (true) {
+                MessageChannel channel = null;
+                try {
+                    channel = MessageChannels.connect("localhost", port, TIMEOUT_MS);
+                    channel.getSocket().setSoTimeout(TIMEOUT_MS);
+                    // Nothing shipped before now needs waiting for: the resync sends it all again
+                    synchronized (Replicator.this) {
+                        synchronized (this) {
+                            connected = true;
+                            acked = lastShipped;
+                            resynced = new HashSet<>();
+                        }
+                    }
+                    System.out.println("[Worker " + workerId + "] Replicating to backup on port " + port);
+                    reported = false;
+                    resync.run(Replicator.this, this);
+                    synchronized (this) {
+                        resynced = null;
+                    }
+                    send(channel);
+                } catch (IOException | ClassNotFoundException e) {
+                    if (!reported) {
+                        System.err.println("[Worker " + workerId + "] Backup on port " + port +
+                                " unreachable or not answering, reconnecting: " + e);
+                        reported = true;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                synchronized (this) {
+                    connected = false;
+                    resynced = null;
+                    pending.clear();
+                    sequences.clear();
+                    notifyAll();
+                }
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // Already broken
+                    }
+                }
+                try {
+                    Thread.sleep(RECONNECT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        // Sends queued records until the connection fails, times out or the backup can't apply them
+        private void send(MessageChannel channel) throws IOException, ClassNotFoundException, InterruptedException {
+            while (true) {
+                ArrayList<byte[]> batch;
+                long batchEnd;
+                synchronized (this) {
+                    while (pending.isEmpty()) {
+                        wait();
+                    }
+                    int count = Math.min(pending.size(), MAX_BATCH);
+                    batch = new ArrayList<>(pending.subList(0, count));
+                    batchEnd = sequences.get(count - 1);
+                    pending.subList(0, count).clear();
+                    sequences.subList(0, count).clear();
+                }
+                channel.writeObject("replicate");
+                channel.writeObject(batch);
+                channel.flush();
+                Object response = channel.readObject();
+                if (!("Applied " + batch.size()).equals(response)) {
+                    // The backup is behind on these stores; reconnecting resyncs it
+                    throw new IOException("backup answered \"" + response + "\" instead of applying " +
+                            batch.size() + " records");
+                }
+                synchronized (this) {
+                    acked = batchEnd;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
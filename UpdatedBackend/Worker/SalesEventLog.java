@@ -0,0 +1,336 @@
+package Worker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Every sale this worker made, one fixed-size binary record per purchase, in memory-mapped
+ * segment files. Queries over a time range scan the mapped records in place, skipping
+ * segments outside the range, so no event is kept on the heap.
+ *
+ * A record holds the purchase's write-ahead log sequence, its time, store and product ids,
+ * quantity and revenue in cents, and a CRC. Store and product names are numbered in a
+ * names file next to the segments. The write-ahead log stays the record of a purchase:
+ * at startup, purchases it replays are appended here unless their sequence is already
+ * present, and records whose purchase never reached the log are voided.
+ *
+ * Files are data/sales/worker-<port>.<n>.sales, -Dsales.segment.records records each
+ * (default 65536), and data/sales/worker-<port>.names.
+ */
+class SalesEventLog {
+    private static final int MAGIC = 0x53414C45; // "SALE"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 40;
+    private static final int RECORDS_PER_SEGMENT = Integer.getInteger("sales.segment.records", 65_536);
+    // Sequence of a record whose purchase never reached the write-ahead log
+    private static final long VOID = -1;
+
+    // Header: magic, version, record count, min time, max time, max sequence
+    private static final int COUNT_OFFSET = 8;
+    private static final int MIN_TIME_OFFSET = 16;
+    private static final int MAX_TIME_OFFSET = 24;
+    private static final int MAX_SEQUENCE_OFFSET = 32;
+
+    /**
+     * Receives the records of a scan.
+     */
+    interface Visitor {
+        void visit(String storeName, String productName, int quantity, long revenueCents);
+    }
+
+    private static final class Segment {
+        final Path file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        // Written under the log's lock; read without it by queries, which then only read below it
+        volatile int count;
+        volatile long minTime = Long.MAX_VALUE;
+        volatile long maxTime = Long.MIN_VALUE;
+        long maxSequence;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        }
+    }
+
+    private final Path dir;
+    private final String prefix;
+    private final String workerId;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Read by queries; appended under the log's lock
+    private final List<String> names = Collections.synchronizedList(new ArrayList<>());
+    private FileChannel namesChannel;
+    private DataOutputStream namesOut;
+    // Sequences above the snapshot cut already here, while the write-ahead log is replayed
+    private Set<Long> recovered = Collections.emptySet();
+
+    SalesEventLog(int workerPort, String workerId) {
+        this.dir = Paths.get("data", "sales");
+        this.prefix = "worker-" + workerPort + ".";
+        this.workerId = workerId;
+    }
+
+    /**
+     * Map the existing segments and load the names. Records after cutSequence are
+     * remembered, so replaying the write-ahead log from the cut does not add them twice.
+     */
+    synchronized void open(long cutSequence) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+
+        Path namesFile = dir.resolve(prefix + "names");
+        if (Files.exists(namesFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(namesFile)))) {
+                while (true) {
+                    String name;
+                    try {
+                        name = in.readUTF();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    ids.put(name, names.size());
+                    names.add(name);
+                }
+            }
+        }
+        namesChannel = FileChannel.open(namesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Drop a name cut short by a crash
+        namesChannel.truncate(namesLength());
+        namesChannel.position(namesChannel.size());
+        namesOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(namesChannel)));
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*.sales")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(Comparator.comparingInt(this::segmentIndexOf));
+
+        long events = 0;
+        recovered = new HashSet<>();
+        for (Path file : files) {
+            Segment segment = map(file);
+            recount(segment);
+            segments.add(segment);
+            events += segment.count;
+            if (segment.maxSequence > cutSequence) {
+                for (int i = 0; i < segment.count; i++) {
+                    long sequence = segment.buffer.getLong(offsetOf(i));
+                    if (sequence > cutSequence) recovered.add(sequence);
+                }
+            }
+        }
+        System.out.printf("[Worker %s] Sales log: %d events in %d segments mapped in %.1f ms%n",
+                workerId, events, segments.size(), (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Record a sale. Called with the store locked, after the purchase has been logged.
+     */
+    synchronized void append(long sequence, long timeMillis, String storeName, String productName,
+                             int quantity, long revenueCents) throws IOException {
+        // Already here from before the restart
+        if (recovered.contains(sequence)) return;
+
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.count == segment.capacity) {
+            int index = segment == null ? 0 : segmentIndexOf(segment.file) + 1;
+            segment = map(dir.resolve(prefix + index + ".sales"));
+            segments.add(segment);
+        }
+
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(offsetOf(segment.count));
+        record.putLong(sequence);
+        record.putLong(timeMillis);
+        record.putInt(idOf(storeName));
+        record.putInt(idOf(productName));
+        record.putInt(quantity);
+        record.putLong(revenueCents);
+        record.putInt(checksum(segment.buffer, offsetOf(segment.count)));
+        segment.minTime = Math.min(segment.minTime, timeMillis);
+        segment.maxTime = Math.max(segment.maxTime, timeMillis);
+        segment.maxSequence = Math.max(segment.maxSequence, sequence);
+        writeHeader(segment, segment.count + 1);
+        // Published last, so a query never reads a partly written record
+        segment.count++;
+    }
+
+    /**
+     * Replay is over: void records whose purchase is not in the write-ahead log (the worker
+     * stopped before the log had it), and append normally from now on.
+     */
+    synchronized void finishRecovery(long lastLoggedSequence) {
+        int voided = 0;
+        for (Segment segment : segments) {
+            if (segment.maxSequence <= lastLoggedSequence) continue;
+            long maxSequence = 0;
+            for (int i = 0; i < segment.count; i++) {
+                int offset = offsetOf(i);
+                long sequence = segment.buffer.getLong(offset);
+                if (sequence > lastLoggedSequence) {
+                    segment.buffer.putLong(offset, VOID);
+                    segment.buffer.putInt(offset + RECORD_SIZE - 4, checksum(segment.buffer, offset));
+                    voided++;
+                } else {
+                    maxSequence = Math.max(maxSequence, sequence);
+                }
+            }
+            segment.maxSequence = maxSequence;
+            writeHeader(segment, segment.count);
+        }
+        recovered = Collections.emptySet();
+        if (voided > 0) {
+            System.out.println("[Worker " + workerId + "] Sales log: voided " + voided + " events missing from the write-ahead log");
+        }
+    }
+
+    /**
+     * Visit every sale from fromMillis (inclusive) to toMillis (exclusive).
+     */
+    void scan(long fromMillis, long toMillis, Visitor visitor) {
+        List<Segment> current;
+        synchronized (this) {
+            current = new ArrayList<>(segments);
+        }
+        for (Segment segment : current) {
+            int count = segment.count;
+            if (count == 0 || segment.maxTime < fromMillis || segment.minTime >= toMillis) continue;
+            ByteBuffer buffer = segment.buffer;
+            for (int i = 0; i < count; i++) {
+                int offset = offsetOf(i);
+                long time = buffer.getLong(offset + 8);
+                if (time < fromMillis || time >= toMillis || buffer.getLong(offset) == VOID) continue;
+                visitor.visit(names.get(buffer.getInt(offset + 16)), names.get(buffer.getInt(offset + 20)),
+                        buffer.getInt(offset + 24), buffer.getLong(offset + 28));
+            }
+        }
+    }
+
+    /**
+     * Push the mapped records and names to disk; called before the write-ahead log
+     * segments they were derived from are deleted.
+     */
+    synchronized void force() throws IOException {
+        namesOut.flush();
+        namesChannel.force(false);
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    private int idOf(String name) throws IOException {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        // On disk before any record refers to it
+        namesOut.writeUTF(name);
+        namesOut.flush();
+        id = names.size();
+        ids.put(name, id);
+        names.add(name);
+        return id;
+    }
+
+    private Segment map(Path file) throws IOException {
+        long size = HEADER_SIZE + (long) RECORDS_PER_SEGMENT * RECORD_SIZE;
+        boolean created = !Files.exists(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // A segment keeps the size it was created with
+            long mappedSize = created ? size : channel.size();
+            Segment segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize));
+            if (created) {
+                segment.buffer.putInt(0, MAGIC);
+                segment.buffer.putInt(4, VERSION);
+                writeHeader(segment, 0);
+            } else if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+                throw new IOException("Unrecognised sales log segment " + file);
+            }
+            return segment;
+        }
+    }
+
+    // The header count can lag the records after a crash; trust only records with a valid CRC
+    private void recount(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int capacity = segment.capacity;
+        int count = Math.min(buffer.getInt(COUNT_OFFSET), capacity);
+        while (count < capacity && validRecord(buffer, offsetOf(count))) {
+            count++;
+        }
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        long maxSequence = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = offsetOf(i);
+            long time = buffer.getLong(offset + 8);
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            maxSequence = Math.max(maxSequence, buffer.getLong(offset));
+        }
+        segment.minTime = minTime;
+        segment.maxTime = maxTime;
+        segment.maxSequence = maxSequence;
+        segment.count = count;
+        writeHeader(segment, count);
+    }
+
+    // Unwritten space is zeros, which never has a sequence of 0 and a matching CRC
+    private static boolean validRecord(ByteBuffer buffer, int offset) {
+        return buffer.getLong(offset) != 0 && checksum(buffer, offset) == buffer.getInt(offset + RECORD_SIZE - 4);
+    }
+
+    // CRC of a record's fields, everything but the CRC itself
+    private static int checksum(ByteBuffer buffer, int offset) {
+        ByteBuffer fields = buffer.duplicate();
+        fields.position(offset).limit(offset + RECORD_SIZE - 4);
+        CRC32 crc = new CRC32();
+        crc.update(fields);
+        return (int) crc.getValue();
+    }
+
+    private static void writeHeader(Segment segment, int count) {
+        segment.buffer.putInt(COUNT_OFFSET, count);
+        segment.buffer.putLong(MIN_TIME_OFFSET, segment.minTime);
+        segment.buffer.putLong(MAX_TIME_OFFSET, segment.maxTime);
+        segment.buffer.putLong(MAX_SEQUENCE_OFFSET, segment.maxSequence);
+    }
+
+    private static int offsetOf(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private int segmentIndexOf(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(prefix.length(), name.length() - ".sales".length()));
+    }
+
+    // Length of the names read so far, as writeUTF wrote them
+    private long namesLength() {
+        long length = 0;
+        for (String name : names) {
+            length += 2 + utfLength(name);
+        }
+        return length;
+    }
+
+    private static int utfLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+}
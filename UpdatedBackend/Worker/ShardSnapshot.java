@@ -0,0 +1,231 @@
+package Worker;
+
+import Objects.Product;
+import Objects.Store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of a worker's shard: every store with its products, and the
+ * sales counts of those products. Loaded at startup through a memory-mapped read of the
+ * file, so a restart costs one sequential read instead of replaying the whole log or
+ * parsing JSON files.
+ *
+ * Stores are copied one at a time under their own lock while purchases continue. Each
+ * store is saved with the last log sequence at the time it was copied (its watermark);
+ * since a store's log records are appended under that same lock, replay applies exactly
+ * the records with a higher sequence. The log is rolled to a new segment before the
+ * snapshot starts, and the older segments are deleted once the snapshot is saved.
+ *
+ * The file is data/wal/worker-<port>.snap, written to a temp file and renamed into place.
+ * -Dsnapshot.interval.ms sets how often it is written (default 60 s).
+ */
+class ShardSnapshot {
+    private static final int MAGIC = 0x57534E50; // "WSNP"
+    private static final int VERSION = 1;
+    static final long INTERVAL_MS = Long.getLong("snapshot.interval.ms", 60_000L);
+
+    private final Path file;
+    private final String workerId;
+    // Store name -> last log sequence contained in its snapshot copy
+    private final Map<String, Long> watermarks = new HashMap<>();
+    private long cutSequence;
+
+    ShardSnapshot(int workerPort, String workerId) {
+        this.file = Paths.get("data", "wal").resolve("worker-" + workerPort + ".snap");
+        this.workerId = workerId;
+    }
+
+    /**
+     * Every log record up to this sequence is in the snapshot last loaded or written.
+     */
+    long getCutSequence() {
+        return cutSequence;
+    }
+
+    /**
+     * Whether the loaded snapshot already contains the log record for this store.
+     */
+    boolean contains(String storeName, long sequence) {
+        Long watermark = watermarks.get(storeName);
+        return watermark != null && sequence <= watermark;
+    }
+
+    /**
+     * Load the snapshot, if there is one, into the store cache and sales data.
+     */
+    void load(Map<String, Store> storeCache, Map<String, int[]> salesData) throws IOException {
+        if (!Files.exists(file)) return;
+        long start = System.nanoTime();
+        int stores = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unrecognised snapshot file " + file);
+            }
+            cutSequence = buffer.getLong();
+            stores = buffer.getInt();
+            StringTable strings = new StringTable();
+            for (int i = 0; i < stores; i++) {
+                Store store = new Store(strings.read(buffer), buffer.getDouble(), buffer.getDouble(),
+                        strings.read(buffer), buffer.getInt(), buffer.getInt(), strings.read(buffer));
+                long watermark = buffer.getLong();
+                int productCount = buffer.getInt();
+                List<Product> products = new ArrayList<>(productCount);
+                for (int p = 0; p < productCount; p++) {
+                    Product product = new Product(strings.read(buffer), strings.read(buffer),
+                            buffer.getInt(), buffer.getDouble());
+                    product.setVisible(buffer.get() != 0);
+                    product.setStore(store);
+                    products.add(product);
+                    int units = buffer.getInt();
+                    if (units >= 0) {
+                        salesData.put(store.getStoreName() + ":" + product.getProductName(),
+                                new int[]{units, buffer.getInt()});
+                    }
+                }
+                store.setProducts(products);
+                storeCache.put(store.getStoreName(), store);
+                watermarks.put(store.getStoreName(), watermark);
+            }
+        }
+        System.out.printf("[Worker %s] Snapshot %s: %d stores loaded in %.1f ms%n",
+                workerId, file, stores, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Write a new snapshot of the shard and drop the log segments it makes redundant.
+     */
+    void write(Map<String, Store> storeCache, Map<String, int[]> salesData, WriteAheadLog wal,
+               SalesEventLog salesLog) throws IOException {
+        long start = System.nanoTime();
+        long cut = wal.roll();
+        List<Store> stores;
+        synchronized (storeCache) {
+            stores = new ArrayList<>(storeCache.values());
+        }
+
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(cut);
+            out.writeInt(stores.size());
+            for (Store store : stores) {
+                // The store's mutations and their log records happen under this lock
+                synchronized (store) {
+                    writeString(out, store.getStoreName());
+                    out.writeDouble(store.getLatitude());
+                    out.writeDouble(store.getLongitude());
+                    writeString(out, store.getFoodCategory());
+                    out.writeInt(store.getStars());
+                    out.writeInt(store.getNoOfVotes());
+                    writeString(out, store.getStoreLogo());
+                    out.writeLong(wal.lastSequence());
+                    List<Product> products = store.getProducts();
+                    out.writeInt(products.size());
+                    for (Product product : products) {
+                        writeString(out, product.getProductName());
+                        writeString(out, product.getProductType());
+                        out.writeInt(product.getAvailableAmount());
+                        out.writeDouble(product.getPrice());
+                        out.writeByte(product.getVisible() ? 1 : 0);
+                        int[] sales = salesData.get(store.getStoreName() + ":" + product.getProductName());
+                        if (sales == null) {
+                            out.writeInt(-1);
+                        } else {
+                            out.writeInt(sales[0]);
+                            out.writeInt(sales[1]);
+                        }
+                    }
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // The sales log can no longer be repaired from the segments about to go
+        salesLog.force();
+        wal.deleteSegmentsThrough(cut);
+        cutSequence = cut;
+        System.out.printf("[Worker %s] Snapshot of %d stores written in %.1f ms (%d KB)%n",
+                workerId, stores.size(), (System.nanoTime() - start) / 1e6, Files.size(file) / 1024);
+    }
+
+    /**
+     * Snapshot in the background every intervalMs milliseconds.
+     */
+    void startPeriodicSnapshots(Map<String, Store> storeCache, Map<String, int[]> salesData,
+                                WriteAheadLog wal, SalesEventLog salesLog, long intervalMs) {
+        Thread snapshotter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(intervalMs);
+                    // Nothing logged since the last snapshot
+                    if (wal.lastSequence() == cutSequence) continue;
+                    write(storeCache, salesData, wal, salesLog);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("[Worker " + workerId + "] Snapshot failed: " + e.getMessage());
+                }
+            }
+        }, "shard-snapshotter");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    // Length-prefixed UTF-8, -1 for null
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads strings from the snapshot, reusing one String for repeated values. Product
+     * names, types and categories repeat across stores, so most reads skip decoding and
+     * allocation. A direct-mapped cache keyed by the raw bytes; a collision just decodes.
+     */
+    private static final class StringTable {
+        private static final int SIZE = 1 << 14;
+        private final byte[][] keys = new byte[SIZE][];
+        private final String[] values = new String[SIZE];
+        private byte[] scratch = new byte[256];
+
+        String read(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0) return null;
+            if (length > scratch.length) scratch = new byte[length];
+            buffer.get(scratch, 0, length);
+            int hash = length;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + scratch[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+            byte[] key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, scratch, 0, length)) {
+                return values[slot];
+            }
+            String value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            keys[slot] = Arrays.copyOf(scratch, length);
+            values[slot] = value;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package Worker;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stock set aside for carts and checkouts, by hold key. Held units stay in the products'
+ * available amounts, and so in the log, snapshots, JSON files and backups, until the hold
+ * is committed as an order; meanwhile every purchase on this worker counts them as taken,
+ * and the stock it shows customers leaves them out. A released hold simply gives them back.
+ *
+ * Every hold expires: a cart's reservation after -Dhold.reserve.seconds (default 600)
+ * unless the cart renews it, a checkout's hold after -Dhold.checkout.ms (default 60000) in
+ * case its coordinator vanished. Deadlines live in a timing wheel turned every
+ * -Dhold.tick.ms (default 1000) by one thread, so expiring costs next to nothing however
+ * many holds there are.
+ *
+ * Holds are kept in memory on the store's primary only: if the worker restarts, its holds
+ * are gone and committing one fails.
+ */
+class StockHolds {
+    private static final long TICK_MS = Long.getLong("hold.tick.ms", 1_000);
+    // One turn of the wheel is about 17 minutes at the default tick, longer than most holds
+    private static final int WHEEL_SLOTS = 1024;
+
+    static final class Hold {
+        final String storeName;
+        final List<String> productNames;
+        final List<Integer> quantities;
+        long deadline;
+        // The cart reservation this checkout hold took over, given back if it is released
+        String absorbedKey;
+        Hold absorbed;
+
+        Hold(String storeName, List<String> productNames, List<Integer> quantities) {
+            this.storeName = storeName;
+            this.productNames = productNames;
+            this.quantities = quantities;
+        }
+
+        // Units of a product this hold sets aside
+        int units(String productName) {
+            int units = 0;
+            for (int i = 0; i < productNames.size(); i++) {
+                if (productNames.get(i).equals(productName)) units += quantities.get(i);
+            }
+            return units;
+        }
+    }
+
+    private final Map<String, Hold> holds = new HashMap<>();
+    // Units held per "store:product"
+    private final Map<String, Integer> held = new HashMap<>();
+    // Hold keys by deadline; a key whose hold was replaced or removed since is ignored when it fires
+    private final TimingWheel<String> deadlines = new TimingWheel<>(WHEEL_SLOTS, TICK_MS, System.currentTimeMillis());
+    private long expired;
+
+    StockHolds() {
+        Thread expirer = new Thread(this::expireLoop, "hold-expiry");
+        expirer.setDaemon(true);
+        expirer.start();
+    }
+
+    /**
+     * Key of a cart's reservation at a store.
+     */
+    static String reservationKey(String cartId, String storeName) {
+        return cartId + "@" + storeName;
+    }
+
+    /**
+     * Units of a product held for carts and checkouts.
+     */
+    synchronized int held(String storeName, String productName) {
+        return held.getOrDefault(storeName + ":" + productName, 0);
+    }
+
+    /**
+     * Units of a product the hold with this key sets aside, 0 if there is none.
+     */
+    synchronized int heldBy(String key, String productName) {
+        Hold hold = holds.get(key);
+        return hold == null ? 0 : hold.units(productName);
+    }
+
+    /**
+     * Hold stock for ttlMs, replacing the hold with this key if there is one. Called with
+     * the store locked, after checking there is enough stock not held by others.
+     * @param absorbedKey the key of a hold this one takes over, or null; it is given back
+     *                    if this hold is released or expires
+     */
+    synchronized void hold(String key, Hold hold, long ttlMs, String absorbedKey) {
+        unhold(holds.remove(key));
+        if (absorbedKey != null) {
+            hold.absorbed = holds.remove(absorbedKey);
+            hold.absorbedKey = absorbedKey;
+            unhold(hold.absorbed);
+        }
+        hold.deadline = System.currentTimeMillis() + ttlMs;
+        holds.put(key, hold);
+        addUnits(hold, 1);
+        deadlines.schedule(key, hold.deadline);
+    }
+
+    /**
+     * The hold with this key, still holding its stock, or null.
+     */
+    synchronized Hold get(String key) {
+        return holds.get(key);
+    }
+
+    /**
+     * Remove a hold to commit it; a reservation it took over is used up with it.
+     * @return the hold, or null if there is none with this key
+     */
+    synchronized Hold take(String key) {
+        Hold hold = holds.remove(key);
+        unhold(hold);
+        return hold;
+    }
+
+    /**
+     * Remove a hold to give its stock back, restoring the reservation it took over if that
+     * hasn't expired meanwhile.
+     * @return the hold, or null if there is none with this key
+     */
+    synchronized Hold release(String key) {
+        Hold hold = take(key);
+        if (hold != null && hold.absorbed != null && hold.absorbed.deadline > System.currentTimeMillis()
+                && !holds.containsKey(hold.absorbedKey)) {
+            // Its own deadline is still in the wheel
+            holds.put(hold.absorbedKey, hold.absorbed);
+            addUnits(hold.absorbed, 1);
+        }
+        return hold;
+    }
+
+    synchronized String summary() {
+        return holds.size() + " holds, " + deadlines.pending() + " deadlines pending, " + expired + " expired";
+    }
+
+    private void unhold(Hold hold) {
+        if (hold != null) addUnits(hold, -1);
+    }
+
+    private void addUnits(Hold hold, int sign) {
+        for (int i = 0; i < hold.productNames.size(); i++) {
+            String key = hold.storeName + ":" + hold.productNames.get(i);
+            int units = held.getOrDefault(key, 0) + sign * hold.quantities.get(i);
+            if (units > 0) {
+                held.put(key, units);
+            } else {
+                held.remove(key);
+            }
+        }
+    }
+
+    private void expireLoop() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            int count = expire(System.currentTimeMillis());
+            if (count > 0) {
+                System.out.println("Stock holds: " + count + " expired (" + summary() + ")");
+            }
+        }
+    }
+
+    private synchronized int expire(long now) {
+        long before = expired;
+        deadlines.advance(now, key -> {
+            Hold hold = holds.get(key);
+            // A hold renewed since has a later deadline of its own in the wheel
+            if (hold != null && hold.deadline <= now) {
+                release(key);
+                expired++;
+            }
+        });
+        return (int) (expired - before);
+    }
+}
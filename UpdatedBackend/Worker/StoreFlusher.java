@@ -0,0 +1,170 @@
+package Worker;
+
+import Objects.Product;
+import Objects.Store;
+import Objects.StoreJsonParser;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the store JSON files in data\stores up to date without making requests wait for
+ * the disk. A mutation marks its store dirty and queues it once; one background thread
+ * rewrites the queued stores, each as a whole file written to a temp file and renamed into
+ * place, so a reader never sees half a store.
+ *
+ * Every store is written at most once per -Dstore.flush.interval.ms (default 1000 ms),
+ * however many orders it takes in that time, and there is a single writer, so the disk
+ * sees at most one write per dirty store per interval. The write-ahead log remains what
+ * makes a change durable; these files are the readable copy the Master lists.
+ *
+ * Only the stores this worker is primary for are written, so a backup never overwrites
+ * the primary's file with its own copy.
+ */
+class StoreFlusher {
+    private static final String STORES_DIR = "data\\stores";
+    static final long INTERVAL_MS = Long.getLong("store.flush.interval.ms", 1_000L);
+
+    private final String workerId;
+    private final long intervalMs;
+    // Which stores' files this worker writes, set by start()
+    private Predicate<String> owned;
+    // Stores marked dirty since the last pass; each store is in here at most once
+    private List<Store> queue = new ArrayList<>();
+
+    // Writes and passes, for the periodic report
+    private long writes;
+    private long passes;
+
+    StoreFlusher(String workerId, long intervalMs) {
+        this.workerId = workerId;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Queue the store's file to be rewritten. Called with the store locked, right after a change.
+     */
+    void markDirty(Store store) {
+        if (store.isDirty()) return;
+        store.setDirty(true);
+        synchronized (this) {
+            queue.add(store);
+            notifyAll();
+        }
+    }
+
+    void start(Predicate<String> owned) {
+        this.owned = owned;
+        Thread flusher = new Thread(this::flushLoop, "store-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void flushLoop() {
+        while (true) {
+            List<Store> batch;
+            synchronized (this) {
+                while (queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = queue;
+                queue = new ArrayList<>();
+            }
+
+            long start = System.currentTimeMillis();
+            for (Store store : batch) {
+                String json;
+                // Cleared under the lock, so a change after the copy queues the store again
+                synchronized (store) {
+                    store.setDirty(false);
+                    if (!owned.test(store.getStoreName())) continue;
+                    json = toJson(store);
+                }
+                try {
+                    write(store.getStoreName(), json);
+                    writes++;
+                } catch (IOException e) {
+                    System.err.println("[Worker " + workerId + "] Error saving store data for " +
+                            store.getStoreName() + ": " + e.getMessage());
+                    // Try again on the next pass
+                    synchronized (store) {
+                        markDirty(store);
+                    }
+                }
+            }
+            if (++passes % 100 == 0) {
+                System.out.println("[Worker " + workerId + "] Store files: " + writes + " writes in " + passes + " passes");
+            }
+
+            // Changes arriving meanwhile collect in the queue and share the next pass
+            long remaining = intervalMs - (System.currentTimeMillis() - start);
+            if (remaining > 0) {
+                try {
+                    Thread.sleep(remaining);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void write(String storeName, String json) throws IOException {
+        Path storeDir = Paths.get(STORES_DIR);
+        Files.createDirectories(storeDir);
+        Path storeFile = storeDir.resolve(storeName + ".json");
+        Path tempFile = storeDir.resolve(storeName + ".json.tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile.toFile())) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tempFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Strings are escaped so StoreJsonParser reads them back; Visible is only written for hidden products
+    static String toJson(Store store) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("    \"StoreName\": \"").append(StoreJsonParser.escape(store.getStoreName())).append("\",\n");
+        json.append("    \"Latitude\": ").append(store.getLatitude()).append(",\n");
+        json.append("    \"Longitude\": ").append(store.getLongitude()).append(",\n");
+        json.append("    \"FoodCategory\": \"").append(StoreJsonParser.escape(store.getFoodCategory())).append("\",\n");
+        json.append("    \"Stars\": ").append(store.getStars()).append(",\n");
+        json.append("    \"NoOfVotes\": ").append(store.getNoOfVotes()).append(",\n");
+        json.append("    \"StoreLogo\": \"").append(StoreJsonParser.escape(store.getStoreLogo())).append("\",\n");
+
+        // Add products array
+        json.append("    \"Products\": [\n");
+        List<Product> products = store.getProducts();
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            json.append("        {\n");
+            json.append("            \"ProductName\": \"").append(StoreJsonParser.escape(product.getProductName())).append("\",\n");
+            json.append("            \"ProductType\": \"").append(StoreJsonParser.escape(product.getProductType())).append("\",\n");
+            json.append("            \"Available Amount\": ").append(product.getAvailableAmount()).append(",\n");
+            json.append("            \"Price\": ").append(product.getPrice());
+            if (Boolean.FALSE.equals(product.getVisible())) {
+                json.append(",\n            \"Visible\": false");
+            }
+            json.append("\n        }");
+
+            // Add comma if not the last product
+            if (i < products.size() - 1) {
+                json.append(",");
+            }
+            json.append("\n");
+        }
+        json.append("    ]\n");
+        json.append("}");
+
+        return json.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package Worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel: a ring of slots, one per tick, each holding the timeouts that fall
+ * due on a tick hashing to it. Scheduling a timeout is an append to its slot, and each tick
+ * only looks at the one slot it hashes to, so thousands of timeouts a second cost a few
+ * operations each, however many are pending. A timeout further away than one turn of the
+ * wheel stays in its slot until the turn it is due on.
+ *
+ * Timeouts aren't cancelled: the caller ignores one that fires for an item it no longer
+ * cares about, so cancelling costs nothing either. Timeouts fire up to one tick late.
+ *
+ * Not thread-safe; the owner synchronizes.
+ */
+final class TimingWheel<T> {
+
+    private static final class Timeout<T> {
+        final T item;
+        final long tick;
+
+        Timeout(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+
+    private final long tickMs;
+    private final List<List<Timeout<T>>> slots;
+    // The last tick whose timeouts have fired
+    private long currentTick;
+    private int pending;
+
+    TimingWheel(int slotCount, long tickMs, long now) {
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = now / tickMs;
+    }
+
+    /**
+     * Fire item at deadline, or on the next tick if that has passed.
+     */
+    void schedule(T item, long deadline) {
+        // Rounded up, so a timeout never fires early
+        long tick = Math.max((deadline + tickMs - 1) / tickMs, currentTick + 1);
+        slots.get((int) (tick % slots.size())).add(new Timeout<>(item, tick));
+        pending++;
+    }
+
+    /**
+     * Fire every timeout due by now, in tick order.
+     */
+    void advance(long now, Consumer<T> due) {
+        long target = now / tickMs;
+        while (currentTick < target) {
+            currentTick++;
+            List<Timeout<T>> slot = slots.get((int) (currentTick % slots.size()));
+            int kept = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                Timeout<T> timeout = slot.get(i);
+                if (timeout.tick <= currentTick) {
+                    pending--;
+                    due.accept(timeout.item);
+                } else {
+                    // Due on a later turn of the wheel
+                    slot.set(kept++, timeout);
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+    }
+
+    /**
+     * Timeouts scheduled and not fired yet, including those of items since forgotten.
+     */
+    int pending() {
+        return pending;
+    }
+}
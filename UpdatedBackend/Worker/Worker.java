@@ -1,17 +1,22 @@
 package Worker;
 
+import Analytics.CompressionStats;
+import Analytics.ReducerPartitions;
+import Protocol.Compression;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
 import config.configLoader;
 import java.io.*;
 import java.net.*;
 import java.util.*;
 
 public class Worker {
-    // Add Reducer connection details
-    private static final int REDUCER_PORT = 7003;
+    // Reducer partitions come from ReducerPartitions (-Dreducer.ports=7003,7004,...)
     private static final String hostAddress = "localhost";
     // Add Master connection details
     private static final int MASTER_PORT = 5055;
-    private Socket reducerSocket;
+    // How often wire compression counts are shipped to the Reducer
+    private static final long METRICS_REPORT_INTERVAL_MS = 10_000;
     private ServerSocket workerSocket;
     private int WORKER_PORT;
     // Add workerId for identification in the Reducer
@@ -46,25 +51,37 @@ public class Worker {
             System.out.println("Waiting for requests from Master...");
             System.out.println("==================================\n");
 
-            // Establish connection with Reducer
-            Socket reducerSocket;
-            while (true) {
-                try {
-                    reducerSocket = new Socket(hostAddress, REDUCER_PORT);
-                    break;
-                } catch (IOException e) {
-                    System.out.println("Reducer not ready, retrying in 1s...");
-                    Thread.sleep(3000);
+            // Restore stores, stock and sales from the snapshot and write-ahead log before taking requests
+            WorkerHandler.recover(new WriteAheadLog(WORKER_PORT, workerId),
+                    new ShardSnapshot(WORKER_PORT, workerId),
+                    new StoreFlusher(workerId, StoreFlusher.INTERVAL_MS),
+                    new SalesEventLog(WORKER_PORT, workerId), workerId);
+
+            // Wait until every Reducer partition is reachable; events are then sent
+            // to the owning partition on a connection of their own
+            for (int reducerPort : ReducerPartitions.ports()) {
+                while (true) {
+                    try (MessageChannel probe = MessageChannels.connect(ReducerPartitions.HOST, reducerPort)) {
+                        probe.writeObject("ping");
+                        probe.flush();
+                        probe.readObject();
+                        break;
+                    } catch (IOException | ClassNotFoundException e) {
+                        System.out.println("Reducer on port " + reducerPort + " not ready, retrying in 3s...");
+                        Thread.sleep(3000);
+                    }
                 }
             }
-            System.out.println("Worker " + workerId + " connected to Reducer at " + hostAddress + ":" + REDUCER_PORT);
+            System.out.println("Worker " + workerId + " reaches " + ReducerPartitions.count() +
+                    " Reducer partition(s) on ports " + ReducerPartitions.ports());
+            startMetricsReporter();
+
 
-            
             while (true) {
                 Socket masterSocket = workerSocket.accept();
                 System.out.println("\nReceived connection from: " +
                         masterSocket.getInetAddress().getHostAddress() + ":" + masterSocket.getPort());
-                new WorkerHandler(masterSocket, reducerSocket, workerId).start();
+                new WorkerHandler(masterSocket, workerId).start();
             }
         } catch (IOException | InterruptedException e) {
             System.err.println("Error starting Worker: " + e.getMessage());
@@ -72,8 +89,6 @@ public class Worker {
         } finally {
             // Close sockets
             try {
-                if (reducerSocket != null && !reducerSocket.isClosed())
-                    reducerSocket.close();
                 if (workerSocket  != null && !workerSocket.isClosed())
                     workerSocket.close();
             } catch (IOException ex) {
@@ -82,5 +97,34 @@ public class Worker {
         }
     }
 
+    /**
+     * Periodically sends this worker's wire compression counts to the Reducer.
+     */
+    private void startMetricsReporter() {
+        String key = "compression_" + workerId;
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(METRICS_REPORT_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                CompressionStats stats = Compression.drainStats();
+                if (stats.isEmpty()) continue;
+                HashMap<String, CompressionStats> metrics = new HashMap<>();
+                metrics.put(workerId, stats);
+                int port = ReducerPartitions.portFor(key);
+                try (MessageChannel reducer = MessageChannels.connect(ReducerPartitions.HOST, port)) {
+                    reducer.writeObject("nodeMetrics");
+                    reducer.writeObject(metrics);
+                    reducer.flush();
+                    reducer.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    System.err.println("[Worker " + workerId + "] Could not send compression metrics: " + e.getMessage());
+                }
+            }
+        }, "worker-metrics-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
 }
-
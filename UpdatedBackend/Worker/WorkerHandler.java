@@ -2,13 +2,25 @@ package Worker;
 
 import java.io.*;
 import java.net.*;
-import java.nio.file.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.stream.Collectors;
 
 
+import Analytics.ReducerPartitions;
 import Objects.Store;
 import Objects.Product;
+import Objects.ProductMatch;
+import Objects.ProductUpdate;
+import Objects.RequestIds;
+import Objects.SalesTotal;
+import Objects.StoreJsonParser;
+import Objects.StoreMatch;
+import Objects.StoreRouting;
+import Protocol.MessageChannel;
+import Protocol.MessageChannels;
+import Protocol.WireCodec;
 
 /**
  * Handles individual worker connections to the server.
@@ -17,227 +29,479 @@ import Objects.Product;
 class WorkerHandler extends Thread {
     private Socket masterSocket;
     private String workerId;
-    private static final String STORES_DIR = "data\\stores";
-    private Socket reducerSocket;
-    private ObjectOutputStream out; // for master
-    private ObjectInputStream in;
-    private ObjectOutputStream reducerOut;
-    private ObjectInputStream reducerIn;
-    private static final Object reducerLock = new Object();
+    private MessageChannel master; // negotiated in run()
+    // Extra fields for the Reducer collected while handling the current command
+    private final Map<String, Object> resultDetails = new HashMap<>();
+    // Sequence of the last log record written for the current command, 0 if none
+    private long walSequence;
+    // Whether the current request changed a store here, even if logging it then failed
+    private boolean changed;
+    // Sequence of the last change shipped to the backups for the current command, 0 if none
+    private long replicaSequence;
+    // ID of the tagged change being applied, until its answer is in the dedup table
+    private String pendingRequestId;
 
     // Static map to store Store objects in memory, shared across all handler instances for this worker
     private static final Map<String, Store> storeCache = Collections.synchronizedMap(new HashMap<>());
     
-    // Map to track sales data - resets when the system restarts
+    // Units sold and revenue per "store:product", restored by the snapshot and write-ahead log
     private static final Map<String, int[]> salesData = Collections.synchronizedMap(new HashMap<>());
 
-    public WorkerHandler(Socket masterSocket, Socket reducerSocket, String workerId) throws IOException {
+    // Every mutation is logged here before the Master is answered; null while replaying
+    private static WriteAheadLog wal;
+    // Rewrites the JSON files of changed stores in the background
+    private static StoreFlusher storeFlusher;
+    // Every sale with its time, for sales reports over a time range
+    private static SalesEventLog salesLog;
+
+    // This worker's place in the cluster, sent by the Master; a size of 0 means it holds
+    // only its own stores, as before the Master sends it
+    private static volatile int clusterSize;
+    private static volatile int clusterIndex;
+    // Ships changes to the stores this worker is primary for to their backups; null without backups
+    private static Replicator replicator;
+    // Answers to recent tagged changes, so a retried change isn't applied twice
+    private static final DedupTable dedup = new DedupTable();
+    // Stock held for carts and for checkouts across stores, until it is bought, given back or expires
+    private static final StockHolds holds = new StockHolds();
+    private static final long RESERVE_MS = Long.getLong("hold.reserve.seconds", 600) * 1_000;
+    private static final long CHECKOUT_HOLD_MS = Long.getLong("hold.checkout.ms", 60_000);
+
+    public WorkerHandler(Socket masterSocket, String workerId) {
         this.masterSocket = masterSocket;
         this.workerId = workerId;
-        this.reducerSocket = reducerSocket;
-
-        this.out = new ObjectOutputStream(masterSocket.getOutputStream());
-        this.in = new ObjectInputStream(masterSocket.getInputStream());
+    }
 
-        this.reducerOut = new ObjectOutputStream(reducerSocket.getOutputStream());
-        this.reducerIn = new ObjectInputStream(reducerSocket.getInputStream());
-        reducerOut.writeObject("Worker established connection with Reducer");
-        reducerOut.flush();
+    /**
+     * Rebuild the store cache and sales data from the last shard snapshot plus the
+     * write-ahead log records it doesn't contain, then log every later mutation and
+     * snapshot periodically. Stores changed by the replay get their JSON files rewritten
+     * once the Master has said which of them this worker is primary for, and replayed purchases missing from the sales log are added to it.
+     * Called by the Worker before it accepts connections.
+     */
+    static void recover(WriteAheadLog log, ShardSnapshot snapshot, StoreFlusher flusher,
+                        SalesEventLog sales, String workerId) throws IOException {
+        snapshot.load(storeCache, salesData);
+        sales.open(snapshot.getCutSequence());
+        salesLog = sales;
+        // Started once the Master says which stores this worker is primary for
+        storeFlusher = flusher;
+        WorkerHandler replayer = new WorkerHandler(null, workerId);
+        log.recover(snapshot.getCutSequence(), (sequence, type, body) -> {
+            switch (type) {
+                case WriteAheadLog.ADD_STORE:
+                    Store store = (Store) WireCodec.readValue(body);
+                    if (!snapshot.contains(store.getStoreName(), sequence)) {
+                        storeCache.put(store.getStoreName(), store);
+                        synchronized (store) {
+                            flusher.markDirty(store);
+                        }
+                    }
+                    break;
+                case WriteAheadLog.PRODUCT_UPDATE:
+                    ProductUpdate update = ProductUpdate.readFrom(body);
+                    if (!snapshot.contains(update.getStoreName(), sequence)) {
+                        replayer.applyUpdate(update);
+                    }
+                    break;
+                case WriteAheadLog.PURCHASE:
+                    String storeName = body.readUTF();
+                    if (!snapshot.contains(storeName, sequence)) {
+                        replayer.walSequence = sequence;
+                        replayer.processPurchase(storeName, body.readUTF(), body.readInt());
+                    }
+                    break;
+                case WriteAheadLog.ORDER:
+                    String orderStore = body.readUTF();
+                    if (!snapshot.contains(orderStore, sequence)) {
+                        List<String> productNames = new ArrayList<>();
+                        List<Integer> quantities = new ArrayList<>();
+                        WriteAheadLog.readOrderLines(body, productNames, quantities);
+                        replayer.walSequence = sequence;
+                        replayer.processOrder(orderStore, productNames, quantities);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown write-ahead log record type " + type);
+            }
+        });
+        sales.finishRecovery(log.lastSequence());
+        wal = log;
+        snapshot.startPeriodicSnapshots(storeCache, salesData, log, sales, ShardSnapshot.INTERVAL_MS);
     }
 
     @Override
     public void run() {
         try {
-            String command = (String) in.readObject();
-            System.out.println("\n[Worker " + workerId + "] Received command: " + command);
+            master = MessageChannels.accept(masterSocket);
 
-            String response = "Unknown command response";
-
-            // Handle different command types
-            if (command.startsWith("addStore")) {
-                try {
-                    // Modified to receive Store object instead of String
-                    Store storeData = (Store) in.readObject();
-                    String storeName = command.substring("addStore ".length()).trim();
-                    System.out.println("[Worker " + workerId + "] Adding store: " + storeName);
-
-                    // Save store object in memory cache
-                    storeCache.put(storeName, storeData);
-
-                    // Process store data for file storage
-                    String storeJson = storeToJson(storeData);
-                    boolean success = saveStoreData(storeName, storeJson);
-
-                    // Send response back to Master
-                    String responseMsg = success ?
-                            "Worker successfully added store: " + storeName :
-                            "Worker failed to add store: " + storeName;
-
-                    System.out.println("[Worker " + workerId + "] Store cache now contains: " +
-                            storeCache.keySet());
-
-                    System.out.println("[Worker " + workerId + "] Sending response: " + responseMsg);
-                    out.writeObject(responseMsg);
-                    out.flush();
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing addStore: " + e.getMessage());
-                    e.printStackTrace();
-                    out.writeObject("Error: " + e.getMessage());
-                    out.flush();
-                }
-            } else if (command.startsWith("updateStock")) {
+            // The Master keeps this connection open; every request is a command followed by
+            // one payload object (possibly null) and gets exactly one response
+            while (true) {
+                String command;
                 try {
-                    // Read payload as List<Object>
-                    @SuppressWarnings("unchecked")
-                    List<Object> payload = (List<Object>) in.readObject();
-                    System.out.println("[Worker " + workerId + "] Processing updateStock operation");
-
-                    // Extract data from payload
-                    Product selectedProduct = (Product) payload.get(0);
-                    Boolean isAddOperation = (Boolean) payload.get(1);
-                    int quantity = (int) payload.get(2);
-
-                    // Process the update stock operation using the in-memory store
-                    boolean success = updateProductStock(selectedProduct, isAddOperation, quantity);
-
-                    // Send response back to Master
-                    response = success ?
-                            "Worker successfully updated stock for product: " + selectedProduct.getProductName() :
-                            "Worker failed to update stock for product: " + selectedProduct.getProductName();
-
-                    System.out.println("[Worker " + workerId + "] " + response);
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing updateStock: " + e.getMessage());
-                    e.printStackTrace();
-                    response = "Error processing updateStock: " + e.getMessage();
+                    command = (String) master.readObject();
+                } catch (EOFException e) {
+                    break;
                 }
-            } else if (command.startsWith("addProduct")) {
-                try {
-                    // Read product object
-                    Product newProduct = (Product) in.readObject();
-                    System.out.println("[Worker " + workerId + "] Processing addProduct operation");
-
-                    // Process the add product operation using in-memory store
-                    boolean success = addProductToStore(newProduct);
-
-                    // Send response back to Master
-                    response = success ?
-                            "Worker successfully added product: " + newProduct.getProductName() :
-                            "Worker failed to add product: " + newProduct.getProductName();
-
-                    System.out.println("[Worker " + workerId + "] " + response);
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing addProduct: " + e.getMessage());
-                    e.printStackTrace();
-                    response = "Error processing addProduct: " + e.getMessage();
+                Object payload = master.readObject();
+                // Service time runs from receiving the command until the response is flushed
+                long startNanos = System.nanoTime();
+                String requestId = RequestIds.idOf(command);
+                command = RequestIds.untag(command);
+                System.out.println("\n[Worker " + workerId + "] Received command: " + command +
+                        (requestId != null ? " (request " + requestId + ")" : ""));
+                if (requestId != null) {
+                    Object replay = dedup.begin(requestId);
+                    if (replay != null) {
+                        // Applied already and its answer lost on the way; not applied or counted again
+                        System.out.println("[Worker " + workerId + "] Request " + requestId +
+                                " was applied already, answering it again: " + replay);
+                        master.writeObject(replay);
+                        master.flush();
+                        continue;
+                    }
+                    pendingRequestId = requestId;
                 }
-            } else if (command.startsWith("removeProduct")) {
-                try {
-                    // Read product object
-                    Product productToRemove = (Product) in.readObject();
-                    System.out.println("[Worker " + workerId + "] Processing removeProduct operation");
-
-                    // Process the remove product operation using in-memory store
-                    boolean success = removeProductFromStore(productToRemove);
-
-                    // Send response back to Master
-                    response = success ?
-                            "Worker successfully removed product: " + productToRemove.getProductName() :
-                            "Worker failed to remove product: " + productToRemove.getProductName();
-
-                    System.out.println("[Worker " + workerId + "] " + response);
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing removeProduct: " + e.getMessage());
-                    e.printStackTrace();
-                    response = "Error processing removeProduct: " + e.getMessage();
+                resultDetails.clear();
+                walSequence = 0;
+                replicaSequence = 0;
+                changed = false;
+
+                Object response = "Unknown command response";
+
+                // Handle different command types
+                if (command.equals("replicate")) {
+                    try {
+                        // Payload is the next log records of a worker this one is a backup for
+                        @SuppressWarnings("unchecked")
+                        List<byte[]> records = (List<byte[]>) payload;
+                        response = applyReplicated(records);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error applying replicated changes: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error applying replicated changes: " + e.getMessage();
+                    }
+                } else if (command.equals("joinCluster")) {
+                    try {
+                        // Payload is this worker's index, every worker's port and the backups per store
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> cluster = (Map<String, Object>) payload;
+                        response = joinCluster(cluster);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error joining cluster: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error joining cluster: " + e.getMessage();
+                    }
+                } else if (command.equals("loadShard")) {
+                    try {
+                        // Payload is the store files of the slices this worker holds
+                        @SuppressWarnings("unchecked")
+                        List<String> paths = (List<String>) payload;
+                        response = loadShard(paths);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error loading shard: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error loading shard: " + e.getMessage();
+                    }
+                } else if (command.equals("addStores")) {
+                    try {
+                        // Payload is one batch of a Manager's bulk import, all owned by this worker
+                        @SuppressWarnings("unchecked")
+                        List<Store> stores = (List<Store>) payload;
+                        System.out.println("[Worker " + workerId + "] Adding " + stores.size() + " imported stores");
+                        resultDetails.put("batchSize", stores.size());
+                        response = addStores(stores);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing addStores: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing addStores: " + e.getMessage();
+                    }
+                } else if (command.startsWith("addStore")) {
+                    try {
+                        // Modified to receive Store object instead of String
+                        Store storeData = (Store) payload;
+                        String storeName = command.substring("addStore ".length()).trim();
+                        System.out.println("[Worker " + workerId + "] Adding store: " + storeName);
+
+                        // Save store object in memory cache, logged under the store's lock so
+                        // no update to it can reach the log first
+                        synchronized (storeData) {
+                            storeCache.put(storeName, storeData);
+                            // Its JSON file is written in the background
+                            recordChange(storeData, WriteAheadLog.addStoreRecord(storeData));
+                        }
+
+                        // Send response back to Master
+                        String responseMsg = "Worker successfully added store: " + storeName;
+
+                        synchronized (storeCache) {
+                            System.out.println("[Worker " + workerId + "] Store cache now contains: " +
+                                    storeCache.keySet());
+                        }
+
+                        response = responseMsg;
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing addStore: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error: " + e.getMessage();
+                    }
+                } else if (command.startsWith("updateStock")) {
+                    try {
+                        // Payload is the stock change for one product
+                        ProductUpdate update = (ProductUpdate) payload;
+                        System.out.println("[Worker " + workerId + "] Processing updateStock operation");
+
+                        // Process the update stock operation using the in-memory store
+                        boolean success = updateProductStock(update);
+
+                        // Send response back to Master
+                        response = success ?
+                                "Worker successfully updated stock for product: " + update.getProductName() :
+                                "Worker failed to update stock for product: " + update.getProductName();
+
+                        System.out.println("[Worker " + workerId + "] " + response);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing updateStock: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing updateStock: " + e.getMessage();
+                    }
+                } else if (command.startsWith("addProduct")) {
+                    try {
+                        // Read the product to add
+                        ProductUpdate newProduct = (ProductUpdate) payload;
+                        System.out.println("[Worker " + workerId + "] Processing addProduct operation");
+
+                        // Process the add product operation using in-memory store
+                        boolean success = addProductToStore(newProduct);
+
+                        // Send response back to Master
+                        response = success ?
+                                "Worker successfully added product: " + newProduct.getProductName() :
+                                "Worker failed to add product: " + newProduct.getProductName();
+
+                        System.out.println("[Worker " + workerId + "] " + response);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing addProduct: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing addProduct: " + e.getMessage();
+                    }
+                } else if (command.startsWith("removeProduct")) {
+                    try {
+                        // Read the product to hide
+                        ProductUpdate productToRemove = (ProductUpdate) payload;
+                        System.out.println("[Worker " + workerId + "] Processing removeProduct operation");
+
+                        // Process the remove product operation using in-memory store
+                        boolean success = removeProductFromStore(productToRemove);
+
+                        // Send response back to Master
+                        response = success ?
+                                "Worker successfully removed product: " + productToRemove.getProductName() :
+                                "Worker failed to remove product: " + productToRemove.getProductName();
+
+                        System.out.println("[Worker " + workerId + "] " + response);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing removeProduct: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing removeProduct: " + e.getMessage();
+                    }
+                } else if (command.equals("batch")) {
+                    try {
+                        // Payload is this worker's share of a Manager batch, in the Manager's order
+                        @SuppressWarnings("unchecked")
+                        List<ProductUpdate> updates = (List<ProductUpdate>) payload;
+                        System.out.println("[Worker " + workerId + "] Applying batch of " + updates.size() + " updates");
+                        resultDetails.put("batchSize", updates.size());
+                        response = applyBatch(updates);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing batch: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing batch: " + e.getMessage();
+                    }
+                } else if (command.startsWith("buy")) {
+                    try {
+                        // Buy command format: buy|storeName|productName|quantity
+                        // Read payload as List<Object>
+                        @SuppressWarnings("unchecked")
+                        List<Object> purchase = (List<Object>) payload;
+
+                        if (purchase.size() >= 3) {
+                            String storeName = (String) purchase.get(0);
+                            String productName = (String) purchase.get(1);
+                            int quantity = (int) purchase.get(2);
+
+                            // Process the purchase using in-memory store
+                            response = processPurchase(storeName, productName, quantity);
+                        } else {
+                            response = "Invalid purchase payload";
+                        }
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing buy: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing purchase: " + e.getMessage();
+                    }
+                } else if (command.equals("order")) {
+                    try {
+                        // Payload: storeName, then each line's product name and quantity
+                        List<?> order = (List<?>) payload;
+                        List<String> productNames = new ArrayList<>();
+                        List<Integer> quantities = new ArrayList<>();
+                        for (int i = 1; i + 1 < order.size(); i += 2) {
+                            productNames.add((String) order.get(i));
+                            quantities.add((Integer) order.get(i + 1));
+                        }
+                        response = productNames.isEmpty() || order.size() % 2 == 0
+                                ? "Error: Invalid order payload"
+                                : processOrder((String) order.get(0), productNames, quantities);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing order: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error processing order: " + e.getMessage();
+                    }
+                } else if (command.equals("reserve")) {
+                    try {
+                        // Payload: cart ID, storeName, then each line's product name and quantity, if any
+                        List<?> order = (List<?>) payload;
+                        List<String> productNames = new ArrayList<>();
+                        List<Integer> quantities = new ArrayList<>();
+                        for (int i = 2; i + 1 < order.size(); i += 2) {
+                            productNames.add((String) order.get(i));
+                            quantities.add((Integer) order.get(i + 1));
+                        }
+                        response = order.size() < 2 || order.size() % 2 != 0
+                                ? "Error: Invalid reserve payload"
+                                : reserveStock((String) order.get(0), (String) order.get(1), productNames, quantities);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error reserving stock: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error reserving stock: " + e.getMessage();
+                    }
+                } else if (command.equals("prepare")) {
+                    try {
+                        // Payload: hold ID, cart ID, storeName, then each line's product name and quantity
+                        List<?> order = (List<?>) payload;
+                        List<String> productNames = new ArrayList<>();
+                        List<Integer> quantities = new ArrayList<>();
+                        for (int i = 3; i + 1 < order.size(); i += 2) {
+                            productNames.add((String) order.get(i));
+                            quantities.add((Integer) order.get(i + 1));
+                        }
+                        response = productNames.isEmpty() || order.size() % 2 == 0
+                                ? "Error: Invalid prepare payload"
+                                : prepareHold((String) order.get(0), (String) order.get(1), (String) order.get(2),
+                                        productNames, quantities);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error preparing hold: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error preparing hold: " + e.getMessage();
+                    }
+                } else if (command.equals("commit")) {
+                    response = commitHold((String) payload);
+                } else if (command.equals("release")) {
+                    response = releaseHold((String) payload);
+                } else if (command.equals("getStoreInfo")) {
+                    try {
+                        String storeName = (String) payload;
+                        System.out.println("[Worker " + workerId + "] Getting info for store: " + storeName);
+
+                        // Check if store exists in our cache
+                        if (storeCache.containsKey(storeName)) {
+                            Store store = storeCache.get(storeName);
+                            System.out.println("[Worker " + workerId + "] Found store in cache: " + storeName);
+                            response = store;
+                        } else {
+                            System.out.println("[Worker " + workerId + "] Store not found in cache: " + storeName);
+                            response = "Store not found";
+                        }
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing getStoreInfo: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error: " + e.getMessage();
+                    }
+                } else if (command.equals("getStoreProducts")) {
+                    try {
+                        // Read store name from input stream
+                        String storeName = (String) payload;
+                        System.out.println("[Worker " + workerId + "] Getting products for store: " + storeName);
+                    
+                        // Use our helper method to get only visible products
+                        response = getStoreVisibleProducts(storeName);
+                    } catch (Exception e) {
+                        System.err.println("[Worker " + workerId + "] Error processing getStoreProducts: " + e.getMessage());
+                        e.printStackTrace();
+                        response = "Error: " + e.getMessage();
+                    }
+                } else if (command.startsWith("findStores")) {
+                    // Use our dedicated method for finding nearby stores
+                    response = findNearbyStores(command, slices(payload));
+                } else if (command.startsWith("search")) {
+                    // Use our dedicated method for searching products
+                    response = searchProducts(command, slices(payload));
+                } else if (command.startsWith("getSalesByCategory")) {
+                    // Use our dedicated method for getting sales data
+                    response = getSalesByFoodCategory(command);
+                } else if (command.startsWith("getSalesByProduct")) {
+                    // Use our dedicated method for getting product sales data
+                    response = getSalesByProduct(command);
+                } else {
+                    // Generic processing for unknown commands
+                    response = "Unknown command: " + command;
+                    System.err.println("[Worker " + workerId + "] " + response);
                 }
-            } else if (command.startsWith("buy")) {
-                try {
-                    // Buy command format: buy|storeName|productName|quantity
-                    // Read payload as List<Object>
-                    @SuppressWarnings("unchecked")
-                    List<Object> payload = (List<Object>) in.readObject();
-
-                    if (payload.size() >= 3) {
-                        String storeName = (String) payload.get(0);
-                        String productName = (String) payload.get(1);
-                        int quantity = (int) payload.get(2);
-
-                        // Process the purchase using in-memory store
-                        response = processPurchase(storeName, productName, quantity);
-                    } else {
-                        response = "Invalid purchase payload";
+
+                // Answer only once this command's changes are in the log on disk
+                if (walSequence > 0) {
+                    try {
+                        wal.awaitDurable(walSequence);
+                    } catch (IOException e) {
+                        System.err.println("[Worker " + workerId + "] Could not log changes: " + e.getMessage());
+                        response = "Error: write-ahead log failed: " + e.getMessage();
                     }
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing buy: " + e.getMessage());
-                    e.printStackTrace();
-                    response = "Error processing purchase: " + e.getMessage();
                 }
-            } else if (command.equals("getStoreInfo")) {
-                try {
-                    String storeName = (String) in.readObject();
-                    System.out.println("[Worker " + workerId + "] Getting info for store: " + storeName);
-
-                    // Check if store exists in our cache
-                    if (storeCache.containsKey(storeName)) {
-                        Store store = storeCache.get(storeName);
-                        System.out.println("[Worker " + workerId + "] Found store in cache: " + storeName);
-                        out.writeObject(store);
-                        out.flush();
+                // ... and, for a store this worker is primary for, once its backups have them too
+                if (replicaSequence > 0) {
+                    replicator.awaitReplicated(replicaSequence);
+                }
+                // Repeats of a change get this answer. A change that failed before changing
+                // anything is applied anew; one applied in memory never is, whatever went
+                // wrong after, or a retry would apply it twice
+                if (pendingRequestId != null) {
+                    if (!changed && response instanceof String && ((String) response).startsWith("Error")) {
+                        dedup.forget(pendingRequestId);
                     } else {
-                        System.out.println("[Worker " + workerId + "] Store not found in cache: " + storeName);
-                        out.writeObject("Store not found");
-                        out.flush();
+                        dedup.complete(pendingRequestId, response);
                     }
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing getStoreInfo: " + e.getMessage());
-                    e.printStackTrace();
-                    out.writeObject("Error: " + e.getMessage());
-                    out.flush();
+                    pendingRequestId = null;
                 }
-            } else if (command.equals("getStoreProducts")) {
-                try {
-                    // Read store name from input stream
-                    String storeName = (String) in.readObject();
-                    System.out.println("[Worker " + workerId + "] Getting products for store: " + storeName);
-                    
-                    // Use our helper method to get only visible products
-                    response = getStoreVisibleProducts(storeName);
-                } catch (Exception e) {
-                    System.err.println("[Worker " + workerId + "] Error processing getStoreProducts: " + e.getMessage());
-                    e.printStackTrace();
-                    response = "Error: " + e.getMessage();
+
+                // Send the response back to Master
+                System.out.println("[Worker " + workerId + "] Sending response: " +
+                        (response instanceof List ? ((List<?>) response).size() + " results" : response));
+                master.writeObject(response);
+                master.flush();
+                long serviceNanos = System.nanoTime() - startNanos;
+
+                // Send processing results to the Reducer for aggregation; replicated purchases
+                // were already counted by their primary
+                if (!command.equals("replicate")) {
+                    sendResultsToReducer(command, response, serviceNanos);
                 }
-            } else if (command.startsWith("findStores")) {
-                // Use our dedicated method for finding nearby stores
-                response = findNearbyStores(command);
-            } else if (command.startsWith("search")) {
-                // Use our dedicated method for searching products
-                response = searchProducts(command);
-            } else if (command.startsWith("getSalesByCategory")) {
-                // Use our dedicated method for getting sales data
-                response = getSalesByFoodCategory(command);
-            } else if (command.startsWith("getSalesByProduct")) {
-                // Use our dedicated method for getting product sales data
-                response = getSalesByProduct(command);
-            } else {
-                // Generic processing for unknown commands
-                response = "Unknown command: " + command;
-                System.err.println("[Worker " + workerId + "] " + response);
             }
 
-            // Send the response back to Master
-            System.out.println("[Worker " + workerId + "] Sending response: " + response);
-            out.writeObject(response);
-            out.flush();
-
-            // Send processing results to the Reducer for aggregation
-            sendResultsToReducer(command, response);
-
         } catch (Exception e) {
             System.err.println("[Worker " + workerId + "] Error processing request: " + e.getMessage());
             e.printStackTrace();
         } finally {
+            if (pendingRequestId != null) {
+                if (changed) {
+                    // Applied but never answered: a retry is told so rather than applying it again
+                    dedup.complete(pendingRequestId, "Error: the change was applied, but confirming it failed");
+                } else {
+                    // Never applied: a retry applies it
+                    dedup.forget(pendingRequestId);
+                }
+            }
             try {
                 masterSocket.close();
                 System.out.println("[Worker " + workerId + "] Connection closed");
@@ -250,7 +514,7 @@ class WorkerHandler extends Thread {
     /**
      * Send processing results to the Reducer for aggregation
      */
-    private void sendResultsToReducer(String request, String response) {
+    private void sendResultsToReducer(String request, Object response, long serviceNanos) {
         System.out.println("[Worker " + workerId + "] Sending results to Reducer...");
         try {
             // Create a map with processing results
@@ -258,34 +522,30 @@ class WorkerHandler extends Thread {
             results.put("workerId", workerId);
             results.put("timestamp", System.currentTimeMillis());
             results.put("requestType", getRequestType(request));
-            results.put("processingTime", new Random().nextInt(100) + 1); // Simulated processing time in ms
-
-            // If this is a purchase, add sales data
-            if (request.startsWith("buy")) {
-                // Format: buy|storeName|productName|quantity
-                String[] parts = request.split("\\|");
-                if (parts.length >= 4) {
-                    String storeName = parts[1];
-                    String productName = parts[2];
-                    int quantity = Integer.parseInt(parts[3]);
-
-                    results.put("storeName", storeName);
-                    results.put("productName", productName);
-                    results.put("quantity", quantity);
-                    results.put("success", response.startsWith("Success"));
-                }
+            results.put("serviceTimeNanos", serviceNanos); // Measured on this worker
+            results.put("processingTime", serviceNanos / 1_000_000); // Same value in ms
+
+            // Purchases and store searches add their own fields (store, product, quantity,
+            // order value, customer location) while they are handled
+            results.putAll(resultDetails);
+            if (request.startsWith("buy") || request.equals("order") || request.equals("commit")) {
+                results.put("success", response instanceof String && ((String) response).startsWith("Success"));
             }
 
-            // Send the map result to the Reducer
-            System.out.println("[Worker " + workerId + "] Sending results to Reducer: " + results);
+            // Sales events are partitioned by store, everything else by worker
+            String partitionKey = results.containsKey("storeName") ? (String) results.get("storeName") : workerId;
+            int reducerPort = ReducerPartitions.portFor(partitionKey);
+
+            // Send the map result to the Reducer partition that owns the key
+            System.out.println("[Worker " + workerId + "] Sending results to Reducer on port " + reducerPort + ": " + results);
             Object ack;
 
-            synchronized (reducerLock) {
-                reducerOut.writeObject("mapResult");
-                reducerOut.writeObject(results);
-                reducerOut.flush();
+            try (MessageChannel reducer = MessageChannels.connect(ReducerPartitions.HOST, reducerPort)) {
+                reducer.writeObject("mapResult");
+                reducer.writeObject(results);
+                reducer.flush();
                 // Get acknowledgment
-                ack = reducerIn.readObject();
+                ack = reducer.readObject();
             }
 
             System.out.println("[Worker " + workerId + "] Reducer response: " + ack);
@@ -298,69 +558,8 @@ class WorkerHandler extends Thread {
     }
 
 
-    // Add method to convert Store object back to JSON
-    private String storeToJson(Store store) {
-        StringBuilder json = new StringBuilder();
-        json.append("{\n");
-        json.append("    \"StoreName\": \"").append(store.getStoreName()).append("\",\n");
-        json.append("    \"Latitude\": ").append(store.getLatitude()).append(",\n");
-        json.append("    \"Longitude\": ").append(store.getLongitude()).append(",\n");
-        json.append("    \"FoodCategory\": \"").append(store.getFoodCategory()).append("\",\n");
-        json.append("    \"Stars\": ").append(store.getStars()).append(",\n");
-        json.append("    \"NoOfVotes\": ").append(store.getNoOfVotes()).append(",\n");
-        json.append("    \"StoreLogo\": \"").append(store.getStoreLogo()).append("\",\n");
-
-        // Add products array
-        json.append("    \"Products\": [\n");
-        List<Product> products = store.getProducts();
-        for (int i = 0; i < products.size(); i++) {
-            Product product = products.get(i);
-            json.append("        {\n");
-            json.append("            \"ProductName\": \"").append(product.getProductName()).append("\",\n");
-            json.append("            \"ProductType\": \"").append(product.getProductType()).append("\",\n");
-            json.append("            \"Available Amount\": ").append(product.getAvailableAmount()).append(",\n");
-            json.append("            \"Price\": ").append(product.getPrice()).append("\n");
-            json.append("        }");
-
-            // Add comma if not the last product
-            if (i < products.size() - 1) {
-                json.append(",");
-            }
-            json.append("\n");
-        }
-        json.append("    ]\n");
-        json.append("}");
-
-        return json.toString();
-    }
-
     /**
-     * Save store data to a JSON file
-     */
-    private boolean saveStoreData(String storeName, String storeData) {
-        try {
-            // Ensure the stores directory exists
-            Path storeDir = Paths.get(STORES_DIR);
-            if (!Files.exists(storeDir)) {
-                Files.createDirectories(storeDir);
-                System.out.println("[Worker " + workerId + "] Created directory: " + storeDir);
-            }
-
-            // Write the store data to a file
-            Path storeFile = storeDir.resolve(storeName + ".json");
-            Files.write(storeFile, storeData.getBytes(StandardCharsets.UTF_8));
-
-            System.out.println("[Worker " + workerId + "] Store data saved to: " + storeFile.toAbsolutePath());
-            return true;
-        } catch (IOException e) {
-            System.err.println("[Worker " + workerId + "] Error saving store data: " + e.getMessage());
-            e.printStackTrace();
-            return false;
-        }
-    }
-    
-    /**
-     * Process a purchase request - memory only, no file updates
+     * Process a purchase request - applied in memory and recorded in the write-ahead log
      */
     private String processPurchase(String storeName, String productName, int quantity) {
         try {
@@ -373,42 +572,57 @@ class WorkerHandler extends Thread {
             }
 
             Store store = storeCache.get(storeName);
-
-            // Find the product
             Product targetProduct = null;
-            for (Product product : store.getProducts()) {
-                if (product.getProductName().equals(productName)) {
-                    targetProduct = product;
-                    break;
+            int newStock;
+            String salesKey = storeName + ":" + productName;
+            int[] currentSales;
+
+            // Check and take the stock under the store lock, so two buyers cannot both get
+            // the last unit and the log sees purchases in the order they were applied
+            synchronized (store) {
+                // Find the product
+                for (Product product : store.getProducts()) {
+                    if (product.getProductName().equals(productName)) {
+                        targetProduct = product;
+                        break;
+                    }
                 }
-            }
 
-            if (targetProduct == null) {
-                return "Error: Product '" + productName + "' not found in store '" + storeName + "'";
-            }
+                if (targetProduct == null) {
+                    return "Error: Product '" + productName + "' not found in store '" + storeName + "'";
+                }
 
-            // Check if enough stock
-            if (targetProduct.getAvailableAmount() < quantity) {
-                return "Error: Insufficient stock. Requested: " + quantity + ", Available: " +
-                        targetProduct.getAvailableAmount();
-            }
+                // Check if enough stock that no checkout holds
+                if (unheld(store, targetProduct, null) < quantity) {
+                    return "Error: Insufficient stock. Requested: " + quantity + ", Available: " +
+                            unheld(store, targetProduct, null);
+                }
 
-            // Update stock - memory only
-            int newStock = targetProduct.getAvailableAmount() - quantity;
-            targetProduct.setAvailableAmount(newStock);
+                // Update stock in memory; the log makes it survive a restart
+                newStock = targetProduct.getAvailableAmount() - quantity;
+                targetProduct.setAvailableAmount(newStock);
+
+                // Update sales tracking; also under the store lock so a snapshot of the store
+                // sees its stock and sales at the same point
+                synchronized (salesData) {
+                    currentSales = salesData.getOrDefault(salesKey, new int[]{0, 0});
+                    currentSales[0] += quantity;                             // Units sold
+                    currentSales[1] += (int) (quantity * targetProduct.getPrice()); // Revenue (as int for simplicity)
+                    salesData.put(salesKey, currentSales);
+                }
+                recordChange(store, WriteAheadLog.purchaseRecord(storeName, productName, quantity));
+                salesLog.append(walSequence, System.currentTimeMillis(), storeName, productName, quantity,
+                        Math.round(quantity * targetProduct.getPrice() * 100));
+            }
 
             // Calculate price
             double totalPrice = targetProduct.getPrice() * quantity;
 
-            // Update sales tracking
-            String salesKey = storeName + ":" + productName;
-            int[] currentSales;
-            synchronized (salesData) {
-                currentSales = salesData.getOrDefault(salesKey, new int[]{0, 0});
-                currentSales[0] += quantity;                             // Units sold
-                currentSales[1] += (int) (quantity * targetProduct.getPrice()); // Revenue (as int for simplicity)
-                salesData.put(salesKey, currentSales);
-            }
+            // Details for the Reducer's sales analytics
+            resultDetails.put("storeName", storeName);
+            resultDetails.put("productName", productName);
+            resultDetails.put("quantity", quantity);
+            resultDetails.put("orderValue", totalPrice);
 
             System.out.println("[Worker " + workerId + "] Purchase completed and sales data updated: " +
                     quantity + " " + productName + " from " + storeName);
@@ -425,13 +639,258 @@ class WorkerHandler extends Thread {
     }
 
 
+    /**
+     * Process an order of several lines from one store, all or nothing: every line is checked
+     * against the stock before any is taken, with the store locked, and the order is logged
+     * and shipped to the backups as a single record, so no rejected line, crash or failover
+     * leaves part of it bought.
+     * @return "Success: ..." with each line and the total, or "Error: Order rejected ..."
+     *         with what was wrong with each line
+     */
+    private String processOrder(String storeName, List<String> productNames, List<Integer> quantities) {
+        try {
+            System.out.println("[Worker " + workerId + "] Processing order of " + productNames.size() +
+                    " lines from " + storeName);
+
+            Store store = storeCache.get(storeName);
+            if (store == null) {
+                return "Error: Store '" + storeName + "' not found";
+            }
+
+            synchronized (store) {
+                Product[] products = new Product[productNames.size()];
+                List<String> lines = checkLines(store, productNames, quantities, products, null);
+                if (lines != null) {
+                    return "Error: Order rejected, nothing was bought: " + String.join("; ", lines);
+                }
+                return applyOrder(store, productNames, quantities, products);
+            }
+        } catch (Exception e) {
+            System.err.println("[Worker " + workerId + "] Error processing order: " + e.getMessage());
+            e.printStackTrace();
+            return "Error processing order: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Check an order's lines against the stock not held for carts and checkouts, with the
+     * store locked; a product on several lines needs their sum. Fills products with each
+     * line's product.
+     * @param ownKey the key of a hold whose units the order may use, or null
+     * @return null if every line can be had, otherwise what is wrong or right with each line
+     */
+    private static List<String> checkLines(Store store, List<String> productNames, List<Integer> quantities,
+                                           Product[] products, String ownKey) {
+        Map<Product, Integer> wanted = new HashMap<>();
+        for (int i = 0; i < products.length; i++) {
+            for (Product product : store.getProducts()) {
+                if (product.getProductName().equals(productNames.get(i))) {
+                    products[i] = product;
+                    break;
+                }
+            }
+            if (products[i] != null && quantities.get(i) > 0) {
+                wanted.merge(products[i], quantities.get(i), Integer::sum);
+            }
+        }
+        boolean accepted = true;
+        List<String> lines = new ArrayList<>(products.length);
+        for (int i = 0; i < products.length; i++) {
+            String line = productNames.get(i) + " x" + quantities.get(i) + ": ";
+            if (products[i] == null) {
+                line += "not found";
+            } else if (quantities.get(i) <= 0) {
+                line += "invalid quantity";
+            } else if (unheld(store, products[i], ownKey) < wanted.get(products[i])) {
+                line += "insufficient stock, available " + unheld(store, products[i], ownKey);
+            } else {
+                line += "OK";
+            }
+            accepted &= line.endsWith("OK");
+            lines.add(line);
+        }
+        return accepted ? null : lines;
+    }
+
+    // Stock of a product that no cart or checkout holds, but for the hold with ownKey if not null
+    private static int unheld(Store store, Product product, String ownKey) {
+        int own = ownKey == null ? 0 : holds.heldBy(ownKey, product.getProductName());
+        return product.getAvailableAmount() - holds.held(store.getStoreName(), product.getProductName()) + own;
+    }
+
+    /**
+     * Take the stock of every line of a checked order and log the order as one record.
+     * Called with the store locked.
+     * @return "Success: ..." with each line and the total
+     */
+    private String applyOrder(Store store, List<String> productNames, List<Integer> quantities, Product[] products)
+            throws IOException {
+        String storeName = store.getStoreName();
+        for (int i = 0; i < products.length; i++) {
+            int quantity = quantities.get(i);
+            products[i].setAvailableAmount(products[i].getAvailableAmount() - quantity);
+            addSales(storeName + ":" + productNames.get(i), quantity, products[i].getPrice());
+        }
+        recordChange(store, WriteAheadLog.orderRecord(storeName, productNames, quantities));
+
+        List<String> lines = new ArrayList<>(products.length);
+        HashMap<String, Integer> orderLines = new HashMap<>();
+        double total = 0;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < products.length; i++) {
+            int quantity = quantities.get(i);
+            double price = quantity * products[i].getPrice();
+            salesLog.append(walSequence, now, storeName, productNames.get(i), quantity, Math.round(price * 100));
+            lines.add(String.format("%s x%d = %.2fEUR (remaining stock %d)",
+                    productNames.get(i), quantity, price, products[i].getAvailableAmount()));
+            total += price;
+            orderLines.merge(productNames.get(i), quantity, Integer::sum);
+        }
+
+        // Details for the Reducer's sales analytics: the whole order is one order value
+        resultDetails.put("storeName", storeName);
+        resultDetails.put("orderLines", orderLines);
+        resultDetails.put("orderValue", total);
+
+        System.out.println("[Worker " + workerId + "] Order completed: " + String.join("; ", lines));
+        return "Success: Order from " + storeName + ": " + String.join("; ", lines) +
+                String.format(". Total: %.2fEUR", total);
+    }
+
+    /**
+     * Reserve stock for a cart at one store for RESERVE_MS, all or nothing, replacing the
+     * cart's reservation there: the lines are the cart's whole content from this store, so
+     * a resent reservation is harmless, a renewed one starts its time anew and one with
+     * no lines gives the stock back. A rejected reservation leaves the previous one held.
+     * @return "Reserved: ..." or "Error: ..." with what was wrong with each line
+     */
+    private String reserveStock(String cartId, String storeName, List<String> productNames, List<Integer> quantities) {
+        Store store = storeCache.get(storeName);
+        if (store == null) {
+            return "Error: Store '" + storeName + "' not found";
+        }
+        String key = StockHolds.reservationKey(cartId, storeName);
+        if (productNames.isEmpty()) {
+            StockHolds.Hold hold = holds.release(key);
+            return hold != null ? "Released: " + storeName + " no longer holds stock for the cart"
+                    : "Released: " + storeName + " held no stock for the cart";
+        }
+        synchronized (store) {
+            List<String> lines = checkLines(store, productNames, quantities, new Product[productNames.size()], key);
+            if (lines != null) {
+                return "Error: " + storeName + " could not reserve the cart: " + String.join("; ", lines);
+            }
+            holds.hold(key, new StockHolds.Hold(storeName, productNames, quantities), RESERVE_MS, null);
+        }
+        System.out.println("[Worker " + workerId + "] Reserved " + productNames.size() + " lines of " + storeName +
+                " for cart " + cartId);
+        return "Reserved: " + storeName + " holds " + productNames.size() + " lines for " +
+                (RESERVE_MS % 60_000 == 0 ? RESERVE_MS / 60_000 + " minutes" : RESERVE_MS / 1_000 + " seconds");
+    }
+
+    /**
+     * First phase of a checkout across stores: hold the stock of this store's lines, all
+     * or nothing, until the Master commits or releases the hold, or CHECKOUT_HOLD_MS pass.
+     * The hold takes over the cart's reservation at the store, whose units it may use.
+     * @return "Prepared: ..." or "Error: ..." with what was wrong with each line
+     */
+    private String prepareHold(String holdId, String cartId, String storeName,
+                               List<String> productNames, List<Integer> quantities) {
+        Store store = storeCache.get(storeName);
+        if (store == null) {
+            return "Error: Store '" + storeName + "' not found";
+        }
+        String reservation = StockHolds.reservationKey(cartId, storeName);
+        synchronized (store) {
+            if (holds.get(holdId) != null) {
+                return "Error: hold " + holdId + " exists already";
+            }
+            List<String> lines = checkLines(store, productNames, quantities, new Product[productNames.size()],
+                    reservation);
+            if (lines != null) {
+                return "Error: " + storeName + " rejected: " + String.join("; ", lines);
+            }
+            holds.hold(holdId, new StockHolds.Hold(storeName, productNames, quantities), CHECKOUT_HOLD_MS, reservation);
+        }
+        System.out.println("[Worker " + workerId + "] Holding " + productNames.size() + " lines of " + storeName +
+                " for checkout " + holdId);
+        return "Prepared: " + storeName + " holds " + productNames.size() + " lines";
+    }
+
+    /**
+     * Second phase: buy what a hold set aside, as one order. The hold is only used up once
+     * the order is placed; one the worker can't fill any more is left to the Master to
+     * release.
+     * @return "Success: ..." with the order, or "Refused: ..." if the hold is gone or can no
+     *         longer be filled, which a retry won't change
+     */
+    private String commitHold(String holdId) {
+        try {
+            StockHolds.Hold hold = holds.get(holdId);
+            Store store = hold == null ? null : storeCache.get(hold.storeName);
+            if (store == null) {
+                return "Refused: no hold " + holdId + " (released, expired, or lost when this worker restarted)";
+            }
+            synchronized (store) {
+                if (holds.get(holdId) != hold) {
+                    return "Refused: no hold " + holdId + " (released, expired or committed meanwhile)";
+                }
+                // The held units pass the check, unless a manager lowered the stock meanwhile
+                Product[] products = new Product[hold.productNames.size()];
+                List<String> lines = checkLines(store, hold.productNames, hold.quantities, products, holdId);
+                if (lines != null) {
+                    return "Refused: " + hold.storeName + " can no longer fill the hold: " + String.join("; ", lines);
+                }
+                holds.take(holdId);
+                return applyOrder(store, hold.productNames, hold.quantities, products);
+            }
+        } catch (Exception e) {
+            System.err.println("[Worker " + workerId + "] Error committing hold " + holdId + ": " + e.getMessage());
+            e.printStackTrace();
+            return "Error committing hold: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Second phase of a checkout that won't go ahead: give the held stock back, and the
+     * cart its reservation. The hold's prepare, tagged with the hold ID, is forgotten too,
+     * so a retry of the checkout holds the stock anew instead of being told it is held;
+     * but not if there is no hold, which may have been committed by an earlier try.
+     */
+    private String releaseHold(String holdId) {
+        StockHolds.Hold hold = holds.release(holdId);
+        if (hold != null) {
+            dedup.forget(holdId);
+        }
+        System.out.println("[Worker " + workerId + "] " + (hold != null ? "Released" : "No") + " hold " + holdId);
+        return hold != null ? "Released hold " + holdId : "No hold " + holdId;
+    }
+
+    // Units sold and revenue per "store:product"; called with the store locked
+    private static void addSales(String salesKey, int quantity, double price) {
+        synchronized (salesData) {
+            int[] currentSales = salesData.getOrDefault(salesKey, new int[]{0, 0});
+            currentSales[0] += quantity;                     // Units sold
+            currentSales[1] += (int) (quantity * price);     // Revenue (as int for simplicity)
+            salesData.put(salesKey, currentSales);
+        }
+    }
+
     /**
      * Extract the request type from the request string
      */
     private String getRequestType(String request) {
         if (request.startsWith("buy")) return "purchase";
+        // A committed hold is an order like any other
+        if (request.equals("order") || request.equals("commit")) return "order";
+        if (request.equals("reserve")) return "reserve";
+        if (request.equals("prepare")) return "prepare";
+        if (request.equals("release")) return "release";
         if (request.startsWith("search")) return "search";
         if (request.startsWith("findStores")) return "findStores";
+        if (request.equals("addStores")) return "addStores";
+        if (request.equals("loadShard")) return "loadShard";
+        if (request.equals("joinCluster")) return "joinCluster";
         if (request.startsWith("addStore")) return "addStore";
         if (request.startsWith("getStoreInfo")) return "getStoreInfo";
         if (request.startsWith("updateStock")) return "updateStock";
@@ -439,16 +898,303 @@ class WorkerHandler extends Thread {
         if (request.startsWith("removeProduct")) return "removeProduct";
         if (request.startsWith("getSalesByCategory")) return "getSalesByCategory";
         if (request.startsWith("getSalesByProduct")) return "getSalesByProduct";
+        if (request.equals("batch")) return "batch";
         return "unknown";
     }
 
+    /**
+     * Apply a batch of product updates in order.
+     * @return one result per update: "OK", or "Failed: ..." naming the operation and product
+     */
+    private ArrayList<String> applyBatch(List<ProductUpdate> updates) {
+        ArrayList<String> results = new ArrayList<>(updates.size());
+        int failed = 0;
+        for (ProductUpdate update : updates) {
+            if (applyUpdate(update)) {
+                results.add("OK");
+            } else {
+                results.add("Failed: " + update.getOperation() + " " + update.getProductName() +
+                        " in " + update.getStoreName());
+                failed++;
+            }
+        }
+        System.out.println("[Worker " + workerId + "] Batch applied: " + (updates.size() - failed) +
+                " succeeded, " + failed + " failed");
+        return results;
+    }
+
+    /**
+     * Load the stores the Master assigns to this worker that the snapshot and log did not
+     * restore, parsing their files in parallel on the common fork/join pool. Each one is
+     * logged like an added store, so the next restart has it without reading the file.
+     * @return the ready message for the Master
+     */
+    private String loadShard(List<String> paths) throws IOException {
+        long start = System.nanoTime();
+        List<Path> missing = new ArrayList<>();
+        for (String path : paths) {
+            Path file = Paths.get(path);
+            if (!storeCache.containsKey(file.getFileName().toString().replace(".json", ""))) {
+                missing.add(file);
+            }
+        }
+
+        List<Store> parsed = missing.parallelStream().map(file -> {
+            try {
+                return StoreJsonParser.parse(file);
+            } catch (IOException e) {
+                System.err.println("[Worker " + workerId + "] Could not load " + file + ": " + e.getMessage());
+                return null;
+            }
+        }).collect(Collectors.toList());
+
+        int loaded = 0;
+        for (Store store : parsed) {
+            if (store == null || store.getStoreName() == null) continue;
+            synchronized (store) {
+                if (storeCache.putIfAbsent(store.getStoreName(), store) == null) {
+                    // Its file is already up to date
+                    logChange(store, WriteAheadLog.addStoreRecord(store));
+                    loaded++;
+                }
+            }
+        }
+        String ready = String.format("Ready: %d stores in shard, %d of %d assigned loaded from files " +
+                        "(%d failed) in %.1f ms", storeCache.size(), loaded, paths.size(),
+                missing.size() - loaded, (System.nanoTime() - start) / 1e6);
+        System.out.println("[Worker " + workerId + "] " + ready);
+        return ready;
+    }
+
+    /**
+     * Add a batch of imported stores. A store that is already here is left as it is.
+     * Every store is logged as it is added and the response waits for the last record,
+     * so the whole batch shares the log's syncs.
+     * @return one result per store: "OK", "Exists" or "Failed: ..."
+     */
+    private ArrayList<String> addStores(List<Store> stores) {
+        ArrayList<String> results = new ArrayList<>(stores.size());
+        int added = 0;
+        for (Store store : stores) {
+            String storeName = store.getStoreName();
+            try {
+                synchronized (store) {
+                    if (storeCache.putIfAbsent(storeName, store) != null) {
+                        results.add("Exists");
+                        continue;
+                    }
+                    try {
+                        recordChange(store, WriteAheadLog.addStoreRecord(store));
+                    } catch (IOException e) {
+                        storeCache.remove(storeName);
+                        throw e;
+                    }
+                }
+                results.add("OK");
+                added++;
+            } catch (IOException e) {
+                results.add("Failed: " + storeName + ": " + e.getMessage());
+            }
+        }
+        System.out.println("[Worker " + workerId + "] Import batch: " + added + " of " + stores.size() +
+                " stores added, store cache now holds " + storeCache.size());
+        return results;
+    }
+
+    /**
+     * Apply one product update according to its operation.
+     */
+    private boolean applyUpdate(ProductUpdate update) {
+        switch (update.getOperation()) {
+            case ADD: return addProductToStore(update);
+            case HIDE: return removeProductFromStore(update);
+            case PRICE: return updateProductPrice(update);
+            default: return updateProductStock(update);
+        }
+    }
+
+    // Called with the store locked, right after the update has been applied
+    private void logUpdate(Store store, ProductUpdate update) throws IOException {
+        recordChange(store, WriteAheadLog.updateRecord(update));
+    }
+
+    // Called with the store locked, right after a change has been applied: logs it, ships it
+    // to the backups when this worker is the store's primary and queues the JSON file
+    private void recordChange(Store store, byte[] record) throws IOException {
+        logChange(store, record);
+        storeFlusher.markDirty(store);
+    }
+
+    // recordChange without the JSON file, for a store that was just read from it
+    private void logChange(Store store, byte[] record) throws IOException {
+        changed = true;
+        if (wal != null) walSequence = wal.append(record);
+        if (replicator != null && isPrimary(store.getStoreName())) {
+            replicaSequence = replicator.ship(store.getStoreName(), record);
+        }
+    }
+
+    /**
+     * Take this worker's place in the cluster: which slice of the stores it is primary for,
+     * and which workers keep the backups of that slice. Replication to them starts here.
+     * @return the message for the Master
+     */
+    private String joinCluster(Map<String, Object> cluster) {
+        int index = (Integer) cluster.get("index");
+        @SuppressWarnings("unchecked")
+        List<Integer> ports = (List<Integer>) cluster.get("ports");
+        int backups = (Integer) cluster.get("backups");
+        synchronized (WorkerHandler.class) {
+            if (clusterSize == 0) {
+                // Only primaries write the JSON files, so the stores replayed meanwhile wait until now
+                storeFlusher.start(WorkerHandler::isPrimary);
+            }
+            clusterIndex = index;
+            clusterSize = ports.size();
+            if (replicator == null && backups > 0) {
+                List<Integer> backupPorts = new ArrayList<>();
+                for (int copy = 1; copy <= backups; copy++) {
+                    backupPorts.add(ports.get(StoreRouting.holderOf(index, copy, ports.size())));
+                }
+                String id = workerId;
+                replicator = new Replicator(backupPorts, workerId, (r, link) -> resync(r, link, id));
+                replicator.start();
+            }
+        }
+        String joined = "Joined as worker " + index + " of " + ports.size() + ", " + backups + " backup(s) per store";
+        System.out.println("[Worker " + workerId + "] " + joined);
+        return joined;
+    }
+
+    // Sends a backup that has just connected every store this worker is primary for
+    private static void resync(Replicator replicator, Replicator.Link link, String workerId) throws IOException {
+        List<Store> stores;
+        synchronized (storeCache) {
+            stores = new ArrayList<>(storeCache.values());
+        }
+        int sent = 0;
+        for (Store store : stores) {
+            if (!isPrimary(store.getStoreName())) continue;
+            synchronized (store) {
+                // Skip a store replaced meanwhile; its replacement was shipped when it was added
+                if (storeCache.get(store.getStoreName()) != store) continue;
+                replicator.shipTo(link, store.getStoreName(), WriteAheadLog.addStoreRecord(store));
+            }
+            sent++;
+        }
+        System.out.println("[Worker " + workerId + "] Resyncing " + sent + " stores to backup on port " + link.port);
+    }
+
+    /**
+     * Apply log records shipped by the primary of stores this worker is a backup for, in
+     * order. Each is logged here like a local change, so the answer is only sent once they
+     * are on this worker's disk too.
+     * @return "Applied n", or "Applied n of m" if some records could not be applied
+     */
+    private String applyReplicated(List<byte[]> records) throws IOException {
+        int applied = 0;
+        for (byte[] record : records) {
+            DataInputStream body = new DataInputStream(new ByteArrayInputStream(record));
+            byte type = body.readByte();
+            switch (type) {
+                case WriteAheadLog.ADD_STORE:
+                    // A store's whole state, from an addStore or a resync
+                    Store store = (Store) WireCodec.readValue(body);
+                    synchronized (store) {
+                        storeCache.put(store.getStoreName(), store);
+                        recordChange(store, record);
+                    }
+                    applied++;
+                    break;
+                case WriteAheadLog.PRODUCT_UPDATE:
+                    if (applyUpdate(ProductUpdate.readFrom(body))) applied++;
+                    break;
+                case WriteAheadLog.PURCHASE:
+                    if (processPurchase(body.readUTF(), body.readUTF(), body.readInt()).startsWith("Success")) applied++;
+                    break;
+                case WriteAheadLog.ORDER: {
+                    String storeName = body.readUTF();
+                    List<String> productNames = new ArrayList<>();
+                    List<Integer> quantities = new ArrayList<>();
+                    WriteAheadLog.readOrderLines(body, productNames, quantities);
+                    if (processOrder(storeName, productNames, quantities).startsWith("Success")) applied++;
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown replicated record type " + type);
+            }
+        }
+        System.out.println("[Worker " + workerId + "] Applied " + applied + " of " + records.size() + " replicated changes");
+        return applied == records.size() ? "Applied " + applied : "Applied " + applied + " of " + records.size();
+    }
+
+    // True for a store this worker is the primary for
+    private static boolean isPrimary(String storeName) {
+        return serves(storeName, null);
+    }
+
+    // Whether a read over the given slices covers the store; no slices means this worker's own
+    private static boolean serves(String storeName, Set<Integer> slices) {
+        int workers = clusterSize;
+        if (workers == 0) return true;
+        int slice = StoreRouting.primaryFor(storeName, workers);
+        return slices == null ? slice == clusterIndex : slices.contains(slice);
+    }
+
+    // The slices a findStores or search covers: the Master sends them as the payload
+    private static Set<Integer> slices(Object payload) {
+        if (!(payload instanceof List)) return null;
+        Set<Integer> slices = new HashSet<>();
+        for (Object slice : (List<?>) payload) {
+            slices.add((Integer) slice);
+        }
+        return slices;
+    }
+
+    /**
+     * Change the price of a product, and its stock if the update also carries a stock change.
+     */
+    private boolean updateProductPrice(ProductUpdate update) {
+        try {
+            return applyPriceChange(update);
+        } catch (IOException e) {
+            System.err.println("[Worker " + workerId + "] Error logging price change: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean applyPriceChange(ProductUpdate update) throws IOException {
+        Store store = storeCache.get(update.getStoreName());
+        if (store == null) {
+            System.err.println("[Worker " + workerId + "] Store not in cache: " + update.getStoreName());
+            return false;
+        }
+        synchronized (store) {
+            for (Product product : store.getProducts()) {
+                if (product.getProductName().equals(update.getProductName())) {
+                    if (update.getStockDelta() != 0 && product.getAvailableAmount() + update.getStockDelta() < 0) {
+                        return false;
+                    }
+                    product.setPrice(update.getPrice());
+                    product.setAvailableAmount(product.getAvailableAmount() + update.getStockDelta());
+                    logUpdate(store, update);
+                    return true;
+                }
+            }
+        }
+        System.err.println("[Worker " + workerId + "] Product not found: " + update.getProductName());
+        return false;
+    }
+
     /**
      * Update the stock of a product in the store.
      */
-    private boolean updateProductStock(Product productData, boolean isAddOperation, int quantity) {
+    private boolean updateProductStock(ProductUpdate update) {
         try {
-            String storeName = productData.getStore().getStoreName();
-            String productName = productData.getProductName();
+            String storeName = update.getStoreName();
+            String productName = update.getProductName();
+            boolean isAddOperation = update.getStockDelta() >= 0;
+            int quantity = Math.abs(update.getStockDelta());
 
             System.out.println("[Worker " + workerId + "] Updating stock for " +
                     productName + " in store " + storeName +
@@ -461,41 +1207,44 @@ class WorkerHandler extends Thread {
             }
 
             Store store = storeCache.get(storeName);
+            int currentAmount;
+            int newAmount;
 
-            // Find the product
-            Product targetProduct = null;
-            for (Product product : store.getProducts()) {
-                if (product.getProductName().equals(productName)) {
-                    targetProduct = product;
-                    break;
+            // Check and update under the store lock so the log sees changes in the order applied
+            synchronized (store) {
+                // Find the product
+                Product targetProduct = null;
+                for (Product product : store.getProducts()) {
+                    if (product.getProductName().equals(productName)) {
+                        targetProduct = product;
+                        break;
+                    }
                 }
-            }
-
-            if (targetProduct == null) {
-                System.err.println("[Worker " + workerId + "] Product not found: " + productName);
-                return false;
-            }
-
-            // Get current amount
-            int currentAmount = targetProduct.getAvailableAmount();
-            int newAmount;
 
-            // Update the amount
-            if (isAddOperation) {
-                newAmount = currentAmount + quantity;
-            } else {
-                // Check if enough stock to remove
-                if (currentAmount < quantity) {
-                    System.err.println("[Worker " + workerId + "] Not enough stock to remove. Current: " +
-                            currentAmount + ", Remove: " + quantity);
+                if (targetProduct == null) {
+                    System.err.println("[Worker " + workerId + "] Product not found: " + productName);
                     return false;
                 }
-                newAmount = currentAmount - quantity;
-            }
 
-            // Update product
-            synchronized (store) {
+                // Get current amount
+                currentAmount = targetProduct.getAvailableAmount();
+
+                // Update the amount
+                if (isAddOperation) {
+                    newAmount = currentAmount + quantity;
+                } else {
+                    // Check if enough stock to remove
+                    if (currentAmount < quantity) {
+                        System.err.println("[Worker " + workerId + "] Not enough stock to remove. Current: " +
+                                currentAmount + ", Remove: " + quantity);
+                        return false;
+                    }
+                    newAmount = currentAmount - quantity;
+                }
+
+                // Update product
                 targetProduct.setAvailableAmount(newAmount);
+                logUpdate(store, update);
             }
 
             System.out.println("[Worker " + workerId + "] Updated " + productName + " stock: " +
@@ -511,9 +1260,10 @@ class WorkerHandler extends Thread {
     /**
      * Add a new product to the store.
      */
-    private boolean addProductToStore(Product newProduct) {
+    private boolean addProductToStore(ProductUpdate productUpdate) {
         try {
-            String storeName = newProduct.getStore().getStoreName();
+            String storeName = productUpdate.getStoreName();
+            Product newProduct = productUpdate.toProduct();
 
             System.out.println("[Worker " + workerId + "] Adding product " +
                     newProduct.getProductName() + " to store " + storeName);
@@ -526,42 +1276,43 @@ class WorkerHandler extends Thread {
 
             Store store = storeCache.get(storeName);
 
-            // Check if product with same name already exists
-            for (Product existingProduct : store.getProducts()) {
-                if (existingProduct.getProductName().equals(newProduct.getProductName())) {
-                    // If the product exists but is invisible and the new product is meant to be visible,
-                    // make the existing product visible and update its properties
-                    if (!existingProduct.getVisible() && newProduct.getVisible()) {
-                        System.out.println("[Worker " + workerId + "] Restoring hidden product: " + 
-                                           newProduct.getProductName());
-                        existingProduct.setVisible(true);
-                        existingProduct.setAvailableAmount(newProduct.getAvailableAmount());
-                        existingProduct.setPrice(newProduct.getPrice());
-                        existingProduct.setProductType(newProduct.getProductType());
+            // Checked and added under the store lock so the log sees changes in the order applied
+            synchronized (store) {
+                // Check if product with same name already exists
+                for (Product existingProduct : store.getProducts()) {
+                    if (existingProduct.getProductName().equals(newProduct.getProductName())) {
+                        // If the product exists but is invisible and the new product is meant to be visible,
+                        // make the existing product visible and update its properties
+                        if (!existingProduct.getVisible() && newProduct.getVisible()) {
+                            System.out.println("[Worker " + workerId + "] Restoring hidden product: " + 
+                                               newProduct.getProductName());
+                            existingProduct.setVisible(true);
+                            existingProduct.setAvailableAmount(newProduct.getAvailableAmount());
+                            existingProduct.setPrice(newProduct.getPrice());
+                            existingProduct.setProductType(newProduct.getProductType());
+                            logUpdate(store, productUpdate);
                         
-                        // Products are now only stored in memory, no need to save to JSON
-                        System.out.println("[Worker " + workerId + "] Product " + newProduct.getProductName() + 
-                                          " restored and kept in memory only");
+                            System.out.println("[Worker " + workerId + "] Product " + newProduct.getProductName() + 
+                                              " restored");
                         
-                        return true;
-                    } else if (existingProduct.getVisible()) {
-                        // If product exists and is already visible, return failure
-                        System.err.println("[Worker " + workerId + "] Product already exists: " +
-                                newProduct.getProductName());
-                        return false;
+                            return true;
+                        } else if (existingProduct.getVisible()) {
+                            // If product exists and is already visible, return failure
+                            System.err.println("[Worker " + workerId + "] Product already exists: " +
+                                    newProduct.getProductName());
+                            return false;
+                        }
                     }
                 }
-            }
 
-            // Add the product to the store
-            newProduct.setStore(store);
-            synchronized (store) {
+                // Add the product to the store
+                newProduct.setStore(store);
                 store.getProducts().add(newProduct);
+                logUpdate(store, productUpdate);
             }
-            
-            // Products are now only stored in memory, no need to save to JSON
+
             System.out.println("[Worker " + workerId + "] Added product " +
-                    newProduct.getProductName() + " to store " + storeName + " (in memory only)");
+                    newProduct.getProductName() + " to store " + storeName);
             return true;
         } catch (Exception e) {
             System.err.println("[Worker " + workerId + "] Error adding product: " + e.getMessage());
@@ -573,9 +1324,9 @@ class WorkerHandler extends Thread {
     /**
      * Remove a product from the store.
      */
-        private boolean removeProductFromStore(Product productToRemove) {
+        private boolean removeProductFromStore(ProductUpdate productToRemove) {
         try {
-            String storeName = productToRemove.getStore().getStoreName();
+            String storeName = productToRemove.getStoreName();
             String productName = productToRemove.getProductName();
 
             System.out.println("[Worker " + workerId + "] Hiding product " +
@@ -591,13 +1342,14 @@ class WorkerHandler extends Thread {
 
             // Find the product and set its visibility to false
             boolean found = false;
-            for (Product product : store.getProducts()) {
-                if (product.getProductName().equals(productName)) {
-                    synchronized (store) {
+            synchronized (store) {
+                for (Product product : store.getProducts()) {
+                    if (product.getProductName().equals(productName)) {
                         product.setVisible(false);
+                        logUpdate(store, productToRemove);
+                        found = true;
+                        break;
                     }
-                    found = true;
-                    break;
                 }
             }
 
@@ -620,8 +1372,9 @@ class WorkerHandler extends Thread {
     /**
      * Find nearby stores based on criteria from the command
      * Format: findStores|latitude|longitude|radius|filterType|foodCategory|minStars|maxPriceRating
+     * @return the matching stores sorted by distance, or an error message
      */
-    private String findNearbyStores(String command) {
+    private Object findNearbyStores(String command, Set<Integer> slices) {
         try {
             System.out.println("[Worker " + workerId + "] Processing findStores command");
             
@@ -642,19 +1395,21 @@ class WorkerHandler extends Thread {
             int minStarFilter = parts.length > 6 ? Integer.parseInt(parts[6]) : 0;
             int maxPriceRatingFilter = parts.length > 7 ? Integer.parseInt(parts[7]) : 3;
             
+            // Rounded to ~100m so the Reducer can count distinct customer locations
+            resultDetails.put("customerLocation", String.format(Locale.ROOT, "%.3f,%.3f", customerLat, customerLon));
+
             System.out.println("[Worker " + workerId + "] Search parameters: lat=" + customerLat + 
                               ", lon=" + customerLon + ", radius=" + radius + ", filter=" + filterType);
             
-            StringBuilder results = new StringBuilder();
-            int matchedStores = 0;
+            ArrayList<StoreMatch> matches = new ArrayList<>();
             
             // Check each store in our cache for matches
             synchronized (storeCache) {
                 for (String storeName : storeCache.keySet()) {
                     Store store = storeCache.get(storeName);
 
-                    // Skip if store is null
-                    if (store == null) continue;
+                    // Skip if store is null or in a slice another worker answers for
+                    if (store == null || !serves(storeName, slices)) continue;
 
                     // Calculate distance using Haversine formula
                     double distance = calculateDistance(customerLat, customerLon,
@@ -667,11 +1422,6 @@ class WorkerHandler extends Thread {
                     // Calculate average price for price filtering
                     double avgPrice = calculateAveragePrice(store);
                     int priceRating = getPriceRating(avgPrice);
-                    String priceRatingSymbol = "$".repeat(priceRating);
-
-                    System.out.println("[Worker " + workerId + "] Store: " + storeName +
-                                      ", Distance: " + distance + " km, Category: " + foodCategory +
-                                      ", Stars: " + stars + ", Price Rating: " + priceRatingSymbol);
 
                     // Check if store passes filtering
                     boolean passesFilter = true;
@@ -694,22 +1444,16 @@ class WorkerHandler extends Thread {
 
                     // Add to results if the store is within radius and passes filter
                     if (distance <= radius && passesFilter) {
-                        if (matchedStores > 0) {
-                            results.append("|");
-                        }
+                        matches.add(new StoreMatch(store.getStoreName(), foodCategory, distance,
+                                stars, avgPrice, priceRating));
                     }
-
-                    // Format: StoreName,FoodCategory,Distance,Stars,AvgPrice,PriceRating
-                    results.append(String.format("%s,%s,%.2f,%d,%.2f,%s",
-                                  store.getStoreName(), foodCategory, distance,
-                                  stars, avgPrice, priceRatingSymbol));
-
-                    matchedStores++;
-                    System.out.println("[Worker " + workerId + "] Store matched: " + store.getStoreName());
                 }
             }
-            
-            return matchedStores > 0 ? results.toString() : "No stores found";
+
+            // Sorted here so the Master only has to merge
+            matches.sort(StoreMatch.BY_DISTANCE);
+            System.out.println("[Worker " + workerId + "] " + matches.size() + " stores matched");
+            return matches;
             
         } catch (Exception e) {
             System.err.println("[Worker " + workerId + "] Error finding nearby stores: " + e.getMessage());
@@ -773,8 +1517,9 @@ class WorkerHandler extends Thread {
 
     /**
      * Search for products based on search term
+     * @return the matching visible products sorted by name, or an error message
      */
-    private String searchProducts(String command) {
+    private Object searchProducts(String command, Set<Integer> slices) {
         try {
             // Extract search term from command
             String searchTerm = "";
@@ -784,14 +1529,13 @@ class WorkerHandler extends Thread {
             
             System.out.println("[Worker " + workerId + "] Searching for products with term: \"" + searchTerm + "\"");
             
-            StringBuilder results = new StringBuilder("Products matching \"" + searchTerm + "\":\n");
-            int productCount = 0;
+            ArrayList<ProductMatch> matches = new ArrayList<>();
             
             // Search through all stores in this worker's cache
             synchronized (storeCache) {
                 for (String storeName : storeCache.keySet()) {
                     Store store = storeCache.get(storeName);
-                    if (store == null) continue;
+                    if (store == null || !serves(storeName, slices)) continue;
 
                     // Search through visible products in this store
                     for (Product product : store.getProducts()) {
@@ -805,16 +1549,15 @@ class WorkerHandler extends Thread {
                         if (searchTerm.isEmpty() ||
                                 productName.contains(searchTerm) ||
                                 productType.contains(searchTerm)) {
-
-                            results.append(String.format("%d. %s - %s - Price: %.2f - Available: %d - Store: %s\n",
-                                    ++productCount, product.getProductName(), product.getProductType(),
-                                    product.getPrice(), product.getAvailableAmount(), storeName));
+                            matches.add(new ProductMatch(product, storeName));
                         }
                     }
                 }
             }
-            
-            return productCount > 0 ? results.toString() : "No products found matching \"" + searchTerm + "\".";
+
+            // Sorted here so the Master only has to merge
+            matches.sort(ProductMatch.BY_NAME);
+            return matches;
             
         } catch (Exception e) {
             System.err.println("[Worker " + workerId + "] Error searching products: " + e.getMessage());
@@ -825,8 +1568,9 @@ class WorkerHandler extends Thread {
 
     /**
      * Get sales data for stores in a particular food category
+     * @return units sold per store that sold anything, or an error message
      */
-    private String getSalesByFoodCategory(String command) {
+    private Object getSalesByFoodCategory(String command) {
         try {
             // Extract food category from command
             String foodCategory = "";
@@ -835,16 +1579,35 @@ class WorkerHandler extends Thread {
             }
             
             System.out.println("[Worker " + workerId + "] Getting sales data for food category: " + foodCategory);
+
+            // "category|fromMillis|toMillis" asks for the sales in that time range
+            long[] range = timeRange(foodCategory);
+            if (range != null) {
+                String category = foodCategory.substring(0, foodCategory.indexOf('|')).trim();
+                Set<String> storeNames = new HashSet<>();
+                synchronized (storeCache) {
+                    for (Store store : storeCache.values()) {
+                        if (isPrimary(store.getStoreName()) && store.getFoodCategory().toLowerCase().contains(category)) {
+                            storeNames.add(store.getStoreName());
+                        }
+                    }
+                }
+                Map<String, SalesTotal> storeSales = new LinkedHashMap<>();
+                salesLog.scan(range[0], range[1], (storeName, productName, quantity, revenueCents) -> {
+                    if (storeNames.contains(storeName)) {
+                        storeSales.computeIfAbsent(storeName, name -> new SalesTotal(name, 0, 0.0)).add(quantity, 0.0);
+                    }
+                });
+                return new ArrayList<>(storeSales.values());
+            }
             
-            StringBuilder results = new StringBuilder();
-            int totalSalesCount = 0;
-            int storeCount = 0;
+            ArrayList<SalesTotal> results = new ArrayList<>();
             
-            // Check each store in this worker's cache
+            // Check each store in this worker's cache; a backup's stores are counted by their primary
             synchronized (storeCache) {
                 for (String storeName : storeCache.keySet()) {
                     Store store = storeCache.get(storeName);
-                    if (store == null) continue;
+                    if (store == null || !isPrimary(storeName)) continue;
 
                     String storeCategory = store.getFoodCategory().toLowerCase();
 
@@ -855,29 +1618,14 @@ class WorkerHandler extends Thread {
                         // Calculate simulated sales for this store
                         int storeSales = calculateStoreSales(store);
 
+                        // Add to results if there were any sales
                         if (storeSales > 0) {
-                            // Add to results if there were any sales
-                            if (storeCount > 0) {
-                                results.append("|");
-                            }
-
-                            // Format: StoreName:SalesCount
-                            results.append(storeName).append(":").append(storeSales);
-
-                            // Add to total
-                            totalSalesCount += storeSales;
-                            storeCount++;
+                            results.add(new SalesTotal(storeName, storeSales, 0.0));
                         }
                     }
                 }
             }
-            // Add total sales to the results
-            if (storeCount > 0) {
-                results.append("|Total:").append(totalSalesCount);
-                return results.toString();
-            } else {
-                return "No sales data found for category: " + foodCategory;
-            }
+            return results;
             
         } catch (Exception e) {
             System.err.println("[Worker " + workerId + "] Error getting sales data: " + e.getMessage());
@@ -886,6 +1634,13 @@ class WorkerHandler extends Thread {
         }
     }
     
+    // "filter|fromMillis|toMillis" -> {fromMillis, toMillis}, or null without a time range
+    private static long[] timeRange(String argument) {
+        String[] parts = argument.split("\\|", -1);
+        if (parts.length != 3) return null;
+        return new long[]{Long.parseLong(parts[1].trim()), Long.parseLong(parts[2].trim())};
+    }
+
     /**
      * Calculate actual sales for a store based on sales tracking data
      */
@@ -948,11 +1703,11 @@ class WorkerHandler extends Thread {
                     productsList.append("|");
                 }
                 
-                // Format: ProductName,Price,AvailableAmount
+                // Format: ProductName,Price,AvailableAmount; stock held for carts isn't available
                 productsList.append(String.format("%s,%.2f,%d",
                     product.getProductName(),
                     product.getPrice(),
-                    product.getAvailableAmount()));
+                    Math.max(0, unheld(store, product, null))));
                 
                 visibleProductCount++;
             }
@@ -972,9 +1727,9 @@ class WorkerHandler extends Thread {
 
     /**
      * Get sales data for specific products or all products
-     * Format of response: "ProductName:SalesCount:TotalIncome|ProductName:SalesCount:TotalIncome|...|Total:TotalCount:TotalIncome"
+     * @return units sold and income per product name, or an error message
      */
-    private String getSalesByProduct(String command) {
+    private Object getSalesByProduct(String command) {
         try {
             // Extract product name filter from command (if any)
             String productFilter = "";
@@ -985,68 +1740,46 @@ class WorkerHandler extends Thread {
             System.out.println("[Worker " + workerId + "] Getting sales data for product: " + 
                               (productFilter.isEmpty() ? "all products" : productFilter));
             
-            StringBuilder results = new StringBuilder();
-            int totalSalesCount = 0;
-            double totalIncome = 0.0;
-            int productCount = 0;
-            
-            // Map to collect and aggregate sales data by product name
-            Map<String, double[]> productSales = new HashMap<>();
+            // Collect and aggregate sales data by product name
+            Map<String, SalesTotal> productSales = new LinkedHashMap<>();
+
+            // "product|fromMillis|toMillis" asks for the sales in that time range
+            long[] range = timeRange(productFilter);
+            if (range != null) {
+                String filter = productFilter.substring(0, productFilter.indexOf('|')).trim();
+                salesLog.scan(range[0], range[1], (storeName, productName, quantity, revenueCents) -> {
+                    if (isPrimary(storeName) && (filter.isEmpty() || productName.toLowerCase().contains(filter))) {
+                        productSales.computeIfAbsent(productName, name -> new SalesTotal(name, 0, 0.0))
+                                .add(quantity, revenueCents / 100.0);
+                    }
+                });
+                return new ArrayList<>(productSales.values());
+            }
             
             // Iterate through the sales data
-            for (String key : salesData.keySet()) {
-                String[] parts = key.split(":");
-                if (parts.length >= 2) {
-                    String storeName = parts[0];
+            synchronized (salesData) {
+                for (Map.Entry<String, int[]> entry : salesData.entrySet()) {
+                    String[] parts = entry.getKey().split(":");
+                    // A backup's sales are counted by the store's primary
+                    if (parts.length < 2 || !isPrimary(parts[0])) continue;
                     String productName = parts[1];
-                    
+
                     // Skip if product doesn't match filter
                     if (!productFilter.isEmpty() && !productName.toLowerCase().contains(productFilter)) {
                         continue;
                     }
-                    
-                    int[] data = salesData.get(key);
-                    int unitsSold = data[0];
-                    double income = data[1];
-                    
+
+                    int[] data = entry.getValue();
                     // Skip if no sales
-                    if (unitsSold <= 0) {
+                    if (data[0] <= 0) {
                         continue;
                     }
-                    
-                    // Aggregate sales by product name
-                    double[] existing = productSales.getOrDefault(productName, new double[]{0, 0});
-                    existing[0] += unitsSold;
-                    existing[1] += income;
-                    productSales.put(productName, existing);
-                    
-                    // Add to totals
-                    totalSalesCount += unitsSold;
-                    totalIncome += income;
-                }
-            }
-            
-            // Build the result string
-            for (Map.Entry<String, double[]> entry : productSales.entrySet()) {
-                if (productCount > 0) {
-                    results.append("|");
+
+                    productSales.computeIfAbsent(productName, name -> new SalesTotal(name, 0, 0.0))
+                            .add(data[0], data[1]);
                 }
-                
-                // Format: ProductName:SalesCount:TotalIncome
-                results.append(entry.getKey()).append(":")
-                       .append((int)entry.getValue()[0]).append(":")
-                       .append(entry.getValue()[1]);
-                
-                productCount++;
-            }
-            
-            // Add total sales to the results
-            if (productCount > 0) {
-                results.append("|Total:").append(totalSalesCount).append(":").append(totalIncome);
-                return results.toString();
-            } else {
-                return "No sales data found";
             }
+            return new ArrayList<>(productSales.values());
             
         } catch (Exception e) {
             System.err.println("[Worker " + workerId + "] Error getting product sales data: " + e.getMessage());
@@ -0,0 +1,362 @@
+package Worker;
+
+import Objects.ProductUpdate;
+import Objects.Store;
+import Protocol.WireCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of this worker's mutations: added stores, product updates and
+ * purchases. A mutation is appended while its store is locked, so the log order matches
+ * the order the changes were applied in, and the Master is only answered once the
+ * record is on disk.
+ *
+ * Appends only copy the record into a buffer. A single flusher thread writes whatever
+ * has accumulated and fsyncs it once, then wakes every request whose record was in that
+ * write (group commit): while one fsync is in flight the next batch builds up, so
+ * concurrent purchases share fsyncs instead of queueing behind one another.
+ *
+ * Records are length-prefixed and CRC-checked like the Reducer's log, and carry a
+ * sequence number. A torn record at the end (crash mid-write) is cut off on replay.
+ *
+ * The log is split into segments, data/wal/worker-<port>.<first sequence>.log. A shard
+ * snapshot rolls to a new segment first and deletes the older ones once it is saved.
+ * -Dwal.fsync=false skips the fsync (the OS still gets every record before the Master
+ * is answered).
+ */
+class WriteAheadLog {
+    static final byte ADD_STORE = 1;
+    static final byte PRODUCT_UPDATE = 2;
+    static final byte PURCHASE = 3;
+    // Every line of an order from one store, applied all or nothing
+    static final byte ORDER = 4;
+
+    private static final boolean FSYNC = Boolean.parseBoolean(System.getProperty("wal.fsync", "true"));
+
+    /**
+     * Applies one replayed record; body is positioned after the type byte.
+     */
+    interface Replayer {
+        void apply(long sequence, byte type, DataInputStream body) throws IOException;
+    }
+
+    private final Path dir;
+    private final String segmentPrefix;
+    private final String workerId;
+    private Path file;
+    private FileChannel channel;
+    // Set by roll(); the flusher starts a new segment after its next write
+    private boolean rollRequested;
+    private long lastRoll;
+
+    // Records appended but not yet handed to the flusher
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream(64 * 1024);
+    private long nextSequence = 1;
+    private long durableSequence;
+    private IOException failure;
+
+    // Group commit effectiveness, reported by the flusher
+    private long syncs;
+    private long syncedRecords;
+
+    WriteAheadLog(int workerPort, String workerId) {
+        this.dir = Paths.get("data", "wal");
+        this.segmentPrefix = "worker-" + workerPort + ".";
+        this.workerId = workerId;
+    }
+
+    /**
+     * Replay the segments through replayer, oldest first, cut off a torn tail and start
+     * the flusher. Must be called before the worker accepts connections.
+     *
+     * @param afterSequence records up to this sequence are already in the shard snapshot
+     */
+    void recover(long afterSequence, Replayer replayer) throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        nextSequence = afterSequence + 1;
+
+        int replayed = 0;
+        List<Path> segments = segments();
+        for (Path segment : segments) {
+            long validLength = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                while (true) {
+                    byte[] record = readRecord(in);
+                    if (record == null) break;
+                    validLength += 8 + record.length;
+                    DataInputStream body = new DataInputStream(new ByteArrayInputStream(record));
+                    long sequence = body.readLong();
+                    if (sequence <= afterSequence) continue;
+                    replayer.apply(sequence, body.readByte(), body);
+                    nextSequence = sequence + 1;
+                    replayed++;
+                }
+            }
+            long size = Files.size(segment);
+            if (size > validLength) {
+                System.out.println("[Worker " + workerId + "] Dropping " + (size - validLength) +
+                        " bytes of torn log tail in " + segment.getFileName());
+                try (FileChannel torn = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    torn.truncate(validLength);
+                }
+            }
+        }
+
+        // Keep appending to the newest segment, or start the first one
+        file = segments.isEmpty() ? segmentFile(nextSequence) : segments.get(segments.size() - 1);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        durableSequence = nextSequence - 1;
+        lastRoll = afterSequence;
+
+        Thread flusher = new Thread(this::flushLoop, "wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        System.out.printf("[Worker %s] Write-ahead log %s: %d records replayed in %.1f ms%n",
+                workerId, file, replayed, (System.nanoTime() - start) / 1e6);
+    }
+
+    // Record bodies: the type byte, then the change. A primary ships the same bytes to its backups
+
+    static byte[] addStoreRecord(Store store) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(ADD_STORE);
+        WireCodec.writeValue(body, store);
+        return bytes.toByteArray();
+    }
+
+    static byte[] updateRecord(ProductUpdate update) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(PRODUCT_UPDATE);
+        update.writeTo(body);
+        return bytes.toByteArray();
+    }
+
+    static byte[] purchaseRecord(String storeName, String productName, int quantity) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(PURCHASE);
+        body.writeUTF(storeName);
+        body.writeUTF(productName);
+        body.writeInt(quantity);
+        return bytes.toByteArray();
+    }
+
+    static byte[] orderRecord(String storeName, List<String> productNames, List<Integer> quantities) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 32 * productNames.size());
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeByte(ORDER);
+        body.writeUTF(storeName);
+        body.writeInt(productNames.size());
+        for (int i = 0; i < productNames.size(); i++) {
+            body.writeUTF(productNames.get(i));
+            body.writeInt(quantities.get(i));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read the lines of an order record after its store name into productNames and quantities.
+     */
+    static void readOrderLines(DataInputStream body, List<String> productNames, List<Integer> quantities)
+            throws IOException {
+        int lines = body.readInt();
+        for (int i = 0; i < lines; i++) {
+            productNames.add(body.readUTF());
+            quantities.add(body.readInt());
+        }
+    }
+
+    /**
+     * @return the sequence of the last record appended so far
+     */
+    synchronized long lastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Finish the current segment and continue in a new one.
+     * @return the last sequence in the finished segments; every later record is in the new one
+     */
+    synchronized long roll() throws IOException {
+        rollRequested = true;
+        notifyAll();
+        while (rollRequested && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted rolling the write-ahead log");
+            }
+        }
+        if (rollRequested) throw failure;
+        return lastRoll;
+    }
+
+    /**
+     * Delete the finished segments, once a snapshot holds every record up to throughSequence.
+     */
+    void deleteSegmentsThrough(long throughSequence) throws IOException {
+        Path current;
+        synchronized (this) {
+            current = file;
+        }
+        for (Path segment : segments()) {
+            if (!segment.equals(current) && firstSequenceOf(segment) <= throughSequence) {
+                Files.deleteIfExists(segment);
+            }
+        }
+    }
+
+    /**
+     * Block until every record up to and including sequence is on disk.
+     */
+    synchronized void awaitDurable(long sequence) throws IOException {
+        while (durableSequence < sequence && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the write-ahead log");
+            }
+        }
+        if (durableSequence < sequence) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Append a record built by one of the record methods above.
+     * @return the record's sequence number, to pass to awaitDurable
+     */
+    synchronized long append(byte[] body) throws IOException {
+        if (failure != null) throw failure;
+        long sequence = nextSequence++;
+        CRC32 crc = new CRC32();
+        crc.update(longBytes(sequence));
+        crc.update(body);
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(8 + body.length);
+        out.writeInt((int) crc.getValue());
+        out.writeLong(sequence);
+        out.write(body);
+        notifyAll();
+        return sequence;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long batchEnd;
+            boolean rolling;
+            synchronized (this) {
+                while (durableSequence == nextSequence - 1 && !rollRequested) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                // Swap buffers so appends continue while this batch is written
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                batchEnd = nextSequence - 1;
+                rolling = rollRequested;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (FSYNC) {
+                    channel.force(false);
+                }
+                // An empty segment is reused rather than replaced by one with the same name
+                if (rolling && channel.size() > 0) {
+                    channel.close();
+                    Path next = segmentFile(batchEnd + 1);
+                    channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    synchronized (this) {
+                        file = next;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[Worker " + workerId + "] Write-ahead log failed: " + e.getMessage());
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                syncedRecords += batchEnd - durableSequence;
+                syncs++;
+                durableSequence = batchEnd;
+                batch.reset();
+                if (rolling) {
+                    lastRoll = batchEnd;
+                    rollRequested = false;
+                }
+                if (syncs % 10_000 == 0) {
+                    System.out.printf("[Worker %s] Write-ahead log: %d records in %d syncs (%.1f per sync)%n",
+                            workerId, syncedRecords, syncs, (double) syncedRecords / syncs);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // Segments of this worker, oldest first
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, segmentPrefix + "*.log")) {
+            for (Path segment : files) {
+                segments.add(segment);
+            }
+        }
+        segments.sort(Comparator.comparingLong(this::firstSequenceOf));
+        return segments;
+    }
+
+    private Path segmentFile(long firstSequence) {
+        return dir.resolve(segmentPrefix + firstSequence + ".log");
+    }
+
+    private long firstSequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(segmentPrefix.length(), name.length() - ".log".length()));
+    }
+
+    // Returns null at the end of the log or at a torn / corrupt record
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expectedCrc = in.readInt();
+            if (length <= 8 || length > (1 << 24)) return null;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue() == expectedCrc ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static byte[] longBytes(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+}